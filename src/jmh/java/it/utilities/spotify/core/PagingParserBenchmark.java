@@ -0,0 +1,52 @@
+package it.utilities.spotify.core;
+
+import com.wrapper.spotify.model_objects.specification.Paging;
+import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import java.util.concurrent.TimeUnit;
+import org.apache.hc.core5.http.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the deserialization of a full page of playlist items, as returned by Spotify, into
+ * {@link PlaylistTrack} objects, with the model of the library and with the streaming parser.<br>
+ * The page contains all the fields, so the streaming parser also pays for skipping the fields that
+ * the <code>fields</code> projection would not transfer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PagingParserBenchmark {
+
+  private String json;
+
+  @Setup
+  public void setup() {
+    this.json =
+        SyntheticPlaylists.pageJson(
+            SyntheticPlaylists.tracks(SpotifyApiWrapper.PLAYLIST_ITEMS_LIMIT, 42),
+            0,
+            SpotifyApiWrapper.PLAYLIST_ITEMS_LIMIT);
+  }
+
+  @Benchmark
+  public Paging<PlaylistTrack> playlistItemsPage() {
+    return new PlaylistTrack.JsonUtil().createModelObjectPaging(this.json);
+  }
+
+  @Benchmark
+  public Paging<PlaylistTrack> streamingPlaylistItemsPage() throws ParseException {
+    return PlaylistItemsParser.parse(this.json);
+  }
+}
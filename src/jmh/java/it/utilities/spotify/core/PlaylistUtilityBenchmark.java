@@ -0,0 +1,87 @@
+package it.utilities.spotify.core;
+
+import com.wrapper.spotify.exceptions.SpotifyWebApiException;
+import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.apache.hc.core5.http.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the duplicate detection on a whole playlist, without any request to Spotify.<br>
+ * Every invocation checks the playlist from scratch, so the incremental index kept by {@link
+ * PlaylistUtility} between the checks is not used.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(
+    value = 1,
+    jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class PlaylistUtilityBenchmark {
+
+  private static final String PLAYLIST_ID = "playlist";
+
+  @Param({"1000", "10000", "100000", "1000000"})
+  public int size;
+
+  private SpotifyApiWrapper wrapper;
+
+  @Setup
+  public void setup() {
+    this.wrapper = SyntheticPlaylists.wrapper(SyntheticPlaylists.tracks(this.size, 42));
+  }
+
+  @Benchmark
+  public List<PlaylistTrack> getDuplicatesTracksByName()
+      throws IOException, SpotifyWebApiException, ParseException {
+    return new PlaylistUtility(this.wrapper).getDuplicatesTracksByName(PLAYLIST_ID);
+  }
+
+  @Benchmark
+  public List<DuplicateGroup> getDuplicateGroupsByName()
+      throws IOException, SpotifyWebApiException, ParseException {
+    return new PlaylistUtility(this.wrapper)
+        .getDuplicateGroupsByName(PLAYLIST_ID)
+        .collect(Collectors.toList());
+  }
+
+  @Benchmark
+  public List<DuplicateGroup> titlePrefixStage()
+      throws IOException, SpotifyWebApiException, ParseException {
+    return new PlaylistUtility(this.wrapper)
+        .getDuplicateGroups(PLAYLIST_ID, new TitlePrefixStage())
+        .collect(Collectors.toList());
+  }
+
+  @Benchmark
+  public List<DuplicateGroup> minHashSimilarityStage()
+      throws IOException, SpotifyWebApiException, ParseException {
+    return new PlaylistUtility(this.wrapper)
+        .getDuplicateGroups(PLAYLIST_ID, new MinHashSimilarityStage())
+        .collect(Collectors.toList());
+  }
+
+  @Benchmark
+  public List<DuplicateGroup> exactIdsThenMinHash()
+      throws IOException, SpotifyWebApiException, ParseException {
+    return new PlaylistUtility(this.wrapper)
+        .getDuplicateGroups(
+            PLAYLIST_ID, SimilarityPipeline.withExactIds(new MinHashSimilarityStage()))
+        .collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,60 @@
+package it.utilities.spotify.core;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmark of the comparison of the titles: the normalization of a single title and the
+ * construction of the index that compares all the titles of a playlist.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(
+    value = 1,
+    jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class TitleComparisonBenchmark {
+
+  @Param({"1000", "10000", "100000", "1000000"})
+  public int size;
+
+  private String[] titles;
+
+  @Setup
+  public void setup() {
+    this.titles = SyntheticPlaylists.titles(this.size, 42);
+  }
+
+  @Benchmark
+  public void normalize(Blackhole blackhole) {
+    for (String title : this.titles) {
+      blackhole.consume(TitleKey.of(title));
+    }
+  }
+
+  @Benchmark
+  public void normalizeTitle(Blackhole blackhole) {
+    for (String title : this.titles) {
+      blackhole.consume(MinHashSimilarityStage.normalizeTitle(title));
+    }
+  }
+
+  @Benchmark
+  public List<int[]> titleIndexGroups() {
+    return new TitleIndex(this.titles).groups(2);
+  }
+}
@@ -0,0 +1,38 @@
+package it.utilities.spotify.cli;
+
+import java.awt.Desktop;
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Opens the pages in the browser of the user.<br>
+ * It is the only class of the program that uses AWT: the JVM loads it, and with it the whole
+ * toolkit, only when a page is really opened, so the batch mode and the server mode start without
+ * it. In a headless JVM, like the ones of the containers, AWT is never loaded.
+ */
+final class Browser {
+
+  private Browser() {}
+
+  /**
+   * @param uri the page to open
+   * @return <code>true</code> if the browser opened the page, <code>false</code> if the platform
+   *     has no browser or it could not open the page
+   */
+  static boolean open(URI uri) {
+    if (Boolean.getBoolean("java.awt.headless")) {
+      return false;
+    }
+
+    if (!Desktop.isDesktopSupported() || !Desktop.getDesktop().isSupported(Desktop.Action.BROWSE)) {
+      return false;
+    }
+
+    try {
+      Desktop.getDesktop().browse(uri);
+      return true;
+    } catch (IOException | UnsupportedOperationException e) {
+      return false;
+    }
+  }
+}
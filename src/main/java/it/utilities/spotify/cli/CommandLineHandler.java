@@ -1,45 +1,494 @@
 package it.utilities.spotify.cli;
 
-import com.wrapper.spotify.SpotifyApi;
 import com.wrapper.spotify.SpotifyHttpManager;
+import com.wrapper.spotify.exceptions.detailed.ForbiddenException;
+import com.wrapper.spotify.exceptions.detailed.TooManyRequestsException;
+import com.wrapper.spotify.exceptions.detailed.UnauthorizedException;
 import com.wrapper.spotify.model_objects.credentials.AuthorizationCodeCredentials;
-import com.wrapper.spotify.model_objects.specification.Paging;
 import com.wrapper.spotify.model_objects.specification.PlaylistSimplified;
-import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import it.utilities.spotify.core.DuplicateGroup;
+import it.utilities.spotify.core.DuplicateRemoval;
+import it.utilities.spotify.core.LibraryFile;
+import it.utilities.spotify.core.Metrics;
+import it.utilities.spotify.core.MinHashSimilarityStage;
+import it.utilities.spotify.core.PlaylistSnapshotCache;
 import it.utilities.spotify.core.PlaylistUtility;
+import it.utilities.spotify.core.PlaylistWatcher;
+import it.utilities.spotify.core.ResponseCache;
+import it.utilities.spotify.core.SessionRegistry;
+import it.utilities.spotify.core.SimilarityPipeline;
 import it.utilities.spotify.core.SpotifyApiWrapper;
-import java.awt.Desktop;
+import it.utilities.spotify.core.SpotifyCredentials;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Optional;
 import java.util.Scanner;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.management.JMException;
 
-/** Instances of the CommandLineHandler class provide access to methods for handling user input. */
+/**
+ * Instances of the CommandLineHandler class provide access to methods for handling user input.<br>
+ * Without arguments the program reads the commands typed by the user and prints the results as
+ * text. With arguments it runs in batch mode: the commands are taken from the arguments, from a
+ * script or from the standard input, the results are written as JSON Lines and the exit code tells
+ * whether all the commands succeeded, see {@link #runBatch(String[])}.
+ */
 public class CommandLineHandler {
 
+  /** Exit code of the commands that succeeded. */
+  public static final int EXIT_OK = 0;
+
+  /** Exit code of the commands that failed, for example for a network error. */
+  public static final int EXIT_FAILURE = 1;
+
+  /** Exit code of the unknown commands, of the syntax errors and of the invalid options. */
+  public static final int EXIT_USAGE = 2;
+
+  /** Exit code of the commands refused by Spotify because the credentials are not valid. */
+  public static final int EXIT_UNAUTHORIZED = 3;
+
+  /** Exit code of the commands refused by the rate limit of Spotify. */
+  public static final int EXIT_RATE_LIMITED = 4;
+
+  private static final String BATCH_USAGE =
+      "Usage: my-spotify-utilities [options] [command [arguments]]\n"
+          + "\tWithout arguments the commands are read interactively.\n"
+          + "\t-c, --command <command>   Run the command, can be repeated.\n"
+          + "\t-f, --file <script>       Run the commands of the script, one per line, \"-\" for the standard input.\n"
+          + "\t--keep-going              Run the following commands when one fails.\n"
+          + "\t--text                    Print the results as text instead of JSON Lines.\n"
+          + "\t--cache-ttl <seconds>     Keep the responses of Spotify for the given seconds, also for the server.\n"
+          + "\tThe exit code is 0 if all the commands succeeded, otherwise the one of the first failure: 1 error, 2 syntax error, 3 not authorized, 4 rate limited.";
+
   private boolean running = true;
+
+  /** The reader of the commands typed by the user, created by the first question. */
   private Scanner scanner;
 
-  private SpotifyApi.Builder builder;
+  /** Whether a user is typing the commands, the batch mode never asks anything. */
+  private final boolean interactive;
+
+  private final CommandOutput output;
+
+  /** The exit code of the command that is running. */
+  private volatile int status = EXIT_OK;
+
+  /**
+   * The sessions of the accounts, whose tokens are refreshed by daemon threads. It is created by
+   * the first command that uses an account, so "help" and "exit" leave no trace on the disk.
+   */
+  private SessionRegistry sessions;
+
+  /** The wrapper of the default account, registered when the sessions are created. */
+  private final SpotifyApiWrapper defaultWrapper;
+
+  /** Opens the cache of the playlists shared by the accounts, when the sessions are created. */
+  private final Supplier<PlaylistSnapshotCache> snapshotCache;
+
+  /** How long the responses of Spotify are kept by every account, zero to only merge them. */
+  private final long responseTtlSeconds;
+
+  /** The session used by the commands, with its wrapper and its utilities. */
+  private SessionRegistry.Session session;
+
   private SpotifyApiWrapper spotifyApiWrapper;
   private PlaylistUtility playlistUtility;
-  private ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(1);
+
+  /** The thread of the checks of the "watch" command, created by the first one. */
+  private ScheduledExecutorService scheduledExecutorService;
+
+  /**
+   * The metrics to export with JMX, until they are exported. The management classes take a long
+   * time to load, so the batch mode exports them only for the commands that keep running.
+   */
+  private Metrics unexportedMetrics;
+
+  /** Seconds between two checks of the watched playlists, if no other interval is given. */
+  private static final long DEFAULT_WATCH_INTERVAL_SECONDS = 60;
+
+  /** The periodic check started by the "watch" command, if it is running. */
+  private ScheduledFuture<?> watch;
+
+  /** Directory where the items of the scanned playlists are stored between the executions. */
+  private static final Path CACHE_DIRECTORY =
+      Paths.get(System.getProperty("user.home"), ".my-spotify-utilities", "playlists");
+
+  private static final long CACHE_MAX_BYTES = 256L * 1024 * 1024;
+
+  /** Port of the server started by the "serve" command, if no other port is given. */
+  private static final int DEFAULT_SERVER_PORT = 8765;
+
+  /** Directory of the exports read and written by the server, if no other directory is given. */
+  private static final Path EXPORT_DIRECTORY =
+      Paths.get(System.getProperty("user.home"), ".my-spotify-utilities", "exports");
+
+  /** The server started by the "serve" command, if it is running. */
+  private CommandServer server;
 
   public CommandLineHandler() {
-    this.scanner = new Scanner(System.in);
-    this.builder = SpotifyApi.builder();
-    this.spotifyApiWrapper = new SpotifyApiWrapper(this.builder);
-    this.playlistUtility = new PlaylistUtility(this.spotifyApiWrapper);
+    this(new TextOutput(System.out, System.err), true);
+  }
+
+  /**
+   * @param output the destination of the results
+   * @param interactive whether a user is typing the commands
+   */
+  CommandLineHandler(CommandOutput output, boolean interactive) {
+    this(output, interactive, 0);
+  }
+
+  /**
+   * @param output the destination of the results
+   * @param interactive whether a user is typing the commands
+   * @param responseTtlSeconds how long the responses of Spotify are kept for the commands and the
+   *     server, zero to only merge the identical requests in progress
+   */
+  CommandLineHandler(CommandOutput output, boolean interactive, long responseTtlSeconds) {
+    this(
+        output,
+        interactive,
+        new SpotifyApiWrapper(),
+        CommandLineHandler::openSnapshotCache,
+        responseTtlSeconds);
+
+    this.unexportedMetrics = this.defaultWrapper.getMetrics();
+    if (interactive) {
+      exportMetrics();
+    }
+  }
+
+  /**
+   * @param output the destination of the results
+   * @param interactive whether a user is typing the commands
+   * @param spotifyApiWrapper the wrapper used by the commands
+   */
+  CommandLineHandler(
+      CommandOutput output, boolean interactive, SpotifyApiWrapper spotifyApiWrapper) {
+    this(output, interactive, spotifyApiWrapper, () -> null, 0);
+  }
+
+  /**
+   * @param output the destination of the results
+   * @param interactive whether a user is typing the commands
+   * @param spotifyApiWrapper the wrapper of the default account
+   * @param snapshotCache opens the cache of the playlists shared by the accounts, or returns null
+   * @param responseTtlSeconds how long the responses of Spotify are kept by every account, zero to
+   *     keep the response cache of the wrapper
+   */
+  CommandLineHandler(
+      CommandOutput output,
+      boolean interactive,
+      SpotifyApiWrapper spotifyApiWrapper,
+      Supplier<PlaylistSnapshotCache> snapshotCache,
+      long responseTtlSeconds) {
+    this.output = output;
+    this.interactive = interactive;
+    this.defaultWrapper = spotifyApiWrapper;
+    this.snapshotCache = snapshotCache;
+    this.responseTtlSeconds = responseTtlSeconds;
+  }
+
+  /**
+   * @return the sessions of the accounts, created with the default one on the first call
+   */
+  private SessionRegistry sessions() {
+    if (this.sessions == null) {
+      final PlaylistSnapshotCache snapshotCache = this.snapshotCache.get();
+
+      this.sessions =
+          SessionRegistry.builder()
+              .setSnapshotCache(snapshotCache)
+              .setResponseTtl(this.responseTtlSeconds, TimeUnit.SECONDS)
+              .build();
+
+      if (snapshotCache != null) {
+        this.defaultWrapper.setSnapshotCache(snapshotCache);
+      }
+      if (this.responseTtlSeconds > 0) {
+        this.defaultWrapper.setResponseCache(
+            ResponseCache.builder().setTtl(this.responseTtlSeconds, TimeUnit.SECONDS).build());
+      }
+      useSession(this.sessions.register(SessionRegistry.DEFAULT_SESSION, this.defaultWrapper));
+    }
+
+    return this.sessions;
+  }
+
+  /**
+   * @return the session used by the commands
+   */
+  private SessionRegistry.Session session() {
+    sessions();
+    return this.session;
+  }
+
+  /**
+   * @return the wrapper of the session used by the commands
+   */
+  private SpotifyApiWrapper spotifyApiWrapper() {
+    sessions();
+    return this.spotifyApiWrapper;
+  }
+
+  /**
+   * @return the utilities of the session used by the commands
+   */
+  private PlaylistUtility playlistUtility() {
+    sessions();
+    return this.playlistUtility;
+  }
+
+  /**
+   * @return the cache of the playlists, or null if it cannot be used
+   */
+  private static PlaylistSnapshotCache openSnapshotCache() {
+    try {
+      return new PlaylistSnapshotCache(CACHE_DIRECTORY, CACHE_MAX_BYTES);
+    } catch (IOException e) {
+      System.err.println(
+          String.format(
+              "Unable to use the playlist cache, the playlists will always be downloaded. Error message: %s",
+              e.getMessage()));
+      return null;
+    }
+  }
+
+  /** Export the metrics of the default account with JMX, if they are not exported yet. */
+  private void exportMetrics() {
+    final Metrics metrics = this.unexportedMetrics;
+
+    if (metrics == null) {
+      return;
+    }
+
+    this.unexportedMetrics = null;
+    try {
+      metrics.register(ManagementFactory.getPlatformMBeanServer());
+    } catch (JMException e) {
+      System.err.println(
+          String.format(
+              "Unable to export the metrics with JMX, they are only shown by the \"stats\" command. Error message: %s",
+              e.getMessage()));
+    }
+  }
+
+  /**
+   * @return the reader of the commands typed by the user
+   */
+  private Scanner scanner() {
+    if (this.scanner == null) {
+      this.scanner = new Scanner(System.in);
+    }
+
+    return this.scanner;
+  }
+
+  /**
+   * @return the thread of the checks of the watched playlists
+   */
+  private ScheduledExecutorService watchExecutor() {
+    if (this.scheduledExecutorService == null) {
+      this.scheduledExecutorService =
+          Executors.newSingleThreadScheduledExecutor(
+              runnable -> {
+                // The batch mode ends when the commands end, even if a check is scheduled
+                final Thread thread = new Thread(runnable, "playlist-watch");
+                thread.setDaemon(true);
+                return thread;
+              });
+    }
+
+    return this.scheduledExecutorService;
+  }
+
+  /** Stop the threads of the watched playlists and of the sessions. */
+  private void shutdown() {
+    if (this.scheduledExecutorService != null) {
+      this.scheduledExecutorService.shutdownNow();
+    }
+    if (this.sessions != null) {
+      this.sessions.close();
+    }
+  }
+
+  /**
+   * Run the following commands with the account of a session.
+   *
+   * @param session the session of the account
+   */
+  private void useSession(SessionRegistry.Session session) {
+    this.session = session;
+    this.spotifyApiWrapper = session.getSpotifyApiWrapper();
+    this.playlistUtility = session.getPlaylistUtility();
   }
 
   public static void main(String[] args) {
-    CommandLineHandler handler = new CommandLineHandler();
-    handler.startReadingInput();
+    if (args.length == 0) {
+      CommandLineHandler handler = new CommandLineHandler();
+      handler.startReadingInput();
+    } else {
+      System.exit(runBatch(args));
+    }
+  }
+
+  /**
+   * Run the commands without asking anything to the user.<br>
+   * The commands are given with <code>-c</code>, one for each option, or are read from a script
+   * with <code>-f</code>, one for each line, where the empty lines and the lines that start with
+   * <code>#</code> are skipped. The script <code>-</code> is the standard input, read while the
+   * commands run, so the commands can be written by another program. The arguments that are not
+   * options are a single command.<br>
+   * The results are written to the standard output as JSON Lines, or as text with <code>--text
+   * </code>. The execution stops at the first command that fails, unless <code>--keep-going</code>
+   * is given. With <code>--cache-ttl</code> the responses of Spotify are kept for the given seconds,
+   * so the commands and the requests to the server that read the same pages share them.
+   *
+   * @param args the options
+   * @return the exit code of the first command that failed, or {@link #EXIT_OK}
+   */
+  public static int runBatch(String[] args) {
+    final List<String> commands = new ArrayList<>();
+    String script = null;
+    boolean keepGoing = false;
+    boolean text = false;
+    long responseTtlSeconds = 0;
+
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "-c":
+        case "--command":
+          if (i + 1 == args.length) {
+            System.err.println(BATCH_USAGE);
+            return EXIT_USAGE;
+          }
+          commands.add(args[++i]);
+          break;
+        case "-f":
+        case "--file":
+          if (i + 1 == args.length) {
+            System.err.println(BATCH_USAGE);
+            return EXIT_USAGE;
+          }
+          script = args[++i];
+          break;
+        case "--keep-going":
+          keepGoing = true;
+          break;
+        case "--text":
+          text = true;
+          break;
+        case "--cache-ttl":
+          if (i + 1 == args.length) {
+            System.err.println(BATCH_USAGE);
+            return EXIT_USAGE;
+          }
+          try {
+            responseTtlSeconds = Long.parseLong(args[++i]);
+          } catch (NumberFormatException e) {
+            responseTtlSeconds = -1;
+          }
+          if (responseTtlSeconds < 0) {
+            System.err.println(BATCH_USAGE);
+            return EXIT_USAGE;
+          }
+          break;
+        case "-h":
+        case "--help":
+          System.out.println(BATCH_USAGE);
+          return EXIT_OK;
+        default:
+          if (args[i].startsWith("-")) {
+            System.err.println(BATCH_USAGE);
+            return EXIT_USAGE;
+          }
+          commands.add(String.join(" ", List.of(args).subList(i, args.length)));
+          i = args.length;
+      }
+    }
+
+    final CommandOutput output =
+        text
+            ? new TextOutput(System.out, System.err)
+            : new JsonLinesOutput(
+                new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+    final CommandLineHandler handler = new CommandLineHandler(output, false, responseTtlSeconds);
+
+    try (BufferedReader reader =
+        script == null
+            ? null
+            : "-".equals(script)
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(script), StandardCharsets.UTF_8)) {
+      final Iterator<String> lines =
+          reader != null
+              ? Stream.concat(commands.stream(), reader.lines()).iterator()
+              : commands.iterator();
+
+      return handler.runCommands(lines, keepGoing);
+    } catch (IOException e) {
+      output.error("Unable to read the script " + script, e);
+      output.flush();
+      return EXIT_USAGE;
+    } finally {
+      handler.shutdown();
+    }
+  }
+
+  /**
+   * Run the commands one after the other.
+   *
+   * @param commands the commands, read only when the previous one ended
+   * @param keepGoing whether the following commands are run when one fails
+   * @return the exit code of the first command that failed, or {@link #EXIT_OK}
+   */
+  int runCommands(Iterator<String> commands, boolean keepGoing) {
+    int exitCode = EXIT_OK;
+
+    while (this.running && commands.hasNext()) {
+      final String command = commands.next().trim();
+
+      if (command.isEmpty() || command.startsWith("#")) {
+        continue;
+      }
+
+      final int commandStatus = execute(command);
+
+      if (commandStatus != EXIT_OK && exitCode == EXIT_OK) {
+        exitCode = commandStatus;
+      }
+      if (commandStatus != EXIT_OK && !keepGoing) {
+        break;
+      }
+    }
+
+    this.output.flush();
+    return exitCode;
   }
 
   /**
@@ -49,10 +498,65 @@ public class CommandLineHandler {
   public void startReadingInput() {
     do {
       System.out.print("Command: ");
-      handleInputCommand(scanner.nextLine());
+      handleInputCommand(scanner().nextLine());
     } while (running);
   }
 
+  /**
+   * Run a command and mark its end in the output.
+   *
+   * @param command the command with its arguments
+   * @return the exit code of the command
+   */
+  int execute(String command) {
+    final long start = System.nanoTime();
+    this.status = EXIT_OK;
+
+    handleInputCommand(command);
+
+    final int commandStatus = this.status;
+    this.output.done(command, commandStatus, System.nanoTime() - start);
+
+    return commandStatus;
+  }
+
+  /**
+   * Report a command that failed.
+   *
+   * @param text what went wrong, for the user
+   * @param e the cause of the failure
+   */
+  private void fail(String text, Exception e) {
+    this.status = exitCode(e);
+    this.output.error(text, e);
+  }
+
+  /**
+   * Report a command that was not written correctly.
+   *
+   * @param text the correct syntax, for the user
+   */
+  private void syntaxError(String text) {
+    this.status = EXIT_USAGE;
+    this.output.error(text, null);
+  }
+
+  /**
+   * @param e the cause of a failure
+   * @return the exit code that describes the failure
+   */
+  static int exitCode(Throwable e) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if (cause instanceof UnauthorizedException || cause instanceof ForbiddenException) {
+        return EXIT_UNAUTHORIZED;
+      } else if (cause instanceof TooManyRequestsException) {
+        return EXIT_RATE_LIMITED;
+      }
+    }
+
+    return EXIT_FAILURE;
+  }
+
   /**
    * Manage user input.
    *
@@ -89,12 +593,48 @@ public class CommandLineHandler {
       case "playlist-duplicate-elements":
         consumer = getPlaylistDuplicateElements();
         break;
+      case "playlist-similar-elements":
+        consumer = getPlaylistSimilarElements();
+        break;
+      case "playlist-remove-duplicates":
+        consumer = removePlaylistDuplicates();
+        break;
+      case "library-duplicate-elements":
+        consumer = getLibraryDuplicateElements();
+        break;
+      case "export-library":
+        consumer = exportLibrary();
+        break;
+      case "stats":
+        consumer = printStats();
+        break;
+      case "add-account":
+        consumer = addAccount();
+        break;
+      case "use-account":
+        consumer = useAccount();
+        break;
+      case "remove-account":
+        consumer = removeAccount();
+        break;
+      case "accounts":
+        consumer = listAccounts();
+        break;
+      case "watch":
+        consumer = watch();
+        break;
+      case "unwatch":
+        consumer = unwatch();
+        break;
+      case "serve":
+        consumer = serve();
+        break;
       case "exit":
       case "quit":
         consumer = terminateExecution();
         break;
       default:
-        System.out.println(String.format("The command \"%s\" is not recognized", command));
+        syntaxError(String.format("The command \"%s\" is not recognized", command));
         return;
     }
 
@@ -143,41 +683,52 @@ public class CommandLineHandler {
               + String.format(
                   commandFormat,
                   "playlist-duplicate-elements",
-                  "Returns all tracks that are duplicated in a playlist.")
+                  "Returns the groups of tracks that are duplicated in a playlist. If only-changed is true, returns only the groups changed since the previous check of the playlist.")
+              + String.format(
+                  commandFormat,
+                  "playlist-similar-elements",
+                  "Returns the groups of tracks with a similar title, artists and duration in a playlist. The tracks with the same ID or ISRC are grouped first. The optional threshold, between 0 and 1, is the minimum similarity of two tracks (default 0.8).")
+              + String.format(
+                  commandFormat,
+                  "playlist-remove-duplicates",
+                  "Removes the duplicated tracks of a playlist, keeping the first track of every group returned by \"playlist-duplicate-elements\". If dry-run is true, only shows the tracks that would be removed.")
+              + String.format(
+                  commandFormat,
+                  "library-duplicate-elements",
+                  "Returns the groups of tracks that are duplicated across all the playlists of the current user, with the playlist of every track. If an export file is given, the playlists are read from the file without contacting Spotify.")
+              + String.format(
+                  commandFormat,
+                  "export-library",
+                  "Saves all the playlists of the current user and their tracks to a file, that can be checked later with \"library-duplicate-elements\".")
+              + String.format(
+                  commandFormat,
+                  "stats",
+                  "Print the latency and the errors of the requests to every endpoint, the duration of the checks and the number of tracks processed.")
+              + String.format(
+                  commandFormat,
+                  "watch",
+                  "Checks the given playlists, or all the playlists of the current user, every interval-seconds (default 60) and returns the groups of tracks that receive a duplicate. Only the playlists whose snapshot changed are read again.")
+              + String.format(commandFormat, "unwatch", "Stops the checks started by \"watch\".")
+              + String.format(
+                  commandFormat,
+                  "add-account",
+                  "Adds the account of another user, given the client and the refresh token of the user. Its access token is refreshed while the program runs.")
+              + String.format(
+                  commandFormat,
+                  "use-account",
+                  "Runs the following commands with an account added with \"add-account\", or with the default one if no name is given.")
+              + String.format(commandFormat, "remove-account", "Removes an account.")
+              + String.format(
+                  commandFormat,
+                  "accounts",
+                  "Returns the accounts, with the expiration of their access token.")
+              + String.format(
+                  commandFormat,
+                  "serve",
+                  "Starts a local HTTP server that runs the checks as concurrent jobs, with the accounts of this session. The requests need the token printed at startup, and the exports are read and written only in the given directory. In batch mode the command ends when the server stops.")
               + String.format(commandFormat, "exit, quit", "Finish the execution.");
 
-      System.out.println(helpMessage);
-    };
-  }
-
-  /**
-   * Perform the Access Token Refresh operation before it expires.
-   *
-   * @param time the time from now to delay execution
-   */
-  private void scheduleRefreshTokenOperation(Integer time) {
-    this.scheduledExecutorService.schedule(refreshAccessToken(), time, TimeUnit.SECONDS);
-  }
-
-  /**
-   * Make the call to retrieve the new access token.
-   *
-   * @return
-   */
-  private Runnable refreshAccessToken() {
-    return () -> {
-      AuthorizationCodeCredentials authorizationCodeCredentials = null;
-      try {
-        authorizationCodeCredentials = this.spotifyApiWrapper.authorizationCode();
-      } catch (Exception e) {
-        System.err.println(e.getMessage());
-        System.out.println("Error while trying to retrieve access token. Please try again.");
-      }
-
-      if (authorizationCodeCredentials != null) {
-        this.builder.setAccessToken(authorizationCodeCredentials.getAccessToken());
-        scheduleRefreshTokenOperation(authorizationCodeCredentials.getExpiresIn());
-      }
+      this.output.message(helpMessage);
     };
   }
 
@@ -190,29 +741,28 @@ public class CommandLineHandler {
   private Consumer<String[]> generateAuthorizationUrl() {
     return args -> {
       if (args == null || args.length < 3) {
-        System.out.println(
+        syntaxError(
             "Syntax error. To use this command you need to pass other arguments.\nSyntax: generate-authorization-url <client-id> <client-secret> <redirect-url> [open-browser]");
       } else {
-        this.builder.setClientId(args[0]);
-        this.builder.setClientSecret(args[1]);
-        this.builder.setRedirectUri(SpotifyHttpManager.makeUri(args[2]));
+        spotifyApiWrapper()
+            .updateCredentials(
+                credentials ->
+                    credentials
+                        .withClientId(args[0])
+                        .withClientSecret(args[1])
+                        .withRedirectUri(SpotifyHttpManager.makeUri(args[2])));
 
-        URI uri = this.spotifyApiWrapper.authorizationCodeUri();
+        URI uri = spotifyApiWrapper().authorizationCodeUri();
 
         // The user can indicate whether he wants to open the browser to authenticate himself or
         // print the url only on the console.
-        boolean openBrowser = args.length <= 3 || Boolean.TRUE.toString().equalsIgnoreCase(args[3]);
+        boolean openBrowser =
+            this.interactive
+                && (args.length <= 3 || Boolean.TRUE.toString().equalsIgnoreCase(args[3]));
 
-        if (Desktop.isDesktopSupported()
-            && Desktop.getDesktop().isSupported(Desktop.Action.BROWSE)
-            && openBrowser) {
-          try {
-            Desktop.getDesktop().browse(uri);
-          } catch (IOException e) {
-            System.out.println(uri);
-          }
-        } else {
-          System.out.println(uri);
+        // AWT is loaded only here, when the browser is really opened
+        if (!openBrowser || !Browser.open(uri)) {
+          this.output.value("authorization-url", uri.toString(), uri.toString());
         }
       }
     };
@@ -226,24 +776,30 @@ public class CommandLineHandler {
   private Consumer<String[]> generateTokens() {
     return args -> {
       if (args == null || args.length < 1) {
-        System.out.println(
+        syntaxError(
             "Syntax error. To use this command you need to pass other arguments.\nSyntax: generate-tokens <code>");
       } else {
         AuthorizationCodeCredentials authorizationCodeCredentials = null;
 
         try {
-          authorizationCodeCredentials = this.spotifyApiWrapper.authorizationCode(args[0]);
+          authorizationCodeCredentials = spotifyApiWrapper().authorizationCode(args[0]);
         } catch (Exception e) {
-          System.err.println(e.getMessage());
-          System.out.println("Error while trying to retrieve access tokens. Please try again.");
+          fail("Error while trying to retrieve access tokens. Please try again.", e);
         }
 
         if (authorizationCodeCredentials != null) {
-          this.builder.setAccessToken(authorizationCodeCredentials.getAccessToken());
-          this.builder.setRefreshToken(authorizationCodeCredentials.getRefreshToken());
-          System.out.println("Refresh Token: " + authorizationCodeCredentials.getRefreshToken());
+          final String accessToken = authorizationCodeCredentials.getAccessToken();
+          final String refreshToken = authorizationCodeCredentials.getRefreshToken();
+          spotifyApiWrapper()
+              .updateCredentials(
+                  credentials ->
+                      credentials.withAccessToken(accessToken).withRefreshToken(refreshToken));
+          this.output.value("refresh-token", refreshToken, "Refresh Token: " + refreshToken);
 
-          scheduleRefreshTokenOperation(authorizationCodeCredentials.getExpiresIn());
+          // The access token is refreshed before it expires
+          sessions()
+              .scheduleRefresh(
+                  session(), authorizationCodeCredentials.getExpiresIn(), TimeUnit.SECONDS);
         }
       }
     };
@@ -257,11 +813,16 @@ public class CommandLineHandler {
   private Consumer<String[]> useRefreshToken() {
     return args -> {
       if (args == null || args.length < 1) {
-        System.out.println(
+        syntaxError(
             "Syntax error. To use this command you need to pass other arguments.\nSyntax: use-refresh-token <refresh-code>");
       } else {
-        this.builder.setRefreshToken(args[0]);
-        refreshAccessToken().run();
+        spotifyApiWrapper().updateCredentials(credentials -> credentials.withRefreshToken(args[0]));
+
+        try {
+          sessions().refresh(session());
+        } catch (Exception e) {
+          fail("Error while trying to retrieve access token. Please try again.", e);
+        }
       }
     };
   }
@@ -273,20 +834,18 @@ public class CommandLineHandler {
    */
   private Consumer<String[]> getUserPlaylists() {
     return args -> {
-      Paging<PlaylistSimplified> playlists = null;
-      try {
-        playlists = this.spotifyApiWrapper.getListOfCurrentUsersPlaylists();
+      List<PlaylistSimplified> playlists = null;
+      try (Stream<PlaylistSimplified> stream = spotifyApiWrapper().getAllCurrentUsersPlaylists()) {
+        playlists = stream.collect(Collectors.toList());
       } catch (Exception e) {
-        System.err.println(
-            String.format(
-                "Error while trying to retrieve user playlists. Error message: %s",
-                e.getMessage()));
+        fail("Error while trying to retrieve user playlists. Please try again.", e);
+        return;
       }
 
-      if (playlists != null && playlists.getItems() != null && playlists.getItems().length > 0) {
-        Arrays.stream(playlists.getItems()).forEach(System.out::println);
+      if (!playlists.isEmpty()) {
+        playlists.forEach(this.output::playlist);
       } else {
-        System.out.println("Nothing to show");
+        this.output.empty("Nothing to show");
       }
     };
   }
@@ -299,23 +858,465 @@ public class CommandLineHandler {
   private Consumer<String[]> getPlaylistDuplicateElements() {
     return args -> {
       if (args == null || args.length < 1) {
-        System.out.println(
-            "Syntax error. To use this command you need to pass other arguments.\nSyntax: playlist-duplicate-elements <playlist-id>");
+        syntaxError(
+            "Syntax error. To use this command you need to pass other arguments.\nSyntax: playlist-duplicate-elements <playlist-id> [only-changed]");
       } else {
-        List<PlaylistTrack> tracks = null;
+        // The user can indicate whether he wants to see only the groups changed since the
+        // previous check of the same playlist.
+        boolean onlyChanged = args.length > 1 && Boolean.TRUE.toString().equalsIgnoreCase(args[1]);
+        Stream<DuplicateGroup> groups = null;
 
         try {
-          tracks = this.playlistUtility.getDuplicatesTracksByName(args[0]);
+          groups =
+              onlyChanged
+                  ? playlistUtility().getUpdatedDuplicateGroupsByName(args[0])
+                  : playlistUtility().getDuplicateGroupsByName(args[0]);
         } catch (Exception e) {
-          System.err.println(e.getMessage());
-          System.out.println("Error while trying to retrieve playlist elements. Please try again.");
+          fail("Error while trying to retrieve playlist elements. Please try again.", e);
         }
 
-        if (tracks != null && !tracks.isEmpty()) {
-          tracks.forEach(System.out::println);
+        final Iterator<DuplicateGroup> iterator =
+            groups != null ? groups.iterator() : Collections.emptyIterator();
+
+        if (iterator.hasNext()) {
+          iterator.forEachRemaining(this.output::group);
         } else {
-          System.out.println("Nothing to show");
+          this.output.empty("Nothing to show");
+        }
+      }
+    };
+  }
+
+  /**
+   * Recover similar tracks for a specific playlist.
+   *
+   * @return
+   */
+  private Consumer<String[]> getPlaylistSimilarElements() {
+    return args -> {
+      if (args == null || args.length < 1) {
+        syntaxError(
+            "Syntax error. To use this command you need to pass other arguments.\nSyntax: playlist-similar-elements <playlist-id> [threshold]");
+        return;
+      }
+
+      final MinHashSimilarityStage stage;
+      try {
+        stage =
+            args.length > 1
+                ? new MinHashSimilarityStage(Double.parseDouble(args[1]))
+                : new MinHashSimilarityStage();
+      } catch (IllegalArgumentException e) {
+        syntaxError(
+            "Syntax error. The threshold must be a number between 0 and 1.\nSyntax: playlist-similar-elements <playlist-id> [threshold]");
+        return;
+      }
+
+      Stream<DuplicateGroup> groups = null;
+
+      try {
+        // The tracks with the same ID or ISRC are grouped before the titles are compared
+        groups =
+            playlistUtility().getDuplicateGroups(args[0], SimilarityPipeline.withExactIds(stage));
+      } catch (Exception e) {
+        fail("Error while trying to retrieve playlist elements. Please try again.", e);
+      }
+
+      final Iterator<DuplicateGroup> iterator =
+          groups != null ? groups.iterator() : Collections.emptyIterator();
+
+      if (iterator.hasNext()) {
+        iterator.forEachRemaining(this.output::group);
+      } else {
+        this.output.empty("Nothing to show");
+      }
+    };
+  }
+
+  /**
+   * Remove the duplicate tracks of a specific playlist.
+   *
+   * @return
+   */
+  private Consumer<String[]> removePlaylistDuplicates() {
+    return args -> {
+      if (args == null || args.length < 1) {
+        syntaxError(
+            "Syntax error. To use this command you need to pass other arguments.\nSyntax: playlist-remove-duplicates <playlist-id> [dry-run]");
+        return;
+      }
+
+      // The user can check which tracks would be removed before removing them
+      boolean dryRun = args.length > 1 && Boolean.TRUE.toString().equalsIgnoreCase(args[1]);
+      DuplicateRemoval removal = null;
+
+      try {
+        removal = playlistUtility().removeDuplicateTracksByName(args[0], dryRun);
+      } catch (Exception e) {
+        fail(
+            "Error while trying to remove the duplicated elements. Please check the playlist and try again.",
+            e);
+      }
+
+      if (removal != null && removal.size() > 0) {
+        this.output.removal(removal);
+      } else if (removal != null) {
+        this.output.empty("Nothing to remove");
+      }
+    };
+  }
+
+  /**
+   * Recover duplicate tracks across all the playlists of the current user.
+   *
+   * @return
+   */
+  private Consumer<String[]> getLibraryDuplicateElements() {
+    return args -> {
+      Stream<DuplicateGroup> groups = null;
+
+      try {
+        // The user can check an export of the library instead of the current playlists
+        groups =
+            args != null && args.length > 0
+                ? playlistUtility()
+                    .getLibraryDuplicateGroupsByName(LibraryFile.open(Paths.get(args[0])))
+                : playlistUtility().getLibraryDuplicateGroupsByName();
+      } catch (Exception e) {
+        fail("Error while trying to retrieve the library elements. Please try again.", e);
+      }
+
+      final Iterator<DuplicateGroup> iterator =
+          groups != null ? groups.iterator() : Collections.emptyIterator();
+
+      if (iterator.hasNext()) {
+        iterator.forEachRemaining(this.output::group);
+      } else {
+        this.output.empty("Nothing to show");
+      }
+    };
+  }
+
+  /**
+   * Save all the playlists of the current user to a file.
+   *
+   * @return
+   */
+  private Consumer<String[]> exportLibrary() {
+    return args -> {
+      if (args == null || args.length < 1) {
+        syntaxError(
+            "Syntax error. To use this command you need to pass other arguments.\nSyntax: export-library <file>");
+        return;
+      }
+
+      try {
+        this.output.export(playlistUtility().exportLibrary(Paths.get(args[0])));
+      } catch (Exception e) {
+        fail("Error while trying to export the library. Please try again.", e);
+      }
+    };
+  }
+
+  /**
+   * Print the metrics collected since the start of the program.
+   *
+   * @return
+   */
+  private Consumer<String[]> printStats() {
+    return args -> {
+      this.output.stats(spotifyApiWrapper().getMetrics(), spotifyApiWrapper().getResponseCache());
+    };
+  }
+
+  /**
+   * Check some playlists periodically and report the duplicates added since the previous check. In
+   * batch mode the command ends only when the process is terminated.
+   *
+   * @return
+   */
+  private Consumer<String[]> watch() {
+    return args -> {
+      if (this.watch != null) {
+        fail("The playlists are already watched, use \"unwatch\" to stop", null);
+        return;
+      }
+
+      final long interval;
+      try {
+        interval = args.length > 0 ? Long.parseLong(args[0]) : DEFAULT_WATCH_INTERVAL_SECONDS;
+      } catch (NumberFormatException e) {
+        syntaxError(
+            "Syntax error. The interval must be a number of seconds.\nSyntax: watch [interval-seconds] [playlist-id...]");
+        return;
+      }
+
+      if (interval < 1) {
+        syntaxError(
+            "Syntax error. The interval must be at least one second.\nSyntax: watch [interval-seconds] [playlist-id...]");
+        return;
+      }
+
+      // Without IDs all the playlists of the user are watched
+      final PlaylistWatcher watcher =
+          new PlaylistWatcher(
+              spotifyApiWrapper(),
+              playlistUtility(),
+              new LinkedHashSet<>(
+                  Arrays.asList(args).subList(Math.min(1, args.length), args.length)));
+
+      // The first check records the current state of the playlists
+      try {
+        watcher.check();
+      } catch (Exception e) {
+        fail("Error while trying to retrieve the playlists to watch. Please try again.", e);
+        return;
+      }
+
+      this.output.value(
+          "watch",
+          Integer.toString(watcher.getWatchedCount()),
+          String.format(
+              "Watching %d playlists every %d seconds, use \"unwatch\" to stop",
+              watcher.getWatchedCount(), interval));
+      this.output.flush();
+
+      // The checks keep running, so they can be monitored
+      exportMetrics();
+      final ScheduledFuture<?> checks =
+          watchExecutor()
+              .scheduleWithFixedDelay(
+                  () -> checkWatched(watcher), interval, interval, TimeUnit.SECONDS);
+      this.watch = checks;
+
+      if (!this.interactive) {
+        // The batch ends when the process is terminated, after the check in progress
+        final Thread hook = new Thread(() -> checks.cancel(false));
+        Runtime.getRuntime().addShutdownHook(hook);
+
+        try {
+          checks.get();
+        } catch (CancellationException | ExecutionException e) {
+          // The checks never fail, they are only cancelled
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          checks.cancel(false);
         }
+
+        try {
+          Runtime.getRuntime().removeShutdownHook(hook);
+        } catch (IllegalStateException e) {
+          // The process is already stopping
+        }
+
+        this.watch = null;
+      }
+    };
+  }
+
+  /**
+   * Report the duplicates added to the watched playlists since the previous check.
+   *
+   * @param watcher the watched playlists
+   */
+  private void checkWatched(PlaylistWatcher watcher) {
+    try {
+      watcher.check().forEach(this.output::group);
+    } catch (Exception e) {
+      // The following check tries again
+      this.output.error(
+          "Error while trying to check the watched playlists. They will be checked again.", e);
+    }
+
+    this.output.flush();
+  }
+
+  /**
+   * Stop the checks started by "watch".
+   *
+   * @return
+   */
+  private Consumer<String[]> unwatch() {
+    return args -> {
+      if (this.watch == null) {
+        fail("No playlist is watched", null);
+        return;
+      }
+
+      this.watch.cancel(false);
+      this.watch = null;
+      this.output.message("Stopped watching the playlists");
+    };
+  }
+
+  /**
+   * Add the account of another user, given its client and its refresh token. The access token is
+   * requested immediately and refreshed while the program runs.
+   *
+   * @return
+   */
+  private Consumer<String[]> addAccount() {
+    return args -> {
+      if (args == null || args.length < 4) {
+        syntaxError(
+            "Syntax error. To use this command you need to pass other arguments.\nSyntax: add-account <name> <client-id> <client-secret> <refresh-token>");
+        return;
+      }
+
+      final SessionRegistry.Session added;
+      try {
+        added =
+            sessions()
+                .open(
+                    args[0],
+                    SpotifyCredentials.empty()
+                        .withClientId(args[1])
+                        .withClientSecret(args[2])
+                        .withRefreshToken(args[3]));
+      } catch (IllegalArgumentException e) {
+        fail("The account " + args[0] + " already exists", null);
+        return;
+      }
+
+      try {
+        sessions().refresh(added);
+      } catch (Exception e) {
+        sessions().remove(args[0]);
+        fail(
+            "Error while trying to retrieve the access token of the account. Please try again.", e);
+        return;
+      }
+
+      this.output.value("account", args[0], "Added the account " + args[0]);
+    };
+  }
+
+  /**
+   * Run the following commands with another account.
+   *
+   * @return
+   */
+  private Consumer<String[]> useAccount() {
+    return args -> {
+      final String name = args.length > 0 ? args[0] : SessionRegistry.DEFAULT_SESSION;
+      final Optional<SessionRegistry.Session> found = sessions().get(name);
+
+      if (found.isEmpty()) {
+        fail("The account " + name + " does not exist", null);
+        return;
+      }
+
+      useSession(found.get());
+      this.output.value("account", name, "Using the account " + name);
+    };
+  }
+
+  /**
+   * Remove an account added with "add-account".
+   *
+   * @return
+   */
+  private Consumer<String[]> removeAccount() {
+    return args -> {
+      if (args == null || args.length < 1) {
+        syntaxError(
+            "Syntax error. To use this command you need to pass other arguments.\nSyntax: remove-account <name>");
+      } else if (SessionRegistry.DEFAULT_SESSION.equals(args[0])) {
+        fail("The default account cannot be removed", null);
+      } else if (!sessions().remove(args[0])) {
+        fail("The account " + args[0] + " does not exist", null);
+      } else {
+        if (session().getName().equals(args[0])) {
+          useSession(sessions().get(SessionRegistry.DEFAULT_SESSION).orElseThrow());
+        }
+        this.output.value("account", args[0], "Removed the account " + args[0]);
+      }
+    };
+  }
+
+  /**
+   * Print the accounts, with the expiration of their access token.
+   *
+   * @return
+   */
+  private Consumer<String[]> listAccounts() {
+    return args -> {
+      for (SessionRegistry.Session account : sessions().getSessions()) {
+        this.output.account(account, account == session());
+      }
+    };
+  }
+
+  /**
+   * Start the local HTTP server, that shares the accounts and the authentication of this session.
+   *
+   * @return
+   */
+  private Consumer<String[]> serve() {
+    return args -> {
+      if (this.server != null) {
+        fail("The server is already running on " + this.server.getAddress(), null);
+        return;
+      }
+
+      final int port;
+      final int threads;
+      try {
+        port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SERVER_PORT;
+        threads =
+            args.length > 1
+                ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+      } catch (NumberFormatException e) {
+        syntaxError(
+            "Syntax error. The port and the number of threads must be numbers.\nSyntax: serve [port] [threads] [export-directory]");
+        return;
+      }
+
+      final CommandServer commandServer;
+      try {
+        // Only the programs of this machine can use the authentication of the user
+        commandServer =
+            new CommandServer(
+                sessions(),
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+                threads,
+                args.length > 2 ? Paths.get(args[2]) : EXPORT_DIRECTORY);
+      } catch (IOException | IllegalArgumentException e) {
+        fail("Error while trying to start the server. Please check the port and try again.", e);
+        return;
+      }
+
+      commandServer.start();
+      this.server = commandServer;
+      exportMetrics();
+
+      final String url =
+          String.format(
+              "http://%s:%d",
+              commandServer.getAddress().getHostString(), commandServer.getAddress().getPort());
+      this.output.value("server", url, "Listening on " + url + ", the server stops at the exit");
+      this.output.value(
+          "token",
+          commandServer.getToken(),
+          "Send the header \"Authorization: Bearer "
+              + commandServer.getToken()
+              + "\" with every request. The exports are in "
+              + commandServer.getExportDirectory());
+
+      if (!this.interactive) {
+        // The batch ends when a client stops the server or the process is terminated
+        this.output.flush();
+        Runtime.getRuntime().addShutdownHook(new Thread(commandServer::stop));
+
+        try {
+          commandServer.awaitStop();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          commandServer.stop();
+        }
+
+        this.server = null;
       }
     };
   }
@@ -327,14 +1328,23 @@ public class CommandLineHandler {
    */
   private Consumer<String[]> terminateExecution() {
     return args -> {
+      if (!this.interactive) {
+        // The following commands of the batch are not run
+        running = false;
+        return;
+      }
+
       System.out.print(
           "Are you sure you want to end the session? If you want to open another one you have to re-authenticate. (Y/N) ");
-      String answer = scanner.nextLine();
+      String answer = scanner().nextLine();
 
       if (answer.equalsIgnoreCase("Y")) {
-        this.scheduledExecutorService.shutdownNow();
+        shutdown();
+        if (this.server != null) {
+          this.server.stop();
+        }
         running = false;
-        System.out.println("Terminated");
+        this.output.message("Terminated");
       }
     };
   }
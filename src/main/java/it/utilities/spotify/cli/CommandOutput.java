@@ -0,0 +1,69 @@
+package it.utilities.spotify.cli;
+
+import com.wrapper.spotify.model_objects.specification.PlaylistSimplified;
+import it.utilities.spotify.core.DuplicateGroup;
+import it.utilities.spotify.core.DuplicateRemoval;
+import it.utilities.spotify.core.LibraryFile;
+import it.utilities.spotify.core.Metrics;
+import it.utilities.spotify.core.ResponseCache;
+import it.utilities.spotify.core.SessionRegistry;
+
+/**
+ * Destination of the results of the commands.<br>
+ * The interactive session prints them as text for the user, the batch mode writes them as JSON
+ * Lines for the programs that read them. The implementations are thread-safe, so the results can be
+ * written by more threads.
+ */
+interface CommandOutput {
+
+  /**
+   * @param text a message for the user, like the manual
+   */
+  void message(String text);
+
+  /**
+   * @param type the name of the value
+   * @param value the value returned by the command
+   * @param text the value described for the user
+   */
+  void value(String type, String value, String text);
+
+  /**
+   * @param text the message that tells the user that the command returned nothing
+   */
+  void empty(String text);
+
+  void playlist(PlaylistSimplified playlist);
+
+  void group(DuplicateGroup group);
+
+  void removal(DuplicateRemoval removal);
+
+  void export(LibraryFile library);
+
+  /**
+   * @param session the session of an account
+   * @param current whether the commands use the account
+   */
+  void account(SessionRegistry.Session session, boolean current);
+
+  void stats(Metrics metrics, ResponseCache responseCache);
+
+  /**
+   * @param text what went wrong, for the user
+   * @param e the cause of the error, or null for the syntax errors
+   */
+  void error(String text, Exception e);
+
+  /**
+   * Mark the end of a command.
+   *
+   * @param command the command as it was written
+   * @param status the exit code of the command
+   * @param nanos the time taken by the command
+   */
+  void done(String command, int status, long nanos);
+
+  /** Write the buffered results. */
+  void flush();
+}
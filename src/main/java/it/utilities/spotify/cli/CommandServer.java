@@ -0,0 +1,704 @@
+package it.utilities.spotify.cli;
+
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.wrapper.spotify.model_objects.specification.PlaylistSimplified;
+import it.utilities.spotify.core.DuplicateGroup;
+import it.utilities.spotify.core.LibraryFile;
+import it.utilities.spotify.core.MinHashSimilarityStage;
+import it.utilities.spotify.core.PlaylistUtility;
+import it.utilities.spotify.core.SessionRegistry;
+import it.utilities.spotify.core.SimilarityPipeline;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Instances of the CommandServer class expose the utilities over a local HTTP API, so a program can
+ * use them without starting the JVM and authenticating again for every command.<br>
+ * The scans and the removals run as jobs on a bounded pool and share the accounts of the command
+ * line, with their caches and their refreshed credentials. Every request uses the default account,
+ * or the one given by the <code>account</code> parameter, so the jobs of many accounts can run at
+ * the same time, each one within the rate limit of its account. Every job writes its results as
+ * JSON Lines, the same of the batch mode, and the clients can poll the state of the job or stream
+ * its results while they are produced.
+ *
+ * <ul>
+ *   <li><code>GET /playlists</code>: the playlists of the current user
+ *   <li><code>POST /playlists/{id}/duplicates[?onlyChanged=true]</code>: start a scan of a playlist
+ *   <li><code>POST /playlists/{id}/similar[?threshold=0.8]</code>: start a similarity scan
+ *   <li><code>POST /playlists/{id}/remove-duplicates[?dryRun=true]</code>: start a removal
+ *   <li><code>POST /library/duplicates[?file=export]</code>: start a scan of the whole library, or
+ *       of an export of it
+ *   <li><code>POST /library/export?file=export</code>: start an export of the library
+ *   <li><code>GET /jobs</code>, <code>GET /jobs/{id}</code>: the state of the jobs
+ *   <li><code>GET /jobs/{id}/results[?from=0&amp;follow=true]</code>: the results of a job, with
+ *       <code>follow</code> the response ends only when the job ends
+ *   <li><code>DELETE /jobs/{id}</code>: cancel a job
+ *   <li><code>GET /stats</code>: the metrics of the requests
+ *   <li><code>POST /shutdown</code>: stop the server
+ * </ul>
+ *
+ * The requests about the playlists, the library and the stats accept the <code>account</code>
+ * parameter, with the name given to <code>add-account</code>.<br>
+ * The changes returned with <code>onlyChanged=true</code> are the ones since the previous check of
+ * the playlist by the same account, made by any client: the server expects a single consumer of
+ * the changes of every playlist, and two clients that check the same playlist see each one only
+ * the changes since the check of the other.
+ *
+ * <p>The server listens only on the given address, that should be the loopback one, because the API
+ * acts on behalf of the authenticated user. Every request must also carry the token generated at
+ * startup, in the header <code>Authorization: Bearer {token}</code>. The requests with an <code>
+ * Origin</code> header or whose <code>Host</code> is not a loopback one are refused, so a web page
+ * cannot use the API through the browser of the user, not even by rebinding its domain to the
+ * loopback address. The files of the exports are read and written only in the export directory.
+ */
+final class CommandServer {
+
+  /** Number of jobs that can wait for a thread, the following ones are refused. */
+  static final int MAX_QUEUED_JOBS = 64;
+
+  /** Number of ended jobs kept for the clients, the oldest are removed first. */
+  static final int MAX_ENDED_JOBS = 100;
+
+  private static final String NDJSON = "application/x-ndjson";
+  private static final long FOLLOW_WAIT_SECONDS = 1;
+  private static final int TOKEN_BYTES = 32;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CommandServer.class);
+
+  private final SessionRegistry sessions;
+  private final String token;
+  private final Path exportDirectory;
+  private final HttpServer server;
+  private final ThreadPoolExecutor jobExecutor;
+  private final ExecutorService httpExecutor;
+  private final AtomicInteger jobIds = new AtomicInteger();
+  private final CountDownLatch stopped = new CountDownLatch(1);
+
+  /** The jobs by ID, in creation order, guarded by this. */
+  private final Map<String, ServerJob> jobs = new LinkedHashMap<>();
+
+  /**
+   * @param sessions the accounts used by the jobs, with the indexes of their playlists
+   * @param address the address to listen on
+   * @param threads the maximum number of jobs that run at the same time
+   * @param exportDirectory the directory of the files of the exports, created if it does not exist
+   * @throws IOException if the server cannot listen on the address or the directory cannot be
+   *     created
+   */
+  CommandServer(
+      SessionRegistry sessions, InetSocketAddress address, int threads, Path exportDirectory)
+      throws IOException {
+    if (threads < 1) {
+      throw new IllegalArgumentException("At least one thread is needed, not " + threads);
+    }
+
+    this.sessions = sessions;
+    this.token = newToken();
+    this.exportDirectory = Files.createDirectories(exportDirectory).toRealPath();
+    this.jobExecutor =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED_JOBS),
+            daemonThreads("server-job"));
+    // The streams of the results keep a thread until the job ends
+    this.httpExecutor = Executors.newCachedThreadPool(daemonThreads("server-http"));
+
+    this.server = HttpServer.create(address, 0);
+    this.server.createContext("/", this::handle);
+    this.server.setExecutor(this.httpExecutor);
+  }
+
+  void start() {
+    this.server.start();
+  }
+
+  /**
+   * @return the address the server listens on, with the actual port
+   */
+  InetSocketAddress getAddress() {
+    return this.server.getAddress();
+  }
+
+  /**
+   * @return the token that the clients send as <code>Authorization: Bearer {token}</code>
+   */
+  String getToken() {
+    return this.token;
+  }
+
+  /**
+   * @return the directory where the files of the exports are read and written
+   */
+  Path getExportDirectory() {
+    return this.exportDirectory;
+  }
+
+  /** Stop the server and cancel the jobs that are running. */
+  void stop() {
+    if (this.stopped.getCount() == 0) {
+      return;
+    }
+
+    this.stopped.countDown();
+    // The responses in progress, like the one of a shutdown request, can end
+    this.server.stop(1);
+    this.jobExecutor.shutdownNow();
+    this.httpExecutor.shutdownNow();
+
+    synchronized (this) {
+      this.jobs.values().forEach(ServerJob::cancel);
+    }
+  }
+
+  /**
+   * Wait until the server is stopped, by {@link #stop()} or by a client.
+   *
+   * @throws InterruptedException if the thread is interrupted while it waits
+   */
+  void awaitStop() throws InterruptedException {
+    this.stopped.await();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      if (exchange.getRequestHeaders().containsKey("Origin")
+          || !isLoopback(exchange.getRequestHeaders().getFirst("Host"))) {
+        respondError(exchange, 403, "Only the local programs can use the server");
+        return;
+      }
+
+      if (!isAuthorized(exchange.getRequestHeaders().getFirst("Authorization"))) {
+        exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+        respondError(exchange, 401, "The token of the server is missing or wrong");
+        return;
+      }
+
+      final String method = exchange.getRequestMethod();
+      final String[] path = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/");
+      final Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+      final String account = query.getOrDefault("account", SessionRegistry.DEFAULT_SESSION);
+      final SessionRegistry.Session session = this.sessions.get(account).orElse(null);
+
+      if (session == null && !path[0].equals("jobs") && !path[0].equals("shutdown")) {
+        respondError(exchange, 404, "Unknown account " + account);
+      } else if (path.length == 1 && "playlists".equals(path[0]) && "GET".equals(method)) {
+        listPlaylists(exchange, session);
+      } else if (path.length == 3 && "playlists".equals(path[0]) && "POST".equals(method)) {
+        submitPlaylistJob(exchange, session, path[1], path[2], query);
+      } else if (path.length == 2 && "library".equals(path[0]) && "POST".equals(method)) {
+        submitLibraryJob(exchange, session, path[1], query);
+      } else if (path.length == 1 && "jobs".equals(path[0]) && "GET".equals(method)) {
+        listJobs(exchange);
+      } else if (path.length >= 2 && path.length <= 3 && "jobs".equals(path[0])) {
+        handleJob(exchange, method, path, query);
+      } else if (path.length == 1 && "stats".equals(path[0]) && "GET".equals(method)) {
+        final Writer body = ndjson(exchange, 200);
+        new JsonLinesOutput(body)
+            .stats(
+                session.getSpotifyApiWrapper().getMetrics(),
+                session.getSpotifyApiWrapper().getResponseCache());
+        body.flush();
+      } else if (path.length == 1 && "shutdown".equals(path[0]) && "POST".equals(method)) {
+        respondError(exchange, 202, "The server is stopping");
+        // The response is sent before the server stops
+        this.httpExecutor.execute(this::stop);
+      } else {
+        respondError(exchange, 404, "Unknown request " + method + " " + exchange.getRequestURI());
+      }
+    } catch (RuntimeException e) {
+      LOGGER.error("Unable to handle the request {}", exchange.getRequestURI().getPath(), e);
+
+      // The status cannot change once the response has started
+      if (exchange.getResponseCode() < 0) {
+        respondError(exchange, 500, "Internal server error");
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void listPlaylists(HttpExchange exchange, SessionRegistry.Session session)
+      throws IOException {
+    final List<PlaylistSimplified> playlists;
+
+    try (Stream<PlaylistSimplified> stream =
+        session.getSpotifyApiWrapper().getAllCurrentUsersPlaylists()) {
+      playlists = stream.collect(Collectors.toList());
+    } catch (Exception e) {
+      respondError(exchange, httpStatus(CommandLineHandler.exitCode(e)), e.getMessage());
+      return;
+    }
+
+    final Writer body = ndjson(exchange, 200);
+    final JsonLinesOutput output = new JsonLinesOutput(body);
+    playlists.forEach(output::playlist);
+    body.flush();
+  }
+
+  private void submitPlaylistJob(
+      HttpExchange exchange,
+      SessionRegistry.Session session,
+      String playListId,
+      String action,
+      Map<String, String> query)
+      throws IOException {
+    final PlaylistUtility playlistUtility = session.getPlaylistUtility();
+
+    switch (action) {
+      case "duplicates":
+        final boolean onlyChanged = Boolean.parseBoolean(query.get("onlyChanged"));
+        submit(
+            exchange,
+            session,
+            "playlist-duplicate-elements " + playListId + " " + onlyChanged,
+            output -> {
+              try (Stream<DuplicateGroup> groups =
+                  onlyChanged
+                      ? playlistUtility.getUpdatedDuplicateGroupsByName(playListId)
+                      : playlistUtility.getDuplicateGroupsByName(playListId)) {
+                groups.forEach(output::group);
+              }
+            });
+        break;
+      case "similar":
+        final MinHashSimilarityStage stage;
+        try {
+          stage =
+              query.containsKey("threshold")
+                  ? new MinHashSimilarityStage(Double.parseDouble(query.get("threshold")))
+                  : new MinHashSimilarityStage();
+        } catch (IllegalArgumentException e) {
+          respondError(exchange, 400, "The threshold must be a number between 0 and 1");
+          return;
+        }
+        submit(
+            exchange,
+            session,
+            "playlist-similar-elements " + playListId,
+            output -> {
+              try (Stream<DuplicateGroup> groups =
+                  playlistUtility.getDuplicateGroups(
+                      playListId, SimilarityPipeline.withExactIds(stage))) {
+                groups.forEach(output::group);
+              }
+            });
+        break;
+      case "remove-duplicates":
+        final boolean dryRun = Boolean.parseBoolean(query.get("dryRun"));
+        submit(
+            exchange,
+            session,
+            "playlist-remove-duplicates " + playListId + " " + dryRun,
+            output ->
+                output.removal(playlistUtility.removeDuplicateTracksByName(playListId, dryRun)));
+        break;
+      default:
+        respondError(exchange, 404, "Unknown playlist action " + action);
+    }
+  }
+
+  private void submitLibraryJob(
+      HttpExchange exchange,
+      SessionRegistry.Session session,
+      String action,
+      Map<String, String> query)
+      throws IOException {
+    final PlaylistUtility playlistUtility = session.getPlaylistUtility();
+    final String file = query.get("file");
+    final Path path = file != null ? exportFile(file) : null;
+
+    if (file != null && path == null) {
+      respondError(
+          exchange, 400, "The file of the export must be in the directory " + this.exportDirectory);
+    } else if ("duplicates".equals(action)) {
+      submit(
+          exchange,
+          session,
+          "library-duplicate-elements" + (file != null ? " " + file : ""),
+          output -> {
+            try (Stream<DuplicateGroup> groups =
+                path != null
+                    ? playlistUtility.getLibraryDuplicateGroupsByName(LibraryFile.open(path))
+                    : playlistUtility.getLibraryDuplicateGroupsByName()) {
+              groups.forEach(output::group);
+            }
+          });
+    } else if ("export".equals(action) && path != null) {
+      submit(
+          exchange,
+          session,
+          "export-library " + file,
+          output -> output.export(playlistUtility.exportLibrary(path)));
+    } else if ("export".equals(action)) {
+      respondError(exchange, 400, "The file of the export is missing");
+    } else {
+      respondError(exchange, 404, "Unknown library action " + action);
+    }
+  }
+
+  /**
+   * @param file the file of an export, relative to the export directory
+   * @return the file in the export directory, or null if it is outside of it, also through a
+   *     symbolic link
+   */
+  private Path exportFile(String file) {
+    try {
+      final Path path = this.exportDirectory.resolve(file).normalize();
+      final Path parent = path.getParent();
+
+      if (parent == null
+          || !path.startsWith(this.exportDirectory)
+          || !Files.isDirectory(parent)
+          || !parent.toRealPath().startsWith(this.exportDirectory)
+          || (Files.exists(path) && !path.toRealPath().startsWith(this.exportDirectory))) {
+        return null;
+      }
+
+      return path;
+    } catch (InvalidPathException | IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @param authorization the <code>Authorization</code> header of a request
+   * @return true if the header carries the token of the server
+   */
+  private boolean isAuthorized(String authorization) {
+    final String prefix = "Bearer ";
+
+    return authorization != null
+        && authorization.regionMatches(true, 0, prefix, 0, prefix.length())
+        && MessageDigest.isEqual(
+            authorization.substring(prefix.length()).trim().getBytes(StandardCharsets.UTF_8),
+            this.token.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * @param host the <code>Host</code> header of a request
+   * @return true if the host is <code>localhost</code> or a loopback address, with any port. The
+   *     names are not resolved.
+   */
+  static boolean isLoopback(String host) {
+    if (host == null) {
+      return false;
+    }
+
+    String name = host.trim();
+    final boolean literal;
+
+    if (name.startsWith("[")) {
+      // IPv6 address, with an optional port after the bracket
+      final int end = name.indexOf(']');
+      if (end < 0) {
+        return false;
+      }
+      name = name.substring(1, end);
+      literal = name.indexOf(':') >= 0 && name.matches("[0-9a-fA-F:.]+");
+    } else {
+      if (name.indexOf(':') >= 0) {
+        name = name.substring(0, name.indexOf(':'));
+      }
+      literal = name.matches("\\d{1,3}(\\.\\d{1,3}){3}");
+    }
+
+    if ("localhost".equalsIgnoreCase(name)) {
+      return true;
+    }
+
+    // Only the literal addresses, any other name could be rebound to another address
+    if (!literal) {
+      return false;
+    }
+
+    try {
+      return InetAddress.getByName(name).isLoopbackAddress();
+    } catch (UnknownHostException e) {
+      return false;
+    }
+  }
+
+  private void handleJob(
+      HttpExchange exchange, String method, String[] path, Map<String, String> query)
+      throws IOException {
+    final ServerJob job;
+    synchronized (this) {
+      job = this.jobs.get(path[1]);
+    }
+
+    if (job == null) {
+      respondError(exchange, 404, "Unknown job " + path[1]);
+    } else if (path.length == 2 && "GET".equals(method)) {
+      respondJob(exchange, 200, job);
+    } else if (path.length == 2 && "DELETE".equals(method)) {
+      job.cancel();
+      respondJob(exchange, 200, job);
+    } else if (path.length == 3 && "results".equals(path[2]) && "GET".equals(method)) {
+      streamResults(exchange, job, query);
+    } else {
+      respondError(exchange, 404, "Unknown request " + method + " " + exchange.getRequestURI());
+    }
+  }
+
+  private void listJobs(HttpExchange exchange) throws IOException {
+    final List<ServerJob> snapshot;
+    synchronized (this) {
+      snapshot = new ArrayList<>(this.jobs.values());
+    }
+
+    final Writer body = ndjson(exchange, 200);
+    final JsonWriter json = new JsonWriter(body);
+    json.setLenient(true);
+    for (ServerJob job : snapshot) {
+      job.writeStatus(json);
+      body.write('\n');
+    }
+    body.flush();
+  }
+
+  /**
+   * Send the results of a job after the first <code>from</code>. With <code>follow</code> the
+   * results are sent while they are produced, until the job ends.
+   */
+  private void streamResults(HttpExchange exchange, ServerJob job, Map<String, String> query)
+      throws IOException {
+    int from;
+    try {
+      from = Math.max(0, Integer.parseInt(query.getOrDefault("from", "0")));
+    } catch (NumberFormatException e) {
+      respondError(exchange, 400, "The first line must be a number");
+      return;
+    }
+
+    final boolean follow = Boolean.parseBoolean(query.get("follow"));
+    final Writer body = ndjson(exchange, 200);
+
+    try {
+      while (true) {
+        final boolean done = job.isDone();
+        final List<String> lines =
+            job.awaitLines(from, follow && !done ? FOLLOW_WAIT_SECONDS : 0, TimeUnit.SECONDS);
+
+        for (String line : lines) {
+          body.write(line);
+          body.write('\n');
+        }
+        body.flush();
+        from += lines.size();
+
+        // The lines written before the end are read once more after it
+        if (!follow || (done && lines.isEmpty())) {
+          break;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Queue a job and answer with its state.
+   *
+   * @param exchange the request that starts the job
+   * @param session the account used by the job
+   * @param description the equivalent command of the command line
+   * @param task the command
+   */
+  private void submit(
+      HttpExchange exchange, SessionRegistry.Session session, String description, JobTask task)
+      throws IOException {
+    final ServerJob job =
+        new ServerJob(
+            Integer.toString(this.jobIds.incrementAndGet()), session.getName(), description);
+
+    try {
+      job.setFuture(this.jobExecutor.submit(() -> run(job, task)));
+    } catch (RejectedExecutionException e) {
+      respondError(exchange, 503, "Too many jobs are waiting, try again later");
+      return;
+    }
+
+    synchronized (this) {
+      this.jobs.put(job.getId(), job);
+      removeEndedJobs();
+    }
+
+    exchange.getResponseHeaders().set("Location", "/jobs/" + job.getId());
+    respondJob(exchange, 202, job);
+  }
+
+  private void run(ServerJob job, JobTask task) {
+    if (!job.start()) {
+      return;
+    }
+
+    final CommandOutput output = job.getOutput();
+    final long start = System.nanoTime();
+    int status = CommandLineHandler.EXIT_OK;
+
+    try {
+      task.run(output);
+    } catch (Exception e) {
+      status = CommandLineHandler.exitCode(e);
+      output.error("Error while running " + job.getDescription(), e);
+    }
+
+    output.done(job.getDescription(), status, System.nanoTime() - start);
+    job.finish(status);
+  }
+
+  /** Remove the oldest ended jobs beyond the limit, guarded by this. */
+  private void removeEndedJobs() {
+    int ended = 0;
+    for (ServerJob job : this.jobs.values()) {
+      if (job.isDone()) {
+        ended++;
+      }
+    }
+
+    final Iterator<ServerJob> iterator = this.jobs.values().iterator();
+    while (ended > MAX_ENDED_JOBS && iterator.hasNext()) {
+      if (iterator.next().isDone()) {
+        iterator.remove();
+        ended--;
+      }
+    }
+  }
+
+  private static void respondJob(HttpExchange exchange, int status, ServerJob job)
+      throws IOException {
+    final StringWriter body = new StringWriter();
+    job.writeStatus(new JsonWriter(body));
+    respond(exchange, status, body.toString());
+  }
+
+  private static void respondError(HttpExchange exchange, int status, String message)
+      throws IOException {
+    final StringWriter body = new StringWriter();
+    new JsonWriter(body)
+        .beginObject()
+        .name("type")
+        .value(status < 400 ? "message" : "error")
+        .name(status < 400 ? "text" : "message")
+        .value(message)
+        .endObject();
+    respond(exchange, status, body.toString());
+  }
+
+  private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+    final byte[] bytes = (json + "\n").getBytes(StandardCharsets.UTF_8);
+
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length);
+    exchange.getResponseBody().write(bytes);
+  }
+
+  /**
+   * Start a response of unknown length, sent while it is written.
+   *
+   * @return the buffered writer of the body, closed with the exchange
+   */
+  private static Writer ndjson(HttpExchange exchange, int status) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", NDJSON);
+    exchange.sendResponseHeaders(status, 0);
+
+    return new BufferedWriter(
+        new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8));
+  }
+
+  /**
+   * @param exitCode the exit code of a failed command
+   * @return the HTTP status that describes the failure
+   */
+  private static int httpStatus(int exitCode) {
+    switch (exitCode) {
+      case CommandLineHandler.EXIT_UNAUTHORIZED:
+        return 401;
+      case CommandLineHandler.EXIT_RATE_LIMITED:
+        return 429;
+      default:
+        return 502;
+    }
+  }
+
+  private static Map<String, String> query(String rawQuery) {
+    final Map<String, String> parameters = new HashMap<>();
+
+    if (rawQuery != null) {
+      for (String parameter : rawQuery.split("&")) {
+        final int equals = parameter.indexOf('=');
+        if (equals > 0) {
+          parameters.put(
+              URLDecoder.decode(parameter.substring(0, equals), StandardCharsets.UTF_8),
+              URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8));
+        } else if (!parameter.isEmpty()) {
+          parameters.put(URLDecoder.decode(parameter, StandardCharsets.UTF_8), "true");
+        }
+      }
+    }
+
+    return parameters;
+  }
+
+  private static String newToken() {
+    final byte[] bytes = new byte[TOKEN_BYTES];
+    new SecureRandom().nextBytes(bytes);
+
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+  }
+
+  private static ThreadFactory daemonThreads(String name) {
+    final AtomicInteger count = new AtomicInteger();
+
+    return runnable -> {
+      final Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /** A command run by a job, that writes its results to the output of the job. */
+  @FunctionalInterface
+  private interface JobTask {
+
+    void run(CommandOutput output) throws Exception;
+  }
+}
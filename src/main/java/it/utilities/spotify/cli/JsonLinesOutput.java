@@ -0,0 +1,296 @@
+package it.utilities.spotify.cli;
+
+import com.google.gson.stream.JsonWriter;
+import com.wrapper.spotify.model_objects.IPlaylistItem;
+import com.wrapper.spotify.model_objects.specification.ArtistSimplified;
+import com.wrapper.spotify.model_objects.specification.PlaylistSimplified;
+import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import com.wrapper.spotify.model_objects.specification.Track;
+import it.utilities.spotify.core.DuplicateGroup;
+import it.utilities.spotify.core.DuplicateRemoval;
+import it.utilities.spotify.core.LibraryFile;
+import it.utilities.spotify.core.Metrics;
+import it.utilities.spotify.core.ResponseCache;
+import it.utilities.spotify.core.SessionRegistry;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * Output of the batch mode, that writes every result as a JSON object on its own line.<br>
+ * Every object has a <code>type</code> field that tells what it describes, and every command ends
+ * with a <code>done</code> object with its exit code. The objects are written to a buffered writer
+ * as soon as they are returned, for example every group of duplicates while the groups are
+ * iterated. The writer is flushed after every group, so a reader sees it before the next one is
+ * found, and at the end of every command.
+ */
+final class JsonLinesOutput implements CommandOutput {
+
+  private final Writer out;
+  private final JsonWriter json;
+
+  /**
+   * @param out the destination of the lines, it should be buffered
+   */
+  JsonLinesOutput(Writer out) {
+    this.out = out;
+    this.json = new JsonWriter(out);
+    // The lines are separate top-level values
+    this.json.setLenient(true);
+  }
+
+  @Override
+  public synchronized void message(String text) {
+    write(() -> begin("message").name("text").value(text));
+  }
+
+  @Override
+  public synchronized void value(String type, String value, String text) {
+    write(() -> begin(type).name("value").value(value));
+  }
+
+  @Override
+  public void empty(String text) {
+    // No objects are written for an empty result
+  }
+
+  @Override
+  public synchronized void playlist(PlaylistSimplified playlist) {
+    write(
+        () ->
+            begin("playlist")
+                .name("id")
+                .value(playlist.getId())
+                .name("name")
+                .value(playlist.getName())
+                .name("snapshotId")
+                .value(playlist.getSnapshotId())
+                .name("tracks")
+                .value(playlist.getTracks() != null ? playlist.getTracks().getTotal() : null));
+  }
+
+  @Override
+  public synchronized void group(DuplicateGroup group) {
+    write(
+        () -> {
+          begin("group").name("stage").value(group.getStage()).name("tracks").beginArray();
+          for (int i = 0; i < group.size(); i++) {
+            track(
+                group.getPlaylistIds().get(i),
+                group.getPositions().get(i),
+                group.getTracks().get(i));
+          }
+          this.json.endArray();
+        });
+    flush();
+  }
+
+  @Override
+  public synchronized void removal(DuplicateRemoval removal) {
+    write(
+        () -> {
+          begin("removal")
+              .name("playlistId")
+              .value(removal.getPlaylistId())
+              .name("snapshotId")
+              .value(removal.getSnapshotId())
+              .name("requests")
+              .value(removal.getRequests())
+              .name("dryRun")
+              .value(removal.isDryRun())
+              .name("tracks")
+              .beginArray();
+          for (int i = 0; i < removal.size(); i++) {
+            track(
+                removal.getPlaylistId(), removal.getPositions().get(i), removal.getTracks().get(i));
+          }
+          this.json.endArray();
+        });
+  }
+
+  @Override
+  public synchronized void export(LibraryFile library) {
+    write(
+        () ->
+            begin("export")
+                .name("path")
+                .value(library.getPath().toAbsolutePath().toString())
+                .name("playlists")
+                .value(library.getPlaylistCount())
+                .name("tracks")
+                .value(library.getTrackCount()));
+  }
+
+  @Override
+  public synchronized void account(SessionRegistry.Session session, boolean current) {
+    write(
+        () ->
+            begin("account")
+                .name("name")
+                .value(session.getName())
+                .name("current")
+                .value(current)
+                .name("expiresAt")
+                .value(session.getExpiresAt() > 0 ? session.getExpiresAt() : null)
+                .name("refreshScheduled")
+                .value(session.isRefreshScheduled())
+                .name("refreshError")
+                .value(session.getRefreshError()));
+  }
+
+  @Override
+  public synchronized void stats(Metrics metrics, ResponseCache responseCache) {
+    for (Metrics.Endpoint endpoint : metrics.getEndpoints()) {
+      write(
+          () ->
+              begin("endpoint")
+                  .name("name")
+                  .value(endpoint.getName())
+                  .name("requests")
+                  .value(endpoint.getRequests())
+                  .name("errors")
+                  .value(endpoint.getErrors())
+                  .name("tooManyRequests")
+                  .value(endpoint.getTooManyRequests())
+                  .name("responsesPerSecond")
+                  .value(endpoint.getResponsesPerSecond())
+                  .name("p50Millis")
+                  .value(endpoint.getLatencyP50Millis())
+                  .name("p90Millis")
+                  .value(endpoint.getLatencyP90Millis())
+                  .name("p99Millis")
+                  .value(endpoint.getLatencyP99Millis())
+                  .name("maxMillis")
+                  .value(endpoint.getLatencyMaxMillis()));
+    }
+
+    for (Metrics.Phase phase : metrics.getPhases()) {
+      write(
+          () ->
+              begin("phase")
+                  .name("name")
+                  .value(phase.getName())
+                  .name("runs")
+                  .value(phase.getCount())
+                  .name("totalMillis")
+                  .value(phase.getTotalMillis())
+                  .name("p50Millis")
+                  .value(phase.getP50Millis())
+                  .name("p99Millis")
+                  .value(phase.getP99Millis())
+                  .name("maxMillis")
+                  .value(phase.getMaxMillis()));
+    }
+
+    write(
+        () ->
+            begin("library")
+                .name("tracksProcessed")
+                .value(metrics.getTracksProcessed())
+                .name("cacheHits")
+                .value(responseCache.getHitCount())
+                .name("cacheMisses")
+                .value(responseCache.getMissCount())
+                .name("cacheMerged")
+                .value(responseCache.getCoalescedCount())
+                .name("cacheEvicted")
+                .value(responseCache.getEvictionCount())
+                .name("uptimeSeconds")
+                .value(metrics.getUptimeSeconds()));
+  }
+
+  @Override
+  public synchronized void error(String text, Exception e) {
+    write(
+        () -> {
+          begin("error").name("message").value(text);
+          if (e != null) {
+            this.json
+                .name("exception")
+                .value(e.getClass().getName())
+                .name("cause")
+                .value(e.getMessage());
+          }
+        });
+  }
+
+  @Override
+  public synchronized void done(String command, int status, long nanos) {
+    write(
+        () ->
+            begin("done")
+                .name("command")
+                .value(command)
+                .name("status")
+                .value(status)
+                .name("millis")
+                .value(nanos / 1_000_000));
+    flush();
+  }
+
+  @Override
+  public synchronized void flush() {
+    try {
+      this.out.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Write an object on its own line.
+   *
+   * @param fields writes the fields of the object, after the type
+   */
+  private void write(Fields fields) {
+    try {
+      fields.write();
+      this.json.endObject();
+      this.out.write('\n');
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private JsonWriter begin(String type) throws IOException {
+    return this.json.beginObject().name("type").value(type);
+  }
+
+  private void track(String playlistId, int position, PlaylistTrack playlistTrack)
+      throws IOException {
+    final IPlaylistItem item = playlistTrack.getTrack();
+
+    this.json
+        .beginObject()
+        .name("playlistId")
+        .value(playlistId)
+        .name("position")
+        .value(position)
+        .name("id")
+        .value(item != null ? item.getId() : null)
+        .name("uri")
+        .value(item != null ? item.getUri() : null)
+        .name("name")
+        .value(item != null ? item.getName() : null)
+        .name("durationMs")
+        .value(item != null ? item.getDurationMs() : null);
+
+    final ArtistSimplified[] artists = item instanceof Track ? ((Track) item).getArtists() : null;
+    if (artists != null) {
+      this.json.name("artists").beginArray();
+      for (ArtistSimplified artist : artists) {
+        this.json.value(artist.getName());
+      }
+      this.json.endArray();
+    }
+
+    this.json.endObject();
+  }
+
+  /** Writer of the fields of an object, that can fail like the writer. */
+  @FunctionalInterface
+  private interface Fields {
+
+    void write() throws IOException;
+  }
+}
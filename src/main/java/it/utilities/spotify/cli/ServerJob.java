@@ -0,0 +1,232 @@
+package it.utilities.spotify.cli;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Instances of the ServerJob class follow a command run in the background by the {@link
+ * CommandServer}.<br>
+ * The results of the command are written as JSON Lines, the same of the batch mode, and kept in
+ * memory, so the clients can read them while they are produced or after the end of the job. A
+ * client can wait for the lines after the ones it already read, without polling.
+ */
+final class ServerJob {
+
+  enum State {
+    QUEUED,
+    RUNNING,
+    SUCCEEDED,
+    FAILED,
+    CANCELLED
+  }
+
+  private final String id;
+  private final String account;
+  private final String description;
+  private final long createdAt = System.currentTimeMillis();
+  private final CommandOutput output = new JsonLinesOutput(new LineWriter());
+
+  /** The lines written by the command, guarded by this. */
+  private final List<String> lines = new ArrayList<>();
+
+  private State state = State.QUEUED;
+  private int status = -1;
+  private long startedAt;
+  private long nanos;
+  private Future<?> future;
+
+  /**
+   * @param id the identifier of the job in the URLs
+   * @param account the name of the account used by the job
+   * @param description the command run by the job
+   */
+  ServerJob(String id, String account, String description) {
+    this.id = id;
+    this.account = account;
+    this.description = description;
+  }
+
+  String getId() {
+    return this.id;
+  }
+
+  String getDescription() {
+    return this.description;
+  }
+
+  /**
+   * @return the output where the command writes its results
+   */
+  CommandOutput getOutput() {
+    return this.output;
+  }
+
+  synchronized State getState() {
+    return this.state;
+  }
+
+  /**
+   * @return true if the job succeeded, failed or was cancelled
+   */
+  synchronized boolean isDone() {
+    return this.state != State.QUEUED && this.state != State.RUNNING;
+  }
+
+  /**
+   * @param future the task that runs the job, cancelled with the job
+   */
+  synchronized void setFuture(Future<?> future) {
+    this.future = future;
+  }
+
+  /**
+   * Mark the start of the command.
+   *
+   * @return false if the job was cancelled while it was queued
+   */
+  synchronized boolean start() {
+    if (this.state != State.QUEUED) {
+      return false;
+    }
+
+    this.state = State.RUNNING;
+    this.startedAt = System.nanoTime();
+    return true;
+  }
+
+  /**
+   * Mark the end of the command.
+   *
+   * @param status the exit code of the command, the same of the batch mode
+   */
+  synchronized void finish(int status) {
+    if (this.state == State.RUNNING) {
+      this.state = status == CommandLineHandler.EXIT_OK ? State.SUCCEEDED : State.FAILED;
+      this.status = status;
+      this.nanos = System.nanoTime() - this.startedAt;
+    }
+
+    notifyAll();
+  }
+
+  /**
+   * Stop the job, interrupting the command if it is running.
+   *
+   * @return false if the job had already ended
+   */
+  boolean cancel() {
+    final Future<?> task;
+
+    synchronized (this) {
+      if (isDone()) {
+        return false;
+      }
+
+      if (this.state == State.RUNNING) {
+        this.nanos = System.nanoTime() - this.startedAt;
+      }
+      this.state = State.CANCELLED;
+      task = this.future;
+      notifyAll();
+    }
+
+    if (task != null) {
+      task.cancel(true);
+    }
+
+    return true;
+  }
+
+  /**
+   * Wait for the lines after the ones already read, or for the end of the job.
+   *
+   * @param from the number of lines already read
+   * @param timeout the maximum time to wait
+   * @param unit the unit of the timeout
+   * @return the lines after the first <code>from</code>, empty if there are none yet or if the job
+   *     ended
+   * @throws InterruptedException if the thread is interrupted while it waits
+   */
+  synchronized List<String> awaitLines(int from, long timeout, TimeUnit unit)
+      throws InterruptedException {
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    long remaining = unit.toNanos(timeout);
+
+    while (this.lines.size() <= from && !isDone() && remaining > 0) {
+      TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      remaining = deadline - System.nanoTime();
+    }
+
+    return this.lines.size() > from
+        ? new ArrayList<>(this.lines.subList(from, this.lines.size()))
+        : List.of();
+  }
+
+  /**
+   * Write the state of the job as a JSON object.
+   *
+   * @param json the writer of the object
+   * @throws IOException if the object cannot be written
+   */
+  synchronized void writeStatus(JsonWriter json) throws IOException {
+    json.beginObject()
+        .name("type")
+        .value("job")
+        .name("id")
+        .value(this.id)
+        .name("account")
+        .value(this.account)
+        .name("command")
+        .value(this.description)
+        .name("state")
+        .value(this.state.name().toLowerCase())
+        .name("status")
+        .value(isDone() && this.state != State.CANCELLED ? this.status : null)
+        .name("lines")
+        .value(this.lines.size())
+        .name("createdAt")
+        .value(this.createdAt)
+        .name("millis")
+        .value(
+            this.state == State.RUNNING
+                ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.startedAt)
+                : TimeUnit.NANOSECONDS.toMillis(this.nanos))
+        .endObject();
+  }
+
+  /** Writer that stores every complete line in the job and wakes up the readers. */
+  private final class LineWriter extends Writer {
+
+    private final StringBuilder line = new StringBuilder();
+
+    @Override
+    public void write(char[] buffer, int offset, int length) {
+      synchronized (ServerJob.this) {
+        for (int i = offset; i < offset + length; i++) {
+          if (buffer[i] == '\n') {
+            ServerJob.this.lines.add(this.line.toString());
+            this.line.setLength(0);
+            ServerJob.this.notifyAll();
+          } else {
+            this.line.append(buffer[i]);
+          }
+        }
+      }
+    }
+
+    @Override
+    public void flush() {
+      // Every line is available as soon as it is complete
+    }
+
+    @Override
+    public void close() {
+      // Nothing to release
+    }
+  }
+}
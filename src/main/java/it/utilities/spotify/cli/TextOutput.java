@@ -0,0 +1,160 @@
+package it.utilities.spotify.cli;
+
+import com.wrapper.spotify.model_objects.specification.PlaylistSimplified;
+import it.utilities.spotify.core.DuplicateGroup;
+import it.utilities.spotify.core.DuplicateRemoval;
+import it.utilities.spotify.core.LibraryFile;
+import it.utilities.spotify.core.Metrics;
+import it.utilities.spotify.core.ResponseCache;
+import it.utilities.spotify.core.SessionRegistry;
+import java.io.PrintStream;
+import java.time.Instant;
+
+/** Output of the interactive session, that prints the results as text for the user. */
+final class TextOutput implements CommandOutput {
+
+  private final PrintStream out;
+  private final PrintStream err;
+
+  TextOutput(PrintStream out, PrintStream err) {
+    this.out = out;
+    this.err = err;
+  }
+
+  @Override
+  public void message(String text) {
+    this.out.println(text);
+  }
+
+  @Override
+  public void value(String type, String value, String text) {
+    this.out.println(text);
+  }
+
+  @Override
+  public void empty(String text) {
+    this.out.println(text);
+  }
+
+  @Override
+  public void playlist(PlaylistSimplified playlist) {
+    this.out.println(playlist);
+  }
+
+  @Override
+  public void group(DuplicateGroup group) {
+    this.out.println(group);
+  }
+
+  @Override
+  public void removal(DuplicateRemoval removal) {
+    this.out.println(removal);
+  }
+
+  @Override
+  public void export(LibraryFile library) {
+    this.out.println(
+        String.format(
+            "Exported %d tracks of %d playlists to %s",
+            library.getTrackCount(),
+            library.getPlaylistCount(),
+            library.getPath().toAbsolutePath()));
+  }
+
+  @Override
+  public void account(SessionRegistry.Session session, boolean current) {
+    final StringBuilder text = new StringBuilder(current ? "* " : "  ").append(session.getName());
+
+    if (session.getRefreshError() != null) {
+      text.append(", the last refresh failed: ").append(session.getRefreshError());
+    } else if (session.getExpiresAt() > 0) {
+      text.append(", the access token expires at ")
+          .append(Instant.ofEpochMilli(session.getExpiresAt()));
+    }
+
+    this.out.println(text);
+  }
+
+  @Override
+  public void stats(Metrics metrics, ResponseCache responseCache) {
+    final StringBuilder stats = new StringBuilder();
+
+    final String endpointFormat = "\t%-24s %9s %7s %7s %8s %9s %9s %9s %9s\n";
+    stats
+        .append("Requests:\n")
+        .append(
+            String.format(
+                endpointFormat,
+                "endpoint",
+                "requests",
+                "errors",
+                "429",
+                "resp/s",
+                "p50 ms",
+                "p90 ms",
+                "p99 ms",
+                "max ms"));
+    for (Metrics.Endpoint endpoint : metrics.getEndpoints()) {
+      stats.append(
+          String.format(
+              endpointFormat,
+              endpoint.getName(),
+              endpoint.getRequests(),
+              endpoint.getErrors(),
+              endpoint.getTooManyRequests(),
+              String.format("%.2f", endpoint.getResponsesPerSecond()),
+              String.format("%.1f", endpoint.getLatencyP50Millis()),
+              String.format("%.1f", endpoint.getLatencyP90Millis()),
+              String.format("%.1f", endpoint.getLatencyP99Millis()),
+              String.format("%.1f", endpoint.getLatencyMaxMillis())));
+    }
+
+    final String phaseFormat = "\t%-24s %9s %11s %9s %9s %9s\n";
+    stats
+        .append("Phases:\n")
+        .append(
+            String.format(phaseFormat, "phase", "runs", "total ms", "p50 ms", "p99 ms", "max ms"));
+    for (Metrics.Phase phase : metrics.getPhases()) {
+      stats.append(
+          String.format(
+              phaseFormat,
+              phase.getName(),
+              phase.getCount(),
+              String.format("%.1f", phase.getTotalMillis()),
+              String.format("%.1f", phase.getP50Millis()),
+              String.format("%.1f", phase.getP99Millis()),
+              String.format("%.1f", phase.getMaxMillis())));
+    }
+
+    stats
+        .append(String.format("Tracks processed: %d\n", metrics.getTracksProcessed()))
+        .append(
+            String.format(
+                "Response cache: %d hits, %d misses, %d merged, %d evicted\n",
+                responseCache.getHitCount(),
+                responseCache.getMissCount(),
+                responseCache.getCoalescedCount(),
+                responseCache.getEvictionCount()))
+        .append(String.format("Uptime: %d s", metrics.getUptimeSeconds()));
+
+    this.out.println(stats);
+  }
+
+  @Override
+  public void error(String text, Exception e) {
+    if (e != null) {
+      this.err.println(e.getMessage());
+    }
+    this.out.println(text);
+  }
+
+  @Override
+  public void done(String command, int status, long nanos) {
+    // The user sees the end of the command from the next prompt
+  }
+
+  @Override
+  public void flush() {
+    this.out.flush();
+  }
+}
@@ -0,0 +1,120 @@
+package it.utilities.spotify.core;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Union-find structure over the integers <code>[0, size)</code>, used to merge the matches found
+ * between the tracks into disjoint groups.
+ */
+final class DisjointSet {
+
+  private final int[] parent;
+  private final int[] sizes;
+
+  DisjointSet(int size) {
+    this.parent = new int[size];
+    this.sizes = new int[size];
+
+    for (int i = 0; i < size; i++) {
+      this.parent[i] = i;
+      this.sizes[i] = 1;
+    }
+  }
+
+  /**
+   * @return the number of elements of the structure
+   */
+  int size() {
+    return this.parent.length;
+  }
+
+  /**
+   * Retrieve the representative of the set that contains the element.
+   *
+   * @param element the element to look for
+   * @return the representative element of the set
+   */
+  int find(int element) {
+    while (this.parent[element] != element) {
+      // Path halving
+      this.parent[element] = this.parent[this.parent[element]];
+      element = this.parent[element];
+    }
+
+    return element;
+  }
+
+  /**
+   * Merge the sets that contain the two elements.
+   *
+   * @param first
+   * @param second
+   * @return <code>true</code> if the two elements were in different sets, <code>false</code>
+   *     otherwise
+   */
+  boolean union(int first, int second) {
+    int firstRoot = find(first);
+    int secondRoot = find(second);
+
+    if (firstRoot == secondRoot) {
+      return false;
+    }
+
+    if (this.sizes[firstRoot] < this.sizes[secondRoot]) {
+      final int root = firstRoot;
+      firstRoot = secondRoot;
+      secondRoot = root;
+    }
+
+    this.parent[secondRoot] = firstRoot;
+    this.sizes[firstRoot] += this.sizes[secondRoot];
+
+    return true;
+  }
+
+  /**
+   * @param element
+   * @return the number of elements in the set that contains the element
+   */
+  int setSize(int element) {
+    return this.sizes[find(element)];
+  }
+
+  /**
+   * Lazily produce the sets that contain at least <code>minSize</code> elements. The sets are
+   * ordered by their smallest element and the elements of every set are in ascending order.
+   *
+   * @param minSize the minimum number of elements of the returned sets
+   * @return the stream of the sets
+   */
+  Stream<int[]> sets(int minSize) {
+    final int size = this.parent.length;
+
+    // Chain the elements of every set, from the smallest to the greatest
+    final int[] head = new int[size];
+    final int[] next = new int[size];
+    Arrays.fill(head, -1);
+
+    for (int i = size - 1; i >= 0; i--) {
+      final int root = find(i);
+      next[i] = head[root];
+      head[root] = i;
+    }
+
+    return IntStream.range(0, size)
+        .filter(i -> head[find(i)] == i && this.sizes[find(i)] >= minSize)
+        .mapToObj(
+            first -> {
+              final int[] members = new int[this.sizes[find(first)]];
+              int count = 0;
+
+              for (int element = first; element != -1; element = next[element]) {
+                members[count++] = element;
+              }
+
+              return members;
+            });
+  }
+}
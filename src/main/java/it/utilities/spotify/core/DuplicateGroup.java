@@ -0,0 +1,128 @@
+package it.utilities.spotify.core;
+
+import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+/**
+ * Instances of the DuplicateGroup class represent a set of tracks of a playlist that are considered
+ * duplicated among themselves.<br>
+ * Every track appears only once in the group and in only one group. The tracks can belong to a
+ * single playlist or to several playlists of the library.<br>
+ * Every group reports the name of the {@link SimilarityStage} that matched its tracks, which tells
+ * how certain the match is: a group of {@link ExactIdStage} contains the same recording, while the
+ * groups matched by the title need to be checked by the user.
+ */
+public class DuplicateGroup {
+
+  private final List<String> playlistIds;
+  private final List<Integer> positions;
+  private final List<PlaylistTrack> tracks;
+  private final String stage;
+
+  DuplicateGroup(
+      String playListId, int[] members, List<PlaylistTrack> playlistTracks, String stage) {
+    this(playListId, members, playlistTracks::get, stage);
+  }
+
+  /**
+   * @param playListId the ID of the playlist of the tracks
+   * @param members the positions of the tracks in the playlist
+   * @param playlistTracks the track at every position, called once for every member
+   * @param stage the name of the stage that matched the tracks
+   */
+  DuplicateGroup(
+      String playListId, int[] members, IntFunction<PlaylistTrack> playlistTracks, String stage) {
+    List<Integer> positions = new ArrayList<>(members.length);
+    List<PlaylistTrack> tracks = new ArrayList<>(members.length);
+
+    for (int member : members) {
+      positions.add(member);
+      tracks.add(playlistTracks.apply(member));
+    }
+
+    this.playlistIds = Collections.nCopies(members.length, playListId);
+    this.positions = Collections.unmodifiableList(positions);
+    this.tracks = Collections.unmodifiableList(tracks);
+    this.stage = stage;
+  }
+
+  DuplicateGroup(
+      List<String> playlistIds, List<Integer> positions, List<PlaylistTrack> tracks, String stage) {
+    this.playlistIds = Collections.unmodifiableList(playlistIds);
+    this.positions = Collections.unmodifiableList(positions);
+    this.tracks = Collections.unmodifiableList(tracks);
+    this.stage = stage;
+  }
+
+  /**
+   * @return the ID of the playlist of every track, in the same order of {@link #getPositions()}
+   */
+  public List<String> getPlaylistIds() {
+    return this.playlistIds;
+  }
+
+  /**
+   * @return the IDs of the playlists that contain the tracks of the group, without repetitions
+   */
+  public Set<String> getDistinctPlaylistIds() {
+    return Collections.unmodifiableSet(new LinkedHashSet<>(this.playlistIds));
+  }
+
+  /**
+   * @return the zero-based positions of the tracks in their playlist, in ascending order for every
+   *     playlist
+   */
+  public List<Integer> getPositions() {
+    return this.positions;
+  }
+
+  /**
+   * @return the tracks of the group, in the same order of {@link #getPositions()}
+   */
+  public List<PlaylistTrack> getTracks() {
+    return this.tracks;
+  }
+
+  /**
+   * @return the name of the stage that matched the tracks, the last one if the group was built by
+   *     more than one stage
+   */
+  public String getStage() {
+    return this.stage;
+  }
+
+  /**
+   * @return the number of tracks in the group
+   */
+  public int size() {
+    return this.tracks.size();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder =
+        new StringBuilder("DuplicateGroup(size=" + size() + ", stage=" + this.stage + ")");
+    // The playlist is shown only when the tracks are in more than one playlist
+    final boolean showPlaylists = getDistinctPlaylistIds().size() > 1;
+
+    for (int i = 0; i < this.tracks.size(); i++) {
+      final PlaylistTrack track = this.tracks.get(i);
+
+      builder
+          .append(System.lineSeparator())
+          .append('\t')
+          .append(showPlaylists ? this.playlistIds.get(i) : "")
+          .append('#')
+          .append(this.positions.get(i))
+          .append(' ')
+          .append(track.getTrack() != null ? track.getTrack().getName() : null);
+    }
+
+    return builder.toString();
+  }
+}
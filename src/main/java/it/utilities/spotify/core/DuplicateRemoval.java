@@ -0,0 +1,108 @@
+package it.utilities.spotify.core;
+
+import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Instances of the DuplicateRemoval class describe the duplicated tracks removed from a playlist,
+ * or the ones that would be removed by a dry run.<br>
+ * The first track of every group of duplicates is kept, the others are removed.
+ */
+public class DuplicateRemoval {
+
+  private final String playlistId;
+  private final List<Integer> positions;
+  private final List<PlaylistTrack> tracks;
+  private final String snapshotId;
+  private final int requests;
+  private final boolean dryRun;
+
+  DuplicateRemoval(
+      String playlistId,
+      List<Integer> positions,
+      List<PlaylistTrack> tracks,
+      String snapshotId,
+      int requests,
+      boolean dryRun) {
+    this.playlistId = playlistId;
+    this.positions = Collections.unmodifiableList(positions);
+    this.tracks = Collections.unmodifiableList(tracks);
+    this.snapshotId = snapshotId;
+    this.requests = requests;
+    this.dryRun = dryRun;
+  }
+
+  public String getPlaylistId() {
+    return this.playlistId;
+  }
+
+  /**
+   * @return the zero-based positions of the removed tracks in the checked version of the playlist,
+   *     in ascending order
+   */
+  public List<Integer> getPositions() {
+    return this.positions;
+  }
+
+  /**
+   * @return the removed tracks, in the same order of {@link #getPositions()}
+   */
+  public List<PlaylistTrack> getTracks() {
+    return this.tracks;
+  }
+
+  /**
+   * @return the snapshot of the playlist after the removal, or the checked one for a dry run
+   */
+  public String getSnapshotId() {
+    return this.snapshotId;
+  }
+
+  /**
+   * @return the number of removal requests sent to Spotify
+   */
+  public int getRequests() {
+    return this.requests;
+  }
+
+  /**
+   * @return true if the tracks were not actually removed
+   */
+  public boolean isDryRun() {
+    return this.dryRun;
+  }
+
+  /**
+   * @return the number of removed tracks
+   */
+  public int size() {
+    return this.tracks.size();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder =
+        new StringBuilder(
+            "DuplicateRemoval(size="
+                + size()
+                + ", requests="
+                + this.requests
+                + (this.dryRun ? ", dry run" : "")
+                + ")");
+
+    for (int i = 0; i < this.tracks.size(); i++) {
+      final PlaylistTrack track = this.tracks.get(i);
+
+      builder
+          .append(System.lineSeparator())
+          .append('\t')
+          .append('#')
+          .append(this.positions.get(i))
+          .append(' ')
+          .append(track.getTrack() != null ? track.getTrack().getName() : null);
+    }
+
+    return builder.toString();
+  }
+}
@@ -0,0 +1,111 @@
+package it.utilities.spotify.core;
+
+import com.wrapper.spotify.model_objects.IPlaylistItem;
+import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import com.wrapper.spotify.model_objects.specification.Track;
+import java.util.List;
+
+/**
+ * Stage that matches two tracks when they have the same Spotify ID, or when they are recordings
+ * with the same ISRC, like the same song published on an album and on a compilation.<br>
+ * The IDs and the ISRCs are put in two open-addressing tables that map a key to the first position
+ * where it was seen, so the stage visits every track once and never compares two titles. It is
+ * meant to be the first stage of a {@link SimilarityPipeline}, which passes to the following stages
+ * only one track of every group it finds. The local files, that have no ID and no ISRC, are never
+ * matched.
+ */
+public class ExactIdStage implements SimilarityStage {
+
+  /** Name of the stage, reported by the groups it matched. */
+  public static final String NAME = "exact-id";
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public void findMatches(List<PlaylistTrack> tracks, MatchConsumer matches) {
+    final KeyIndex ids = new KeyIndex(tracks.size());
+    final KeyIndex isrcs = new KeyIndex(tracks.size());
+
+    for (int position = 0; position < tracks.size(); position++) {
+      final PlaylistTrack track = tracks.get(position);
+      final IPlaylistItem item = track != null ? track.getTrack() : null;
+
+      if (item == null) {
+        continue;
+      }
+
+      // Linking every track to the first one with the same key is enough to rebuild the group
+      final int sameId = ids.putIfAbsent(item.getId(), position);
+      if (sameId >= 0) {
+        matches.accept(sameId, position);
+      }
+
+      if (item instanceof Track) {
+        final int sameIsrc = isrcs.putIfAbsent(TrackTable.isrc((Track) item), position);
+
+        // A track with the same ID usually has the same ISRC, the couple is reported once
+        if (sameIsrc >= 0 && sameIsrc != sameId) {
+          matches.accept(sameIsrc, position);
+        }
+      }
+    }
+  }
+
+  /**
+   * Open-addressing table, with linear probing, from a key to the first position where it was seen.
+   * The table is at most half full and it never grows, since the number of keys is known.
+   */
+  static final class KeyIndex {
+
+    private final String[] keys;
+    private final int[] hashes;
+    private final int[] positions;
+    private final int mask;
+
+    /**
+     * @param capacity the maximum number of keys
+     */
+    KeyIndex(int capacity) {
+      final int slots = Integer.highestOneBit(Math.max(1, 2 * capacity - 1)) << 1;
+
+      this.keys = new String[slots];
+      this.hashes = new int[slots];
+      this.positions = new int[slots];
+      this.mask = slots - 1;
+    }
+
+    /**
+     * @param key the key, or null to skip it
+     * @param position the position of the key
+     * @return the position of the key if it was already in the table, otherwise -1
+     */
+    int putIfAbsent(String key, int position) {
+      if (key == null) {
+        return -1;
+      }
+
+      final int hash = key.hashCode();
+
+      for (int slot = spread(hash) & this.mask; ; slot = (slot + 1) & this.mask) {
+        final String other = this.keys[slot];
+
+        if (other == null) {
+          this.keys[slot] = key;
+          this.hashes[slot] = hash;
+          this.positions[slot] = position;
+          return -1;
+        }
+        if (this.hashes[slot] == hash && other.equals(key)) {
+          return this.positions[slot];
+        }
+      }
+    }
+
+    private static int spread(int hash) {
+      return hash ^ (hash >>> 16);
+    }
+  }
+}
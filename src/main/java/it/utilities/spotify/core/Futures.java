@@ -0,0 +1,149 @@
+package it.utilities.spotify.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Combinators of {@link CompletableFuture}s that, unlike the ones of the JDK, propagate the
+ * cancellation: completing the combined future cancels the futures it is waiting for, so the
+ * requests of an abandoned operation stop being retried and free their place in the scheduler.
+ */
+final class Futures {
+
+  private Futures() {}
+
+  /**
+   * @param error the failure of a future
+   * @return the cause of the failure, without the wrappers added by the futures
+   */
+  static Throwable unwrap(Throwable error) {
+    Throwable cause = error;
+
+    while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+        && cause.getCause() != null) {
+      cause = cause.getCause();
+    }
+
+    return cause;
+  }
+
+  /**
+   * Start the second step when the first one completes.
+   *
+   * @param first the first step
+   * @param next the function that starts the second step with the result of the first one
+   * @param <A> the type of the result of the first step
+   * @param <B> the type of the result of the second step
+   * @return the future result of the second step. Completing it cancels the step in progress.
+   */
+  static <A, B> CompletableFuture<B> compose(
+      CompletableFuture<A> first, Function<A, CompletableFuture<B>> next) {
+    final CompletableFuture<B> result = new CompletableFuture<>();
+    final AtomicReference<CompletableFuture<B>> second = new AtomicReference<>();
+
+    first.whenComplete(
+        (value, error) -> {
+          if (error != null) {
+            result.completeExceptionally(unwrap(error));
+            return;
+          }
+
+          final CompletableFuture<B> step;
+          try {
+            step = next.apply(value);
+          } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+            return;
+          }
+
+          second.set(step);
+          if (result.isDone()) {
+            step.cancel(true);
+            return;
+          }
+
+          step.whenComplete(
+              (stepValue, stepError) -> {
+                if (stepError != null) {
+                  result.completeExceptionally(unwrap(stepError));
+                } else {
+                  result.complete(stepValue);
+                }
+              });
+        });
+
+    result.whenComplete(
+        (value, error) -> {
+          first.cancel(true);
+
+          final CompletableFuture<B> step = second.get();
+          if (step != null) {
+            step.cancel(true);
+          }
+        });
+
+    return result;
+  }
+
+  /**
+   * Wait for all the futures and combine their results. The first failure fails the combined future
+   * and cancels the other futures.
+   *
+   * @param futures the futures to wait for
+   * @param combiner the function that combines the results, in the same order of the futures
+   * @param <T> the type of the results of the futures
+   * @param <R> the type of the combined result
+   * @return the future combined result. Completing it cancels the futures still in progress.
+   */
+  static <T, R> CompletableFuture<R> allOf(
+      List<CompletableFuture<T>> futures, Function<List<T>, R> combiner) {
+    final CompletableFuture<R> result = new CompletableFuture<>();
+    final AtomicInteger remaining = new AtomicInteger(futures.size());
+
+    if (futures.isEmpty()) {
+      complete(result, Collections.emptyList(), combiner);
+      return result;
+    }
+
+    for (CompletableFuture<T> future : futures) {
+      future.whenComplete(
+          (value, error) -> {
+            if (error != null) {
+              result.completeExceptionally(unwrap(error));
+            } else if (remaining.decrementAndGet() == 0) {
+              final List<T> values = new ArrayList<>(futures.size());
+              for (CompletableFuture<T> completed : futures) {
+                values.add(completed.join());
+              }
+
+              complete(result, values, combiner);
+            }
+          });
+    }
+
+    result.whenComplete(
+        (value, error) -> {
+          for (CompletableFuture<T> future : futures) {
+            future.cancel(true);
+          }
+        });
+
+    return result;
+  }
+
+  private static <T, R> void complete(
+      CompletableFuture<R> result, List<T> values, Function<List<T>, R> combiner) {
+    try {
+      result.complete(combiner.apply(values));
+    } catch (RuntimeException e) {
+      result.completeExceptionally(e);
+    }
+  }
+}
@@ -0,0 +1,418 @@
+package it.utilities.spotify.core;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.wrapper.spotify.IHttpManager;
+import com.wrapper.spotify.exceptions.SpotifyWebApiException;
+import com.wrapper.spotify.exceptions.detailed.BadGatewayException;
+import com.wrapper.spotify.exceptions.detailed.BadRequestException;
+import com.wrapper.spotify.exceptions.detailed.ForbiddenException;
+import com.wrapper.spotify.exceptions.detailed.InternalServerErrorException;
+import com.wrapper.spotify.exceptions.detailed.NotFoundException;
+import com.wrapper.spotify.exceptions.detailed.ServiceUnavailableException;
+import com.wrapper.spotify.exceptions.detailed.TooManyRequestsException;
+import com.wrapper.spotify.exceptions.detailed.UnauthorizedException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Authenticator;
+import java.net.InetSocketAddress;
+import java.net.PasswordAuthentication;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.ParseException;
+
+/**
+ * HTTP manager backed by the {@link HttpClient} of the JDK.<br>
+ * Unlike the default manager of the Spotify library, it never retries a request on its own: the
+ * retries are left to the {@link RequestScheduler}, which is the only component that knows how many
+ * requests are being sent. The responses are converted into the same exceptions thrown by the
+ * default manager.<br>
+ * The GET requests can also be sent without blocking the calling thread with {@link #getAsync(URI,
+ * Header[])}.<br>
+ * The client, with its selector thread, is created by the first request, so the managers of the
+ * commands that never reach Spotify cost nothing.<br>
+ * The requests can go through an HTTP proxy, optionally with a user and a password. The JDK does
+ * not send the password of a proxy for the tunnels of the HTTPS requests unless the system property
+ * <code>jdk.http.auth.tunneling.disabledSchemes</code> allows the Basic scheme, for example with
+ * <code>-Djdk.http.auth.tunneling.disabledSchemes=</code> on the command line. The property applies
+ * to the whole JVM, so the manager never changes it: an HTTPS request through a proxy with
+ * credentials fails with an {@link IllegalStateException} if the property does not allow them.
+ */
+public class JdkHttpManager implements IHttpManager {
+
+  /** Headers that are managed by the HTTP client and cannot be set on the request. */
+  private static final Set<String> RESTRICTED_HEADERS =
+      Set.of("connection", "content-length", "expect", "host", "upgrade");
+
+  /** Default maximum time to wait for a connection. */
+  public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+
+  /** Default maximum time to wait for a response. */
+  public static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+  /** Default port of a proxy without an explicit one. */
+  private static final int DEFAULT_PROXY_PORT = 80;
+
+  /** System property with the authentication schemes the JDK refuses for the proxy tunnels. */
+  private static final String TUNNELING_DISABLED_SCHEMES =
+      "jdk.http.auth.tunneling.disabledSchemes";
+
+  private final Duration connectTimeout;
+  private final Duration requestTimeout;
+  private final InetSocketAddress proxy;
+  private final PasswordAuthentication proxyCredentials;
+
+  /** Whether the JDK sends the credentials of the proxy for the tunnels, read at construction. */
+  private final boolean basicTunneling;
+
+  private volatile HttpClient httpClient;
+
+  public JdkHttpManager() {
+    this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_REQUEST_TIMEOUT);
+  }
+
+  /**
+   * @param connectTimeout the maximum time to wait for a connection
+   * @param requestTimeout the maximum time to wait for a response
+   */
+  public JdkHttpManager(Duration connectTimeout, Duration requestTimeout) {
+    this(connectTimeout, requestTimeout, null, null, null, null);
+  }
+
+  /**
+   * @param connectTimeout the maximum time to wait for a connection
+   * @param requestTimeout the maximum time to wait for a response
+   * @param proxyHost the host of the HTTP proxy, optionally as a URL like <code>
+   *     http://proxy:3128</code>, or null to connect directly
+   * @param proxyPort the port of the proxy, or null for the one of the URL or 80
+   * @param proxyUsername the user of the proxy, or null if it does not need credentials
+   * @param proxyPassword the password of the proxy user
+   * @throws IllegalArgumentException if the host of the proxy is not valid
+   */
+  public JdkHttpManager(
+      Duration connectTimeout,
+      Duration requestTimeout,
+      String proxyHost,
+      Integer proxyPort,
+      String proxyUsername,
+      String proxyPassword) {
+    this.connectTimeout = connectTimeout;
+    this.requestTimeout = requestTimeout;
+    this.proxy = proxyHost != null ? proxyAddress(proxyHost, proxyPort) : null;
+    this.proxyCredentials =
+        proxyHost != null && proxyUsername != null
+            ? new PasswordAuthentication(
+                proxyUsername, proxyPassword != null ? proxyPassword.toCharArray() : new char[0])
+            : null;
+    this.basicTunneling = isBasicTunnelingAllowed();
+  }
+
+  /**
+   * @param httpClient the client used to send the requests
+   * @param requestTimeout the maximum time to wait for a response
+   */
+  public JdkHttpManager(HttpClient httpClient, Duration requestTimeout) {
+    this.connectTimeout = null;
+    this.requestTimeout = requestTimeout;
+    this.proxy = null;
+    this.proxyCredentials = null;
+    this.basicTunneling = false;
+    this.httpClient = httpClient;
+  }
+
+  /**
+   * @return the client used to send the requests
+   */
+  public HttpClient getHttpClient() {
+    HttpClient httpClient = this.httpClient;
+
+    if (httpClient == null) {
+      synchronized (this) {
+        httpClient = this.httpClient;
+        if (httpClient == null) {
+          httpClient = createHttpClient();
+          this.httpClient = httpClient;
+        }
+      }
+    }
+
+    return httpClient;
+  }
+
+  private HttpClient createHttpClient() {
+    final HttpClient.Builder builder =
+        HttpClient.newBuilder()
+            .connectTimeout(this.connectTimeout)
+            .followRedirects(HttpClient.Redirect.NORMAL);
+
+    if (this.proxy != null) {
+      builder.proxy(ProxySelector.of(this.proxy));
+    }
+
+    if (this.proxyCredentials != null) {
+      final PasswordAuthentication credentials = this.proxyCredentials;
+      builder.authenticator(
+          new Authenticator() {
+            @Override
+            protected PasswordAuthentication getPasswordAuthentication() {
+              // The credentials are only for the proxy, never for the servers
+              return getRequestorType() == RequestorType.PROXY ? credentials : null;
+            }
+          });
+    }
+
+    return builder.build();
+  }
+
+  /**
+   * @return true if the system property of the JDK allows the Basic credentials of the proxy for
+   *     the tunnels. The JDK disables them when the property is not set.
+   */
+  private static boolean isBasicTunnelingAllowed() {
+    final String schemes = System.getProperty(TUNNELING_DISABLED_SCHEMES);
+    if (schemes == null) {
+      return false;
+    }
+
+    for (String scheme : schemes.split(",")) {
+      if (scheme.trim().equalsIgnoreCase("Basic")) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  @Override
+  public String get(URI uri, Header[] headers)
+      throws IOException, SpotifyWebApiException, ParseException {
+    return send(request(uri, headers).GET().build());
+  }
+
+  /**
+   * Send a GET request without waiting for the response.
+   *
+   * @param uri the URI of the request
+   * @param headers the headers of the request
+   * @return the future body of the response. It fails with the same exceptions thrown by {@link
+   *     #get(URI, Header[])}.
+   */
+  public CompletableFuture<String> getAsync(URI uri, Header[] headers) {
+    final HttpRequest request;
+    try {
+      request = request(uri, headers).GET().build();
+    } catch (IllegalStateException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+
+    return getHttpClient()
+        .sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8))
+        .thenApply(
+            response -> {
+              try {
+                return handleResponse(
+                    response.statusCode(),
+                    response.body(),
+                    response.headers().firstValue("Retry-After").orElse(null));
+              } catch (SpotifyWebApiException e) {
+                throw new CompletionException(e);
+              }
+            });
+  }
+
+  @Override
+  public String post(URI uri, Header[] headers, HttpEntity body)
+      throws IOException, SpotifyWebApiException, ParseException {
+    return send(withBody(request(uri, headers), "POST", body).build());
+  }
+
+  @Override
+  public String put(URI uri, Header[] headers, HttpEntity body)
+      throws IOException, SpotifyWebApiException, ParseException {
+    return send(withBody(request(uri, headers), "PUT", body).build());
+  }
+
+  @Override
+  public String delete(URI uri, Header[] headers, HttpEntity body)
+      throws IOException, SpotifyWebApiException, ParseException {
+    return send(withBody(request(uri, headers), "DELETE", body).build());
+  }
+
+  /**
+   * Convert the response into its body, or into the exception that corresponds to its status.
+   *
+   * @param status the HTTP status of the response
+   * @param body the body of the response
+   * @param retryAfter the value of the <code>Retry-After</code> header, or null if missing
+   * @return the body of the response
+   * @throws SpotifyWebApiException if the status is an error
+   */
+  static String handleResponse(int status, String body, String retryAfter)
+      throws SpotifyWebApiException {
+    if (status < 400) {
+      return body;
+    }
+
+    final String message = errorMessage(body);
+
+    switch (status) {
+      case 400:
+        throw new BadRequestException(message);
+      case 401:
+        throw new UnauthorizedException(message);
+      case 403:
+        throw new ForbiddenException(message);
+      case 404:
+        throw new NotFoundException(message);
+      case 429:
+        final Integer seconds = parseRetryAfter(retryAfter);
+        throw seconds != null
+            ? new TooManyRequestsException(message, seconds)
+            : new TooManyRequestsException(message);
+      case 500:
+        throw new InternalServerErrorException(message);
+      case 502:
+        throw new BadGatewayException(message);
+      case 503:
+        throw new ServiceUnavailableException(message);
+      default:
+        throw new SpotifyWebApiException(message);
+    }
+  }
+
+  /**
+   * @throws IllegalStateException if the request is tunneled through a proxy with credentials, but
+   *     the JDK does not send them
+   */
+  private HttpRequest.Builder request(URI uri, Header[] headers) {
+    if (this.proxyCredentials != null
+        && !this.basicTunneling
+        && "https".equalsIgnoreCase(uri.getScheme())) {
+      throw new IllegalStateException(
+          "The credentials of the proxy are not sent for the HTTPS requests: start the JVM with -D"
+              + TUNNELING_DISABLED_SCHEMES
+              + "= to allow them");
+    }
+
+    final HttpRequest.Builder builder = HttpRequest.newBuilder(uri).timeout(this.requestTimeout);
+
+    if (headers != null) {
+      for (Header header : headers) {
+        if (!RESTRICTED_HEADERS.contains(header.getName().toLowerCase())) {
+          builder.header(header.getName(), header.getValue());
+        }
+      }
+    }
+
+    return builder;
+  }
+
+  private static HttpRequest.Builder withBody(
+      HttpRequest.Builder builder, String method, HttpEntity body) throws IOException {
+    if (body == null) {
+      return builder.method(method, HttpRequest.BodyPublishers.noBody());
+    }
+
+    final ByteArrayOutputStream content = new ByteArrayOutputStream();
+    body.writeTo(content);
+
+    if (body.getContentType() != null) {
+      builder.setHeader("Content-Type", body.getContentType());
+    }
+
+    return builder.method(method, HttpRequest.BodyPublishers.ofByteArray(content.toByteArray()));
+  }
+
+  private String send(HttpRequest request) throws IOException, SpotifyWebApiException {
+    final HttpResponse<String> response;
+
+    try {
+      response =
+          getHttpClient().send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for " + request.uri());
+    }
+
+    return handleResponse(
+        response.statusCode(),
+        response.body(),
+        response.headers().firstValue("Retry-After").orElse(null));
+  }
+
+  private static InetSocketAddress proxyAddress(String proxyHost, Integer proxyPort) {
+    String host = proxyHost.trim();
+    int port = proxyPort != null ? proxyPort : -1;
+
+    if (host.contains("://")) {
+      final URI uri = URI.create(host);
+
+      if (uri.getHost() == null) {
+        throw new IllegalArgumentException("The proxy URL has no host: " + proxyHost);
+      }
+      host = uri.getHost();
+      port = port < 0 ? uri.getPort() : port;
+    }
+
+    return InetSocketAddress.createUnresolved(host, port < 0 ? DEFAULT_PROXY_PORT : port);
+  }
+
+  /**
+   * @param retryAfter the value of the <code>Retry-After</code> header
+   * @return the seconds to wait, or null if the header is missing or it contains a date
+   */
+  private static Integer parseRetryAfter(String retryAfter) {
+    if (retryAfter == null) {
+      return null;
+    }
+
+    try {
+      return Integer.parseInt(retryAfter.trim());
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Extract the error message from the body of an error response, in the same way of the default
+   * manager of the Spotify library.
+   */
+  private static String errorMessage(String body) {
+    if (body == null || body.isEmpty()) {
+      return null;
+    }
+
+    try {
+      final JsonElement element = JsonParser.parseString(body);
+
+      if (element.isJsonObject() && element.getAsJsonObject().has("error")) {
+        final JsonObject object = element.getAsJsonObject();
+
+        if (object.has("error_description")) {
+          return object.get("error_description").getAsString();
+        }
+
+        if (object.get("error").isJsonObject() && object.getAsJsonObject("error").has("message")) {
+          return object.getAsJsonObject("error").get("message").getAsString();
+        }
+      }
+    } catch (JsonSyntaxException | IllegalStateException e) {
+      // Not a JSON error, the body is used as it is
+    }
+
+    return body;
+  }
+}
@@ -0,0 +1,147 @@
+package it.utilities.spotify.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations with a fixed relative precision, in the style of HdrHistogram.<br>
+ * The durations are counted in microseconds in buckets whose width doubles at every power of two,
+ * with 64 buckets for every power of two: the percentiles are exact up to 128 microseconds and
+ * within 1.6% above. Durations up to about 25 days are counted, the longer ones in the last bucket.
+ * <br>
+ * Recording a duration only increments atomic counters, so it can be done by many threads without
+ * locks. The percentiles are computed when they are read.
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 7;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int HALF_SUB_BUCKETS = SUB_BUCKETS >> 1;
+  private static final int MAX_EXPONENT = 40;
+  private static final long MAX_MICROS = (1L << (MAX_EXPONENT + 1)) - 1;
+  private static final int BUCKETS =
+      SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * HALF_SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  /**
+   * @param nanos the duration to record, in nanoseconds
+   */
+  public void record(long nanos) {
+    final long value = Math.max(0, nanos);
+
+    this.counts.incrementAndGet(bucket(TimeUnit.NANOSECONDS.toMicros(value)));
+    this.count.increment();
+    this.totalNanos.add(value);
+
+    if (value > this.maxNanos.get()) {
+      this.maxNanos.accumulateAndGet(value, Math::max);
+    }
+  }
+
+  /**
+   * @return the number of recorded durations
+   */
+  public long getCount() {
+    return this.count.sum();
+  }
+
+  /**
+   * @return the sum of the recorded durations, in milliseconds
+   */
+  public double getTotalMillis() {
+    return toMillis(this.totalNanos.sum());
+  }
+
+  /**
+   * @return the mean of the recorded durations in milliseconds, zero if there are none
+   */
+  public double getMeanMillis() {
+    final long count = this.count.sum();
+
+    return count > 0 ? toMillis(this.totalNanos.sum()) / count : 0;
+  }
+
+  /**
+   * @return the longest recorded duration, in milliseconds
+   */
+  public double getMaxMillis() {
+    return toMillis(this.maxNanos.get());
+  }
+
+  /**
+   * @param percentile the percentile, between 0 and 100
+   * @return the duration in milliseconds that is not exceeded by the given percentage of the
+   *     recorded durations, zero if there are none
+   */
+  public double getPercentileMillis(double percentile) {
+    final long[] snapshot = new long[BUCKETS];
+    long total = 0;
+
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = this.counts.get(i);
+      total += snapshot[i];
+    }
+
+    if (total == 0) {
+      return 0;
+    }
+
+    final long rank =
+        Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total));
+    long seen = 0;
+
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snapshot[i];
+
+      if (seen >= rank) {
+        return Math.min(toMillis(TimeUnit.MICROSECONDS.toNanos(highestValue(i))), getMaxMillis());
+      }
+    }
+
+    return getMaxMillis();
+  }
+
+  /**
+   * @param micros the duration in microseconds
+   * @return the bucket that counts the duration
+   */
+  static int bucket(long micros) {
+    final long value = Math.min(Math.max(0, micros), MAX_MICROS);
+
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+
+    final int exponent = 63 - Long.numberOfLeadingZeros(value);
+
+    return SUB_BUCKETS
+        + (exponent - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS
+        + (int) ((value >>> (exponent - SUB_BUCKET_BITS + 1)) - HALF_SUB_BUCKETS);
+  }
+
+  /**
+   * @param bucket the bucket
+   * @return the highest duration in microseconds counted by the bucket
+   */
+  static long highestValue(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+
+    final int exponent = SUB_BUCKET_BITS + (bucket - SUB_BUCKETS) / HALF_SUB_BUCKETS;
+    final long subBucket = (bucket - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+    final int shift = exponent - SUB_BUCKET_BITS + 1;
+
+    return (subBucket << shift) + (1L << shift) - 1;
+  }
+
+  private static double toMillis(long nanos) {
+    return nanos / 1_000_000.0;
+  }
+}
@@ -0,0 +1,563 @@
+package it.utilities.spotify.core;
+
+import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Instances of the LibraryFile class read an export of all the playlists of a user and of their
+ * items, so the library can be checked again without any request to Spotify.<br>
+ * The file is columnar: every field of the items is stored in its own fixed-width column, and the
+ * strings are stored once in a dictionary and referenced by their number, so the titles and the IDs
+ * repeated in several playlists take four bytes for every repetition. The file is read through a
+ * memory-mapped buffer and the strings are decoded only when they are used.<br>
+ * The layout of version 1, big-endian:
+ *
+ * <ul>
+ *   <li>header: magic, version, padding, creation time, number of playlists, of items, of artists
+ *       and of strings, bytes of the strings, padding
+ *   <li><code>long</code> columns: time when every item was added
+ *   <li><code>int</code> columns: ID, name and snapshot of every playlist and row of its first
+ *       item, with one more row for the end; position, duration, title, ID, URI and ISRC of every
+ *       item and its first artist, with one more artist for the end; ID and name of every artist;
+ *       offset of every string, with one more offset for the end
+ *   <li><code>byte</code> columns: kind and local flag of every item, then the UTF-8 bytes of the
+ *       strings
+ * </ul>
+ *
+ * The strings are referenced by their number, -1 is a null string. The URIs that can be rebuilt
+ * from the IDs are not stored.
+ */
+public final class LibraryFile {
+
+  private static final int MAGIC = 0x53504c46; // SPLF
+  private static final short VERSION = 1;
+  private static final int HEADER_BYTES = 40;
+
+  private final Path path;
+  private final long createdAt;
+  private final int playlistCount;
+  private final int trackCount;
+
+  private final LongBuffer addedAt;
+  private final IntBuffer playlistIds;
+  private final IntBuffer playlistNames;
+  private final IntBuffer snapshotIds;
+  private final IntBuffer playlistStart;
+  private final IntBuffer positions;
+  private final IntBuffer durations;
+  private final IntBuffer names;
+  private final IntBuffer ids;
+  private final IntBuffer uris;
+  private final IntBuffer isrcs;
+  private final IntBuffer artistStart;
+  private final IntBuffer artistIds;
+  private final IntBuffer artistNames;
+  private final IntBuffer stringOffsets;
+  private final ByteBuffer kinds;
+  private final ByteBuffer local;
+  private final ByteBuffer stringBytes;
+
+  /** The strings already decoded, by their number. */
+  private final String[] strings;
+
+  private LibraryFile(Path path, ByteBuffer buffer) throws IOException {
+    this.path = path;
+
+    if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+      throw new IOException(String.format("The file %s is not a library export", path));
+    }
+
+    final short version = buffer.getShort(4);
+    if (version != VERSION) {
+      throw new IOException(
+          String.format(
+              "The library export %s has version %d, only version %d is supported",
+              path, version, VERSION));
+    }
+
+    this.createdAt = buffer.getLong(8);
+    this.playlistCount = buffer.getInt(16);
+    this.trackCount = buffer.getInt(20);
+    final int artistCount = buffer.getInt(24);
+    final int stringCount = buffer.getInt(28);
+    final int stringLength = buffer.getInt(32);
+
+    final long length =
+        HEADER_BYTES
+            + Long.BYTES * (long) this.trackCount
+            + Integer.BYTES * (4L * this.playlistCount + 1)
+            + Integer.BYTES * (7L * this.trackCount + 1)
+            + Integer.BYTES * 2L * artistCount
+            + Integer.BYTES * ((long) stringCount + 1)
+            + 2L * this.trackCount
+            + stringLength;
+
+    if (this.playlistCount < 0
+        || this.trackCount < 0
+        || artistCount < 0
+        || stringCount < 0
+        || stringLength < 0
+        || length != buffer.capacity()) {
+      throw new IOException(String.format("The library export %s is truncated or corrupted", path));
+    }
+
+    final Slicer slicer = new Slicer(buffer);
+
+    this.addedAt = slicer.bytes(Long.BYTES * this.trackCount).asLongBuffer();
+    this.playlistIds = slicer.ints(this.playlistCount);
+    this.playlistNames = slicer.ints(this.playlistCount);
+    this.snapshotIds = slicer.ints(this.playlistCount);
+    this.playlistStart = slicer.ints(this.playlistCount + 1);
+    this.positions = slicer.ints(this.trackCount);
+    this.durations = slicer.ints(this.trackCount);
+    this.names = slicer.ints(this.trackCount);
+    this.ids = slicer.ints(this.trackCount);
+    this.uris = slicer.ints(this.trackCount);
+    this.isrcs = slicer.ints(this.trackCount);
+    this.artistStart = slicer.ints(this.trackCount + 1);
+    this.artistIds = slicer.ints(artistCount);
+    this.artistNames = slicer.ints(artistCount);
+    this.stringOffsets = slicer.ints(stringCount + 1);
+    this.kinds = slicer.bytes(this.trackCount);
+    this.local = slicer.bytes(this.trackCount);
+    this.stringBytes = slicer.bytes(stringLength);
+
+    this.strings = new String[stringCount];
+  }
+
+  /**
+   * Map a library export in memory.
+   *
+   * @param path the file written by {@link PlaylistUtility#exportLibrary(Path)}
+   * @return the library stored in the file
+   * @throws IOException if the file cannot be read, or it is not a library export of a supported
+   *     version
+   */
+  public static LibraryFile open(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException(String.format("The library export %s is too large", path));
+      }
+
+      return new LibraryFile(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * Start writing a library export. The file is written only when {@link Writer#commit()} is
+   * called.
+   *
+   * @param path the file to write, replaced if it exists
+   * @return the writer of the playlists
+   * @throws IOException if the temporary files of the columns cannot be created
+   */
+  static Writer writer(Path path) throws IOException {
+    return new Writer(path);
+  }
+
+  public Path getPath() {
+    return this.path;
+  }
+
+  /**
+   * @return the time when the export was written, in milliseconds
+   */
+  public long getCreatedAt() {
+    return this.createdAt;
+  }
+
+  /**
+   * @return the number of exported playlists
+   */
+  public int getPlaylistCount() {
+    return this.playlistCount;
+  }
+
+  /**
+   * @return the number of exported items of all the playlists
+   */
+  public int getTrackCount() {
+    return this.trackCount;
+  }
+
+  /**
+   * @param playlist the index of the playlist, in the order of the export
+   * @return the ID of the playlist
+   */
+  public String getPlaylistId(int playlist) {
+    return string(this.playlistIds.get(playlist));
+  }
+
+  /**
+   * @param playlist the index of the playlist, in the order of the export
+   * @return the name of the playlist
+   */
+  public String getPlaylistName(int playlist) {
+    return string(this.playlistNames.get(playlist));
+  }
+
+  /**
+   * @param playlist the index of the playlist, in the order of the export
+   * @return the snapshot of the playlist the exported items belong to
+   */
+  public String getSnapshotId(int playlist) {
+    return string(this.snapshotIds.get(playlist));
+  }
+
+  /**
+   * @return the IDs of the playlists, in the order of the export
+   */
+  public List<String> getPlaylistIds() {
+    return new PlaylistIdView();
+  }
+
+  /**
+   * @param playlist the index of the playlist, in the order of the export
+   * @return the items of the playlist, in playlist order
+   */
+  public List<PlaylistTrack> getTracks(int playlist) {
+    final TrackTable tracks = new TrackTable();
+
+    for (int row = firstRow(playlist); row < firstRow(playlist + 1); row++) {
+      copy(row, tracks);
+    }
+
+    return tracks.toList();
+  }
+
+  /**
+   * @param playlist the index of the playlist, or the number of playlists for the end
+   * @return the row of the first item of the playlist
+   */
+  int firstRow(int playlist) {
+    return this.playlistStart.get(playlist);
+  }
+
+  /**
+   * @param row the row of the item
+   * @return true if the item has a track or an episode with a title
+   */
+  boolean hasTitle(int row) {
+    return this.kinds.get(row) != 0 && this.names.get(row) >= 0;
+  }
+
+  /**
+   * Append an item to a table.
+   *
+   * @param row the row of the item
+   * @param tracks the table where the item is appended, with its position in the playlist
+   * @return the row of the item in the table
+   */
+  int copy(int row, TrackTable tracks) {
+    final int copied =
+        tracks.append(
+            this.kinds.get(row),
+            this.local.get(row),
+            this.addedAt.get(row),
+            this.durations.get(row),
+            this.positions.get(row),
+            string(this.ids.get(row)),
+            string(this.uris.get(row)),
+            string(this.names.get(row)),
+            string(this.isrcs.get(row)));
+
+    for (int artist = this.artistStart.get(row); artist < this.artistStart.get(row + 1); artist++) {
+      tracks.appendArtist(string(this.artistIds.get(artist)), string(this.artistNames.get(artist)));
+    }
+
+    return copied;
+  }
+
+  /**
+   * @param number the number of the string in the dictionary, -1 for null
+   * @return the string, decoded the first time it is used
+   */
+  private String string(int number) {
+    if (number < 0) {
+      return null;
+    }
+
+    // Two threads can decode the same string, they store equal values
+    String value = this.strings[number];
+
+    if (value == null) {
+      final int from = this.stringOffsets.get(number);
+      final byte[] bytes = new byte[this.stringOffsets.get(number + 1) - from];
+      this.stringBytes.duplicate().position(from).get(bytes);
+
+      value = new String(bytes, StandardCharsets.UTF_8);
+      this.strings[number] = value;
+    }
+
+    return value;
+  }
+
+  /** Cuts the consecutive columns of the file. */
+  private static final class Slicer {
+
+    private final ByteBuffer buffer;
+    private int offset = HEADER_BYTES;
+
+    private Slicer(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    private IntBuffer ints(int count) {
+      return bytes(Integer.BYTES * count).asIntBuffer();
+    }
+
+    private ByteBuffer bytes(int length) {
+      final ByteBuffer column =
+          this.buffer.duplicate().position(this.offset).limit(this.offset + length).slice();
+      this.offset += length;
+
+      return column;
+    }
+  }
+
+  private final class PlaylistIdView extends AbstractList<String> implements RandomAccess {
+
+    @Override
+    public String get(int index) {
+      return getPlaylistId(index);
+    }
+
+    @Override
+    public int size() {
+      return LibraryFile.this.playlistCount;
+    }
+  }
+
+  /**
+   * Writer of a library export. The items of every playlist are encoded in the columns as soon as
+   * they are appended, so the tables of the playlists can be discarded right away. Every column is
+   * written to its own temporary file, next to the export, so the library is never kept in memory.
+   */
+  static final class Writer implements AutoCloseable {
+
+    private final Path path;
+    private final Map<String, Integer> dictionary = new HashMap<>();
+
+    /** The directory of the temporary files, deleted by {@link #close()}. */
+    private final Path directory;
+
+    /** The columns in the order of the file. */
+    private final List<Column> columns = new ArrayList<>();
+
+    private final Column addedAt;
+    private final Column playlistIds;
+    private final Column playlistNames;
+    private final Column snapshotIds;
+    private final Column playlistStart;
+    private final Column positions;
+    private final Column durations;
+    private final Column names;
+    private final Column ids;
+    private final Column uris;
+    private final Column isrcs;
+    private final Column artistStart;
+    private final Column artistIds;
+    private final Column artistNames;
+    private final Column stringOffsets;
+    private final Column kinds;
+    private final Column local;
+    private final Column stringBytes;
+
+    private int playlistCount;
+    private int trackCount;
+    private int artistCount;
+    private boolean closed;
+
+    private Writer(Path path) throws IOException {
+      this.path = path;
+      this.directory = Files.createTempDirectory(path.toAbsolutePath().getParent(), "library");
+
+      try {
+        this.addedAt = column("addedAt");
+        this.playlistIds = column("playlistIds");
+        this.playlistNames = column("playlistNames");
+        this.snapshotIds = column("snapshotIds");
+        this.playlistStart = column("playlistStart");
+        this.positions = column("positions");
+        this.durations = column("durations");
+        this.names = column("names");
+        this.ids = column("ids");
+        this.uris = column("uris");
+        this.isrcs = column("isrcs");
+        this.artistStart = column("artistStart");
+        this.artistIds = column("artistIds");
+        this.artistNames = column("artistNames");
+        this.stringOffsets = column("stringOffsets");
+        this.kinds = column("kinds");
+        this.local = column("local");
+        this.stringBytes = column("stringBytes");
+      } catch (IOException e) {
+        close();
+        throw e;
+      }
+    }
+
+    /**
+     * Append a playlist with all its items.
+     *
+     * @param playlistId the ID of the playlist
+     * @param name the name of the playlist
+     * @param snapshotId the snapshot the items belong to
+     * @param tracks the items of the playlist, in playlist order
+     * @throws IOException if the items cannot be encoded
+     */
+    void append(String playlistId, String name, String snapshotId, TrackTable tracks)
+        throws IOException {
+      this.playlistIds.writeInt(code(playlistId));
+      this.playlistNames.writeInt(code(name));
+      this.snapshotIds.writeInt(code(snapshotId));
+      this.playlistStart.writeInt(this.trackCount);
+
+      for (int row = 0; row < tracks.size(); row++) {
+        this.addedAt.writeLong(tracks.addedAt(row));
+        this.positions.writeInt(tracks.position(row));
+        this.durations.writeInt(tracks.durationMs(row));
+        this.names.writeInt(code(tracks.name(row)));
+        this.ids.writeInt(code(tracks.id(row)));
+        this.uris.writeInt(code(tracks.storedUri(row)));
+        this.isrcs.writeInt(code(tracks.isrc(row)));
+        this.artistStart.writeInt(this.artistCount);
+        this.kinds.writeByte(tracks.kind(row));
+        this.local.writeByte(tracks.local(row));
+
+        for (int artist = 0; artist < tracks.artists(row); artist++) {
+          this.artistIds.writeInt(code(tracks.artistId(row, artist)));
+          this.artistNames.writeInt(code(tracks.artistName(row, artist)));
+          this.artistCount++;
+        }
+      }
+
+      this.playlistCount++;
+      this.trackCount += tracks.size();
+    }
+
+    /**
+     * Write the file, replacing the previous one only when it is complete.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    void commit() throws IOException {
+      this.playlistStart.writeInt(this.trackCount);
+      this.artistStart.writeInt(this.artistCount);
+      this.stringOffsets.writeInt(this.stringBytes.size());
+
+      final Path temporary = this.directory.resolve("library.tmp");
+
+      try {
+        try (DataOutputStream output =
+            new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+          output.writeInt(MAGIC);
+          output.writeShort(VERSION);
+          output.writeShort(0);
+          output.writeLong(System.currentTimeMillis());
+          output.writeInt(this.playlistCount);
+          output.writeInt(this.trackCount);
+          output.writeInt(this.artistCount);
+          output.writeInt(this.dictionary.size());
+          output.writeInt(this.stringBytes.size());
+          output.writeInt(0);
+
+          for (Column column : this.columns) {
+            column.writeTo(output);
+          }
+        }
+
+        Files.move(
+            temporary,
+            this.path,
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(temporary);
+        close();
+      }
+    }
+
+    /** Delete the temporary files, the previous export is not changed if it was not committed. */
+    @Override
+    public void close() throws IOException {
+      if (this.closed) {
+        return;
+      }
+
+      this.closed = true;
+      for (Column column : this.columns) {
+        column.close();
+        Files.deleteIfExists(column.file);
+      }
+      Files.deleteIfExists(this.directory);
+    }
+
+    /**
+     * @param name the name of the column
+     * @return a new column, in the temporary file with the given name
+     */
+    private Column column(String name) throws IOException {
+      final Column column = new Column(this.directory.resolve(name + ".col"));
+      this.columns.add(column);
+
+      return column;
+    }
+
+    /**
+     * @param value the string to store, can be null
+     * @return the number of the string in the dictionary, added the first time, or -1 for null
+     */
+    private int code(String value) throws IOException {
+      if (value == null) {
+        return -1;
+      }
+
+      final Integer existing = this.dictionary.get(value);
+      if (existing != null) {
+        return existing;
+      }
+
+      final int code = this.dictionary.size();
+      this.dictionary.put(value, code);
+      this.stringOffsets.writeInt(this.stringBytes.size());
+      this.stringBytes.write(value.getBytes(StandardCharsets.UTF_8));
+
+      return code;
+    }
+  }
+
+  /** Column of the file, encoded in its own temporary file until the file is written. */
+  private static final class Column extends DataOutputStream {
+
+    private final Path file;
+
+    private Column(Path file) throws IOException {
+      super(new BufferedOutputStream(Files.newOutputStream(file)));
+      this.file = file;
+    }
+
+    private void writeTo(OutputStream output) throws IOException {
+      flush();
+      Files.copy(this.file, output);
+    }
+  }
+}
@@ -0,0 +1,414 @@
+package it.utilities.spotify.core;
+
+import com.wrapper.spotify.exceptions.SpotifyWebApiException;
+import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.Stream;
+import org.apache.hc.core5.http.ParseException;
+
+/**
+ * Scan of several playlists that looks for the tracks with the same title (or partially the same),
+ * in the same playlist or in different ones.<br>
+ * Every playlist is retrieved and indexed by its own task of a {@link ForkJoinPool}, then the
+ * partial indexes are merged two by two following the tree of the tasks. The requests wait as
+ * managed blockers, so the pool keeps all the cores busy with the indexing while they are pending.
+ * <br>
+ * The items are stored in {@link TrackTable}s while they are received, with a string pool shared by
+ * the whole scan, so the objects returned by the Spotify API are dropped right away and the titles
+ * and the IDs that are in more than one playlist are stored once. Only the items of the groups are
+ * rebuilt from the tables, like for the export of a library read from a {@link LibraryFile}.<br>
+ * The duration of the indexing and of the grouping and the number of tracks are recorded in the
+ * {@link Metrics}.
+ */
+final class LibraryScan {
+
+  /** Phase that retrieves and indexes all the playlists. */
+  static final String PHASE_INDEX = "library-index";
+
+  /** Phase that groups the matching tracks of the whole library. */
+  static final String PHASE_GROUP = "library-group";
+
+  private final SpotifyApiWrapper spotifyApiWrapper;
+  private final List<String> playlistIds;
+  private final Metrics metrics;
+
+  /** The pool of the strings of all the tables of the scan. */
+  private final StringPool strings = new StringPool();
+
+  /** The export read by {@link #run()}, or null for the scans of the playlists on Spotify. */
+  private final LibraryFile library;
+
+  /**
+   * @param spotifyApiWrapper the wrapper used to retrieve the items of the playlists
+   * @param playlistIds the IDs of the playlists to scan
+   * @param metrics the metrics where the scan is recorded
+   */
+  LibraryScan(SpotifyApiWrapper spotifyApiWrapper, List<String> playlistIds, Metrics metrics) {
+    this.spotifyApiWrapper = spotifyApiWrapper;
+    this.playlistIds = playlistIds;
+    this.metrics = metrics;
+    this.library = null;
+  }
+
+  /**
+   * @param library the export of the playlists to scan, no request is sent to Spotify
+   * @param metrics the metrics where the scan is recorded
+   */
+  LibraryScan(LibraryFile library, Metrics metrics) {
+    this.spotifyApiWrapper = null;
+    this.playlistIds = library.getPlaylistIds();
+    this.metrics = metrics;
+    this.library = library;
+  }
+
+  /**
+   * Retrieve and index all the playlists, then group the matching tracks.<br>
+   * The items without a track or without a title, like the tracks no longer available, are skipped.
+   *
+   * @param pool the pool that runs the tasks
+   * @return the groups of duplicated tracks, ordered by their first track
+   * @throws IOException
+   * @throws SpotifyWebApiException
+   * @throws ParseException
+   */
+  List<DuplicateGroup> run(ForkJoinPool pool)
+      throws IOException, SpotifyWebApiException, ParseException {
+    final Partial library;
+    final long start = System.nanoTime();
+
+    try {
+      library = pool.invoke(new IndexTask(0, this.playlistIds.size()));
+    } catch (CompletionException e) {
+      throw unwrap(e);
+    }
+
+    this.metrics.phase(PHASE_INDEX).recordSince(start);
+
+    return groups(
+        library.titleIndex, library.playlists, library.tracks::position, library.tracks::get);
+  }
+
+  /**
+   * Retrieve all the playlists asynchronously, then index them and group the matching tracks.<br>
+   * All the playlists are requested at once and the scheduler of the wrapper decides how many
+   * requests are in flight, so no thread waits for the responses. Every playlist is indexed by the
+   * executor as soon as it is received. The items without a track or without a title are skipped.
+   *
+   * @param executor the executor that indexes the playlists
+   * @return the future groups of duplicated tracks, ordered by their first track. Completing it
+   *     cancels the requests in progress.
+   */
+  CompletableFuture<List<DuplicateGroup>> runAsync(Executor executor) {
+    final List<CompletableFuture<Partial>> partials = new ArrayList<>(this.playlistIds.size());
+    final long start = System.nanoTime();
+
+    for (int playlist = 0; playlist < this.playlistIds.size(); playlist++) {
+      final int index = playlist;
+
+      partials.add(
+          Futures.compose(
+              this.spotifyApiWrapper.getAllPlaylistsItemsAsync(this.playlistIds.get(playlist)),
+              items ->
+                  CompletableFuture.supplyAsync(() -> index(index, items.iterator()), executor)));
+    }
+
+    return Futures.allOf(
+        partials,
+        completed -> {
+          Partial library = Partial.empty(this.strings);
+          for (Partial partial : completed) {
+            library = library.merge(partial);
+          }
+          this.metrics.phase(PHASE_INDEX).recordSince(start);
+
+          return groups(
+              library.titleIndex, library.playlists, library.tracks::position, library.tracks::get);
+        });
+  }
+
+  /**
+   * Index all the playlists of the export given to the constructor, then group the matching
+   * tracks.<br>
+   * The items are copied straight from the columns of the file to a single table, and the items
+   * without a track or without a title are skipped like for the playlists retrieved from Spotify.
+   * Only the items of the groups are rebuilt from the table, once each.
+   *
+   * @return the groups of duplicated tracks, ordered by their first track
+   */
+  List<DuplicateGroup> run() {
+    final LibraryFile library = this.library;
+    final long start = System.nanoTime();
+    final TrackTable tracks = new TrackTable();
+    final TitleIndex titleIndex = new TitleIndex();
+    int[] playlists = new int[library.getTrackCount()];
+
+    for (int playlist = 0; playlist < library.getPlaylistCount(); playlist++) {
+      for (int row = library.firstRow(playlist); row < library.firstRow(playlist + 1); row++) {
+        if (library.hasTitle(row)) {
+          playlists[library.copy(row, tracks)] = playlist;
+        }
+      }
+    }
+
+    final TitleKeyCache keys = TitleKeyCache.global();
+    for (int row = 0; row < tracks.size(); row++) {
+      titleIndex.add(keys.get(tracks, row));
+    }
+
+    playlists = Arrays.copyOf(playlists, tracks.size());
+    this.metrics.addTracks(tracks.size());
+    this.metrics.phase(PHASE_INDEX).recordSince(start);
+
+    return groups(titleIndex, playlists, tracks::position, tracks::get);
+  }
+
+  /**
+   * @param titleIndex the index of the titles of all the playlists
+   * @param playlists the playlist of every title, as an index of the scanned playlists
+   * @param positions the position in its playlist of the track of every title
+   * @param tracks the track of every title
+   * @return the groups of duplicated tracks, ordered by their first track
+   */
+  private List<DuplicateGroup> groups(
+      TitleIndex titleIndex,
+      int[] playlists,
+      IntUnaryOperator positions,
+      IntFunction<PlaylistTrack> tracks) {
+    final long start = System.nanoTime();
+
+    // The titles are numbered in playlist order, so sorting them sorts the tracks too
+    final List<int[]> titleGroups = titleIndex.groups(2);
+    titleGroups.sort(Comparator.comparingInt(titles -> titles[0]));
+
+    final List<DuplicateGroup> groups = new ArrayList<>(titleGroups.size());
+
+    for (int[] titles : titleGroups) {
+      final List<String> playlistIds = new ArrayList<>(titles.length);
+      final List<Integer> groupPositions = new ArrayList<>(titles.length);
+      final List<PlaylistTrack> groupTracks = new ArrayList<>(titles.length);
+
+      for (int title : titles) {
+        playlistIds.add(this.playlistIds.get(playlists[title]));
+        groupPositions.add(positions.applyAsInt(title));
+        groupTracks.add(tracks.apply(title));
+      }
+
+      groups.add(
+          new DuplicateGroup(playlistIds, groupPositions, groupTracks, TitlePrefixStage.NAME));
+    }
+
+    this.metrics.phase(PHASE_GROUP).recordSince(start);
+
+    return groups;
+  }
+
+  /**
+   * @param e the exception thrown by the pool
+   * @return the unchecked exception that caused the failure, or the exception itself
+   * @throws IOException if the failure was caused by a request
+   * @throws SpotifyWebApiException if the failure was caused by a request
+   * @throws ParseException if the failure was caused by a request
+   */
+  private static RuntimeException unwrap(CompletionException e)
+      throws IOException, SpotifyWebApiException, ParseException {
+    Throwable cause = e;
+
+    // The pool can wrap again the exception thrown by a task running in another thread
+    while (cause instanceof CompletionException && cause.getCause() != null) {
+      cause = cause.getCause();
+    }
+
+    if (cause instanceof IOException) {
+      throw (IOException) cause;
+    } else if (cause instanceof SpotifyWebApiException) {
+      throw (SpotifyWebApiException) cause;
+    } else if (cause instanceof ParseException) {
+      throw (ParseException) cause;
+    } else if (cause instanceof RuntimeException) {
+      return (RuntimeException) cause;
+    }
+
+    return e;
+  }
+
+  /**
+   * Index the items with a title, storing them in a table as soon as they are received.
+   *
+   * @param playlist the index of the playlist
+   * @param items the items of the playlist, in playlist order
+   * @return the index of the titles of the playlist
+   */
+  private Partial index(int playlist, Iterator<PlaylistTrack> items) {
+    final Partial partial = Partial.empty(this.strings);
+    final TitleKeyCache keys = TitleKeyCache.global();
+
+    for (int position = 0; items.hasNext(); position++) {
+      final PlaylistTrack track = items.next();
+
+      if (track != null && track.getTrack() != null && track.getTrack().getName() != null) {
+        partial.titleIndex.add(keys.get(track.getTrack().getId(), track.getTrack().getName()));
+        partial.add(track, position, playlist);
+      }
+    }
+
+    this.metrics.addTracks(partial.tracks.size());
+
+    return partial;
+  }
+
+  /** Index of a range of playlists, built by a task. */
+  private static final class Partial {
+
+    private final TitleIndex titleIndex;
+
+    /** The track of every title of the index, in the same order, with its position. */
+    private final TrackTable tracks;
+
+    /**
+     * The playlist of every title of the index, as an index of the scanned playlists. The array
+     * can be longer than the titles, it grows by doubling.
+     */
+    private int[] playlists;
+
+    private Partial(TitleIndex titleIndex, TrackTable tracks, int[] playlists) {
+      this.titleIndex = titleIndex;
+      this.tracks = tracks;
+      this.playlists = playlists;
+    }
+
+    private static Partial empty(StringPool strings) {
+      return new Partial(new TitleIndex(), new TrackTable(strings), new int[0]);
+    }
+
+    /** Add the track of the last title added to the index. */
+    private void add(PlaylistTrack track, int position, int playlist) {
+      final int title = this.tracks.append(track, position);
+      ensureCapacity(title + 1);
+
+      this.playlists[title] = playlist;
+    }
+
+    /**
+     * Append the titles of the other partial index, that covers the following playlists.<br>
+     * The time needed is proportional to the size of the other index, not of this one: the
+     * accumulating merges of {@link #runAsync(Executor)} add one playlist at a time to the whole
+     * library, and the merges of the tasks join two halves of similar size.
+     */
+    private Partial merge(Partial other) {
+      final int count = other.tracks.size();
+      final int offset = this.titleIndex.merge(other.titleIndex);
+      ensureCapacity(offset + count);
+
+      this.tracks.append(other.tracks);
+      System.arraycopy(other.playlists, 0, this.playlists, offset, count);
+
+      return this;
+    }
+
+    private void ensureCapacity(int capacity) {
+      if (capacity > this.playlists.length) {
+        this.playlists =
+            Arrays.copyOf(this.playlists, Math.max(capacity, 2 * this.playlists.length));
+      }
+    }
+  }
+
+  /** Task that retrieves and indexes the playlists in the range <code>[from, to)</code>. */
+  private final class IndexTask extends RecursiveTask<Partial> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int from;
+    private final int to;
+
+    private IndexTask(int from, int to) {
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected Partial compute() {
+      if (this.to - this.from == 0) {
+        return Partial.empty(strings);
+      }
+
+      if (this.to - this.from == 1) {
+        return index(this.from);
+      }
+
+      final int middle = (this.from + this.to) >>> 1;
+      final IndexTask left = new IndexTask(this.from, middle);
+      left.fork();
+
+      final Partial right = new IndexTask(middle, this.to).compute();
+
+      return left.join().merge(right);
+    }
+
+    private Partial index(int playlist) {
+      final Fetch fetch = new Fetch(playlist);
+
+      try {
+        ForkJoinPool.managedBlock(fetch);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CompletionException(
+            new InterruptedIOException("Interrupted while retrieving the playlists"));
+      }
+
+      if (fetch.exception != null) {
+        throw new CompletionException(fetch.exception);
+      }
+
+      return fetch.partial;
+    }
+  }
+
+  /**
+   * Request of the items of a playlist, that blocks the thread of the pool that runs it.<br>
+   * The items are indexed while the pages are received, so the pages can be dropped as soon as
+   * they are consumed.
+   */
+  private final class Fetch implements ForkJoinPool.ManagedBlocker {
+
+    private final int playlist;
+    private Partial partial;
+    private Exception exception;
+    private boolean done;
+
+    private Fetch(int playlist) {
+      this.playlist = playlist;
+    }
+
+    @Override
+    public boolean block() {
+      try (Stream<PlaylistTrack> items =
+          spotifyApiWrapper.getAllPlaylistsItems(playlistIds.get(this.playlist))) {
+        this.partial = index(this.playlist, items.iterator());
+      } catch (IOException | SpotifyWebApiException | ParseException | RuntimeException e) {
+        this.exception = e;
+      }
+
+      this.done = true;
+      return true;
+    }
+
+    @Override
+    public boolean isReleasable() {
+      return this.done;
+    }
+  }
+}
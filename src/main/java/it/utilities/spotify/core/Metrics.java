@@ -0,0 +1,400 @@
+package it.utilities.spotify.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Instances of the Metrics class collect the latency and the outcome of the requests of every
+ * endpoint, the duration of the phases of the scans and the number of tracks processed.<br>
+ * Recording only increments lock-free counters, so it can be done on every request. The values can
+ * be read with the getters or exported as MXBeans in the <code>it.utilities.spotify</code> JMX
+ * domain, one for every endpoint and every phase.
+ */
+public final class Metrics {
+
+  /** Domain of the JMX names of the metrics. */
+  public static final String JMX_DOMAIN = "it.utilities.spotify";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(Metrics.class);
+
+  private static final Metrics GLOBAL = new Metrics("default");
+
+  private final String name;
+  private final long createdAt = System.nanoTime();
+  private final Map<String, Endpoint> endpoints = new ConcurrentSkipListMap<>();
+  private final Map<String, Phase> phases = new ConcurrentSkipListMap<>();
+  private final LongAdder tracks = new LongAdder();
+
+  /** The server where the beans are registered, guarded by this. */
+  private MBeanServer server;
+
+  /**
+   * @param name the name that tells apart the beans of this instance from the ones of the others
+   */
+  public Metrics(String name) {
+    this.name = name;
+  }
+
+  /**
+   * @return the metrics shared by the whole application, used when no other instance is given
+   */
+  public static Metrics global() {
+    return GLOBAL;
+  }
+
+  /**
+   * @param endpoint the name of the endpoint
+   * @return the metrics of the endpoint, created the first time
+   */
+  public Endpoint endpoint(String endpoint) {
+    final Endpoint metrics = this.endpoints.get(endpoint);
+
+    return metrics != null
+        ? metrics
+        : register(this.endpoints, endpoint, () -> new Endpoint(endpoint), "Endpoint");
+  }
+
+  /**
+   * @param phase the name of the phase
+   * @return the metrics of the phase, created the first time
+   */
+  public Phase phase(String phase) {
+    final Phase metrics = this.phases.get(phase);
+
+    return metrics != null
+        ? metrics
+        : register(this.phases, phase, () -> new Phase(phase), "Phase");
+  }
+
+  /**
+   * @param count the number of tracks processed by a scan
+   */
+  public void addTracks(long count) {
+    this.tracks.add(count);
+  }
+
+  /**
+   * @return the number of tracks processed by the scans
+   */
+  public long getTracksProcessed() {
+    return this.tracks.sum();
+  }
+
+  /**
+   * @return the seconds since the metrics were created
+   */
+  public long getUptimeSeconds() {
+    return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - this.createdAt);
+  }
+
+  /**
+   * @return the metrics of the endpoints used so far, ordered by name
+   */
+  public List<Endpoint> getEndpoints() {
+    return new ArrayList<>(this.endpoints.values());
+  }
+
+  /**
+   * @return the metrics of the phases run so far, ordered by name
+   */
+  public List<Phase> getPhases() {
+    return new ArrayList<>(this.phases.values());
+  }
+
+  /**
+   * Export the metrics as MXBeans. The endpoints and the phases used later are exported when they
+   * are used for the first time.
+   *
+   * @param server the server where the beans are registered
+   * @throws JMException if a bean cannot be registered
+   */
+  public synchronized void register(MBeanServer server) throws JMException {
+    if (this.server != null) {
+      throw new IllegalStateException("The metrics are already registered");
+    }
+
+    server.registerMBean(new Library(), objectName("Library", "library"));
+    for (Endpoint endpoint : this.endpoints.values()) {
+      server.registerMBean(endpoint, objectName("Endpoint", endpoint.name));
+    }
+    for (Phase phase : this.phases.values()) {
+      server.registerMBean(phase, objectName("Phase", phase.name));
+    }
+
+    this.server = server;
+  }
+
+  private synchronized <T> T register(
+      Map<String, T> metrics, String key, Supplier<T> factory, String type) {
+    final T existing = metrics.get(key);
+    if (existing != null) {
+      return existing;
+    }
+
+    final T created = factory.get();
+    metrics.put(key, created);
+
+    if (this.server != null) {
+      try {
+        this.server.registerMBean(created, objectName(type, key));
+      } catch (JMException e) {
+        LOGGER.warn("Unable to export the metrics of {}", key, e);
+      }
+    }
+
+    return created;
+  }
+
+  private ObjectName objectName(String type, String key) throws JMException {
+    return new ObjectName(
+        JMX_DOMAIN
+            + ":type="
+            + type
+            + ",metrics="
+            + ObjectName.quote(this.name)
+            + ",name="
+            + ObjectName.quote(key));
+  }
+
+  /** Metrics of the requests sent to an endpoint. */
+  public interface EndpointMXBean {
+
+    /**
+     * @return the number of requests sent, including the retries
+     */
+    long getRequests();
+
+    /**
+     * @return the number of requests that failed, except for the rate limit
+     */
+    long getErrors();
+
+    /**
+     * @return the number of requests refused by the rate limit of Spotify
+     */
+    long getTooManyRequests();
+
+    /**
+     * @return the successful responses per second in the last minute, the pages per second for the
+     *     endpoints that return pages
+     */
+    double getResponsesPerSecond();
+
+    double getLatencyMeanMillis();
+
+    double getLatencyP50Millis();
+
+    double getLatencyP90Millis();
+
+    double getLatencyP99Millis();
+
+    double getLatencyMaxMillis();
+  }
+
+  /** Metrics of a phase of the scans. */
+  public interface PhaseMXBean {
+
+    /**
+     * @return the number of times the phase was run
+     */
+    long getCount();
+
+    double getTotalMillis();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP99Millis();
+
+    double getMaxMillis();
+  }
+
+  /** Metrics of the whole library. */
+  public interface LibraryMXBean {
+
+    long getTracksProcessed();
+
+    long getUptimeSeconds();
+  }
+
+  public static final class Endpoint implements EndpointMXBean {
+
+    private final String name;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder tooManyRequests = new LongAdder();
+    private final RateMeter responses = new RateMeter();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private Endpoint(String name) {
+      this.name = name;
+    }
+
+    /**
+     * @param nanos the time taken by a successful request
+     */
+    public void recordSuccess(long nanos) {
+      this.requests.increment();
+      this.responses.mark();
+      this.latency.record(nanos);
+    }
+
+    /**
+     * @param nanos the time taken by a request refused by the rate limit of Spotify
+     */
+    public void recordTooManyRequests(long nanos) {
+      this.requests.increment();
+      this.tooManyRequests.increment();
+      this.latency.record(nanos);
+    }
+
+    /**
+     * @param nanos the time taken by a failed request
+     */
+    public void recordError(long nanos) {
+      this.requests.increment();
+      this.errors.increment();
+      this.latency.record(nanos);
+    }
+
+    public String getName() {
+      return this.name;
+    }
+
+    /**
+     * @return the latency of all the requests
+     */
+    public LatencyHistogram getLatency() {
+      return this.latency;
+    }
+
+    @Override
+    public long getRequests() {
+      return this.requests.sum();
+    }
+
+    @Override
+    public long getErrors() {
+      return this.errors.sum();
+    }
+
+    @Override
+    public long getTooManyRequests() {
+      return this.tooManyRequests.sum();
+    }
+
+    @Override
+    public double getResponsesPerSecond() {
+      return this.responses.rate();
+    }
+
+    @Override
+    public double getLatencyMeanMillis() {
+      return this.latency.getMeanMillis();
+    }
+
+    @Override
+    public double getLatencyP50Millis() {
+      return this.latency.getPercentileMillis(50);
+    }
+
+    @Override
+    public double getLatencyP90Millis() {
+      return this.latency.getPercentileMillis(90);
+    }
+
+    @Override
+    public double getLatencyP99Millis() {
+      return this.latency.getPercentileMillis(99);
+    }
+
+    @Override
+    public double getLatencyMaxMillis() {
+      return this.latency.getMaxMillis();
+    }
+  }
+
+  public static final class Phase implements PhaseMXBean {
+
+    private final String name;
+    private final LatencyHistogram durations = new LatencyHistogram();
+
+    private Phase(String name) {
+      this.name = name;
+    }
+
+    /**
+     * @param nanos the time taken by a run of the phase
+     */
+    public void record(long nanos) {
+      this.durations.record(nanos);
+    }
+
+    /**
+     * Record the time passed since the start of a run of the phase.
+     *
+     * @param start the {@link System#nanoTime()} at the start of the run
+     */
+    public void recordSince(long start) {
+      this.durations.record(System.nanoTime() - start);
+    }
+
+    public String getName() {
+      return this.name;
+    }
+
+    @Override
+    public long getCount() {
+      return this.durations.getCount();
+    }
+
+    @Override
+    public double getTotalMillis() {
+      return this.durations.getTotalMillis();
+    }
+
+    @Override
+    public double getMeanMillis() {
+      return this.durations.getMeanMillis();
+    }
+
+    @Override
+    public double getP50Millis() {
+      return this.durations.getPercentileMillis(50);
+    }
+
+    @Override
+    public double getP99Millis() {
+      return this.durations.getPercentileMillis(99);
+    }
+
+    @Override
+    public double getMaxMillis() {
+      return this.durations.getMaxMillis();
+    }
+  }
+
+  private final class Library implements LibraryMXBean {
+
+    @Override
+    public long getTracksProcessed() {
+      return Metrics.this.getTracksProcessed();
+    }
+
+    @Override
+    public long getUptimeSeconds() {
+      return Metrics.this.getUptimeSeconds();
+    }
+  }
+}
@@ -0,0 +1,309 @@
+package it.utilities.spotify.core;
+
+import com.wrapper.spotify.model_objects.specification.ArtistSimplified;
+import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import com.wrapper.spotify.model_objects.specification.Track;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Stage that matches the tracks with a similar title, ignoring the parts that only describe the
+ * version of the song, like <code>(Remastered 2011)</code>, <code>- Live</code> or <code>feat.
+ * </code>, and that also considers the artists and the duration.<br>
+ * The titles are split into character trigrams and the candidate couples are found with MinHash
+ * locality-sensitive hashing: the signatures are split into bands and only the tracks that share a
+ * whole band are compared, so the tracks with very different titles are never compared. Every
+ * candidate couple then gets a score between 0 and 1, and the couples with a score not lower than
+ * the threshold are reported.
+ */
+public class MinHashSimilarityStage implements SimilarityStage {
+
+  /** Name of the stage, reported by the groups it matched. */
+  public static final String NAME = "minhash";
+
+  /** Default minimum score of two similar tracks. */
+  public static final double DEFAULT_THRESHOLD = 0.8;
+
+  private static final int BANDS = 16;
+  private static final int ROWS = 4;
+
+  private static final double TITLE_WEIGHT = 0.6;
+  private static final double ARTISTS_WEIGHT = 0.25;
+  private static final double DURATION_WEIGHT = 0.15;
+
+  /** Width of the duration buckets, in milliseconds. */
+  private static final int DURATION_BUCKET_MS = 5000;
+
+  /** Number of buckets of difference after which the durations are considered different. */
+  private static final int DURATION_BUCKET_TOLERANCE = 3;
+
+  private static final String VERSION_WORDS =
+      "(?:feat|ft|featuring|remaster|remastered|live|mono|stereo|version|edit|deluxe|bonus)";
+
+  private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+  private static final Pattern VERSION_BRACKETS =
+      Pattern.compile("[(\\[][^)\\]]*\\b" + VERSION_WORDS + "\\b[^)\\]]*[)\\]]");
+  private static final Pattern DASH = Pattern.compile("\\s+[-\u2013\u2014]\\s+");
+  private static final Pattern VERSION_PART = Pattern.compile(".*\\b" + VERSION_WORDS + "\\b.*");
+  private static final Pattern FEATURING = Pattern.compile("\\b(?:feat|ft|featuring)\\b.*$");
+  private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+  private final double threshold;
+
+  public MinHashSimilarityStage() {
+    this(DEFAULT_THRESHOLD);
+  }
+
+  /**
+   * @param threshold the minimum score of two similar tracks, between 0 and 1
+   * @throws IllegalArgumentException if the threshold is not between 0 and 1
+   */
+  public MinHashSimilarityStage(double threshold) {
+    if (!(threshold >= 0 && threshold <= 1)) {
+      throw new IllegalArgumentException("The threshold must be between 0 and 1");
+    }
+
+    this.threshold = threshold;
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  /**
+   * @return the minimum score of two similar tracks
+   */
+  public double getThreshold() {
+    return this.threshold;
+  }
+
+  @Override
+  public void findMatches(List<PlaylistTrack> tracks, MatchConsumer matches) {
+    final List<Features> features = new ArrayList<>(tracks.size());
+    final List<Integer> positions = new ArrayList<>(tracks.size());
+
+    for (int position = 0; position < tracks.size(); position++) {
+      final PlaylistTrack track = tracks.get(position);
+
+      if (track != null && track.getTrack() != null && track.getTrack().getName() != null) {
+        features.add(new Features(track));
+        positions.add(position);
+      }
+    }
+
+    final Set<Long> compared = new HashSet<>();
+
+    for (int band = 0; band < BANDS; band++) {
+      final Map<Long, List<Integer>> buckets = new HashMap<>();
+
+      for (int i = 0; i < features.size(); i++) {
+        buckets.computeIfAbsent(features.get(i).bandHash(band), key -> new ArrayList<>(2)).add(i);
+      }
+
+      for (List<Integer> bucket : buckets.values()) {
+        for (int i = 0; i < bucket.size(); i++) {
+          for (int j = i + 1; j < bucket.size(); j++) {
+            final int first = bucket.get(i);
+            final int second = bucket.get(j);
+
+            // The same couple can share more than one band
+            if (compared.add(((long) first << 32) | second)
+                && score(features.get(first), features.get(second)) >= this.threshold) {
+              matches.accept(positions.get(first), positions.get(second));
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Compute the similarity of two tracks. The features missing from one of the tracks are not
+   * considered.
+   *
+   * @return the weighted similarity of the titles, the artists and the durations, between 0 and 1
+   */
+  static double score(Features first, Features second) {
+    double score = TITLE_WEIGHT * jaccard(first.shingles, second.shingles);
+    double weights = TITLE_WEIGHT;
+
+    if (!first.artists.isEmpty() && !second.artists.isEmpty()) {
+      final Set<String> common = new HashSet<>(first.artists);
+      common.retainAll(second.artists);
+
+      score +=
+          ARTISTS_WEIGHT
+              * common.size()
+              / (first.artists.size() + second.artists.size() - common.size());
+      weights += ARTISTS_WEIGHT;
+    }
+
+    if (first.durationBucket >= 0 && second.durationBucket >= 0) {
+      final int distance = Math.abs(first.durationBucket - second.durationBucket);
+
+      score +=
+          DURATION_WEIGHT * Math.max(0, 1 - (double) distance / (DURATION_BUCKET_TOLERANCE + 1));
+      weights += DURATION_WEIGHT;
+    }
+
+    return score / weights;
+  }
+
+  /**
+   * Fold the title and remove the parts that only describe the version of the song.
+   *
+   * @param title the title to normalize
+   * @return the lower case words of the title, without accents and separated by a single space
+   */
+  static String normalizeTitle(String title) {
+    String folded = Normalizer.normalize(title, Normalizer.Form.NFKD);
+    folded = COMBINING_MARKS.matcher(folded).replaceAll("").toLowerCase(Locale.ROOT);
+
+    final String withoutBrackets = VERSION_BRACKETS.matcher(folded).replaceAll(" ");
+
+    final String[] parts = DASH.split(withoutBrackets);
+    final StringBuilder kept = new StringBuilder(parts[0]);
+    for (int i = 1; i < parts.length; i++) {
+      if (!VERSION_PART.matcher(parts[i]).matches()) {
+        kept.append(' ').append(parts[i]);
+      }
+    }
+
+    String normalized = FEATURING.matcher(kept).replaceAll(" ");
+    normalized = SEPARATORS.matcher(normalized).replaceAll(" ").trim();
+
+    // A title made only of version words is kept as it is
+    return normalized.isEmpty() ? SEPARATORS.matcher(folded).replaceAll(" ").trim() : normalized;
+  }
+
+  /**
+   * @return the hashes of the character trigrams of the text, sorted and without repetitions
+   */
+  static int[] shingles(String text) {
+    final String padded = ' ' + text + ' ';
+    final int[] shingles = new int[Math.max(1, padded.length() - 2)];
+
+    if (padded.length() < 3) {
+      shingles[0] = padded.hashCode();
+    } else {
+      for (int i = 0; i + 3 <= padded.length(); i++) {
+        shingles[i] = (padded.charAt(i) * 31 + padded.charAt(i + 1)) * 31 + padded.charAt(i + 2);
+      }
+    }
+
+    Arrays.sort(shingles);
+
+    int size = 0;
+    for (int i = 0; i < shingles.length; i++) {
+      if (i == 0 || shingles[i] != shingles[i - 1]) {
+        shingles[size++] = shingles[i];
+      }
+    }
+
+    return Arrays.copyOf(shingles, size);
+  }
+
+  /**
+   * @return the Jaccard similarity of two sorted sets
+   */
+  private static double jaccard(int[] first, int[] second) {
+    int common = 0;
+    int i = 0;
+    int j = 0;
+
+    while (i < first.length && j < second.length) {
+      if (first[i] == second[j]) {
+        common++;
+        i++;
+        j++;
+      } else if (first[i] < second[j]) {
+        i++;
+      } else {
+        j++;
+      }
+    }
+
+    return (double) common / (first.length + second.length - common);
+  }
+
+  /** Finalizer of the 64-bit MurmurHash3, used to derive the hash functions of the signature. */
+  private static long mix(long value) {
+    value ^= value >>> 33;
+    value *= 0xff51afd7ed558ccdL;
+    value ^= value >>> 33;
+    value *= 0xc4ceb9fe1a85ec53L;
+    value ^= value >>> 33;
+    return value;
+  }
+
+  /** The normalized features of a track. */
+  static final class Features {
+
+    private final int[] shingles;
+    private final long[] signature;
+    private final Set<String> artists;
+    private final int durationBucket;
+
+    Features(PlaylistTrack playlistTrack) {
+      this.shingles = shingles(normalizeTitle(playlistTrack.getTrack().getName()));
+      this.signature = signature(this.shingles);
+
+      final Integer durationMs = playlistTrack.getTrack().getDurationMs();
+      this.durationBucket = durationMs != null ? durationMs / DURATION_BUCKET_MS : -1;
+
+      final Set<String> artists = new HashSet<>();
+      if (playlistTrack.getTrack() instanceof Track) {
+        final ArtistSimplified[] trackArtists = ((Track) playlistTrack.getTrack()).getArtists();
+
+        if (trackArtists != null) {
+          for (ArtistSimplified artist : trackArtists) {
+            if (artist != null && artist.getId() != null) {
+              artists.add(artist.getId());
+            }
+          }
+        }
+      }
+      this.artists = artists.isEmpty() ? Collections.emptySet() : artists;
+    }
+
+    /**
+     * @return the minimum value of every hash function over the shingles
+     */
+    private static long[] signature(int[] shingles) {
+      final long[] signature = new long[BANDS * ROWS];
+      Arrays.fill(signature, Long.MAX_VALUE);
+
+      for (int shingle : shingles) {
+        for (int i = 0; i < signature.length; i++) {
+          final long hash = mix(shingle * 0x9e3779b97f4a7c15L + i);
+
+          if (hash < signature[i]) {
+            signature[i] = hash;
+          }
+        }
+      }
+
+      return signature;
+    }
+
+    private long bandHash(int band) {
+      long hash = band;
+
+      for (int row = band * ROWS; row < (band + 1) * ROWS; row++) {
+        hash = hash * 31 + this.signature[row];
+      }
+
+      return hash;
+    }
+  }
+}
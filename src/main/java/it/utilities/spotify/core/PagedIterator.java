@@ -0,0 +1,172 @@
+package it.utilities.spotify.core;
+
+import com.wrapper.spotify.exceptions.SpotifyWebApiException;
+import com.wrapper.spotify.model_objects.specification.Paging;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.apache.hc.core5.http.ParseException;
+
+/**
+ * Iterator over all the items of a paginated Spotify resource.<br>
+ * The first page is requested immediately to know the total number of items, the remaining pages
+ * are requested in parallel, keeping at most <code>concurrency</code> pages in flight ahead of the
+ * consumer. The items are returned in the same order of the resource, as soon as the page that
+ * contains them is available.
+ *
+ * @param <T> the type of the items
+ */
+final class PagedIterator<T> implements Iterator<T> {
+
+  private final PageFetcher<T> fetcher;
+  private final int limit;
+  private final int concurrency;
+  private final Executor executor;
+
+  private final int total;
+  private final Deque<CompletableFuture<Paging<T>>> pending = new ArrayDeque<>();
+  private int nextOffset;
+
+  private T[] items;
+  private int itemIndex;
+
+  /**
+   * @param fetcher the function used to request a page
+   * @param limit the maximum number of items of every page
+   * @param concurrency the maximum number of pages requested at the same time
+   * @param executor the executor used to request the pages after the first one
+   * @throws IOException
+   * @throws SpotifyWebApiException
+   * @throws ParseException
+   * @throws NullPointerException if the first page or its items are null
+   */
+  PagedIterator(PageFetcher<T> fetcher, int limit, int concurrency, Executor executor)
+      throws IOException, SpotifyWebApiException, ParseException {
+    this.fetcher = fetcher;
+    this.limit = limit;
+    this.concurrency = Math.max(1, concurrency);
+    this.executor = executor;
+
+    final Paging<T> firstPage = fetcher.fetch(0, limit);
+
+    this.items = firstPage.getItems().clone();
+    this.total =
+        firstPage.getTotal() != null ? Math.max(firstPage.getTotal(), items.length) : items.length;
+    this.nextOffset = limit;
+
+    requestPages();
+  }
+
+  /**
+   * @return the total number of items declared by the first page
+   */
+  int getTotal() {
+    return this.total;
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (this.itemIndex >= this.items.length) {
+      if (this.pending.isEmpty()) {
+        return false;
+      }
+
+      this.items = join(this.pending.poll()).getItems().clone();
+      this.itemIndex = 0;
+
+      requestPages();
+    }
+
+    return true;
+  }
+
+  @Override
+  public T next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+
+    final T item = this.items[this.itemIndex];
+    // Release the reference as soon as possible, the page could be really big
+    this.items[this.itemIndex++] = null;
+
+    return item;
+  }
+
+  /** Stop requesting the pages that have not been received yet. */
+  void cancel() {
+    this.pending.forEach(page -> page.cancel(true));
+    this.pending.clear();
+    this.nextOffset = this.total;
+  }
+
+  /**
+   * Create a sequential stream of the items. Closing the stream cancels the requests still in
+   * progress.
+   *
+   * @return the stream of the items
+   */
+  Stream<T> stream() {
+    return StreamSupport.stream(
+            Spliterators.spliterator(this, this.total, Spliterator.ORDERED), false)
+        .onClose(this::cancel);
+  }
+
+  /** Keep <code>concurrency</code> page requests in flight. */
+  private void requestPages() {
+    while (this.pending.size() < this.concurrency && this.nextOffset < this.total) {
+      final int offset = this.nextOffset;
+      this.nextOffset += this.limit;
+
+      this.pending.add(
+          CompletableFuture.supplyAsync(
+              () -> {
+                try {
+                  return this.fetcher.fetch(offset, this.limit);
+                } catch (IOException | SpotifyWebApiException | ParseException e) {
+                  throw new CompletionException(e);
+                }
+              },
+              this.executor));
+    }
+  }
+
+  private Paging<T> join(CompletableFuture<Paging<T>> page) {
+    try {
+      return page.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      cancel();
+      throw new CompletionException(e);
+    } catch (ExecutionException e) {
+      cancel();
+
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new CompletionException(e.getCause());
+    }
+  }
+
+  /**
+   * Function that requests a single page of a paginated resource.
+   *
+   * @param <T> the type of the items
+   */
+  @FunctionalInterface
+  interface PageFetcher<T> {
+
+    Paging<T> fetch(int offset, int limit)
+        throws IOException, SpotifyWebApiException, ParseException;
+  }
+}
@@ -0,0 +1,298 @@
+package it.utilities.spotify.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Index of the titles of a playlist that is kept between the scans.<br>
+ * The items of a new scan are matched with the ones of the previous scan by URI, <code>added_at
+ * </code> and title, in playlist order, so only the items added or removed since then are inserted
+ * into or removed from the {@link TitleIndex}. The items that only moved keep their entry and just
+ * get the new position.<br>
+ * Only the identity of every item is kept, not the objects returned by the Spotify API: the groups
+ * are built with the table of the last update, that the caller passes again, and only the items of
+ * the groups are rebuilt from it.
+ */
+final class PlaylistIndex {
+
+  private final String playListId;
+  private final TitleIndex titleIndex = new TitleIndex();
+
+  /** The entries of the current items, in playlist order. */
+  private List<Entry> entries = new ArrayList<>();
+
+  /** The entries of the current items, by their position in the title index. */
+  private final List<Entry> byTitle = new ArrayList<>();
+
+  /** The number of updates, that tells which entries were added by the last one. */
+  private int generation;
+
+  /**
+   * @param playListId the ID of the indexed playlist
+   */
+  PlaylistIndex(String playListId) {
+    this.playListId = playListId;
+  }
+
+  /**
+   * Replace the items of the playlist with the ones of a new scan.<br>
+   * The index is not changed if one of the new items has no title.
+   *
+   * @param tracks the items of the playlist, in playlist order
+   * @return the number of items added and removed
+   * @throws NullPointerException if a new item or its title is null
+   */
+  synchronized int update(TrackTable tracks) {
+    final Map<Key, Deque<Entry>> previous = new HashMap<>();
+    for (Entry entry : this.entries) {
+      previous.computeIfAbsent(entry.key, key -> new ArrayDeque<>(1)).add(entry);
+    }
+
+    // Match the items before changing anything, so a missing title leaves the index untouched
+    final List<Entry> current = new ArrayList<>(tracks.size());
+    final List<Entry> added = new ArrayList<>();
+
+    for (int row = 0; row < tracks.size(); row++) {
+      final Key key = new Key(tracks, row);
+      final Deque<Entry> same = previous.get(key);
+      Entry entry = same != null ? same.poll() : null;
+
+      if (entry == null) {
+        Objects.requireNonNull(key.name, "The title of the item is null");
+        entry = new Entry(key);
+        added.add(entry);
+      }
+
+      current.add(entry);
+    }
+
+    for (int position = 0; position < current.size(); position++) {
+      current.get(position).position = position;
+    }
+
+    this.titleIndex.clearChanges();
+    this.generation++;
+    int changes = added.size();
+
+    for (Deque<Entry> removed : previous.values()) {
+      for (Entry entry : removed) {
+        this.titleIndex.remove(entry.title);
+        this.byTitle.set(entry.title, null);
+        changes++;
+      }
+    }
+
+    for (Entry entry : added) {
+      entry.title = this.titleIndex.add(TitleKeyCache.global().get(entry.key.id, entry.key.name));
+      entry.addedIn = this.generation;
+
+      while (this.byTitle.size() <= entry.title) {
+        this.byTitle.add(null);
+      }
+      this.byTitle.set(entry.title, entry);
+    }
+
+    this.entries = current;
+
+    return changes;
+  }
+
+  /**
+   * @return true if the index was never updated
+   */
+  synchronized boolean isNew() {
+    return this.generation == 0;
+  }
+
+  /**
+   * @param items the table of the last update, in playlist order
+   * @return all the groups of duplicated items, ordered by the position of their first item
+   */
+  synchronized List<DuplicateGroup> groups(TrackTable items) {
+    return toDuplicateGroups(this.titleIndex.groups(2), items);
+  }
+
+  /**
+   * Walk all the groups of duplicated items lazily, from the first item of the playlist to the last
+   * one, so every group is built only when it is consumed. The lock of the index is held only while
+   * a group is found.
+   *
+   * @param items the table of the last update, in playlist order
+   * @return all the groups of duplicated items, ordered by the position of their first item
+   * @throws ConcurrentModificationException while the stream is consumed, if the index was updated
+   *     after it was returned
+   */
+  synchronized Stream<DuplicateGroup> streamGroups(TrackTable items) {
+    final int generation = this.generation;
+    final int[] order = new int[this.entries.size()];
+
+    for (int position = 0; position < order.length; position++) {
+      order[position] = this.entries.get(position).title;
+    }
+
+    final Iterator<int[]> titleGroups = this.titleIndex.groups(order, 2);
+
+    final Iterator<DuplicateGroup> groups =
+        new Iterator<DuplicateGroup>() {
+          @Override
+          public boolean hasNext() {
+            synchronized (PlaylistIndex.this) {
+              checkGeneration(generation);
+              return titleGroups.hasNext();
+            }
+          }
+
+          @Override
+          public DuplicateGroup next() {
+            synchronized (PlaylistIndex.this) {
+              checkGeneration(generation);
+              return toDuplicateGroup(positions(titleGroups.next()), items);
+            }
+          }
+        };
+
+    return StreamSupport.stream(
+        Spliterators.spliteratorUnknownSize(groups, Spliterator.ORDERED | Spliterator.NONNULL),
+        false);
+  }
+
+  /**
+   * @param items the table of the last update, in playlist order
+   * @return the groups of duplicated items that contain an item added by the last update, or that
+   *     contained an item removed by it, ordered by the position of their first item
+   */
+  synchronized List<DuplicateGroup> changedGroups(TrackTable items) {
+    return toDuplicateGroups(this.titleIndex.changedGroups(2), items);
+  }
+
+  /**
+   * @param items the table of the last update, in playlist order
+   * @return the groups of duplicated items that contain an item added by the last update, ordered
+   *     by the position of their first item
+   */
+  synchronized List<DuplicateGroup> addedGroups(TrackTable items) {
+    final List<int[]> titleGroups = new ArrayList<>();
+
+    for (int[] titles : this.titleIndex.changedGroups(2)) {
+      for (int title : titles) {
+        if (this.byTitle.get(title).addedIn == this.generation) {
+          titleGroups.add(titles);
+          break;
+        }
+      }
+    }
+
+    return toDuplicateGroups(titleGroups, items);
+  }
+
+  private List<DuplicateGroup> toDuplicateGroups(List<int[]> titleGroups, TrackTable items) {
+    final List<int[]> positionGroups = new ArrayList<>(titleGroups.size());
+
+    for (int[] titles : titleGroups) {
+      positionGroups.add(positions(titles));
+    }
+
+    positionGroups.sort(Comparator.comparingInt(positions -> positions[0]));
+
+    final List<DuplicateGroup> groups = new ArrayList<>(positionGroups.size());
+    for (int[] positions : positionGroups) {
+      groups.add(toDuplicateGroup(positions, items));
+    }
+
+    return groups;
+  }
+
+  private DuplicateGroup toDuplicateGroup(int[] positions, TrackTable items) {
+    return new DuplicateGroup(this.playListId, positions, items::get, TitlePrefixStage.NAME);
+  }
+
+  /**
+   * @return the positions in the playlist of the titles of a group, in ascending order
+   */
+  private int[] positions(int[] titles) {
+    final int[] positions = new int[titles.length];
+
+    for (int i = 0; i < titles.length; i++) {
+      positions[i] = this.byTitle.get(titles[i]).position;
+    }
+
+    Arrays.sort(positions);
+    return positions;
+  }
+
+  private void checkGeneration(int generation) {
+    if (this.generation != generation) {
+      throw new ConcurrentModificationException(
+          "The index of the playlist " + this.playListId + " was updated");
+    }
+  }
+
+  /** Identity of an item of the playlist between two scans. */
+  private static final class Key {
+
+    private final String uri;
+    private final long addedAt;
+    private final String name;
+
+    /** The ID of the track, that is not part of the identity since the URI contains it. */
+    private final String id;
+
+    private Key(TrackTable tracks, int row) {
+      if (!tracks.hasItem(row)) {
+        throw new NullPointerException("The item of the playlist is null");
+      }
+
+      this.uri = tracks.uri(row);
+      this.addedAt = tracks.addedAt(row);
+      this.name = tracks.name(row);
+      this.id = tracks.id(row);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+
+      final Key other = (Key) obj;
+
+      return this.addedAt == other.addedAt
+          && Objects.equals(this.uri, other.uri)
+          && Objects.equals(this.name, other.name);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(this.uri, this.addedAt, this.name);
+    }
+  }
+
+  private static final class Entry {
+
+    private final Key key;
+    private int title;
+    private int position;
+    private int addedIn;
+
+    private Entry(Key key) {
+      this.key = key;
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package it.utilities.spotify.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The {@link PlaylistIndex}es of the playlists checked most recently.<br>
+ * The server and the watch mode check the same playlists again and again, but over time they can
+ * see any number of them: only the indexes of the last <code>capacity</code> playlists are kept,
+ * and the least recently checked one is dropped to make room for a new one. A dropped playlist is
+ * just indexed again by its next check, from the items of its last check if they are stored in the
+ * {@link PlaylistSnapshotCache}, otherwise from scratch.
+ */
+final class PlaylistIndexes {
+
+  private final int capacity;
+
+  // Indexes in access order, guarded by this
+  private final LinkedHashMap<String, PlaylistIndex> indexes;
+
+  /**
+   * @param capacity the maximum number of indexes kept
+   * @throws IllegalArgumentException if the capacity is not positive
+   */
+  PlaylistIndexes(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("The capacity must be positive");
+    }
+
+    this.capacity = capacity;
+    this.indexes =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          private static final long serialVersionUID = 1L;
+
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, PlaylistIndex> eldest) {
+            return size() > PlaylistIndexes.this.capacity;
+          }
+        };
+  }
+
+  /**
+   * @param playListId the ID of the playlist
+   * @return the index of the playlist, a new empty one if it is not kept
+   */
+  synchronized PlaylistIndex get(String playListId) {
+    return this.indexes.computeIfAbsent(playListId, PlaylistIndex::new);
+  }
+
+  /**
+   * @param playListId the ID of the playlist
+   * @return true if the index of the playlist is kept
+   */
+  synchronized boolean contains(String playListId) {
+    return this.indexes.containsKey(playListId);
+  }
+
+  /**
+   * @return the number of indexes kept
+   */
+  synchronized int size() {
+    return this.indexes.size();
+  }
+}
@@ -0,0 +1,270 @@
+package it.utilities.spotify.core;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.wrapper.spotify.model_objects.specification.ArtistSimplified;
+import com.wrapper.spotify.model_objects.specification.Episode;
+import com.wrapper.spotify.model_objects.specification.ExternalId;
+import com.wrapper.spotify.model_objects.specification.Paging;
+import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import com.wrapper.spotify.model_objects.specification.Track;
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import org.apache.hc.core5.http.ParseException;
+
+/**
+ * Parser of the pages of playlist items, that reads the JSON as a stream of tokens.<br>
+ * Only the fields listed in {@link #FIELDS} are read, every other value is skipped without being
+ * parsed into objects. The items are built with the same fields stored by {@link TrackTable} and
+ * {@link PlaylistSnapshotCache}, so the albums, the images and the markets are never created.
+ */
+final class PlaylistItemsParser {
+
+  /**
+   * The <code>fields</code> projection that asks Spotify only for the fields read by the parser.
+   */
+  static final String FIELDS =
+      "total,items(added_at,is_local,track(type,id,uri,name,duration_ms,artists(id,name),"
+          + "external_ids(isrc)))";
+
+  private PlaylistItemsParser() {}
+
+  /**
+   * @param json the page returned by Spotify
+   * @return the page with the items and the total number of items of the playlist
+   * @throws ParseException if the JSON is not a valid page
+   */
+  static Paging<PlaylistTrack> parse(String json) throws ParseException {
+    try (JsonReader reader = new JsonReader(new StringReader(json))) {
+      Integer total = null;
+      final List<PlaylistTrack> items = new ArrayList<>();
+
+      reader.beginObject();
+      while (reader.hasNext()) {
+        switch (reader.nextName()) {
+          case "total":
+            total = nextInteger(reader);
+            break;
+          case "items":
+            if (reader.peek() == JsonToken.NULL) {
+              reader.nextNull();
+            } else {
+              reader.beginArray();
+              while (reader.hasNext()) {
+                items.add(readItem(reader));
+              }
+              reader.endArray();
+            }
+            break;
+          default:
+            reader.skipValue();
+        }
+      }
+      reader.endObject();
+
+      return new Paging.Builder<PlaylistTrack>()
+          .setItems(items.toArray(new PlaylistTrack[0]))
+          .setTotal(total)
+          .build();
+    } catch (IOException | IllegalStateException | NumberFormatException e) {
+      throw new ParseException("Invalid page of playlist items: " + e.getMessage());
+    }
+  }
+
+  private static PlaylistTrack readItem(JsonReader reader) throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return null;
+    }
+
+    final PlaylistTrack.Builder builder = new PlaylistTrack.Builder();
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "added_at":
+          builder.setAddedAt(parseDate(nextString(reader)));
+          break;
+        case "is_local":
+          builder.setIsLocal(nextBoolean(reader));
+          break;
+        case "track":
+          if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+          } else {
+            readTrack(reader, builder);
+          }
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    return builder.build();
+  }
+
+  private static void readTrack(JsonReader reader, PlaylistTrack.Builder builder)
+      throws IOException {
+    String type = null;
+    String id = null;
+    String uri = null;
+    String name = null;
+    Integer durationMs = null;
+    String isrc = null;
+    final List<ArtistSimplified> artists = new ArrayList<>(1);
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "type":
+          type = nextString(reader);
+          break;
+        case "id":
+          id = nextString(reader);
+          break;
+        case "uri":
+          uri = nextString(reader);
+          break;
+        case "name":
+          name = nextString(reader);
+          break;
+        case "duration_ms":
+          durationMs = nextInteger(reader);
+          break;
+        case "artists":
+          readArtists(reader, artists);
+          break;
+        case "external_ids":
+          isrc = readIsrc(reader);
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    if ("episode".equals(type)) {
+      builder.setTrack(
+          new Episode.Builder()
+              .setId(id)
+              .setUri(uri)
+              .setName(name)
+              .setDurationMs(durationMs)
+              .build());
+    } else {
+      builder.setTrack(
+          new Track.Builder()
+              .setId(id)
+              .setUri(uri)
+              .setName(name)
+              .setDurationMs(durationMs)
+              .setArtists(artists.toArray(new ArtistSimplified[0]))
+              .setExternalIds(
+                  new ExternalId.Builder()
+                      .setExternalIds(isrc != null ? Map.of("isrc", isrc) : Collections.emptyMap())
+                      .build())
+              .build());
+    }
+  }
+
+  private static void readArtists(JsonReader reader, List<ArtistSimplified> artists)
+      throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return;
+    }
+
+    reader.beginArray();
+    while (reader.hasNext()) {
+      String id = null;
+      String name = null;
+
+      reader.beginObject();
+      while (reader.hasNext()) {
+        switch (reader.nextName()) {
+          case "id":
+            id = nextString(reader);
+            break;
+          case "name":
+            name = nextString(reader);
+            break;
+          default:
+            reader.skipValue();
+        }
+      }
+      reader.endObject();
+
+      artists.add(new ArtistSimplified.Builder().setId(id).setName(name).build());
+    }
+    reader.endArray();
+  }
+
+  private static String readIsrc(JsonReader reader) throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return null;
+    }
+
+    String isrc = null;
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if ("isrc".equals(reader.nextName())) {
+        isrc = nextString(reader);
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    return isrc;
+  }
+
+  private static Date parseDate(String value) {
+    if (value == null) {
+      return null;
+    }
+
+    try {
+      return Date.from(Instant.parse(value));
+    } catch (DateTimeParseException e) {
+      // Very old items have no date, or a date that is not a valid instant
+      return null;
+    }
+  }
+
+  private static String nextString(JsonReader reader) throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return null;
+    }
+
+    return reader.nextString();
+  }
+
+  private static Integer nextInteger(JsonReader reader) throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return null;
+    }
+
+    return reader.nextInt();
+  }
+
+  private static Boolean nextBoolean(JsonReader reader) throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return null;
+    }
+
+    return reader.nextBoolean();
+  }
+}
@@ -0,0 +1,517 @@
+package it.utilities.spotify.core;
+
+import com.wrapper.spotify.model_objects.IPlaylistItem;
+import com.wrapper.spotify.model_objects.specification.ArtistSimplified;
+import com.wrapper.spotify.model_objects.specification.Episode;
+import com.wrapper.spotify.model_objects.specification.ExternalId;
+import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import com.wrapper.spotify.model_objects.specification.Track;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Instances of the PlaylistSnapshotCache class store on disk the items of the playlists, together
+ * with the <code>snapshot_id</code> of the playlist version they belong to.<br>
+ * Only the fields used by the utilities are stored, in a compact binary file for each playlist that
+ * is read through a memory-mapped buffer. When the total size of the files exceeds the limit, the
+ * least recently used playlists are removed.<br>
+ * Next to the items of the last read, the cache can keep the items of the last check of the
+ * duplicates of a playlist, see {@link #readIndexed(String)}, so that a new process still knows
+ * what changed since the check of the previous one.<br>
+ * The size and the order of use of the files are kept in memory, read from the directory only at
+ * construction, so storing a playlist costs no listing of the directory. The directory is read
+ * again only when the total goes over the limit, to also see the files of the other processes that
+ * share it.
+ */
+public class PlaylistSnapshotCache {
+
+  private static final int MAGIC = 0x53505343; // SPSC
+  private static final short VERSION = 1;
+  private static final String EXTENSION = ".snapshot";
+  private static final String INDEXED_EXTENSION = ".indexed";
+
+  private static final byte ITEM_NONE = 0;
+  private static final byte ITEM_TRACK = 1;
+  private static final byte ITEM_EPISODE = 2;
+
+  private final Path directory;
+  private final long maxBytes;
+
+  /** The size of every file, from the least to the most recently used, guarded by this. */
+  private final LinkedHashMap<Path, Long> sizes = new LinkedHashMap<>(16, 0.75f, true);
+
+  /** The total size of the files, guarded by this. */
+  private long total;
+
+  /**
+   * @param directory the directory where the files are stored, it is created if it does not exist
+   * @param maxBytes the maximum total size of the stored files
+   * @throws IOException if the directory cannot be created
+   */
+  public PlaylistSnapshotCache(Path directory, long maxBytes) throws IOException {
+    this.directory = Files.createDirectories(directory);
+    this.maxBytes = maxBytes;
+
+    synchronized (this) {
+      load();
+    }
+  }
+
+  /**
+   * Read the items of a playlist, if they are stored for the given snapshot.
+   *
+   * @param playListId the ID of the playlist
+   * @param snapshotId the current snapshot of the playlist
+   * @return the items of the playlist, in playlist order, or an empty optional if the playlist is
+   *     not stored or it is stored for another snapshot
+   * @throws IOException if the file cannot be read
+   */
+  public Optional<List<PlaylistTrack>> read(String playListId, String snapshotId)
+      throws IOException {
+    if (snapshotId == null) {
+      return Optional.empty();
+    }
+
+    return read(file(playListId, EXTENSION), snapshotId);
+  }
+
+  /**
+   * Read the items of a playlist at its last check of the duplicates, whatever its current
+   * snapshot.
+   *
+   * @param playListId the ID of the playlist
+   * @return the items of the playlist at its last check, in playlist order, or an empty optional if
+   *     they are not stored
+   * @throws IOException if the file cannot be read
+   */
+  public Optional<List<PlaylistTrack>> readIndexed(String playListId) throws IOException {
+    return read(file(playListId, INDEXED_EXTENSION), null);
+  }
+
+  /**
+   * @param file the file of the items
+   * @param snapshotId the snapshot the items must belong to, or null for any snapshot
+   */
+  private Optional<List<PlaylistTrack>> read(Path file, String snapshotId) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+      if (buffer.remaining() < Integer.BYTES + Short.BYTES
+          || buffer.getInt() != MAGIC
+          || buffer.getShort() != VERSION) {
+        return Optional.empty();
+      }
+
+      final String stored = readString(buffer);
+      if (snapshotId != null && !snapshotId.equals(stored)) {
+        return Optional.empty();
+      }
+
+      final int count = buffer.getInt();
+      final List<PlaylistTrack> tracks = new ArrayList<>(count);
+
+      for (int i = 0; i < count; i++) {
+        tracks.add(readTrack(buffer));
+      }
+
+      // The modification time tells the other processes which playlists were used recently
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+      used(file, channel.size());
+
+      return Optional.of(tracks);
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    } catch (RuntimeException e) {
+      // Truncated or corrupted file, it is replaced at the next write
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Start storing the items of a playlist. The stored version replaces the previous one only when
+   * {@link Writer#commit()} is called.
+   *
+   * @param playListId the ID of the playlist
+   * @param snapshotId the snapshot the items belong to
+   * @return the writer of the items
+   * @throws IOException if the file cannot be created
+   */
+  public Writer writer(String playListId, String snapshotId) throws IOException {
+    return new Writer(file(playListId, EXTENSION), snapshotId);
+  }
+
+  /**
+   * Start storing the items of a playlist at a check of its duplicates, read back by {@link
+   * #readIndexed(String)}. The stored version replaces the previous one only when {@link
+   * Writer#commit()} is called.
+   *
+   * @param playListId the ID of the playlist
+   * @param snapshotId the snapshot the items belong to, if known
+   * @return the writer of the items
+   * @throws IOException if the file cannot be created
+   */
+  public Writer indexedWriter(String playListId, String snapshotId) throws IOException {
+    return new Writer(file(playListId, INDEXED_EXTENSION), snapshotId);
+  }
+
+  /**
+   * Remove a playlist from the cache.
+   *
+   * @param playListId the ID of the playlist
+   * @throws IOException if the file cannot be deleted
+   */
+  public void remove(String playListId) throws IOException {
+    for (Path file : List.of(file(playListId, EXTENSION), file(playListId, INDEXED_EXTENSION))) {
+      Files.deleteIfExists(file);
+
+      synchronized (this) {
+        final Long size = this.sizes.remove(file);
+        if (size != null) {
+          this.total -= size;
+        }
+      }
+    }
+  }
+
+  /**
+   * Record the use of a file, that becomes the most recently used one.
+   *
+   * @param file the file
+   * @param size the current size of the file
+   */
+  private synchronized void used(Path file, long size) {
+    final Long previous = this.sizes.put(file, size);
+    this.total += size - (previous != null ? previous : 0);
+  }
+
+  /**
+   * Record a new version of a file, and delete the least recently used files if the total size
+   * exceeds the limit.
+   *
+   * @param file the file
+   * @param size the size of the new version
+   * @throws IOException if the directory cannot be read
+   */
+  private synchronized void stored(Path file, long size) throws IOException {
+    used(file, size);
+
+    if (this.total > this.maxBytes) {
+      evict();
+    }
+  }
+
+  /**
+   * Delete the least recently used files until the total size is under the limit.<br>
+   * The directory is read again, so the files written or removed by the other processes are
+   * counted too. The files are ordered by modification time, and the ones with the same time by the
+   * order of use seen by this instance.
+   *
+   * @throws IOException if the directory cannot be read
+   */
+  synchronized void evict() throws IOException {
+    final Map<Path, Integer> order = new HashMap<>();
+    for (Path file : this.sizes.keySet()) {
+      order.put(file, order.size());
+    }
+    load();
+
+    final List<Map.Entry<Path, Long>> entries = new ArrayList<>(this.sizes.entrySet());
+    final Map<Path, Long> lastUsed = new HashMap<>();
+
+    for (Map.Entry<Path, Long> entry : entries) {
+      try {
+        lastUsed.put(entry.getKey(), Files.getLastModifiedTime(entry.getKey()).toMillis());
+      } catch (NoSuchFileException e) {
+        lastUsed.put(entry.getKey(), Long.MIN_VALUE);
+      }
+    }
+
+    entries.sort(
+        Comparator.comparingLong((Map.Entry<Path, Long> entry) -> lastUsed.get(entry.getKey()))
+            .thenComparingInt(entry -> order.getOrDefault(entry.getKey(), -1)));
+
+    for (Map.Entry<Path, Long> entry : entries) {
+      if (this.total <= this.maxBytes) {
+        break;
+      }
+
+      Files.deleteIfExists(entry.getKey());
+      this.sizes.remove(entry.getKey());
+      this.total -= entry.getValue();
+    }
+  }
+
+  /**
+   * Read the size and the order of use of the files from the directory.
+   *
+   * @throws IOException if the directory cannot be read
+   */
+  private void load() throws IOException {
+    final List<Path> files;
+    try (Stream<Path> list = Files.list(this.directory)) {
+      files =
+          list.filter(
+                  path ->
+                      path.getFileName().toString().endsWith(EXTENSION)
+                          || path.getFileName().toString().endsWith(INDEXED_EXTENSION))
+              .collect(Collectors.toList());
+    }
+
+    final List<FileEntry> entries = new ArrayList<>(files.size());
+    for (Path path : files) {
+      try {
+        entries.add(
+            new FileEntry(path, Files.size(path), Files.getLastModifiedTime(path).toMillis()));
+      } catch (NoSuchFileException e) {
+        // Removed in the meantime
+      }
+    }
+
+    entries.sort(Comparator.comparingLong(entry -> entry.lastUsed));
+
+    this.sizes.clear();
+    this.total = 0;
+    for (FileEntry entry : entries) {
+      used(entry.path, entry.size);
+    }
+  }
+
+  private Path file(String playListId, String extension) {
+    // Spotify IDs are base-62, anything else is replaced to keep the name a valid file name
+    return this.directory.resolve(playListId.replaceAll("[^A-Za-z0-9]", "_") + extension);
+  }
+
+  private static PlaylistTrack readTrack(ByteBuffer buffer) {
+    final long addedAt = buffer.getLong();
+    final byte isLocal = buffer.get();
+    final byte kind = buffer.get();
+
+    final PlaylistTrack.Builder builder =
+        new PlaylistTrack.Builder()
+            .setAddedAt(addedAt != Long.MIN_VALUE ? new Date(addedAt) : null)
+            .setIsLocal(isLocal == -1 ? null : isLocal == 1);
+
+    if (kind == ITEM_NONE) {
+      return builder.build();
+    }
+
+    final String id = readString(buffer);
+    final String uri = readString(buffer);
+    final String name = readString(buffer);
+    final int durationMs = buffer.getInt();
+
+    if (kind == ITEM_EPISODE) {
+      return builder
+          .setTrack(
+              new Episode.Builder()
+                  .setId(id)
+                  .setUri(uri)
+                  .setName(name)
+                  .setDurationMs(durationMs != -1 ? durationMs : null)
+                  .build())
+          .build();
+    }
+
+    final ArtistSimplified[] artists = new ArtistSimplified[buffer.getShort()];
+    for (int i = 0; i < artists.length; i++) {
+      artists[i] =
+          new ArtistSimplified.Builder()
+              .setId(readString(buffer))
+              .setName(readString(buffer))
+              .build();
+    }
+
+    final String isrc = readString(buffer);
+
+    return builder
+        .setTrack(
+            new Track.Builder()
+                .setId(id)
+                .setUri(uri)
+                .setName(name)
+                .setDurationMs(durationMs != -1 ? durationMs : null)
+                .setArtists(artists)
+                .setExternalIds(
+                    new ExternalId.Builder()
+                        .setExternalIds(
+                            isrc != null ? Map.of("isrc", isrc) : Collections.emptyMap())
+                        .build())
+                .build())
+        .build();
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    final int length = buffer.getInt();
+
+    if (length < 0) {
+      return null;
+    }
+
+    final byte[] bytes = new byte[length];
+    buffer.get(bytes);
+
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeString(DataOutputStream output, String value) throws IOException {
+    if (value == null) {
+      output.writeInt(-1);
+    } else {
+      final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      output.writeInt(bytes.length);
+      output.write(bytes);
+    }
+  }
+
+  /**
+   * Writer of the items of a single playlist. The items are written to a temporary file while they
+   * are received, so they do not need to be kept in memory.
+   */
+  public final class Writer implements AutoCloseable {
+
+    private final Path target;
+    private final Path temporary;
+    private final FileChannel channel;
+    private final DataOutputStream output;
+    private final long countPosition;
+    private int count;
+    private boolean closed;
+
+    private Writer(Path target, String snapshotId) throws IOException {
+      this.target = target;
+      this.temporary = Files.createTempFile(directory, "playlist", ".tmp");
+      this.channel = FileChannel.open(this.temporary, StandardOpenOption.WRITE);
+      this.output =
+          new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(this.channel)));
+
+      this.output.writeInt(MAGIC);
+      this.output.writeShort(VERSION);
+      writeString(this.output, snapshotId);
+      this.countPosition = this.output.size();
+      this.output.writeInt(0);
+    }
+
+    /**
+     * Append the next item of the playlist.
+     *
+     * @param playlistTrack the item to store
+     * @throws UncheckedIOException if the item cannot be written
+     */
+    public void append(PlaylistTrack playlistTrack) {
+      try {
+        final Date addedAt = playlistTrack.getAddedAt();
+        final Boolean isLocal = playlistTrack.getIsLocal();
+        final IPlaylistItem item = playlistTrack.getTrack();
+
+        this.output.writeLong(addedAt != null ? addedAt.getTime() : Long.MIN_VALUE);
+        this.output.writeByte(isLocal == null ? -1 : isLocal ? 1 : 0);
+
+        if (item == null) {
+          this.output.writeByte(ITEM_NONE);
+        } else {
+          this.output.writeByte(item instanceof Track ? ITEM_TRACK : ITEM_EPISODE);
+          writeString(this.output, item.getId());
+          writeString(this.output, item.getUri());
+          writeString(this.output, item.getName());
+          this.output.writeInt(item.getDurationMs() != null ? item.getDurationMs() : -1);
+
+          if (item instanceof Track) {
+            writeTrackDetails((Track) item);
+          }
+        }
+
+        this.count++;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    /**
+     * Replace the stored version of the playlist with the written items.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public void commit() throws IOException {
+      this.output.flush();
+      this.channel.write(
+          ByteBuffer.allocate(Integer.BYTES).putInt(0, this.count), this.countPosition);
+      final long size = this.channel.size();
+      this.closed = true;
+      this.output.close();
+
+      Files.move(
+          this.temporary,
+          this.target,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      stored(this.target, size);
+    }
+
+    /** Discard the written items, the stored version of the playlist is not changed. */
+    @Override
+    public void close() throws IOException {
+      if (this.closed) {
+        return;
+      }
+
+      this.closed = true;
+      this.output.close();
+      Files.deleteIfExists(this.temporary);
+    }
+
+    private void writeTrackDetails(Track track) throws IOException {
+      final ArtistSimplified[] artists =
+          track.getArtists() != null ? track.getArtists() : new ArtistSimplified[0];
+
+      this.output.writeShort(artists.length);
+      for (ArtistSimplified artist : artists) {
+        writeString(this.output, artist.getId());
+        writeString(this.output, artist.getName());
+      }
+
+      final ExternalId externalIds = track.getExternalIds();
+      writeString(
+          this.output,
+          externalIds != null && externalIds.getExternalIds() != null
+              ? externalIds.getExternalIds().get("isrc")
+              : null);
+    }
+  }
+
+  private static final class FileEntry {
+
+    private final Path path;
+    private final long size;
+    private final long lastUsed;
+
+    private FileEntry(Path path, long size, long lastUsed) {
+      this.path = path;
+      this.size = size;
+      this.lastUsed = lastUsed;
+    }
+  }
+}
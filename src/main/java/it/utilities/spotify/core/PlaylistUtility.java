@@ -1,30 +1,100 @@
 package it.utilities.spotify.core;
 
 import com.wrapper.spotify.exceptions.SpotifyWebApiException;
+import com.wrapper.spotify.exceptions.detailed.BadGatewayException;
+import com.wrapper.spotify.exceptions.detailed.InternalServerErrorException;
+import com.wrapper.spotify.exceptions.detailed.ServiceUnavailableException;
+import com.wrapper.spotify.model_objects.specification.PlaylistSimplified;
 import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import it.utilities.spotify.core.RequestScheduler.SpotifyCall;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.apache.hc.core5.http.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Instances of the PlaylistUtility class provide access to methods for performing operations on
- * Spotify playlists.
+ * Spotify playlists.<br>
+ * The items of the playlists are stored in a {@link TrackTable} while they are received, so the
+ * objects returned by the Spotify API are dropped right away, and the tracks of the results are
+ * rebuilt from the table with the fields used by the utilities.<br>
+ * The duration of the phases of every check and the number of tracks checked are recorded in the
+ * {@link Metrics}.
  */
 public class PlaylistUtility {
 
+  static final String PHASE_PLAYLIST_READ = "playlist-read";
+  static final String PHASE_PLAYLIST_INDEX = "playlist-index";
+  static final String PHASE_PLAYLIST_STAGE = "playlist-stage";
+  static final String PHASE_LIBRARY_PLAYLISTS = "library-playlists";
+  static final String PHASE_PLAYLIST_REMOVE = "playlist-remove";
+  static final String PHASE_LIBRARY_EXPORT = "library-export";
+
+  /** Default maximum number of playlists whose index is kept between the checks. */
+  public static final int DEFAULT_INDEX_CAPACITY = 64;
+
+  /** How many times a playlist is read again if it changes while it is read. */
+  private static final int SNAPSHOT_READ_ATTEMPTS = 3;
+
+  /** How many times the duplicated tracks are read and removed if the removal has a server error. */
+  private static final int REMOVE_ATTEMPTS = 3;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(PlaylistUtility.class);
+
   private SpotifyApiWrapper spotifyApiWrapper;
+  private volatile Metrics metrics = Metrics.global();
+
+  /** The indexes of the playlists checked most recently, kept to check only the changes. */
+  private volatile PlaylistIndexes indexes = new PlaylistIndexes(DEFAULT_INDEX_CAPACITY);
 
   public PlaylistUtility(SpotifyApiWrapper spotifyApiWrapper) {
     this.spotifyApiWrapper = spotifyApiWrapper;
   }
 
+  /**
+   * Set the metrics where the checks are recorded, by default the global ones.
+   *
+   * @param metrics the metrics
+   */
+  public void setMetrics(Metrics metrics) {
+    this.metrics = Objects.requireNonNull(metrics);
+  }
+
+  /**
+   * Set how many playlists keep their index between the checks, by default {@link
+   * #DEFAULT_INDEX_CAPACITY}. The indexes kept so far are dropped.
+   *
+   * @param capacity the maximum number of indexes kept
+   * @throws IllegalArgumentException if the capacity is not positive
+   */
+  public void setIndexCapacity(int capacity) {
+    this.indexes = new PlaylistIndexes(capacity);
+  }
+
   /**
    * Check if there is any track with the same title (or partially the same) in the Spotify
    * playlist.<br>
    * The result of this execution is not 100% correct. You have to manually check if the tracks are
    * really duplicated.
    *
+   * The same track can appear more than once in the result, use {@link
+   * #getDuplicateGroupsByName(String)} to retrieve every track only once.
+   *
    * @param playListId The ID of the playlist to be checked
    * @return List of duplicated tracks.
    * @throws IOException
@@ -34,63 +104,622 @@ public class PlaylistUtility {
    */
   public List<PlaylistTrack> getDuplicatesTracksByName(String playListId)
       throws IOException, SpotifyWebApiException, ParseException {
-    final PlaylistTrack[] tracks = this.spotifyApiWrapper.getPlaylistsItems(playListId).getItems();
+    final TrackTable tracks = new TrackTable();
+    final TitleIndex titleIndex = indexPlaylist(playListId, tracks);
 
     List<PlaylistTrack> duplicates = new ArrayList<>();
 
-    // FIXME: find a way to improve performance, because this logic has O (n ^ 2) time complexity
-    // and with huge amount of tracks I think time is a problem
+    for (int i = 0; i < tracks.size(); i++) {
+      final int[] others = titleIndex.getMatchesAfter(i);
 
-    for (int i = 0; i < tracks.length; i++) {
-      final PlaylistTrack currentTrack = tracks[i];
+      if (others.length > 0) {
+        duplicates.add(tracks.get(i));
 
-      boolean duplicate = false;
-      List<PlaylistTrack> others = new ArrayList<>();
+        for (int other : others) {
+          duplicates.add(tracks.get(other));
+        }
+      }
+    }
 
-      for (int j = i + 1; j < tracks.length; j++) {
-        final PlaylistTrack track = tracks[j];
+    return duplicates;
+  }
 
-        if (compareSongTitle(currentTrack.getTrack().getName(), track.getTrack().getName())) {
-          duplicate = true;
-          others.add(track);
+  /**
+   * Check if there is any track with the same title (or partially the same) in the Spotify
+   * playlist and group them together.<br>
+   * Two tracks are in the same group if their titles match or if they are linked by a chain of
+   * matching titles. The groups are disjoint and they are produced lazily, in the order of the
+   * first track of every group: every group is found in the index and its tracks are rebuilt only
+   * when the stream reaches it.<br>
+   * The index of the playlist is kept between the checks, so only the tracks added or removed since
+   * the previous check are indexed again. Only the indexes of the playlists checked most recently
+   * are kept, see {@link #setIndexCapacity(int)}.<br>
+   * The result of this execution is not 100% correct. You have to manually check if the tracks are
+   * really duplicated.
+   *
+   * @param playListId The ID of the playlist to be checked
+   * @return Stream of the groups of duplicated tracks. It throws a {@link
+   *     ConcurrentModificationException} if the playlist is checked again before it is consumed.
+   * @throws IOException
+   * @throws SpotifyWebApiException
+   * @throws ParseException
+   * @throws NullPointerException if the element returned by the request is null
+   */
+  public Stream<DuplicateGroup> getDuplicateGroupsByName(String playListId)
+      throws IOException, SpotifyWebApiException, ParseException {
+    return checkIndex(playListId, PlaylistIndex::streamGroups);
+  }
+
+  /**
+   * Check if there is any track similar to another one in the Spotify playlist and group them
+   * together.<br>
+   * The similar tracks are found by the given stage. Two tracks are in the same group if the stage
+   * matches them or if they are linked by a chain of matches. The groups are disjoint and they are
+   * produced lazily, in the order of the first track of every group.
+   *
+   * @param playListId The ID of the playlist to be checked
+   * @param stage the stage that decides which tracks are similar
+   * @return Stream of the groups of similar tracks.
+   * @throws IOException
+   * @throws SpotifyWebApiException
+   * @throws ParseException
+   * @throws NullPointerException if the element returned by the request is null
+   */
+  public Stream<DuplicateGroup> getDuplicateGroups(String playListId, SimilarityStage stage)
+      throws IOException, SpotifyWebApiException, ParseException {
+    return getDuplicateGroups(playListId, new SimilarityPipeline(stage));
+  }
+
+  /**
+   * Check if there is any track similar to another one in the Spotify playlist and group them
+   * together, running the stages of the pipeline one after the other.<br>
+   * With {@link SimilarityPipeline#withExactIds(SimilarityStage)} the tracks with the same ID or
+   * ISRC are grouped in a single pass, and only one track of every group goes through the given
+   * stage. The groups are disjoint and they are produced lazily, in the order of the first track of
+   * every group, and every group reports the stage that matched it.
+   *
+   * @param playListId The ID of the playlist to be checked
+   * @param pipeline the stages that decide which tracks are similar
+   * @return Stream of the groups of similar tracks.
+   * @throws IOException
+   * @throws SpotifyWebApiException
+   * @throws ParseException
+   * @throws NullPointerException if the element returned by the request is null
+   */
+  public Stream<DuplicateGroup> getDuplicateGroups(String playListId, SimilarityPipeline pipeline)
+      throws IOException, SpotifyWebApiException, ParseException {
+    final List<PlaylistTrack> tracks = readPlaylist(playListId);
+
+    final long start = System.nanoTime();
+    final Stream<DuplicateGroup> groups = pipeline.groups(playListId, tracks);
+    this.metrics.phase(PHASE_PLAYLIST_STAGE).recordSince(start);
+
+    return groups;
+  }
+
+  /**
+   * Check which groups of tracks with the same title (or partially the same) changed since the
+   * previous check of the Spotify playlist.<br>
+   * The index of the playlist is kept between the checks, so only the tracks added or removed since
+   * then are checked again and the time needed is proportional to the changes. If the wrapper has a
+   * {@link PlaylistSnapshotCache}, the items of every check are stored in it too, so the first
+   * check of a new process compares the playlist with the last check of the previous one. Otherwise
+   * the first check of a playlist returns all the groups.
+   *
+   * @param playListId The ID of the playlist to be checked
+   * @return Stream of the groups of duplicated tracks that contain a track added since the previous
+   *     check, or that contained a track removed since then.
+   * @throws IOException
+   * @throws SpotifyWebApiException
+   * @throws ParseException
+   * @throws NullPointerException if the element returned by the request is null
+   */
+  public Stream<DuplicateGroup> getUpdatedDuplicateGroupsByName(String playListId)
+      throws IOException, SpotifyWebApiException, ParseException {
+    return checkIndex(playListId, PlaylistIndex::changedGroups).stream();
+  }
+
+  /**
+   * Check which groups of tracks with the same title (or partially the same) received a track since
+   * the previous check of the Spotify playlist, like the duplicates just added by a curator.<br>
+   * The index of the playlist is updated, and stored, in the same way of {@link
+   * #getUpdatedDuplicateGroupsByName(String)}. The first check of a playlist that was never checked
+   * before returns all the groups.
+   *
+   * @param playListId The ID of the playlist to be checked
+   * @return Stream of the groups of duplicated tracks that contain a track added since the previous
+   *     check.
+   * @throws IOException
+   * @throws SpotifyWebApiException
+   * @throws ParseException
+   * @throws NullPointerException if the element returned by the request is null
+   */
+  public Stream<DuplicateGroup> getNewDuplicateGroupsByName(String playListId)
+      throws IOException, SpotifyWebApiException, ParseException {
+    return checkIndex(playListId, PlaylistIndex::addedGroups).stream();
+  }
+
+  /**
+   * Check which groups of tracks with the same title (or partially the same) received a track since
+   * the previous update of an index kept by the caller, like the one of a {@link PlaylistWatcher}.
+   * <br>
+   * The indexes kept by this instance are neither read nor updated, so the other checks of the
+   * playlist do not hide the tracks added since the previous check of the caller.
+   *
+   * @param playListId The ID of the playlist to be checked
+   * @param index the index of the playlist kept by the caller, empty for the first check
+   * @return the groups of duplicated tracks that contain a track added since the previous update of
+   *     the index
+   * @throws IOException
+   * @throws SpotifyWebApiException
+   * @throws ParseException
+   * @throws NullPointerException if the element returned by the request is null
+   */
+  List<DuplicateGroup> getNewDuplicateGroupsByName(String playListId, PlaylistIndex index)
+      throws IOException, SpotifyWebApiException, ParseException {
+    return checkIndex(playListId, id -> index, null, PlaylistIndex::addedGroups);
+  }
+
+  /**
+   * Remove the duplicated tracks from the Spotify playlist, keeping the first track of every group
+   * returned by {@link #getDuplicateGroupsByName(String)}.<br>
+   * The tracks are removed by position, with requests of up to {@link
+   * SpotifyApiWrapper#REMOVE_PLAYLIST_ITEMS_LIMIT} tracks. Every request uses the snapshot of the
+   * playlist returned by the previous one and the requests remove the tracks from the last one to
+   * the first one, so the positions of the tracks still to remove never change. The playlist is
+   * read again if it changes while it is read, the changes made after that are kept.<br>
+   * If a request fails, the tracks removed by the previous requests stay removed: checking the
+   * playlist again removes the remaining ones. After a server error the request may have removed
+   * its tracks or not, so it is never sent again: the playlist is read again and the positions of
+   * the remaining duplicates are computed from its new snapshot, up to {@value #REMOVE_ATTEMPTS}
+   * times. The tracks removed before the error follow the other ones in the result, with their
+   * position in the version read before it.
+   *
+   * @param playListId The ID of the playlist to be cleaned
+   * @param dryRun true to only return the tracks that would be removed
+   * @return the removed tracks
+   * @throws IOException
+   * @throws SpotifyWebApiException
+   * @throws ParseException
+   * @throws ConcurrentModificationException if the playlist keeps changing while it is read
+   * @throws NullPointerException if the element returned by the request is null
+   */
+  public DuplicateRemoval removeDuplicateTracksByName(String playListId, boolean dryRun)
+      throws IOException, SpotifyWebApiException, ParseException {
+    // The tracks removed before a server error, the last ones first
+    final List<Integer> removedPositions = new ArrayList<>();
+    final List<PlaylistTrack> removedTracks = new ArrayList<>();
+    int requests = 0;
+
+    for (int attempt = 1; ; attempt++) {
+      // The positions must be read from the same version of the playlist as the snapshot
+      final Snapshot<List<DuplicateGroup>> read =
+          readSnapshot(playListId, null, () -> checkIndex(playListId, PlaylistIndex::groups));
+      String snapshotId = read.snapshotId;
+      final List<DuplicateGroup> groups = read.value;
+
+      // Every track but the first one of its group, in ascending position
+      final List<Integer> positions = new ArrayList<>();
+      final Map<Integer, PlaylistTrack> tracks = new HashMap<>();
+
+      for (DuplicateGroup group : groups) {
+        for (int i = 1; i < group.size(); i++) {
+          final PlaylistTrack track = group.getTracks().get(i);
+
+          // The tracks without a URI cannot be removed by position
+          if (track.getTrack() != null && track.getTrack().getUri() != null) {
+            positions.add(group.getPositions().get(i));
+            tracks.put(group.getPositions().get(i), track);
+          }
         }
       }
+      positions.sort(null);
+
+      final List<PlaylistTrack> removed = new ArrayList<>(positions.size());
+      final List<String> uris = new ArrayList<>(positions.size());
+      for (int position : positions) {
+        removed.add(tracks.get(position));
+        uris.add(tracks.get(position).getTrack().getUri());
+      }
 
-      if (duplicate) {
-        duplicates.add(currentTrack);
-        duplicates.addAll(others);
+      if (dryRun) {
+        return new DuplicateRemoval(playListId, positions, removed, snapshotId, 0, true);
       }
+
+      final long start = System.nanoTime();
+      int end = positions.size();
+
+      try {
+        for (; end > 0; end -= SpotifyApiWrapper.REMOVE_PLAYLIST_ITEMS_LIMIT) {
+          final int from = Math.max(0, end - SpotifyApiWrapper.REMOVE_PLAYLIST_ITEMS_LIMIT);
+
+          requests++;
+          snapshotId =
+              this.spotifyApiWrapper.removePlaylistsItems(
+                  playListId, uris.subList(from, end), positions.subList(from, end), snapshotId);
+        }
+      } catch (InternalServerErrorException | BadGatewayException | ServiceUnavailableException e) {
+        if (attempt >= REMOVE_ATTEMPTS) {
+          throw e;
+        }
+
+        // The failed request may have removed its tracks: the positions are computed again
+        LOGGER.warn(
+            "Unable to remove the tracks of the playlist {}, reading it again", playListId, e);
+        removedPositions.addAll(0, positions.subList(end, positions.size()));
+        removedTracks.addAll(0, removed.subList(end, removed.size()));
+        continue;
+      } finally {
+        this.metrics.phase(PHASE_PLAYLIST_REMOVE).recordSince(start);
+      }
+
+      removedPositions.addAll(0, positions);
+      removedTracks.addAll(0, removed);
+
+      return new DuplicateRemoval(
+          playListId, removedPositions, removedTracks, snapshotId, requests, false);
     }
+  }
 
-    return duplicates;
+  /**
+   * Check if there is any track with the same title (or partially the same) in all the playlists of
+   * the current user, in the same playlist or in different ones, and group them together.<br>
+   * The playlists are retrieved concurrently and indexed in parallel on the common {@link
+   * ForkJoinPool}, then the partial indexes are merged into the groups of the whole library. The
+   * items without a title, like the tracks no longer available, are skipped.<br>
+   * The result of this execution is not 100% correct. You have to manually check if the tracks are
+   * really duplicated.
+   *
+   * @return Stream of the groups of duplicated tracks, with the playlist of every track, ordered by
+   *     the playlist and the position of the first track of every group.
+   * @throws IOException
+   * @throws SpotifyWebApiException
+   * @throws ParseException
+   * @throws NullPointerException if the element returned by the request is null
+   */
+  public Stream<DuplicateGroup> getLibraryDuplicateGroupsByName()
+      throws IOException, SpotifyWebApiException, ParseException {
+    final List<String> playlistIds;
+    final long start = System.nanoTime();
+
+    try (Stream<PlaylistSimplified> playlists =
+        this.spotifyApiWrapper.getAllCurrentUsersPlaylists()) {
+      playlistIds = playlists.map(PlaylistSimplified::getId).collect(Collectors.toList());
+    }
+
+    this.metrics.phase(PHASE_LIBRARY_PLAYLISTS).recordSince(start);
+
+    return new LibraryScan(this.spotifyApiWrapper, playlistIds, this.metrics)
+        .run(ForkJoinPool.commonPool()).stream();
+  }
+
+  /**
+   * Check asynchronously if there is any track with the same title (or partially the same) in all
+   * the playlists of the current user, in the same playlist or in different ones, and group them
+   * together.<br>
+   * Unlike {@link #getLibraryDuplicateGroupsByName()}, no thread waits for the responses: all the
+   * playlists are requested at once, the scheduler of the wrapper decides how many requests are in
+   * flight and every playlist is indexed on the common {@link ForkJoinPool} as soon as it is
+   * received.
+   *
+   * @return the future groups of duplicated tracks, with the playlist of every track, ordered by
+   *     the playlist and the position of the first track of every group. Completing it, for example
+   *     by cancelling it or with a timeout, cancels the requests in progress.
+   */
+  public CompletableFuture<List<DuplicateGroup>> getLibraryDuplicateGroupsByNameAsync() {
+    final Metrics metrics = this.metrics;
+    final long start = System.nanoTime();
+
+    return Futures.compose(
+        this.spotifyApiWrapper.getAllCurrentUsersPlaylistsAsync(),
+        playlists -> {
+          metrics.phase(PHASE_LIBRARY_PLAYLISTS).recordSince(start);
+
+          return new LibraryScan(
+                  this.spotifyApiWrapper,
+                  playlists.stream().map(PlaylistSimplified::getId).collect(Collectors.toList()),
+                  metrics)
+              .runAsync(ForkJoinPool.commonPool());
+        });
   }
 
   /**
-   * Compare the name of two playlist items while ignoring the case sensitivity.
+   * Export all the playlists of the current user and their items to a file, that can be checked
+   * later without any request to Spotify with {@link
+   * #getLibraryDuplicateGroupsByName(LibraryFile)}. <br>
+   * The playlists are retrieved one at a time and the items of every playlist are encoded in the
+   * export as soon as the playlist is received. The snapshot of every playlist is read after its
+   * items and compared with the listed one, and the playlist is read again if it changes in the
+   * meantime, so the stored snapshot is the one of the stored items. The file replaces the previous one only when it is
+   * complete.
    *
-   * @param firstName
-   * @param secondName
-   * @throws NullPointerException if one of the two inputs is null
-   * @return <code>true</code> if the two titles are the same or start with the same words, <code>
-   *     false</code> otherwise
+   * @param path the file to write
+   * @return the written export
+   * @throws IOException if a request fails or the file cannot be written
+   * @throws SpotifyWebApiException
+   * @throws ParseException
+   * @throws ConcurrentModificationException if a playlist keeps changing while it is read
+   * @throws NullPointerException if the element returned by the request is null
    */
-  private boolean compareSongTitle(String firstName, String secondName) {
-    if (firstName.equalsIgnoreCase(secondName)) {
-      return true;
+  public LibraryFile exportLibrary(Path path)
+      throws IOException, SpotifyWebApiException, ParseException {
+    final List<PlaylistSimplified> playlists;
+    final long start = System.nanoTime();
+
+    try (Stream<PlaylistSimplified> stream = this.spotifyApiWrapper.getAllCurrentUsersPlaylists()) {
+      playlists = stream.collect(Collectors.toList());
     }
 
-    String[] firstWords = firstName.split("\\s+");
-    String[] secondWords = secondName.split("\\s+");
+    this.metrics.phase(PHASE_LIBRARY_PLAYLISTS).recordSince(start);
+
+    // The strings repeated across the playlists are stored once while the export is written
+    final StringPool strings = new StringPool();
 
-    for (int i = 0; i < Math.min(firstWords.length, secondWords.length); i++) {
-      String firstWord = firstWords[i];
-      String secondWord = secondWords[i];
+    try (LibraryFile.Writer writer = LibraryFile.writer(path)) {
+      // Only the encoding and the writing are part of the export phase, not the requests
+      long exportNanos = 0;
 
-      if (!firstWord.equalsIgnoreCase(secondWord)) {
-        return false;
+      for (PlaylistSimplified playlist : playlists) {
+        final Snapshot<TrackTable> read =
+            readSnapshot(
+                playlist.getId(),
+                playlist.getSnapshotId(),
+                () -> readTable(playlist.getId(), strings));
+
+        final long encodeStart = System.nanoTime();
+        writer.append(playlist.getId(), playlist.getName(), read.snapshotId, read.value);
+        exportNanos += System.nanoTime() - encodeStart;
       }
+
+      final long commitStart = System.nanoTime();
+      writer.commit();
+      this.metrics
+          .phase(PHASE_LIBRARY_EXPORT)
+          .record(exportNanos + System.nanoTime() - commitStart);
     }
 
-    return true;
+    return LibraryFile.open(path);
+  }
+
+  /**
+   * Check if there is any track with the same title (or partially the same) in the playlists of an
+   * export, in the same playlist or in different ones, and group them together.<br>
+   * Unlike {@link #getLibraryDuplicateGroupsByName()}, no request is sent to Spotify: the items are
+   * read straight from the file written by {@link #exportLibrary(Path)}. The items without a title
+   * are skipped.<br>
+   * The result of this execution is not 100% correct. You have to manually check if the tracks are
+   * really duplicated.
+   *
+   * @param library the export of the library
+   * @return Stream of the groups of duplicated tracks, with the playlist of every track, ordered by
+   *     the playlist and the position of the first track of every group.
+   */
+  public Stream<DuplicateGroup> getLibraryDuplicateGroupsByName(LibraryFile library) {
+    return new LibraryScan(library, this.metrics).run().stream();
+  }
+
+  /**
+   * Read a playlist between two reads of its snapshot, again if the snapshot changes in the
+   * meantime. The stored responses of the playlist are discarded before the read of the playlist
+   * and of the snapshot after it, so that both are read from Spotify.<br>
+   * The snapshot listed with the playlists, if known, is used as the snapshot before the first
+   * read: it can only be older than the current one, so a change is still detected.
+   *
+   * @param playListId The ID of the playlist
+   * @param listedSnapshotId the snapshot of the playlist in the list of the playlists, or null to
+   *     read it
+   * @param read the read of the playlist
+   * @param <T> the type of the result of the read
+   * @return the result of the read, with the snapshot it belongs to
+   * @throws IOException
+   * @throws SpotifyWebApiException
+   * @throws ParseException
+   * @throws ConcurrentModificationException if the playlist keeps changing while it is read
+   */
+  private <T> Snapshot<T> readSnapshot(
+      String playListId, String listedSnapshotId, SpotifyCall<T> read)
+      throws IOException, SpotifyWebApiException, ParseException {
+    String listed = listedSnapshotId;
+
+    for (int attempt = 1; ; attempt++) {
+      this.spotifyApiWrapper.discardCachedResponses(playListId);
+      final String before =
+          listed != null ? listed : this.spotifyApiWrapper.getPlaylistSnapshotId(playListId);
+      listed = null;
+      final T value = read.execute();
+
+      this.spotifyApiWrapper.discardCachedResponses(playListId);
+      if (Objects.equals(before, this.spotifyApiWrapper.getPlaylistSnapshotId(playListId))) {
+        return new Snapshot<>(before, value);
+      } else if (attempt >= SNAPSHOT_READ_ATTEMPTS) {
+        throw new ConcurrentModificationException(
+            "The playlist " + playListId + " changed while it was read");
+      }
+    }
+  }
+
+  /**
+   * Retrieve all the items of the playlist, update the index kept since the previous check and
+   * read its groups, all while holding the lock of the index so that no other check can update it
+   * in between.
+   *
+   * @param playListId The ID of the playlist
+   * @param query the groups to read from the updated index, given the items of the update
+   * @param <T> the type of the groups, a list or a lazy stream
+   * @return the groups of the original items of the playlist
+   * @throws IOException
+   * @throws SpotifyWebApiException
+   * @throws ParseException
+   * @throws NullPointerException if the element returned by the request is null
+   */
+  private <T> T checkIndex(String playListId, BiFunction<PlaylistIndex, TrackTable, T> query)
+      throws IOException, SpotifyWebApiException, ParseException {
+    return checkIndex(
+        playListId, this.indexes::get, this.spotifyApiWrapper.getSnapshotCache(), query);
+  }
+
+  /**
+   * Retrieve all the items of the playlist, update the given index and read its groups, all while
+   * holding the lock of the index.<br>
+   * With a cache, a new index first gets the items stored by the last check, even of another
+   * process, and the items of every update that changes the index are stored for the next one.
+   * The errors of the cache are only logged, the index just starts from scratch.
+   *
+   * @param playListId The ID of the playlist
+   * @param indexes the index of the playlist, given its ID
+   * @param cache the cache of the items of the last check, or null to keep them only in memory
+   * @param query the groups to read from the updated index, given the items of the update
+   * @param <T> the type of the groups, a list or a lazy stream
+   * @return the groups of the original items of the playlist
+   * @throws IOException
+   * @throws SpotifyWebApiException
+   * @throws ParseException
+   * @throws NullPointerException if the element returned by the request is null
+   */
+  private <T> T checkIndex(
+      String playListId,
+      Function<String, PlaylistIndex> indexes,
+      PlaylistSnapshotCache cache,
+      BiFunction<PlaylistIndex, TrackTable, T> query)
+      throws IOException, SpotifyWebApiException, ParseException {
+    final TrackTable tracks = readTable(playListId, new StringPool());
+
+    final long start = System.nanoTime();
+    final PlaylistIndex index = indexes.apply(playListId);
+
+    synchronized (index) {
+      if (cache != null && index.isNew()) {
+        restoreIndex(cache, playListId, index);
+      }
+
+      final int changes = index.update(tracks);
+      this.metrics.phase(PHASE_PLAYLIST_INDEX).recordSince(start);
+
+      if (cache != null && changes > 0) {
+        storeIndex(cache, playListId, tracks);
+      }
+
+      return query.apply(index, tracks);
+    }
+  }
+
+  /** Update a new index with the items stored by the last check of the playlist, if any. */
+  private static void restoreIndex(
+      PlaylistSnapshotCache cache, String playListId, PlaylistIndex index) {
+    try {
+      final Optional<List<PlaylistTrack>> indexed = cache.readIndexed(playListId);
+
+      if (indexed.isPresent()) {
+        index.update(TrackTable.of(indexed.get()));
+      }
+    } catch (IOException | RuntimeException e) {
+      LOGGER.warn("Unable to read the last check of the playlist {}", playListId, e);
+    }
+  }
+
+  /** Store the items of a check of the playlist, for the first check of the next process. */
+  private static void storeIndex(
+      PlaylistSnapshotCache cache, String playListId, TrackTable tracks) {
+    try (PlaylistSnapshotCache.Writer writer = cache.indexedWriter(playListId, null)) {
+      for (int row = 0; row < tracks.size(); row++) {
+        writer.append(tracks.get(row));
+      }
+      writer.commit();
+    } catch (IOException | UncheckedIOException e) {
+      LOGGER.warn("Unable to store the check of the playlist {}", playListId, e);
+    }
+  }
+
+  /**
+   * Retrieve all the items of the playlist.
+   *
+   * @param playListId The ID of the playlist
+   * @return the items of the playlist, in playlist order
+   * @throws IOException
+   * @throws SpotifyWebApiException
+   * @throws ParseException
+   */
+  private List<PlaylistTrack> readPlaylist(String playListId)
+      throws IOException, SpotifyWebApiException, ParseException {
+    final List<PlaylistTrack> tracks = new ArrayList<>();
+    final long start = System.nanoTime();
+
+    try (Stream<PlaylistTrack> items = this.spotifyApiWrapper.getAllPlaylistsItems(playListId)) {
+      items.forEachOrdered(tracks::add);
+    }
+
+    this.metrics.phase(PHASE_PLAYLIST_READ).recordSince(start);
+    this.metrics.addTracks(tracks.size());
+
+    return tracks;
+  }
+
+  /**
+   * Retrieve all the items of the playlist into a table, while the pages arrive.
+   *
+   * @param playListId The ID of the playlist
+   * @param strings the pool of the strings of the table
+   * @return the items of the playlist, the row of every item is its position
+   * @throws IOException
+   * @throws SpotifyWebApiException
+   * @throws ParseException
+   * @throws NullPointerException if the element returned by the request is null
+   */
+  private TrackTable readTable(String playListId, StringPool strings)
+      throws IOException, SpotifyWebApiException, ParseException {
+    final TrackTable tracks = new TrackTable(strings);
+    final long start = System.nanoTime();
+
+    try (Stream<PlaylistTrack> items = this.spotifyApiWrapper.getAllPlaylistsItems(playListId)) {
+      items.forEachOrdered(track -> tracks.append(track, tracks.size()));
+    }
+
+    this.metrics.phase(PHASE_PLAYLIST_READ).recordSince(start);
+    this.metrics.addTracks(tracks.size());
+
+    return tracks;
+  }
+
+  /**
+   * Retrieve all the items of the playlist and index their titles while the pages arrive.
+   *
+   * @param playListId The ID of the playlist
+   * @param tracks the table where the items of the playlist are added, in playlist order
+   * @return the index of the titles, the position of every title is the one of its track
+   * @throws IOException
+   * @throws SpotifyWebApiException
+   * @throws ParseException
+   * @throws NullPointerException if the element returned by the request is null
+   */
+  private TitleIndex indexPlaylist(String playListId, TrackTable tracks)
+      throws IOException, SpotifyWebApiException, ParseException {
+    final TitleIndex titleIndex = new TitleIndex();
+    final TitleKeyCache keys = TitleKeyCache.global();
+    final long start = System.nanoTime();
+
+    try (Stream<PlaylistTrack> items = this.spotifyApiWrapper.getAllPlaylistsItems(playListId)) {
+      items.forEachOrdered(
+          track -> {
+            titleIndex.add(keys.get(track.getTrack().getId(), track.getTrack().getName()));
+            tracks.append(track, tracks.size());
+          });
+    }
+
+    this.metrics.phase(PHASE_PLAYLIST_READ).recordSince(start);
+    this.metrics.addTracks(tracks.size());
+
+    return titleIndex;
+  }
+
+  /** The result of a read of a playlist, with the snapshot it belongs to. */
+  private static final class Snapshot<T> {
+
+    private final String snapshotId;
+    private final T value;
+
+    private Snapshot(String snapshotId, T value) {
+      this.snapshotId = snapshotId;
+      this.value = value;
+    }
   }
 }
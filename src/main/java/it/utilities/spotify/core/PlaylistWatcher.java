@@ -0,0 +1,181 @@
+package it.utilities.spotify.core;
+
+import com.wrapper.spotify.exceptions.SpotifyWebApiException;
+import com.wrapper.spotify.model_objects.specification.PlaylistSimplified;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Stream;
+import org.apache.hc.core5.http.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Instances of the PlaylistWatcher class check some playlists again and again, to report the
+ * duplicates as soon as they are added.<br>
+ * Every check first reads the <code>snapshot_id</code> of the playlists from the list of the
+ * playlists of the user, that returns {@link SpotifyApiWrapper#CURRENT_USER_PLAYLISTS_LIMIT}
+ * playlists with a single request, so a check of thousands of unchanged playlists costs a few
+ * requests. Only the playlists whose snapshot changed are read again, and their index is updated
+ * with the items added and removed since the previous check. The watcher keeps its own indexes,
+ * apart from the ones of {@link PlaylistUtility}, so the other checks of the same playlists do not
+ * hide the tracks added since the previous check of the watcher. The watched playlists that are
+ * not in the list of the user, like the ones of other users that are not followed, have their
+ * snapshot requested one by one.<br>
+ * The first check of a playlist only records its current state, the following ones return the
+ * groups that received a track since the previous check.
+ */
+public final class PlaylistWatcher {
+
+  /** Name of the phase that records the duration of a check. */
+  public static final String PHASE_WATCH = "watch";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(PlaylistWatcher.class);
+
+  private final SpotifyApiWrapper spotifyApiWrapper;
+  private final PlaylistUtility playlistUtility;
+
+  /** The watched playlists, empty to watch all the playlists of the user. */
+  private final Set<String> playListIds;
+
+  /** The snapshot of every playlist at its last successful check, guarded by this. */
+  private final Map<String, String> snapshots = new HashMap<>();
+
+  /** The index of every playlist at its last successful check, guarded by this. */
+  private final Map<String, PlaylistIndex> indexes = new HashMap<>();
+
+  private volatile Metrics metrics = Metrics.global();
+
+  /**
+   * @param spotifyApiWrapper the wrapper used to read the snapshots
+   * @param playlistUtility the utilities that read the playlists
+   * @param playListIds the IDs of the watched playlists, empty to watch all the playlists of the
+   *     user, including the ones created later
+   */
+  public PlaylistWatcher(
+      SpotifyApiWrapper spotifyApiWrapper,
+      PlaylistUtility playlistUtility,
+      Set<String> playListIds) {
+    this.spotifyApiWrapper = spotifyApiWrapper;
+    this.playlistUtility = playlistUtility;
+    this.playListIds = new LinkedHashSet<>(playListIds);
+  }
+
+  /**
+   * Set the metrics where the checks are recorded, by default the global ones.
+   *
+   * @param metrics the metrics
+   */
+  public void setMetrics(Metrics metrics) {
+    this.metrics = Objects.requireNonNull(metrics);
+  }
+
+  /**
+   * Check the playlists whose snapshot changed since the previous check.<br>
+   * A playlist that cannot be read is skipped and checked again the next time.
+   *
+   * @return the groups of duplicated tracks that received a track since the previous check, in the
+   *     playlists already checked before
+   * @throws IOException
+   * @throws SpotifyWebApiException
+   * @throws ParseException
+   */
+  public synchronized List<DuplicateGroup> check()
+      throws IOException, SpotifyWebApiException, ParseException {
+    final long start = System.nanoTime();
+    final Map<String, String> current = readSnapshots();
+    final List<DuplicateGroup> groups = new ArrayList<>();
+
+    // The deleted playlists, and the unfollowed ones when all are watched, are forgotten
+    this.snapshots.keySet().retainAll(current.keySet());
+    this.indexes.keySet().retainAll(current.keySet());
+
+    for (Map.Entry<String, String> playlist : current.entrySet()) {
+      final String playListId = playlist.getKey();
+
+      if (Objects.equals(this.snapshots.get(playListId), playlist.getValue())) {
+        continue;
+      }
+
+      final List<DuplicateGroup> added;
+      try {
+        added =
+            this.playlistUtility.getNewDuplicateGroupsByName(
+                playListId, this.indexes.computeIfAbsent(playListId, PlaylistIndex::new));
+      } catch (IOException | SpotifyWebApiException | ParseException | RuntimeException e) {
+        LOGGER.warn("Unable to check the playlist {}, it is checked again later", playListId, e);
+        continue;
+      }
+
+      // A playlist seen for the first time has no previous state to compare with
+      if (this.snapshots.put(playListId, playlist.getValue()) != null) {
+        groups.addAll(added);
+      }
+    }
+
+    this.metrics.phase(PHASE_WATCH).recordSince(start);
+
+    return groups;
+  }
+
+  /**
+   * @return the number of playlists checked at least once
+   */
+  public synchronized int getWatchedCount() {
+    return this.snapshots.size();
+  }
+
+  /**
+   * @return the current snapshot of every watched playlist, in the order of the user or of the
+   *     watched IDs
+   */
+  private Map<String, String> readSnapshots()
+      throws IOException, SpotifyWebApiException, ParseException {
+    final Map<String, String> snapshots = new LinkedHashMap<>();
+
+    try (Stream<PlaylistSimplified> playlists =
+        this.spotifyApiWrapper.getAllCurrentUsersPlaylists()) {
+      final Iterator<PlaylistSimplified> iterator = playlists.iterator();
+
+      while (iterator.hasNext()) {
+        final PlaylistSimplified playlist = iterator.next();
+
+        if (this.playListIds.isEmpty() || this.playListIds.contains(playlist.getId())) {
+          snapshots.put(playlist.getId(), playlist.getSnapshotId());
+        }
+      }
+    }
+
+    if (this.playListIds.isEmpty()) {
+      return snapshots;
+    }
+
+    final Map<String, String> watched = new LinkedHashMap<>();
+    for (String playListId : this.playListIds) {
+      final String snapshotId = snapshots.get(playListId);
+
+      try {
+        watched.put(
+            playListId,
+            snapshotId != null
+                ? snapshotId
+                : this.spotifyApiWrapper.getPlaylistSnapshotId(playListId));
+      } catch (IOException | SpotifyWebApiException | ParseException e) {
+        LOGGER.warn("Unable to read the snapshot of the playlist {}", playListId, e);
+        // The playlist keeps its state until it can be read again
+        if (this.snapshots.containsKey(playListId)) {
+          watched.put(playListId, this.snapshots.get(playListId));
+        }
+      }
+    }
+
+    return watched;
+  }
+}
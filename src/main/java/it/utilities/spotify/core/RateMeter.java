@@ -0,0 +1,59 @@
+package it.utilities.spotify.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter of the events of the last minute, used to compute their rate.<br>
+ * The events are counted in a slot for every second, reused when the second is older than a minute.
+ * Marking an event only updates the slot of the current second, without locks: an event marked
+ * while another thread reuses the slot can be lost, which is acceptable for a rate.
+ */
+final class RateMeter {
+
+  private static final int SECONDS = 60;
+
+  private final AtomicLongArray counts = new AtomicLongArray(SECONDS);
+  private final AtomicLongArray seconds = new AtomicLongArray(SECONDS);
+  private final long createdAt = second();
+
+  RateMeter() {
+    for (int slot = 0; slot < SECONDS; slot++) {
+      this.seconds.set(slot, Long.MIN_VALUE);
+    }
+  }
+
+  void mark() {
+    final long second = second();
+    final int slot = (int) Math.floorMod(second, (long) SECONDS);
+    final long previous = this.seconds.get(slot);
+
+    if (previous != second && this.seconds.compareAndSet(slot, previous, second)) {
+      this.counts.set(slot, 0);
+    }
+
+    this.counts.incrementAndGet(slot);
+  }
+
+  /**
+   * @return the events per second in the last minute, or since the creation if it is more recent
+   */
+  double rate() {
+    final long now = second();
+    long events = 0;
+
+    for (int slot = 0; slot < SECONDS; slot++) {
+      final long age = now - this.seconds.get(slot);
+
+      if (age >= 0 && age < SECONDS) {
+        events += this.counts.get(slot);
+      }
+    }
+
+    return (double) events / Math.min(SECONDS, now - this.createdAt + 1);
+  }
+
+  private static long second() {
+    return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+  }
+}
@@ -0,0 +1,585 @@
+package it.utilities.spotify.core;
+
+import com.wrapper.spotify.exceptions.SpotifyWebApiException;
+import com.wrapper.spotify.exceptions.detailed.BadGatewayException;
+import com.wrapper.spotify.exceptions.detailed.InternalServerErrorException;
+import com.wrapper.spotify.exceptions.detailed.ServiceUnavailableException;
+import com.wrapper.spotify.exceptions.detailed.TooManyRequestsException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.hc.core5.http.ParseException;
+
+/**
+ * Instances of the RequestScheduler class decide when a request to the Spotify API can be sent.
+ * <br>
+ * The requests are paced by a token bucket whose rate adapts to the responses: every <code>429 Too
+ * Many Requests</code> halves the rate and pauses all the requests for the time indicated by the
+ * <code>Retry-After</code> header, while every successful request increases the rate a little, up
+ * to the configured maximum. The failed requests are retried with an exponential backoff with
+ * jitter and every endpoint has its own limit of concurrent requests.<br>
+ * The requests can also be sent asynchronously with {@link #executeAsync(String,
+ * AsyncSpotifyCall)}: the waits for the rate limit, for the endpoint and for the retries are then
+ * scheduled instead of blocking a thread, so many requests can be pending on a few threads.<br>
+ * The latency and the outcome of every attempt are recorded in the {@link Metrics} of the endpoint.
+ */
+public class RequestScheduler {
+
+  private final double minRate;
+  private final double maxRate;
+  private final double rateIncrease;
+  private final double burst;
+  private final int maxRetries;
+  private final long baseBackoffNanos;
+  private final long maxBackoffNanos;
+  private final int endpointConcurrency;
+  private final Map<String, Integer> endpointLimits;
+  private final Metrics metrics;
+
+  private final Map<String, Permits> endpointPermits = new ConcurrentHashMap<>();
+
+  // Token bucket state, guarded by this
+  private double rate;
+  private double tokens;
+  private long lastRefill;
+  private long pausedUntil;
+
+  private RequestScheduler(Builder builder) {
+    this.minRate = builder.minRate;
+    this.maxRate = builder.maxRate;
+    this.rateIncrease = builder.rateIncrease;
+    this.burst = Math.max(1, builder.burst);
+    this.maxRetries = builder.maxRetries;
+    this.baseBackoffNanos = builder.baseBackoffNanos;
+    this.maxBackoffNanos = builder.maxBackoffNanos;
+    this.endpointConcurrency = builder.endpointConcurrency;
+    this.endpointLimits = new ConcurrentHashMap<>(builder.endpointLimits);
+    this.metrics = builder.metrics;
+
+    this.rate = Math.min(this.maxRate, Math.max(this.minRate, builder.initialRate));
+    this.tokens = this.burst;
+    this.lastRefill = System.nanoTime();
+    this.pausedUntil = this.lastRefill;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Send a request as soon as the rate limit allows it, retrying it if Spotify answers with a
+   * temporary error.
+   *
+   * @param endpoint the name of the endpoint, used to limit the concurrent requests
+   * @param call the request to send
+   * @param <T> the type of the result
+   * @return the result of the request
+   * @throws IOException if the request fails or the thread is interrupted while waiting
+   * @throws SpotifyWebApiException if Spotify returns an error, or the last temporary error when
+   *     all the retries fail
+   * @throws ParseException
+   */
+  public <T> T execute(String endpoint, SpotifyCall<T> call)
+      throws IOException, SpotifyWebApiException, ParseException {
+    return execute(endpoint, call, this.maxRetries);
+  }
+
+  /**
+   * Send a request as soon as the rate limit allows it, without ever retrying it.<br>
+   * It is meant for the requests that cannot be repeated, like the exchange of a single-use
+   * authorization code: after a temporary error the code may already be consumed, and sending it
+   * again would only fail with <code>invalid_grant</code>.
+   *
+   * @param endpoint the name of the endpoint, used to limit the concurrent requests
+   * @param call the request to send
+   * @param <T> the type of the result
+   * @return the result of the request
+   * @throws IOException if the request fails or the thread is interrupted while waiting
+   * @throws SpotifyWebApiException if Spotify returns an error, temporary or not
+   * @throws ParseException
+   */
+  public <T> T executeOnce(String endpoint, SpotifyCall<T> call)
+      throws IOException, SpotifyWebApiException, ParseException {
+    return execute(endpoint, call, 0);
+  }
+
+  private <T> T execute(String endpoint, SpotifyCall<T> call, int maxRetries)
+      throws IOException, SpotifyWebApiException, ParseException {
+    final Permits permits = permits(endpoint);
+    final Metrics.Endpoint endpointMetrics = this.metrics.endpoint(endpoint);
+    permits.acquire(endpoint);
+
+    try {
+      for (int attempt = 0; ; attempt++) {
+        acquireToken();
+        final long start = System.nanoTime();
+
+        try {
+          final T result = call.execute();
+          endpointMetrics.recordSuccess(System.nanoTime() - start);
+          onSuccess();
+          return result;
+        } catch (TooManyRequestsException e) {
+          endpointMetrics.recordTooManyRequests(System.nanoTime() - start);
+          final long retryAfter = TimeUnit.SECONDS.toNanos(Math.max(0, e.getRetryAfter()));
+          onTooManyRequests(retryAfter);
+
+          if (attempt >= maxRetries) {
+            throw e;
+          }
+
+          sleep(Math.max(retryAfter, backoff(attempt)));
+        } catch (ServiceUnavailableException
+            | BadGatewayException
+            | InternalServerErrorException e) {
+          endpointMetrics.recordError(System.nanoTime() - start);
+          if (attempt >= maxRetries) {
+            throw e;
+          }
+
+          sleep(backoff(attempt));
+        } catch (IOException | SpotifyWebApiException | ParseException | RuntimeException e) {
+          endpointMetrics.recordError(System.nanoTime() - start);
+          throw e;
+        }
+      }
+    } finally {
+      permits.release();
+    }
+  }
+
+  /**
+   * Send a request asynchronously as soon as the rate limit allows it, retrying it if Spotify
+   * answers with a temporary error.<br>
+   * No thread is blocked while waiting for the rate limit, for the endpoint or before a retry.
+   * Completing the returned future, for example cancelling it or with {@link
+   * CompletableFuture#orTimeout(long, TimeUnit)}, stops the retries, cancels the request in
+   * progress and frees its place in the endpoint.
+   *
+   * @param endpoint the name of the endpoint, used to limit the concurrent requests
+   * @param call the function that sends the request and returns its pending result
+   * @param <T> the type of the result
+   * @return the future result of the request. It fails with the exception of the request, or with
+   *     the last temporary error when all the retries fail.
+   */
+  public <T> CompletableFuture<T> executeAsync(String endpoint, AsyncSpotifyCall<T> call) {
+    return new AsyncExecution<>(permits(endpoint), this.metrics.endpoint(endpoint), call).start();
+  }
+
+  /**
+   * @return the number of requests per second currently allowed
+   */
+  public synchronized double getRate() {
+    return this.rate;
+  }
+
+  /**
+   * @return the metrics where the requests are recorded
+   */
+  public Metrics getMetrics() {
+    return this.metrics;
+  }
+
+  private Permits permits(String endpoint) {
+    return this.endpointPermits.computeIfAbsent(
+        endpoint,
+        key -> new Permits(this.endpointLimits.getOrDefault(key, this.endpointConcurrency)));
+  }
+
+  /** Wait until the bucket contains a token and take it. */
+  private void acquireToken() throws InterruptedIOException {
+    for (long wait = takeToken(); wait > 0; wait = takeToken()) {
+      sleep(wait);
+    }
+  }
+
+  /**
+   * Take a token from the bucket if it contains one.
+   *
+   * @return zero if the token was taken, otherwise the nanoseconds to wait before trying again
+   */
+  private synchronized long takeToken() {
+    final long now = System.nanoTime();
+    refill(now);
+
+    if (now - this.pausedUntil >= 0 && this.tokens >= 1) {
+      this.tokens -= 1;
+      return 0;
+    }
+
+    return Math.max(
+        Math.max(1, this.pausedUntil - now),
+        (long) Math.ceil((1 - this.tokens) / this.rate * TimeUnit.SECONDS.toNanos(1)));
+  }
+
+  private void refill(long now) {
+    final long elapsed = now - this.lastRefill;
+
+    if (elapsed > 0) {
+      this.tokens =
+          Math.min(this.burst, this.tokens + elapsed * this.rate / TimeUnit.SECONDS.toNanos(1));
+      this.lastRefill = now;
+    }
+  }
+
+  private synchronized void onSuccess() {
+    this.rate = Math.min(this.maxRate, this.rate + this.rateIncrease);
+  }
+
+  private synchronized void onTooManyRequests(long retryAfter) {
+    final long now = System.nanoTime();
+    refill(now);
+
+    this.rate = Math.max(this.minRate, this.rate / 2);
+    // The tokens collected so far were sent too fast, start again from an empty bucket
+    this.tokens = 0;
+
+    if (now + retryAfter - this.pausedUntil > 0) {
+      this.pausedUntil = now + retryAfter;
+    }
+  }
+
+  /**
+   * @param attempt the number of attempts already failed, starting from zero
+   * @return a random wait time between zero and the exponential backoff of the attempt
+   */
+  private long backoff(int attempt) {
+    final long ceiling = this.baseBackoffNanos << Math.min(attempt, 30);
+    final long bound = Math.min(this.maxBackoffNanos, ceiling > 0 ? ceiling : Long.MAX_VALUE);
+
+    return bound > 0 ? ThreadLocalRandom.current().nextLong(bound + 1) : 0;
+  }
+
+  private static void sleep(long nanos) throws InterruptedIOException {
+    if (nanos <= 0) {
+      return;
+    }
+
+    try {
+      TimeUnit.NANOSECONDS.sleep(nanos);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the rate limit");
+    }
+  }
+
+  /**
+   * Function that sends a single request to the Spotify API.
+   *
+   * @param <T> the type of the result
+   */
+  @FunctionalInterface
+  public interface SpotifyCall<T> {
+
+    T execute() throws IOException, SpotifyWebApiException, ParseException;
+  }
+
+  /**
+   * Function that sends a single request to the Spotify API without waiting for the response.
+   *
+   * @param <T> the type of the result
+   */
+  @FunctionalInterface
+  public interface AsyncSpotifyCall<T> {
+
+    /**
+     * @return the pending result of the request, that fails with the same exceptions of {@link
+     *     SpotifyCall#execute()}
+     */
+    CompletableFuture<T> execute();
+  }
+
+  /**
+   * Concurrent requests allowed to an endpoint. The permits can be waited for by blocking the
+   * thread or with a future, and they are given to the waiters in arrival order.
+   */
+  private static final class Permits {
+
+    private final Deque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+    private int available;
+
+    private Permits(int available) {
+      this.available = available;
+    }
+
+    /**
+     * @return a future completed when the permit is given. Cancelling it before that removes the
+     *     request from the waiters.
+     */
+    private synchronized CompletableFuture<Void> acquireAsync() {
+      if (this.available > 0) {
+        this.available--;
+        return CompletableFuture.completedFuture(null);
+      }
+
+      final CompletableFuture<Void> waiter = new CompletableFuture<>();
+      this.waiters.add(waiter);
+      return waiter;
+    }
+
+    private void acquire(String endpoint) throws InterruptedIOException {
+      final CompletableFuture<Void> waiter = acquireAsync();
+
+      try {
+        waiter.get();
+      } catch (InterruptedException e) {
+        // The permit may have been given in the meantime
+        if (!waiter.cancel(false)) {
+          release();
+        }
+
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for the endpoint " + endpoint);
+      } catch (ExecutionException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    private void release() {
+      while (true) {
+        final CompletableFuture<Void> waiter;
+
+        synchronized (this) {
+          waiter = this.waiters.poll();
+
+          if (waiter == null) {
+            this.available++;
+            return;
+          }
+        }
+
+        // A cancelled waiter does not take the permit, it goes to the next one
+        if (waiter.complete(null)) {
+          return;
+        }
+      }
+    }
+  }
+
+  /** A request sent asynchronously, with its retries. */
+  private final class AsyncExecution<T> {
+
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+    private final Permits permits;
+    private final Metrics.Endpoint metrics;
+    private final AsyncSpotifyCall<T> call;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private CompletableFuture<Void> permit;
+    private volatile CompletableFuture<T> inFlight;
+    private volatile long sentAt;
+    private int attempt;
+
+    private AsyncExecution(Permits permits, Metrics.Endpoint metrics, AsyncSpotifyCall<T> call) {
+      this.permits = permits;
+      this.metrics = metrics;
+      this.call = call;
+    }
+
+    private CompletableFuture<T> start() {
+      this.permit = this.permits.acquireAsync();
+      this.permit.thenRun(this::send);
+
+      this.result.whenComplete(
+          (value, error) -> {
+            // Stop waiting for the permit, or give it back
+            if (!this.permit.cancel(false) && this.released.compareAndSet(false, true)) {
+              this.permits.release();
+            }
+
+            final CompletableFuture<T> current = this.inFlight;
+            if (current != null) {
+              current.cancel(true);
+            }
+          });
+
+      return this.result;
+    }
+
+    /** Send the request as soon as a token is available. */
+    private void send() {
+      if (this.result.isDone()) {
+        return;
+      }
+
+      final long wait = takeToken();
+      if (wait > 0) {
+        CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS).execute(this::send);
+        return;
+      }
+
+      final CompletableFuture<T> current;
+      this.sentAt = System.nanoTime();
+      try {
+        current = this.call.execute();
+      } catch (RuntimeException e) {
+        this.result.completeExceptionally(e);
+        return;
+      }
+
+      this.inFlight = current;
+      if (this.result.isDone()) {
+        current.cancel(true);
+        return;
+      }
+
+      current.whenComplete(this::onResponse);
+    }
+
+    private void onResponse(T value, Throwable error) {
+      final long elapsed = System.nanoTime() - this.sentAt;
+
+      if (error == null) {
+        this.metrics.recordSuccess(elapsed);
+        onSuccess();
+        this.result.complete(value);
+        return;
+      }
+
+      if (this.result.isDone()) {
+        // Cancelled by the caller, it is not a failure of the request
+        return;
+      }
+
+      final Throwable cause = Futures.unwrap(error);
+      final long wait;
+
+      if (cause instanceof TooManyRequestsException) {
+        this.metrics.recordTooManyRequests(elapsed);
+        final long retryAfter =
+            TimeUnit.SECONDS.toNanos(
+                Math.max(0, ((TooManyRequestsException) cause).getRetryAfter()));
+        onTooManyRequests(retryAfter);
+        wait = Math.max(retryAfter, backoff(this.attempt));
+      } else if (cause instanceof ServiceUnavailableException
+          || cause instanceof BadGatewayException
+          || cause instanceof InternalServerErrorException) {
+        this.metrics.recordError(elapsed);
+        wait = backoff(this.attempt);
+      } else {
+        this.metrics.recordError(elapsed);
+        this.result.completeExceptionally(cause);
+        return;
+      }
+
+      if (this.attempt >= maxRetries) {
+        this.result.completeExceptionally(cause);
+        return;
+      }
+
+      this.attempt++;
+      CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS).execute(this::send);
+    }
+  }
+
+  public static final class Builder {
+
+    private double initialRate = 10;
+    private double minRate = 0.5;
+    private double maxRate = 50;
+    private double rateIncrease = 0.1;
+    private double burst = 10;
+    private int maxRetries = 5;
+    private long baseBackoffNanos = TimeUnit.MILLISECONDS.toNanos(200);
+    private long maxBackoffNanos = TimeUnit.SECONDS.toNanos(30);
+    private int endpointConcurrency = 8;
+    private final Map<String, Integer> endpointLimits = new ConcurrentHashMap<>();
+    private Metrics metrics = Metrics.global();
+
+    private Builder() {}
+
+    /**
+     * @param initialRate the requests per second allowed before receiving any response
+     */
+    public Builder setInitialRate(double initialRate) {
+      this.initialRate = initialRate;
+      return this;
+    }
+
+    /**
+     * @param minRate the lowest requests per second the rate can be reduced to
+     * @param maxRate the highest requests per second the rate can be increased to
+     */
+    public Builder setRateBounds(double minRate, double maxRate) {
+      this.minRate = minRate;
+      this.maxRate = maxRate;
+      return this;
+    }
+
+    /**
+     * @param rateIncrease the requests per second added to the rate after a successful request
+     */
+    public Builder setRateIncrease(double rateIncrease) {
+      this.rateIncrease = rateIncrease;
+      return this;
+    }
+
+    /**
+     * @param burst the maximum number of requests that can be sent at once after a quiet period
+     */
+    public Builder setBurst(double burst) {
+      this.burst = burst;
+      return this;
+    }
+
+    /**
+     * @param maxRetries how many times a request is sent again after a temporary error
+     */
+    public Builder setMaxRetries(int maxRetries) {
+      this.maxRetries = maxRetries;
+      return this;
+    }
+
+    /**
+     * @param base the upper bound of the wait before the first retry, doubled at every attempt
+     * @param max the maximum upper bound of the wait before a retry
+     * @param unit the unit of the two values
+     */
+    public Builder setBackoff(long base, long max, TimeUnit unit) {
+      this.baseBackoffNanos = unit.toNanos(base);
+      this.maxBackoffNanos = unit.toNanos(max);
+      return this;
+    }
+
+    /**
+     * @param endpointConcurrency the default maximum number of concurrent requests to an endpoint
+     */
+    public Builder setEndpointConcurrency(int endpointConcurrency) {
+      this.endpointConcurrency = endpointConcurrency;
+      return this;
+    }
+
+    /**
+     * @param endpoint the name of the endpoint
+     * @param concurrency the maximum number of concurrent requests to the endpoint
+     */
+    public Builder setEndpointConcurrency(String endpoint, int concurrency) {
+      this.endpointLimits.put(endpoint, concurrency);
+      return this;
+    }
+
+    /**
+     * @param metrics the metrics where the requests are recorded, by default the global ones
+     */
+    public Builder setMetrics(Metrics metrics) {
+      this.metrics = metrics;
+      return this;
+    }
+
+    public RequestScheduler build() {
+      if (this.minRate <= 0 || this.maxRate < this.minRate) {
+        throw new IllegalArgumentException("The rate bounds must be positive and ordered");
+      }
+
+      return new RequestScheduler(this);
+    }
+  }
+}
@@ -0,0 +1,415 @@
+package it.utilities.spotify.core;
+
+import com.wrapper.spotify.exceptions.SpotifyWebApiException;
+import it.utilities.spotify.core.RequestScheduler.AsyncSpotifyCall;
+import it.utilities.spotify.core.RequestScheduler.SpotifyCall;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.function.UnaryOperator;
+import org.apache.hc.core5.http.ParseException;
+
+/**
+ * Instances of the ResponseCache class merge the identical requests sent at the same time and keep
+ * their responses for a short time.<br>
+ * A request whose key is already in progress does not start a new call, it waits for the response
+ * of the call in progress. The successful responses are then kept for the configured time to live,
+ * and when their total weight exceeds the limit the least recently used ones are removed. The
+ * errors are never kept.<br>
+ * Every caller receives its own future: cancelling it stops the shared call only when no other
+ * caller is waiting for it.<br>
+ * The stored response is never given to a caller: every caller receives its own copy, made by the
+ * function given with the request, so a caller that changes its response does not change the ones
+ * of the others.
+ */
+public class ResponseCache {
+
+  private final long ttlNanos;
+  private final long maxWeight;
+
+  // Entries in access order, guarded by this
+  private final LinkedHashMap<String, Entry<?>> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long weight;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  private ResponseCache(Builder builder) {
+    this.ttlNanos = builder.ttlNanos;
+    this.maxWeight = builder.maxWeight;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Get an immutable response, joining the call in progress with the same key or starting a new
+   * one. All the callers receive the same instance.
+   *
+   * @param key the key that identifies the request
+   * @param weigher the function that computes the weight of the response
+   * @param call the function that starts the call, used only if the response is not available
+   * @param <T> the type of the response, it must be immutable
+   * @return the future response. Completing it stops the call only if no other caller is waiting.
+   */
+  public <T> CompletableFuture<T> getAsync(
+      String key, ToIntFunction<? super T> weigher, AsyncSpotifyCall<T> call) {
+    return getAsync(key, weigher, UnaryOperator.identity(), call);
+  }
+
+  /**
+   * Get a response, joining the call in progress with the same key or starting a new one.
+   *
+   * @param key the key that identifies the request
+   * @param weigher the function that computes the weight of the response
+   * @param copy the function that copies the response for every caller
+   * @param call the function that starts the call, used only if the response is not available
+   * @param <T> the type of the response
+   * @return the future copy of the response. Completing it stops the call only if no other caller
+   *     is waiting.
+   */
+  public <T> CompletableFuture<T> getAsync(
+      String key,
+      ToIntFunction<? super T> weigher,
+      UnaryOperator<T> copy,
+      AsyncSpotifyCall<T> call) {
+    final Entry<T> entry;
+
+    synchronized (this) {
+      @SuppressWarnings("unchecked")
+      final Entry<T> existing = (Entry<T>) this.entries.get(key);
+
+      if (existing != null && existing.completed && existing.expiresAt - System.nanoTime() > 0) {
+        this.hits.increment();
+        return CompletableFuture.completedFuture(copy.apply(existing.shared.getNow(null)));
+      }
+
+      if (existing != null && !existing.completed) {
+        this.coalesced.increment();
+        existing.waiters++;
+        return follow(key, existing, copy);
+      }
+
+      if (existing != null) {
+        remove(key, existing);
+      }
+
+      this.misses.increment();
+      entry = new Entry<>();
+      entry.waiters = 1;
+      this.entries.put(key, entry);
+    }
+
+    final CompletableFuture<T> result = follow(key, entry, copy);
+
+    CompletableFuture<T> source;
+    try {
+      source = call.execute();
+    } catch (RuntimeException e) {
+      source = CompletableFuture.failedFuture(e);
+    }
+
+    final CompletableFuture<T> started = source;
+    entry.shared.whenComplete((value, error) -> started.cancel(true));
+    started.whenComplete(
+        (value, error) -> {
+          if (error != null) {
+            onFailure(key, entry);
+            entry.shared.completeExceptionally(Futures.unwrap(error));
+          } else {
+            entry.shared.complete(value);
+            onSuccess(key, entry, weigher, value);
+          }
+        });
+
+    return result;
+  }
+
+  /**
+   * Get an immutable response, waiting for the call in progress with the same key or making a new
+   * one in the calling thread. All the callers receive the same instance.
+   *
+   * @param key the key that identifies the request
+   * @param weigher the function that computes the weight of the response
+   * @param call the function that makes the call, used only if the response is not available
+   * @param <T> the type of the response, it must be immutable
+   * @return the response
+   * @throws IOException if the call fails or the thread is interrupted while waiting
+   * @throws SpotifyWebApiException if Spotify returns an error
+   * @throws ParseException
+   */
+  public <T> T get(String key, ToIntFunction<? super T> weigher, SpotifyCall<T> call)
+      throws IOException, SpotifyWebApiException, ParseException {
+    return get(key, weigher, UnaryOperator.identity(), call);
+  }
+
+  /**
+   * Get a response, waiting for the call in progress with the same key or making a new one in the
+   * calling thread.
+   *
+   * @param key the key that identifies the request
+   * @param weigher the function that computes the weight of the response
+   * @param copy the function that copies the response for every caller
+   * @param call the function that makes the call, used only if the response is not available
+   * @param <T> the type of the response
+   * @return the copy of the response
+   * @throws IOException if the call fails or the thread is interrupted while waiting
+   * @throws SpotifyWebApiException if Spotify returns an error
+   * @throws ParseException
+   */
+  public <T> T get(
+      String key, ToIntFunction<? super T> weigher, UnaryOperator<T> copy, SpotifyCall<T> call)
+      throws IOException, SpotifyWebApiException, ParseException {
+    final CompletableFuture<T> own = new CompletableFuture<>();
+    final boolean[] started = new boolean[1];
+
+    final CompletableFuture<T> result =
+        getAsync(
+            key,
+            weigher,
+            copy,
+            () -> {
+              started[0] = true;
+              return own;
+            });
+
+    if (started[0]) {
+      try {
+        own.complete(call.execute());
+      } catch (IOException | SpotifyWebApiException | ParseException | RuntimeException e) {
+        own.completeExceptionally(e);
+      }
+    }
+
+    try {
+      return result.get();
+    } catch (InterruptedException e) {
+      result.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the request " + key);
+    } catch (ExecutionException e) {
+      final Throwable cause = Futures.unwrap(e);
+
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof SpotifyWebApiException) {
+        throw (SpotifyWebApiException) cause;
+      } else if (cause instanceof ParseException) {
+        throw (ParseException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+
+      throw new IOException(cause);
+    }
+  }
+
+  /** Remove all the stored responses. The calls in progress are not stored when they complete. */
+  public synchronized void invalidateAll() {
+    this.entries.clear();
+    this.weight = 0;
+  }
+
+  /**
+   * Remove the stored responses of the matching keys. The calls in progress with those keys are not
+   * stored when they complete.
+   *
+   * @param keys the keys to remove
+   */
+  public synchronized void invalidate(Predicate<String> keys) {
+    final Iterator<Map.Entry<String, Entry<?>>> iterator = this.entries.entrySet().iterator();
+
+    while (iterator.hasNext()) {
+      final Map.Entry<String, Entry<?>> entry = iterator.next();
+
+      if (keys.test(entry.getKey())) {
+        if (entry.getValue().completed) {
+          this.weight -= entry.getValue().weight;
+        }
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * @return the number of requests answered with a stored response
+   */
+  public long getHitCount() {
+    return this.hits.sum();
+  }
+
+  /**
+   * @return the number of requests that started a new call
+   */
+  public long getMissCount() {
+    return this.misses.sum();
+  }
+
+  /**
+   * @return the number of requests that joined a call already in progress
+   */
+  public long getCoalescedCount() {
+    return this.coalesced.sum();
+  }
+
+  /**
+   * @return the number of responses removed to stay within the maximum weight
+   */
+  public long getEvictionCount() {
+    return this.evictions.sum();
+  }
+
+  /**
+   * @return the total weight of the stored responses
+   */
+  public synchronized long getWeight() {
+    return this.weight;
+  }
+
+  /**
+   * @return a future that follows the shared call of the entry with its own copy of the response
+   *     and leaves it when completed
+   */
+  private <T> CompletableFuture<T> follow(String key, Entry<T> entry, UnaryOperator<T> copy) {
+    final CompletableFuture<T> result = new CompletableFuture<>();
+
+    entry.shared.whenComplete(
+        (value, error) -> {
+          if (error != null) {
+            result.completeExceptionally(Futures.unwrap(error));
+          } else {
+            result.complete(copy.apply(value));
+          }
+        });
+    result.whenComplete((value, error) -> leave(key, entry));
+
+    return result;
+  }
+
+  private void leave(String key, Entry<?> entry) {
+    synchronized (this) {
+      entry.waiters--;
+
+      if (entry.waiters > 0 || entry.shared.isDone()) {
+        return;
+      }
+
+      remove(key, entry);
+    }
+
+    // Nobody is waiting for the call anymore
+    entry.shared.cancel(true);
+  }
+
+  private synchronized void onFailure(String key, Entry<?> entry) {
+    remove(key, entry);
+  }
+
+  private synchronized <T> void onSuccess(
+      String key, Entry<T> entry, ToIntFunction<? super T> weigher, T value) {
+    if (this.entries.get(key) != entry) {
+      // Invalidated while in progress
+      return;
+    }
+
+    if (this.ttlNanos <= 0) {
+      this.entries.remove(key);
+      return;
+    }
+
+    entry.completed = true;
+    entry.expiresAt = System.nanoTime() + this.ttlNanos;
+    entry.weight = Math.max(1, weigher.applyAsInt(value));
+    this.weight += entry.weight;
+
+    evict();
+  }
+
+  /** Remove the expired responses and the least recently used ones over the maximum weight. */
+  private void evict() {
+    final long now = System.nanoTime();
+    final Iterator<Map.Entry<String, Entry<?>>> iterator = this.entries.entrySet().iterator();
+
+    while (iterator.hasNext()) {
+      final Entry<?> entry = iterator.next().getValue();
+
+      if (!entry.completed) {
+        continue;
+      }
+
+      final boolean expired = entry.expiresAt - now <= 0;
+      if (!expired && this.weight <= this.maxWeight) {
+        break;
+      }
+
+      if (!expired) {
+        this.evictions.increment();
+      }
+
+      this.weight -= entry.weight;
+      iterator.remove();
+    }
+  }
+
+  private void remove(String key, Entry<?> entry) {
+    if (this.entries.remove(key, entry) && entry.completed) {
+      this.weight -= entry.weight;
+    }
+  }
+
+  /** A call in progress or a stored response, guarded by the cache. */
+  private static final class Entry<T> {
+
+    private final CompletableFuture<T> shared = new CompletableFuture<>();
+    private int waiters;
+    private boolean completed;
+    private long expiresAt;
+    private int weight;
+  }
+
+  public static final class Builder {
+
+    private long ttlNanos;
+    private long maxWeight = 50_000;
+
+    private Builder() {}
+
+    /**
+     * @param ttl how long a response is kept, zero to only merge the calls in progress
+     * @param unit the unit of the time to live
+     */
+    public Builder setTtl(long ttl, TimeUnit unit) {
+      this.ttlNanos = unit.toNanos(ttl);
+      return this;
+    }
+
+    /**
+     * @param maxWeight the maximum total weight of the stored responses
+     */
+    public Builder setMaxWeight(long maxWeight) {
+      this.maxWeight = maxWeight;
+      return this;
+    }
+
+    public ResponseCache build() {
+      if (this.ttlNanos < 0 || this.maxWeight < 0) {
+        throw new IllegalArgumentException("The time to live and the weight cannot be negative");
+      }
+
+      return new ResponseCache(this);
+    }
+  }
+}
@@ -0,0 +1,451 @@
+package it.utilities.spotify.core;
+
+import com.wrapper.spotify.IHttpManager;
+import com.wrapper.spotify.SpotifyApi;
+import com.wrapper.spotify.exceptions.SpotifyWebApiException;
+import com.wrapper.spotify.exceptions.detailed.BadRequestException;
+import com.wrapper.spotify.exceptions.detailed.UnauthorizedException;
+import com.wrapper.spotify.model_objects.credentials.AuthorizationCodeCredentials;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.apache.hc.core5.http.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Instances of the SessionRegistry class keep the sessions of many Spotify accounts in the same
+ * program, so that their scans can run at the same time.<br>
+ * Every session has its own credentials, its own {@link RequestScheduler}, so the rate limit of an
+ * account does not slow down the others, and its own {@link PlaylistUtility}. The sessions share
+ * the HTTP client, the threads that request the pages and the playlist cache.<br>
+ * The access tokens are refreshed shortly before they expire. The refreshes of all the sessions are
+ * scheduled on a single {@link TimerWheel} and run on a few shared threads, so the program does not
+ * need a thread for every account.
+ */
+public final class SessionRegistry implements AutoCloseable {
+
+  /** Name of the session of the user of the command line. */
+  public static final String DEFAULT_SESSION = "default";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SessionRegistry.class);
+
+  private static final int WHEEL_SLOTS = 512;
+
+  private final Map<String, Session> sessions = new ConcurrentSkipListMap<>();
+  private final IHttpManager httpManager;
+  private final Supplier<RequestScheduler> schedulers;
+  private final int pageConcurrency;
+  private final ExecutorService pageExecutor;
+  private final ExecutorService refreshExecutor;
+  private final TimerWheel timer;
+  private final long refreshMarginNanos;
+  private final long retryNanos;
+  private final PlaylistSnapshotCache snapshotCache;
+  private final long responseTtlNanos;
+
+  private SessionRegistry(Builder builder) {
+    this.httpManager = builder.httpManager != null ? builder.httpManager : new JdkHttpManager();
+    this.schedulers = builder.schedulers;
+    this.pageConcurrency = builder.pageConcurrency;
+    this.pageExecutor = SpotifyApiWrapper.pageExecutor(builder.pageThreads);
+    this.refreshExecutor = Executors.newFixedThreadPool(builder.refreshThreads, daemonThreads());
+    this.timer =
+        new TimerWheel(builder.tickNanos, TimeUnit.NANOSECONDS, WHEEL_SLOTS, "session-timer");
+    this.refreshMarginNanos = builder.refreshMarginNanos;
+    this.retryNanos = builder.retryNanos;
+    this.snapshotCache = builder.snapshotCache;
+    this.responseTtlNanos = builder.responseTtlNanos;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Create the session of an account. The access token is not requested until the session is
+   * refreshed.
+   *
+   * @param name the name of the session
+   * @param credentials the credentials of the account, with at least the client and the refresh
+   *     token
+   * @return the new session
+   * @throws IllegalArgumentException if a session with the same name exists
+   */
+  public Session open(String name, SpotifyCredentials credentials) {
+    final SpotifyApiWrapper spotifyApiWrapper =
+        new SpotifyApiWrapper(
+            SpotifyApi.builder()
+                .setHttpManager(this.httpManager)
+                .setClientId(credentials.getClientId())
+                .setClientSecret(credentials.getClientSecret())
+                .setRedirectUri(credentials.getRedirectUri())
+                .setAccessToken(credentials.getAccessToken())
+                .setRefreshToken(credentials.getRefreshToken()),
+            this.pageConcurrency,
+            this.schedulers.get(),
+            this.pageExecutor);
+    spotifyApiWrapper.setSnapshotCache(this.snapshotCache);
+    spotifyApiWrapper.setResponseCache(
+        ResponseCache.builder().setTtl(this.responseTtlNanos, TimeUnit.NANOSECONDS).build());
+
+    return register(name, spotifyApiWrapper);
+  }
+
+  /**
+   * Add a session that uses a wrapper created elsewhere, like the one of the command line.
+   *
+   * @param name the name of the session
+   * @param spotifyApiWrapper the wrapper of the account
+   * @return the new session
+   * @throws IllegalArgumentException if a session with the same name exists
+   */
+  public Session register(String name, SpotifyApiWrapper spotifyApiWrapper) {
+    final Session session = new Session(name, spotifyApiWrapper);
+
+    if (this.sessions.putIfAbsent(name, session) != null) {
+      throw new IllegalArgumentException("The session " + name + " already exists");
+    }
+
+    return session;
+  }
+
+  /**
+   * @param name the name of the session
+   * @return the session, if it exists
+   */
+  public Optional<Session> get(String name) {
+    return Optional.ofNullable(this.sessions.get(name));
+  }
+
+  /**
+   * @return all the sessions, ordered by name
+   */
+  public List<Session> getSessions() {
+    return new ArrayList<>(this.sessions.values());
+  }
+
+  /**
+   * Remove a session and stop refreshing its token. The scans in progress can end.
+   *
+   * @param name the name of the session
+   * @return false if the session does not exist
+   */
+  public boolean remove(String name) {
+    final Session session = this.sessions.remove(name);
+
+    if (session == null) {
+      return false;
+    }
+
+    session.cancelRefresh();
+    return true;
+  }
+
+  /**
+   * Request a new access token now and schedule the following refresh before it expires.
+   *
+   * @param session the session to refresh
+   * @throws ParseException
+   * @throws SpotifyWebApiException
+   * @throws IOException
+   */
+  public void refresh(Session session) throws ParseException, SpotifyWebApiException, IOException {
+    final AuthorizationCodeCredentials authorizationCodeCredentials;
+
+    try {
+      authorizationCodeCredentials = session.spotifyApiWrapper.authorizationCode();
+    } catch (ParseException | SpotifyWebApiException | IOException | RuntimeException e) {
+      session.setRefreshError(e.toString());
+      throw e;
+    }
+
+    final String accessToken = authorizationCodeCredentials.getAccessToken();
+    // Spotify can replace the refresh token as well
+    final String refreshToken = authorizationCodeCredentials.getRefreshToken();
+    session.spotifyApiWrapper.updateCredentials(
+        credentials ->
+            refreshToken != null
+                ? credentials.withAccessToken(accessToken).withRefreshToken(refreshToken)
+                : credentials.withAccessToken(accessToken));
+    session.setRefreshError(null);
+
+    scheduleRefresh(session, authorizationCodeCredentials.getExpiresIn(), TimeUnit.SECONDS);
+  }
+
+  /**
+   * Schedule the refresh of a session that received a token elsewhere, for example with the
+   * authorization code of the user. The refresh runs shortly before the token expires and replaces
+   * any refresh already scheduled.
+   *
+   * @param session the session to refresh
+   * @param expiresIn the time before the access token expires
+   * @param unit the unit of the time
+   */
+  public void scheduleRefresh(Session session, long expiresIn, TimeUnit unit) {
+    final long expiresInNanos = unit.toNanos(expiresIn);
+    session.setExpiresAt(
+        System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(expiresInNanos));
+
+    // The short tokens are refreshed halfway through their life
+    schedule(
+        session,
+        expiresInNanos > 2 * this.refreshMarginNanos
+            ? expiresInNanos - this.refreshMarginNanos
+            : expiresInNanos / 2);
+  }
+
+  /** Stop the refreshes and the threads shared by the sessions. */
+  @Override
+  public void close() {
+    this.sessions.values().forEach(Session::cancelRefresh);
+    this.timer.close();
+    this.refreshExecutor.shutdownNow();
+    this.pageExecutor.shutdownNow();
+  }
+
+  private void schedule(Session session, long delayNanos) {
+    final TimerWheel.Timeout timeout;
+
+    if (this.sessions.get(session.name) != session) {
+      return;
+    }
+
+    try {
+      timeout =
+          this.timer.schedule(
+              () -> {
+                try {
+                  this.refreshExecutor.execute(() -> refreshInBackground(session));
+                } catch (RejectedExecutionException e) {
+                  // The registry is closed
+                }
+              },
+              delayNanos,
+              TimeUnit.NANOSECONDS);
+    } catch (IllegalStateException e) {
+      // The registry is closed
+      return;
+    }
+
+    session.setRefresh(timeout);
+  }
+
+  private void refreshInBackground(Session session) {
+    if (this.sessions.get(session.name) != session) {
+      return;
+    }
+
+    try {
+      refresh(session);
+    } catch (BadRequestException | UnauthorizedException e) {
+      // The refresh token was revoked, only a new login can fix the session
+      LOGGER.warn("Unable to refresh the access token of the session {}", session.name, e);
+    } catch (ParseException | SpotifyWebApiException | IOException | RuntimeException e) {
+      LOGGER.warn(
+          "Unable to refresh the access token of the session {}, trying again later",
+          session.name,
+          e);
+      schedule(session, this.retryNanos);
+    }
+  }
+
+  private static ThreadFactory daemonThreads() {
+    final AtomicInteger threadCount = new AtomicInteger();
+
+    return runnable -> {
+      final Thread thread =
+          new Thread(runnable, "session-refresh-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /** The state of a single account. */
+  public static final class Session {
+
+    private final String name;
+    private final SpotifyApiWrapper spotifyApiWrapper;
+    private final PlaylistUtility playlistUtility;
+
+    // Guarded by this
+    private TimerWheel.Timeout refresh;
+    private long expiresAt;
+    private String refreshError;
+
+    private Session(String name, SpotifyApiWrapper spotifyApiWrapper) {
+      this.name = name;
+      this.spotifyApiWrapper = spotifyApiWrapper;
+      this.playlistUtility = new PlaylistUtility(spotifyApiWrapper);
+    }
+
+    public String getName() {
+      return this.name;
+    }
+
+    public SpotifyApiWrapper getSpotifyApiWrapper() {
+      return this.spotifyApiWrapper;
+    }
+
+    /**
+     * @return the utilities of the account, with the indexes of its playlists
+     */
+    public PlaylistUtility getPlaylistUtility() {
+      return this.playlistUtility;
+    }
+
+    /**
+     * @return the time in milliseconds when the access token expires, zero if it is not known
+     */
+    public synchronized long getExpiresAt() {
+      return this.expiresAt;
+    }
+
+    /**
+     * @return the error of the last refresh, or null if it succeeded
+     */
+    public synchronized String getRefreshError() {
+      return this.refreshError;
+    }
+
+    /**
+     * @return true if the refresh of the token is scheduled
+     */
+    public synchronized boolean isRefreshScheduled() {
+      return this.refresh != null && !this.refresh.isDone();
+    }
+
+    private synchronized void setExpiresAt(long expiresAt) {
+      this.expiresAt = expiresAt;
+    }
+
+    private synchronized void setRefreshError(String refreshError) {
+      this.refreshError = refreshError;
+    }
+
+    private synchronized void setRefresh(TimerWheel.Timeout refresh) {
+      if (this.refresh != null) {
+        this.refresh.cancel();
+      }
+      this.refresh = refresh;
+    }
+
+    private synchronized void cancelRefresh() {
+      setRefresh(null);
+    }
+  }
+
+  public static final class Builder {
+
+    private IHttpManager httpManager;
+    private Supplier<RequestScheduler> schedulers = () -> RequestScheduler.builder().build();
+    private int pageConcurrency = SpotifyApiWrapper.DEFAULT_PAGE_CONCURRENCY;
+    private int pageThreads = 2 * Runtime.getRuntime().availableProcessors();
+    private int refreshThreads = 2;
+    private long tickNanos = TimeUnit.SECONDS.toNanos(1);
+    private long refreshMarginNanos = TimeUnit.MINUTES.toNanos(5);
+    private long retryNanos = TimeUnit.SECONDS.toNanos(30);
+    private PlaylistSnapshotCache snapshotCache;
+    private long responseTtlNanos;
+
+    private Builder() {}
+
+    /**
+     * @param httpManager the HTTP manager shared by the sessions, by default a {@link
+     *     JdkHttpManager}
+     */
+    public Builder setHttpManager(IHttpManager httpManager) {
+      this.httpManager = httpManager;
+      return this;
+    }
+
+    /**
+     * @param schedulers the factory of the scheduler of every session, that gives the session its
+     *     own rate limit
+     */
+    public Builder setSchedulers(Supplier<RequestScheduler> schedulers) {
+      this.schedulers = schedulers;
+      return this;
+    }
+
+    /**
+     * @param pageConcurrency the maximum number of pages requested at the same time for a single
+     *     resource
+     * @param pageThreads the number of threads that request the pages, shared by the sessions
+     */
+    public Builder setPageConcurrency(int pageConcurrency, int pageThreads) {
+      this.pageConcurrency = pageConcurrency;
+      this.pageThreads = pageThreads;
+      return this;
+    }
+
+    /**
+     * @param refreshThreads the number of threads that refresh the tokens, shared by the sessions
+     */
+    public Builder setRefreshThreads(int refreshThreads) {
+      this.refreshThreads = refreshThreads;
+      return this;
+    }
+
+    /**
+     * @param tick the precision of the timer of the refreshes
+     * @param unit the unit of the tick
+     */
+    public Builder setTick(long tick, TimeUnit unit) {
+      this.tickNanos = unit.toNanos(tick);
+      return this;
+    }
+
+    /**
+     * @param margin how long before the expiration the token is refreshed
+     * @param retry how long to wait before refreshing again after a temporary error
+     * @param unit the unit of the two values
+     */
+    public Builder setRefresh(long margin, long retry, TimeUnit unit) {
+      this.refreshMarginNanos = unit.toNanos(margin);
+      this.retryNanos = unit.toNanos(retry);
+      return this;
+    }
+
+    /**
+     * @param snapshotCache the cache of the playlists shared by the sessions, or null to always
+     *     request the items to Spotify
+     */
+    public Builder setSnapshotCache(PlaylistSnapshotCache snapshotCache) {
+      this.snapshotCache = snapshotCache;
+      return this;
+    }
+
+    /**
+     * @param ttl how long the responses of the reads of every session are kept, by default zero to
+     *     only merge the reads in progress
+     * @param unit the unit of the time to live
+     */
+    public Builder setResponseTtl(long ttl, TimeUnit unit) {
+      this.responseTtlNanos = unit.toNanos(ttl);
+      return this;
+    }
+
+    public SessionRegistry build() {
+      if (this.refreshThreads < 1 || this.pageThreads < 1 || this.tickNanos <= 0) {
+        throw new IllegalArgumentException("The threads and the tick must be positive");
+      }
+
+      if (this.responseTtlNanos < 0) {
+        throw new IllegalArgumentException("The time to live cannot be negative");
+      }
+
+      return new SessionRegistry(this);
+    }
+  }
+}
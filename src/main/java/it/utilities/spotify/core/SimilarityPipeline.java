@@ -0,0 +1,142 @@
+package it.utilities.spotify.core;
+
+import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.stream.Stream;
+
+/**
+ * Sequence of {@link SimilarityStage}s that find the duplicates of a playlist one after the other,
+ * from the cheapest and most certain to the most expensive.<br>
+ * The first stage compares all the tracks. Every following stage only compares one track of every
+ * group found so far, together with the tracks not matched yet, so the tracks already grouped by a
+ * cheap stage, like the ones with the same ID matched by {@link ExactIdStage}, do not go through
+ * the expensive ones again. A match of a later stage still merges the whole groups of the two
+ * tracks. <br>
+ * Every group reports the name of the last stage that contributed to it, the one whose matches are
+ * the least certain.
+ */
+public final class SimilarityPipeline {
+
+  private final SimilarityStage[] stages;
+
+  /**
+   * @param stages the stages, in the order they run
+   * @throws IllegalArgumentException if there are no stages
+   */
+  public SimilarityPipeline(SimilarityStage... stages) {
+    if (stages.length == 0) {
+      throw new IllegalArgumentException("A pipeline needs at least one stage");
+    }
+
+    this.stages = stages.clone();
+  }
+
+  /**
+   * @param stage the stage that follows the exact matches
+   * @return the pipeline that groups the tracks with the same ID or ISRC before running the stage
+   */
+  public static SimilarityPipeline withExactIds(SimilarityStage stage) {
+    return new SimilarityPipeline(new ExactIdStage(), stage);
+  }
+
+  /**
+   * @return the stages, in the order they run
+   */
+  public List<SimilarityStage> getStages() {
+    return List.of(this.stages);
+  }
+
+  /**
+   * Group the tracks of a playlist.
+   *
+   * @param playListId the ID of the playlist of the tracks
+   * @param tracks the tracks, identified by their position in the list
+   * @return the groups of at least two tracks, ordered by the position of their first track
+   */
+  Stream<DuplicateGroup> groups(String playListId, List<PlaylistTrack> tracks) {
+    final DisjointSet sets = new DisjointSet(tracks.size());
+
+    // For the root of every set, the index of the last stage that merged it
+    final int[] stageOf = new int[tracks.size()];
+    int[] positions = null;
+
+    for (int stage = 0; stage < this.stages.length; stage++) {
+      final int[] compared = positions;
+      final int index = stage;
+      final SimilarityStage.MatchConsumer matches =
+          compared == null
+              ? (first, second) -> union(sets, stageOf, first, second, index)
+              : (first, second) -> union(sets, stageOf, compared[first], compared[second], index);
+
+      this.stages[stage].findMatches(
+          compared == null ? tracks : new Subset(tracks, compared), matches);
+
+      if (stage + 1 < this.stages.length) {
+        positions = representatives(sets);
+      }
+    }
+
+    return sets.sets(2)
+        .map(
+            members ->
+                new DuplicateGroup(
+                    playListId,
+                    members,
+                    tracks,
+                    this.stages[stageOf[sets.find(members[0])]].getName()));
+  }
+
+  private static void union(DisjointSet sets, int[] stageOf, int first, int second, int stage) {
+    final int firstRoot = sets.find(first);
+    final int secondRoot = sets.find(second);
+
+    if (sets.union(firstRoot, secondRoot)) {
+      stageOf[sets.find(firstRoot)] = stage;
+    }
+  }
+
+  /**
+   * @return the first position of every set, in ascending order
+   */
+  private static int[] representatives(DisjointSet sets) {
+    final boolean[] seen = new boolean[sets.size()];
+    final int[] positions = new int[sets.size()];
+    int count = 0;
+
+    for (int position = 0; position < sets.size(); position++) {
+      final int root = sets.find(position);
+
+      if (!seen[root]) {
+        seen[root] = true;
+        positions[count++] = position;
+      }
+    }
+
+    return Arrays.copyOf(positions, count);
+  }
+
+  /** View of the tracks at some positions of a playlist. */
+  private static final class Subset extends AbstractList<PlaylistTrack> implements RandomAccess {
+
+    private final List<PlaylistTrack> tracks;
+    private final int[] positions;
+
+    private Subset(List<PlaylistTrack> tracks, int[] positions) {
+      this.tracks = tracks;
+      this.positions = positions;
+    }
+
+    @Override
+    public PlaylistTrack get(int index) {
+      return this.tracks.get(this.positions[index]);
+    }
+
+    @Override
+    public int size() {
+      return this.positions.length;
+    }
+  }
+}
@@ -0,0 +1,41 @@
+package it.utilities.spotify.core;
+
+import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import java.util.List;
+
+/**
+ * Step of the duplicate detection that decides which tracks are similar enough to be considered
+ * duplicated.<br>
+ * A stage only reports couples of matching tracks: the couples are merged into disjoint groups by
+ * the caller, so two tracks end up in the same group when they are linked by a chain of matches.
+ * The stages can be chained in a {@link SimilarityPipeline}.
+ */
+public interface SimilarityStage {
+
+  /**
+   * @return the name of the stage, reported by the groups it matched
+   */
+  default String getName() {
+    return getClass().getSimpleName();
+  }
+
+  /**
+   * Find the couples of similar tracks. Every couple needs to be reported only once and the tracks
+   * that cannot be compared, like the ones without a title, are ignored.
+   *
+   * @param tracks the tracks to compare, identified by their position in the list
+   * @param matches the consumer of the couples of similar tracks
+   */
+  void findMatches(List<PlaylistTrack> tracks, MatchConsumer matches);
+
+  /** Consumer of the couples of similar tracks found by a stage. */
+  @FunctionalInterface
+  interface MatchConsumer {
+
+    /**
+     * @param first the position of the first track
+     * @param second the position of the second track
+     */
+    void accept(int first, int second);
+  }
+}
@@ -1,48 +1,1040 @@
 package it.utilities.spotify.core;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.wrapper.spotify.IHttpManager;
 import com.wrapper.spotify.SpotifyApi;
 import com.wrapper.spotify.exceptions.SpotifyWebApiException;
 import com.wrapper.spotify.model_objects.credentials.AuthorizationCodeCredentials;
 import com.wrapper.spotify.model_objects.specification.Paging;
+import com.wrapper.spotify.model_objects.specification.Playlist;
 import com.wrapper.spotify.model_objects.specification.PlaylistSimplified;
 import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import com.wrapper.spotify.requests.IRequest;
 import com.wrapper.spotify.requests.data.playlists.GetPlaylistsItemsRequest;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.apache.hc.core5.http.Header;
 import org.apache.hc.core5.http.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Instances of the SpotifyApiWrapper class provide access to the Spotify API calls used by the
+ * utilities.<br>
+ * A single client is shared by all the calls: the credentials are kept in an immutable snapshot
+ * that is replaced atomically, so concurrent requests always see a consistent set of tokens while
+ * reusing the same pooled HTTP manager.<br>
+ * The <code>Async</code> methods return a {@link CompletableFuture} without blocking the calling
+ * thread: with the default {@link JdkHttpManager} the responses are received by the HTTP client, so
+ * many requests can be pending on a few threads. Completing the returned future, for example by
+ * cancelling it or with {@link CompletableFuture#orTimeout(long, java.util.concurrent.TimeUnit)},
+ * stops the requests that are still waiting or retrying.<br>
+ * The identical reads sent at the same time are merged into a single request by the {@link
+ * ResponseCache}, that can also keep the responses for a short time. Every caller receives its own
+ * copy of a page, so changing its items does not change the pages of the other callers.<br>
+ * The client of the library is built by the first request. Loading the {@link SpotifyApi} class
+ * also builds the default HTTP manager of the library, with its TLS context, so the commands that
+ * never reach Spotify, like the checks of a library export, start without it.
+ */
 public class SpotifyApiWrapper {
 
-  private SpotifyApi.Builder builder;
+  /** Maximum number of items that Spotify returns in a single page of playlist items. */
+  public static final int PLAYLIST_ITEMS_LIMIT = 100;
+
+  /** Maximum number of playlists that Spotify returns in a single page. */
+  public static final int CURRENT_USER_PLAYLISTS_LIMIT = 50;
+
+  /** Maximum number of items that Spotify removes from a playlist in a single request. */
+  public static final int REMOVE_PLAYLIST_ITEMS_LIMIT = 100;
+
+  /** Default maximum number of pages requested at the same time for a single resource. */
+  public static final int DEFAULT_PAGE_CONCURRENCY = 4;
+
+  static final String ENDPOINT_AUTHORIZATION = "authorization";
+  static final String ENDPOINT_CURRENT_USER_PLAYLISTS = "current-user-playlists";
+  static final String ENDPOINT_PLAYLIST = "playlist";
+  static final String ENDPOINT_PLAYLIST_ITEMS = "playlist-items";
+  static final String ENDPOINT_REMOVE_PLAYLIST_ITEMS = "remove-playlist-items";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SpotifyApiWrapper.class);
+
+  /**
+   * Client that holds the connection settings shared by every snapshot of the credentials, or null
+   * for the default settings of the library.
+   */
+  private final SpotifyApi template;
+
+  /** HTTP manager shared by every snapshot of the credentials. */
+  private final IHttpManager httpManager;
+
+  private final AtomicReference<Client> client;
+  private final int pageConcurrency;
+  private final ExecutorService pageExecutor;
+  private final RequestScheduler scheduler;
+  private volatile PlaylistSnapshotCache snapshotCache;
+  private volatile ResponseCache responseCache = ResponseCache.builder().build();
+
+  public SpotifyApiWrapper() {
+    this(
+        (SpotifyApi) null,
+        DEFAULT_PAGE_CONCURRENCY,
+        RequestScheduler.builder().build(),
+        pageExecutor(DEFAULT_PAGE_CONCURRENCY));
+  }
 
   public SpotifyApiWrapper(SpotifyApi.Builder builder) {
-    this.builder = builder;
+    this(builder, DEFAULT_PAGE_CONCURRENCY);
+  }
+
+  /**
+   * @param builder the builder with the connection settings and the initial credentials. It is read
+   *     only once, subsequent changes to the builder are ignored.
+   * @param pageConcurrency the maximum number of pages requested at the same time for a single
+   *     resource
+   */
+  public SpotifyApiWrapper(SpotifyApi.Builder builder, int pageConcurrency) {
+    this(builder, pageConcurrency, RequestScheduler.builder().build());
+  }
+
+  /**
+   * @param builder the builder with the connection settings and the initial credentials. It is read
+   *     only once, subsequent changes to the builder are ignored. If it does not set an HTTP
+   *     manager, a {@link JdkHttpManager} is used, so that the retries are only done by the
+   *     scheduler. The manager connects through the proxy set on the builder, if any.
+   * @param pageConcurrency the maximum number of pages requested at the same time for a single
+   *     resource
+   * @param scheduler the scheduler that paces and retries all the requests
+   */
+  public SpotifyApiWrapper(
+      SpotifyApi.Builder builder, int pageConcurrency, RequestScheduler scheduler) {
+    this(builder, pageConcurrency, scheduler, pageExecutor(pageConcurrency));
+  }
+
+  /**
+   * @param builder the builder with the connection settings and the initial credentials. It is read
+   *     only once, subsequent changes to the builder are ignored. If it does not set an HTTP
+   *     manager, a {@link JdkHttpManager} is used, so that the retries are only done by the
+   *     scheduler. The manager connects through the proxy set on the builder, if any.
+   * @param pageConcurrency the maximum number of pages requested at the same time for a single
+   *     resource
+   * @param scheduler the scheduler that paces and retries all the requests
+   * @param pageExecutor the executor that requests the pages, it can be shared with other wrappers
+   */
+  public SpotifyApiWrapper(
+      SpotifyApi.Builder builder,
+      int pageConcurrency,
+      RequestScheduler scheduler,
+      ExecutorService pageExecutor) {
+    this(builder.build(), pageConcurrency, scheduler, pageExecutor);
+  }
+
+  /**
+   * @param template the client with the connection settings and the initial credentials, or null
+   *     for the default settings and no credentials
+   * @param pageConcurrency the maximum number of pages requested at the same time for a single
+   *     resource
+   * @param scheduler the scheduler that paces and retries all the requests
+   * @param pageExecutor the executor that requests the pages
+   */
+  private SpotifyApiWrapper(
+      SpotifyApi template,
+      int pageConcurrency,
+      RequestScheduler scheduler,
+      ExecutorService pageExecutor) {
+    this.scheduler = scheduler;
+    this.template = template;
+    this.httpManager =
+        template == null || template.getHttpManager() == SpotifyApi.DEFAULT_HTTP_MANAGER
+            ? httpManager(template)
+            : template.getHttpManager();
+    this.client =
+        new AtomicReference<>(
+            new Client(
+                template == null
+                    ? SpotifyCredentials.empty()
+                    : SpotifyCredentials.empty()
+                        .withClientId(template.getClientId())
+                        .withClientSecret(template.getClientSecret())
+                        .withRedirectUri(template.getRedirectURI())
+                        .withAccessToken(template.getAccessToken())
+                        .withRefreshToken(template.getRefreshToken())));
+    this.pageConcurrency = Math.max(1, pageConcurrency);
+    this.pageExecutor = pageExecutor;
+  }
+
+  /**
+   * @param template the client with the connection settings, or null for the default settings
+   * @return the manager that connects through the proxy of the settings, if any
+   */
+  private static JdkHttpManager httpManager(SpotifyApi template) {
+    if (template == null || template.getProxyUrl() == null) {
+      return new JdkHttpManager();
+    }
+
+    // The library keeps the proxy credentials as numbers
+    return new JdkHttpManager(
+        JdkHttpManager.DEFAULT_CONNECT_TIMEOUT,
+        JdkHttpManager.DEFAULT_REQUEST_TIMEOUT,
+        template.getProxyUrl(),
+        template.getProxyPort(),
+        template.getProxyUsername() != null ? String.valueOf(template.getProxyUsername()) : null,
+        template.getProxyPassword() != null ? String.valueOf(template.getProxyPassword()) : null);
+  }
+
+  /**
+   * @param threads the number of threads
+   * @return the executor of the pages of a single wrapper, with daemon threads
+   */
+  static ExecutorService pageExecutor(int threads) {
+    final AtomicInteger threadCount = new AtomicInteger();
+
+    return Executors.newFixedThreadPool(
+        Math.max(1, threads),
+        runnable -> {
+          Thread thread = new Thread(runnable, "spotify-pages-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  /**
+   * @return the credentials currently used by the requests
+   */
+  public SpotifyCredentials getCredentials() {
+    return this.client.get().credentials;
+  }
+
+  /**
+   * Atomically replace the credentials used by the requests. The requests already in progress keep
+   * using the previous credentials.
+   *
+   * @param update the function that creates the new credentials from the current ones. It can be
+   *     called more than once if other threads update the credentials at the same time.
+   * @return the new credentials
+   */
+  public SpotifyCredentials updateCredentials(UnaryOperator<SpotifyCredentials> update) {
+    final SpotifyCredentials previous = getCredentials();
+    final SpotifyCredentials updated =
+        this.client.updateAndGet(current -> new Client(update.apply(current.credentials)))
+            .credentials;
+
+    // A new login may belong to another user, whose responses are different
+    if (!Objects.equals(previous.getRefreshToken(), updated.getRefreshToken())
+        || (updated.getRefreshToken() == null
+            && !Objects.equals(previous.getAccessToken(), updated.getAccessToken()))) {
+      this.responseCache.invalidateAll();
+    }
+
+    return updated;
+  }
+
+  /**
+   * Set the cache used to store the items of the playlists between the scans.
+   *
+   * @param snapshotCache the cache, or null to always request the items to Spotify
+   */
+  public void setSnapshotCache(PlaylistSnapshotCache snapshotCache) {
+    this.snapshotCache = snapshotCache;
+  }
+
+  /**
+   * @return the cache of the items of the playlists, or null if the items are always requested
+   */
+  public PlaylistSnapshotCache getSnapshotCache() {
+    return this.snapshotCache;
+  }
+
+  /**
+   * @return the metrics where the requests are recorded
+   */
+  public Metrics getMetrics() {
+    return this.scheduler.getMetrics();
+  }
+
+  /**
+   * @return the cache that merges the identical reads, with its counters
+   */
+  public ResponseCache getResponseCache() {
+    return this.responseCache;
+  }
+
+  /**
+   * Set the cache that merges the identical reads and keeps their responses. By default the reads
+   * in progress are merged, but the responses are not kept.
+   *
+   * @param responseCache the cache
+   */
+  public void setResponseCache(ResponseCache responseCache) {
+    this.responseCache = Objects.requireNonNull(responseCache);
   }
 
   public Paging<PlaylistSimplified> getListOfCurrentUsersPlaylists()
       throws ParseException, SpotifyWebApiException, IOException {
-    return this.builder.build().getListOfCurrentUsersPlaylists().build().execute();
+    return this.responseCache.get(
+        ENDPOINT_CURRENT_USER_PLAYLISTS,
+        SpotifyApiWrapper::weight,
+        SpotifyApiWrapper::copy,
+        () ->
+            this.scheduler.execute(
+                ENDPOINT_CURRENT_USER_PLAYLISTS,
+                () -> api().getListOfCurrentUsersPlaylists().build().execute()));
+  }
+
+  /**
+   * Retrieve a single page of the playlists of the current user.
+   *
+   * @param offset the index of the first playlist to return
+   * @param limit the maximum number of playlists to return
+   * @return the page of the playlists
+   * @throws ParseException
+   * @throws SpotifyWebApiException
+   * @throws IOException
+   */
+  public Paging<PlaylistSimplified> getListOfCurrentUsersPlaylists(int offset, int limit)
+      throws ParseException, SpotifyWebApiException, IOException {
+    return this.responseCache.get(
+        key(ENDPOINT_CURRENT_USER_PLAYLISTS, offset, limit),
+        SpotifyApiWrapper::weight,
+        SpotifyApiWrapper::copy,
+        () ->
+            this.scheduler.execute(
+                ENDPOINT_CURRENT_USER_PLAYLISTS,
+                () ->
+                    api()
+                        .getListOfCurrentUsersPlaylists()
+                        .offset(offset)
+                        .limit(limit)
+                        .build()
+                        .execute()));
+  }
+
+  /**
+   * Retrieve all the playlists of the current user.<br>
+   * The first page is requested before returning, the other pages are requested in parallel and the
+   * playlists are streamed in the order returned by Spotify.
+   *
+   * @return the lazy stream of all the playlists of the current user
+   * @throws ParseException
+   * @throws SpotifyWebApiException
+   * @throws IOException
+   * @throws NullPointerException if the first page or its items are null
+   */
+  public Stream<PlaylistSimplified> getAllCurrentUsersPlaylists()
+      throws ParseException, SpotifyWebApiException, IOException {
+    return new PagedIterator<PlaylistSimplified>(
+            this::getListOfCurrentUsersPlaylists,
+            CURRENT_USER_PLAYLISTS_LIMIT,
+            this.pageConcurrency,
+            this.pageExecutor)
+        .stream();
   }
 
   public Paging<PlaylistTrack> getPlaylistsItems(String playListId)
       throws ParseException, SpotifyWebApiException, IOException {
-    final GetPlaylistsItemsRequest getPlaylistsItemsRequest =
-        this.builder.build().getPlaylistsItems(playListId).build();
+    return this.responseCache.get(
+        ENDPOINT_PLAYLIST_ITEMS + "/" + playListId,
+        SpotifyApiWrapper::weight,
+        SpotifyApiWrapper::copy,
+        () ->
+            this.scheduler.execute(
+                ENDPOINT_PLAYLIST_ITEMS,
+                () -> api().getPlaylistsItems(playListId).build().execute()));
+  }
+
+  /**
+   * Retrieve a single page of the items of a playlist.
+   *
+   * @param playListId the ID of the playlist
+   * @param offset the index of the first item to return
+   * @param limit the maximum number of items to return
+   * @return the page of the items
+   * @throws ParseException
+   * @throws SpotifyWebApiException
+   * @throws IOException
+   */
+  public Paging<PlaylistTrack> getPlaylistsItems(String playListId, int offset, int limit)
+      throws ParseException, SpotifyWebApiException, IOException {
+    return this.responseCache.get(
+        key(ENDPOINT_PLAYLIST_ITEMS + "/" + playListId, offset, limit),
+        SpotifyApiWrapper::weight,
+        SpotifyApiWrapper::copy,
+        () ->
+            this.scheduler.execute(
+                ENDPOINT_PLAYLIST_ITEMS,
+                () -> {
+                  final GetPlaylistsItemsRequest getPlaylistsItemsRequest =
+                      api().getPlaylistsItems(playListId).offset(offset).limit(limit).build();
+
+                  return getPlaylistsItemsRequest.execute();
+                }));
+  }
+
+  /**
+   * Retrieve a single page of the items of a playlist, with only the fields used by the utilities.
+   * <br>
+   * Spotify is asked for the <code>fields</code> projection of {@link PlaylistItemsParser#FIELDS}
+   * and the response is read as a stream of tokens straight into the items, so the full model of
+   * the tracks, with their albums and markets, is neither transferred nor built.
+   *
+   * @param playListId the ID of the playlist
+   * @param offset the index of the first item to return
+   * @param limit the maximum number of items to return
+   * @return the page of the items, with only the items and the total
+   * @throws ParseException
+   * @throws SpotifyWebApiException
+   * @throws IOException
+   */
+  public Paging<PlaylistTrack> getProjectedPlaylistsItems(String playListId, int offset, int limit)
+      throws ParseException, SpotifyWebApiException, IOException {
+    return getProjectedPlaylistsItems(playListId, null, offset, limit);
+  }
+
+  /**
+   * Retrieve a single page of the items of a playlist, read for a snapshot.<br>
+   * The snapshot is part of the key of the page in the {@link ResponseCache}, so a page stored
+   * before the playlist changed is never returned for its new snapshot, even if it outlives the
+   * stored snapshot ID.
+   *
+   * @param snapshotId the snapshot the page is read for, or null if it is not known
+   */
+  Paging<PlaylistTrack> getProjectedPlaylistsItems(
+      String playListId, String snapshotId, int offset, int limit)
+      throws ParseException, SpotifyWebApiException, IOException {
+    return this.responseCache.get(
+        projectedKey(playListId, snapshotId, offset, limit),
+        SpotifyApiWrapper::weight,
+        SpotifyApiWrapper::copy,
+        () ->
+            this.scheduler.execute(
+                ENDPOINT_PLAYLIST_ITEMS,
+                () ->
+                    PlaylistItemsParser.parse(
+                        api()
+                            .getPlaylistsItems(playListId)
+                            .fields(PlaylistItemsParser.FIELDS)
+                            .offset(offset)
+                            .limit(limit)
+                            .build()
+                            .getJson())));
+  }
+
+  /**
+   * Retrieve the current snapshot of a playlist, without its items.
+   *
+   * @param playListId the ID of the playlist
+   * @return the <code>snapshot_id</code> of the playlist
+   * @throws ParseException
+   * @throws SpotifyWebApiException
+   * @throws IOException
+   */
+  public String getPlaylistSnapshotId(String playListId)
+      throws ParseException, SpotifyWebApiException, IOException {
+    return this.responseCache.get(
+        snapshotKey(playListId),
+        snapshotId -> 1,
+        () ->
+            this.scheduler
+                .execute(
+                    ENDPOINT_PLAYLIST,
+                    () -> api().getPlaylist(playListId).fields("snapshot_id").build().execute())
+                .getSnapshotId());
+  }
+
+  /**
+   * Retrieve all the items of a playlist, with only the fields used by the utilities.<br>
+   * If a snapshot cache is set and it contains the current snapshot of the playlist, only the
+   * snapshot is requested to Spotify and the items are read from the cache. Otherwise the first
+   * page is requested before returning, the other pages are requested in parallel and the items are
+   * streamed in playlist order as soon as their page arrives. Errors on the following pages are
+   * thrown while consuming the stream. When the stream is fully consumed the items are stored in
+   * the cache.
+   *
+   * @param playListId the ID of the playlist
+   * @return the lazy stream of all the items of the playlist
+   * @throws ParseException
+   * @throws SpotifyWebApiException
+   * @throws IOException
+   * @throws NullPointerException if the first page or its items are null
+   */
+  public Stream<PlaylistTrack> getAllPlaylistsItems(String playListId)
+      throws ParseException, SpotifyWebApiException, IOException {
+    final PlaylistSnapshotCache cache = this.snapshotCache;
+
+    if (cache == null) {
+      return requestAllPlaylistsItems(playListId, null);
+    }
+
+    final String snapshotId = getPlaylistSnapshotId(playListId);
+
+    try {
+      final Optional<List<PlaylistTrack>> cached = cache.read(playListId, snapshotId);
+
+      if (cached.isPresent()) {
+        return cached.get().stream();
+      }
+    } catch (IOException e) {
+      LOGGER.warn("Unable to read the cached items of the playlist {}", playListId, e);
+    }
+
+    final Stream<PlaylistTrack> items = requestAllPlaylistsItems(playListId, snapshotId);
+
+    try {
+      return store(items, cache.writer(playListId, snapshotId));
+    } catch (IOException e) {
+      LOGGER.warn("Unable to cache the items of the playlist {}", playListId, e);
+      return items;
+    }
+  }
+
+  private Stream<PlaylistTrack> requestAllPlaylistsItems(String playListId, String snapshotId)
+      throws ParseException, SpotifyWebApiException, IOException {
+    return new PagedIterator<PlaylistTrack>(
+            (offset, limit) -> getProjectedPlaylistsItems(playListId, snapshotId, offset, limit),
+            PLAYLIST_ITEMS_LIMIT,
+            this.pageConcurrency,
+            this.pageExecutor)
+        .stream();
+  }
+
+  /**
+   * Write the items to the cache while they are consumed. The cache is updated only if all the
+   * items are consumed.
+   */
+  private static Stream<PlaylistTrack> store(
+      Stream<PlaylistTrack> items, PlaylistSnapshotCache.Writer writer) {
+    final Iterator<PlaylistTrack> iterator = items.iterator();
+
+    final Iterator<PlaylistTrack> storing =
+        new Iterator<PlaylistTrack>() {
+          private boolean committed;
+
+          @Override
+          public boolean hasNext() {
+            final boolean hasNext = iterator.hasNext();
+
+            if (!hasNext && !this.committed) {
+              this.committed = true;
+              try {
+                writer.commit();
+              } catch (IOException e) {
+                LOGGER.warn("Unable to cache the items of the playlist", e);
+              }
+            }
+
+            return hasNext;
+          }
+
+          @Override
+          public PlaylistTrack next() {
+            final PlaylistTrack track = iterator.next();
+            writer.append(track);
+            return track;
+          }
+        };
+
+    return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(storing, Spliterator.ORDERED), false)
+        .onClose(items::close)
+        .onClose(
+            () -> {
+              try {
+                writer.close();
+              } catch (IOException e) {
+                LOGGER.warn("Unable to discard the cached items of the playlist", e);
+              }
+            });
+  }
+
+  /**
+   * Retrieve a single page of the playlists of the current user asynchronously.
+   *
+   * @param offset the index of the first playlist to return
+   * @param limit the maximum number of playlists to return
+   * @return the future page of the playlists
+   * @see #getListOfCurrentUsersPlaylists(int, int)
+   */
+  public CompletableFuture<Paging<PlaylistSimplified>> getListOfCurrentUsersPlaylistsAsync(
+      int offset, int limit) {
+    return this.responseCache.getAsync(
+        key(ENDPOINT_CURRENT_USER_PLAYLISTS, offset, limit),
+        SpotifyApiWrapper::weight,
+        SpotifyApiWrapper::copy,
+        () ->
+            this.scheduler.executeAsync(
+                ENDPOINT_CURRENT_USER_PLAYLISTS,
+                () ->
+                    getAsync(
+                        api().getListOfCurrentUsersPlaylists().offset(offset).limit(limit).build(),
+                        json -> new PlaylistSimplified.JsonUtil().createModelObjectPaging(json))));
+  }
+
+  /**
+   * Retrieve all the playlists of the current user asynchronously. All the pages after the first
+   * one are requested at the same time, as allowed by the scheduler.
+   *
+   * @return the future list of all the playlists of the current user, in the order returned by
+   *     Spotify. Completing it cancels the requests in progress.
+   * @see #getAllCurrentUsersPlaylists()
+   */
+  public CompletableFuture<List<PlaylistSimplified>> getAllCurrentUsersPlaylistsAsync() {
+    return allPagesAsync(this::getListOfCurrentUsersPlaylistsAsync, CURRENT_USER_PLAYLISTS_LIMIT);
+  }
+
+  /**
+   * Retrieve a single page of the items of a playlist asynchronously, with only the fields used by
+   * the utilities.
+   *
+   * @param playListId the ID of the playlist
+   * @param offset the index of the first item to return
+   * @param limit the maximum number of items to return
+   * @return the future page of the items
+   * @see #getProjectedPlaylistsItems(String, int, int)
+   */
+  public CompletableFuture<Paging<PlaylistTrack>> getProjectedPlaylistsItemsAsync(
+      String playListId, int offset, int limit) {
+    return getProjectedPlaylistsItemsAsync(playListId, null, offset, limit);
+  }
+
+  /**
+   * Retrieve a single page of the items of a playlist asynchronously, read for a snapshot.
+   *
+   * @see #getProjectedPlaylistsItems(String, String, int, int)
+   */
+  CompletableFuture<Paging<PlaylistTrack>> getProjectedPlaylistsItemsAsync(
+      String playListId, String snapshotId, int offset, int limit) {
+    return this.responseCache.getAsync(
+        projectedKey(playListId, snapshotId, offset, limit),
+        SpotifyApiWrapper::weight,
+        SpotifyApiWrapper::copy,
+        () ->
+            this.scheduler.executeAsync(
+                ENDPOINT_PLAYLIST_ITEMS,
+                () ->
+                    getAsync(
+                        api()
+                            .getPlaylistsItems(playListId)
+                            .fields(PlaylistItemsParser.FIELDS)
+                            .offset(offset)
+                            .limit(limit)
+                            .build(),
+                        PlaylistItemsParser::parse)));
+  }
+
+  /**
+   * Retrieve the current snapshot of a playlist asynchronously.
+   *
+   * @param playListId the ID of the playlist
+   * @return the future <code>snapshot_id</code> of the playlist
+   * @see #getPlaylistSnapshotId(String)
+   */
+  public CompletableFuture<String> getPlaylistSnapshotIdAsync(String playListId) {
+    return this.responseCache.getAsync(
+        snapshotKey(playListId),
+        snapshotId -> 1,
+        () ->
+            this.scheduler.executeAsync(
+                ENDPOINT_PLAYLIST,
+                () ->
+                    getAsync(
+                        api().getPlaylist(playListId).fields("snapshot_id").build(),
+                        json -> new Playlist.JsonUtil().createModelObject(json).getSnapshotId())));
+  }
+
+  /**
+   * Retrieve all the items of a playlist asynchronously, with only the fields used by the
+   * utilities.<br>
+   * The snapshot cache is used in the same way of {@link #getAllPlaylistsItems(String)}. All the
+   * pages after the first one are requested at the same time, as allowed by the scheduler.
+   *
+   * @param playListId the ID of the playlist
+   * @return the future list of all the items of the playlist, in playlist order. Completing it
+   *     cancels the requests in progress.
+   */
+  public CompletableFuture<List<PlaylistTrack>> getAllPlaylistsItemsAsync(String playListId) {
+    final PlaylistSnapshotCache cache = this.snapshotCache;
+
+    if (cache == null) {
+      return allPagesAsync(
+          (offset, limit) -> getProjectedPlaylistsItemsAsync(playListId, null, offset, limit),
+          PLAYLIST_ITEMS_LIMIT);
+    }
+
+    return Futures.compose(
+        getPlaylistSnapshotIdAsync(playListId),
+        snapshotId -> {
+          try {
+            final Optional<List<PlaylistTrack>> cached = cache.read(playListId, snapshotId);
+
+            if (cached.isPresent()) {
+              return CompletableFuture.completedFuture(cached.get());
+            }
+          } catch (IOException e) {
+            LOGGER.warn("Unable to read the cached items of the playlist {}", playListId, e);
+          }
+
+          return allPagesAsync(
+              (offset, limit) ->
+                  getProjectedPlaylistsItemsAsync(playListId, snapshotId, offset, limit),
+              PLAYLIST_ITEMS_LIMIT,
+              items -> {
+                store(items, cache, playListId, snapshotId);
+                return items;
+              });
+        });
+  }
+
+  /**
+   * Remove the items at the given positions of a version of a playlist.<br>
+   * The positions refer to the version identified by the snapshot, so they are valid even if the
+   * playlist changed in the meantime. The stored responses of the playlist and of the list of the
+   * playlists, with its old snapshot, are discarded from the {@link ResponseCache}.<br>
+   * The request is never retried: after a server error the items may have been removed anyway, and
+   * the same positions would remove other items from the new version of the playlist.
+   *
+   * @param playListId the ID of the playlist
+   * @param uris the URI of the item at every position
+   * @param positions the zero-based positions of the items to remove, at most {@link
+   *     #REMOVE_PLAYLIST_ITEMS_LIMIT}
+   * @param snapshotId the snapshot of the playlist the positions refer to
+   * @return the snapshot of the playlist after the removal
+   * @throws ParseException
+   * @throws SpotifyWebApiException
+   * @throws IOException
+   * @throws IllegalArgumentException if there are too many positions, or they do not match the URIs
+   */
+  public String removePlaylistsItems(
+      String playListId, List<String> uris, List<Integer> positions, String snapshotId)
+      throws ParseException, SpotifyWebApiException, IOException {
+    if (uris.size() != positions.size() || positions.size() > REMOVE_PLAYLIST_ITEMS_LIMIT) {
+      throw new IllegalArgumentException(
+          "At most " + REMOVE_PLAYLIST_ITEMS_LIMIT + " items, with their URI, can be removed");
+    }
+
+    // The positions of the same URI are sent together
+    final Map<String, JsonArray> positionsByUri = new LinkedHashMap<>();
+    for (int i = 0; i < uris.size(); i++) {
+      positionsByUri
+          .computeIfAbsent(Objects.requireNonNull(uris.get(i)), uri -> new JsonArray())
+          .add(positions.get(i));
+    }
+
+    final JsonArray tracks = new JsonArray();
+    positionsByUri.forEach(
+        (uri, uriPositions) -> {
+          final JsonObject track = new JsonObject();
+          track.addProperty("uri", uri);
+          track.add("positions", uriPositions);
+          tracks.add(track);
+        });
+
+    try {
+      return this.scheduler
+          .executeOnce(
+              ENDPOINT_REMOVE_PLAYLIST_ITEMS,
+              () ->
+                  api()
+                      .removeItemsFromPlaylist(playListId, tracks)
+                      .snapshotId(snapshotId)
+                      .build()
+                      .execute())
+          .getSnapshotId();
+    } finally {
+      discardCachedResponses(playListId);
+      this.responseCache.invalidate(key -> key.startsWith(ENDPOINT_CURRENT_USER_PLAYLISTS + "?"));
+    }
+  }
 
-    return getPlaylistsItemsRequest.execute();
+  /**
+   * Discard the responses stored by the {@link ResponseCache}, so that the following reads return
+   * the current state of the playlists.
+   */
+  public void discardCachedResponses() {
+    this.responseCache.invalidateAll();
+  }
+
+  /**
+   * Discard the responses stored by the {@link ResponseCache} for a playlist, its snapshot and the
+   * pages of its items, so that the following reads return its current state. The responses of the
+   * other playlists are kept.
+   *
+   * @param playListId the ID of the playlist
+   */
+  public void discardCachedResponses(String playListId) {
+    final String items = ENDPOINT_PLAYLIST_ITEMS + "/" + playListId;
+    final String snapshot = snapshotKey(playListId);
+
+    this.responseCache.invalidate(
+        key -> key.equals(snapshot) || key.startsWith(items + "/") || key.startsWith(items + "?"));
   }
 
   public URI authorizationCodeUri() {
-    return this.builder.build().authorizationCodeUri().build().execute();
+    return api().authorizationCodeUri().build().execute();
   }
 
+  /**
+   * Exchange an authorization code for the tokens. The request is never retried, since the code
+   * can be used only once.
+   *
+   * @param code the code received by the redirect URI
+   * @return the tokens
+   * @throws ParseException
+   * @throws SpotifyWebApiException
+   * @throws IOException
+   */
   public AuthorizationCodeCredentials authorizationCode(String code)
       throws ParseException, SpotifyWebApiException, IOException {
-    return this.builder.build().authorizationCode(code).build().execute();
+    return this.scheduler.executeOnce(
+        ENDPOINT_AUTHORIZATION, () -> api().authorizationCode(code).build().execute());
   }
 
+  /**
+   * Refresh the access token. Like every request to the token endpoint it is never retried, the
+   * callers decide when to try again.
+   *
+   * @return the new tokens
+   * @throws ParseException
+   * @throws SpotifyWebApiException
+   * @throws IOException
+   */
   public AuthorizationCodeCredentials authorizationCode()
       throws ParseException, SpotifyWebApiException, IOException {
-    return this.builder.build().authorizationCodeRefresh().build().execute();
+    return this.scheduler.executeOnce(
+        ENDPOINT_AUTHORIZATION, () -> api().authorizationCodeRefresh().build().execute());
+  }
+
+  /** Store all the items of a playlist in the cache, logging the errors. */
+  private static void store(
+      List<PlaylistTrack> items,
+      PlaylistSnapshotCache cache,
+      String playListId,
+      String snapshotId) {
+    try (PlaylistSnapshotCache.Writer writer = cache.writer(playListId, snapshotId)) {
+      for (PlaylistTrack item : items) {
+        writer.append(item);
+      }
+      writer.commit();
+    } catch (IOException | UncheckedIOException e) {
+      LOGGER.warn("Unable to cache the items of the playlist {}", playListId, e);
+    }
+  }
+
+  private <T> CompletableFuture<List<T>> allPagesAsync(PageFetcherAsync<T> fetcher, int limit) {
+    return allPagesAsync(fetcher, limit, Function.identity());
+  }
+
+  /**
+   * Request the first page, then all the other pages at the same time.
+   *
+   * @param fetcher the function used to request a page
+   * @param limit the maximum number of items of every page
+   * @param finisher the function applied to all the items, in the order of the resource
+   * @return the future result of the finisher
+   */
+  private <T, R> CompletableFuture<R> allPagesAsync(
+      PageFetcherAsync<T> fetcher, int limit, Function<List<T>, R> finisher) {
+    return Futures.compose(
+        fetcher.fetch(0, limit),
+        first -> {
+          final int total =
+              first.getTotal() != null
+                  ? Math.max(first.getTotal(), first.getItems().length)
+                  : first.getItems().length;
+
+          final List<CompletableFuture<Paging<T>>> pages = new ArrayList<>();
+          pages.add(CompletableFuture.completedFuture(first));
+
+          for (int offset = limit; offset < total; offset += limit) {
+            pages.add(fetcher.fetch(offset, limit));
+          }
+
+          return Futures.allOf(
+              pages,
+              completed -> {
+                final List<T> items = new ArrayList<>(total);
+                for (Paging<T> page : completed) {
+                  items.addAll(Arrays.asList(page.getItems()));
+                }
+                return finisher.apply(items);
+              });
+        });
+  }
+
+  /**
+   * Send a GET request without blocking the calling thread.<br>
+   * With the {@link JdkHttpManager} the response is received by the HTTP client, with any other
+   * manager the request is sent by a thread of the page executor.
+   *
+   * @param request the request to send
+   * @param parser the function that converts the body of the response
+   * @return the future result of the parser
+   */
+  private <T> CompletableFuture<T> getAsync(IRequest<?> request, ResponseParser<T> parser) {
+    final CompletableFuture<String> json;
+
+    if (this.httpManager instanceof JdkHttpManager) {
+      json =
+          ((JdkHttpManager) this.httpManager)
+              .getAsync(request.getUri(), request.getHeaders().toArray(new Header[0]));
+    } else {
+      json =
+          CompletableFuture.supplyAsync(
+              () -> {
+                try {
+                  return request.getJson();
+                } catch (IOException | SpotifyWebApiException | ParseException e) {
+                  throw new CompletionException(e);
+                }
+              },
+              this.pageExecutor);
+    }
+
+    return json.thenApply(
+        body -> {
+          try {
+            return parser.parse(body);
+          } catch (ParseException e) {
+            throw new CompletionException(e);
+          }
+        });
+  }
+
+  private static String key(String resource, int offset, int limit) {
+    return resource + "?offset=" + offset + "&limit=" + limit;
+  }
+
+  private static String projectedKey(String playListId, String snapshotId, int offset, int limit) {
+    return key(
+        ENDPOINT_PLAYLIST_ITEMS
+            + "/"
+            + playListId
+            + "/projected"
+            + (snapshotId != null ? "@" + snapshotId : ""),
+        offset,
+        limit);
+  }
+
+  private static String snapshotKey(String playListId) {
+    return ENDPOINT_PLAYLIST + "/" + playListId + "/snapshot_id";
+  }
+
+  /**
+   * @return the weight of a page in the response cache, proportional to its items
+   */
+  private static int weight(Paging<?> page) {
+    return 1 + (page != null && page.getItems() != null ? page.getItems().length : 0);
+  }
+
+  /**
+   * Copy a page for a caller of the response cache. The items are immutable, so only their array is
+   * copied.
+   *
+   * @return a new page with the same fields
+   */
+  private static <T> Paging<T> copy(Paging<T> page) {
+    if (page == null) {
+      return null;
+    }
+
+    return new Paging.Builder<T>()
+        .setHref(page.getHref())
+        .setItems(page.getItems() != null ? page.getItems().clone() : null)
+        .setLimit(page.getLimit())
+        .setNext(page.getNext())
+        .setOffset(page.getOffset())
+        .setPrevious(page.getPrevious())
+        .setTotal(page.getTotal())
+        .build();
+  }
+
+  /**
+   * @return the client with the current credentials
+   */
+  private SpotifyApi api() {
+    final Client client = this.client.get();
+    SpotifyApi api = client.api;
+
+    if (api == null) {
+      synchronized (client) {
+        api = client.api;
+        if (api == null) {
+          api = createApi(client.credentials);
+          client.api = api;
+        }
+      }
+    }
+
+    return api;
+  }
+
+  private SpotifyApi createApi(SpotifyCredentials credentials) {
+    final SpotifyApi.Builder builder = SpotifyApi.builder().setHttpManager(this.httpManager);
+
+    if (this.template != null) {
+      builder
+          .setScheme(this.template.getScheme())
+          .setHost(this.template.getHost())
+          .setPort(this.template.getPort())
+          .setProxyUrl(this.template.getProxyUrl())
+          .setProxyPort(this.template.getProxyPort())
+          .setProxyUsername(this.template.getProxyUsername())
+          .setProxyPassword(this.template.getProxyPassword());
+    }
+
+    return builder
+        .setClientId(credentials.getClientId())
+        .setClientSecret(credentials.getClientSecret())
+        .setRedirectUri(credentials.getRedirectUri())
+        .setAccessToken(credentials.getAccessToken())
+        .setRefreshToken(credentials.getRefreshToken())
+        .build();
+  }
+
+  /** Function that requests a page without waiting for the response. */
+  @FunctionalInterface
+  private interface PageFetcherAsync<T> {
+
+    CompletableFuture<Paging<T>> fetch(int offset, int limit);
+  }
+
+  /** Function that converts the body of a response. */
+  @FunctionalInterface
+  private interface ResponseParser<T> {
+
+    T parse(String json) throws ParseException;
+  }
+
+  /** Snapshot of the credentials together with the client that uses them. */
+  private static final class Client {
+
+    private final SpotifyCredentials credentials;
+
+    /** The client with the credentials, built by the first request that uses them. */
+    private volatile SpotifyApi api;
+
+    private Client(SpotifyCredentials credentials) {
+      this.credentials = credentials;
+    }
   }
 }
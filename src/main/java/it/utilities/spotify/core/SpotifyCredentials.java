@@ -0,0 +1,86 @@
+package it.utilities.spotify.core;
+
+import java.net.URI;
+
+/**
+ * Instances of the SpotifyCredentials class are immutable snapshots of the credentials used to call
+ * the Spotify API.<br>
+ * Every <code>with</code> method returns a new snapshot, so the credentials can be shared between
+ * threads and replaced atomically.
+ */
+public final class SpotifyCredentials {
+
+  private static final SpotifyCredentials EMPTY =
+      new SpotifyCredentials(null, null, null, null, null);
+
+  private final String clientId;
+  private final String clientSecret;
+  private final URI redirectUri;
+  private final String accessToken;
+  private final String refreshToken;
+
+  private SpotifyCredentials(
+      String clientId,
+      String clientSecret,
+      URI redirectUri,
+      String accessToken,
+      String refreshToken) {
+    this.clientId = clientId;
+    this.clientSecret = clientSecret;
+    this.redirectUri = redirectUri;
+    this.accessToken = accessToken;
+    this.refreshToken = refreshToken;
+  }
+
+  /**
+   * @return the credentials without any value
+   */
+  public static SpotifyCredentials empty() {
+    return EMPTY;
+  }
+
+  public String getClientId() {
+    return this.clientId;
+  }
+
+  public String getClientSecret() {
+    return this.clientSecret;
+  }
+
+  public URI getRedirectUri() {
+    return this.redirectUri;
+  }
+
+  public String getAccessToken() {
+    return this.accessToken;
+  }
+
+  public String getRefreshToken() {
+    return this.refreshToken;
+  }
+
+  public SpotifyCredentials withClientId(String clientId) {
+    return new SpotifyCredentials(
+        clientId, this.clientSecret, this.redirectUri, this.accessToken, this.refreshToken);
+  }
+
+  public SpotifyCredentials withClientSecret(String clientSecret) {
+    return new SpotifyCredentials(
+        this.clientId, clientSecret, this.redirectUri, this.accessToken, this.refreshToken);
+  }
+
+  public SpotifyCredentials withRedirectUri(URI redirectUri) {
+    return new SpotifyCredentials(
+        this.clientId, this.clientSecret, redirectUri, this.accessToken, this.refreshToken);
+  }
+
+  public SpotifyCredentials withAccessToken(String accessToken) {
+    return new SpotifyCredentials(
+        this.clientId, this.clientSecret, this.redirectUri, accessToken, this.refreshToken);
+  }
+
+  public SpotifyCredentials withRefreshToken(String refreshToken) {
+    return new SpotifyCredentials(
+        this.clientId, this.clientSecret, this.redirectUri, this.accessToken, refreshToken);
+  }
+}
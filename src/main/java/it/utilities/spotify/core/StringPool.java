@@ -0,0 +1,34 @@
+package it.utilities.spotify.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pool of canonical strings, used to keep a single copy of the titles, IDs and names that repeat
+ * across the items of the playlists.<br>
+ * The pool can be shared by several threads.
+ */
+final class StringPool {
+
+  private final ConcurrentHashMap<String, String> strings = new ConcurrentHashMap<>();
+
+  /**
+   * @param value the string to pool, can be null
+   * @return the canonical copy of the string, or null if the string is null
+   */
+  String intern(String value) {
+    if (value == null) {
+      return null;
+    }
+
+    final String canonical = this.strings.putIfAbsent(value, value);
+
+    return canonical != null ? canonical : value;
+  }
+
+  /**
+   * @return the number of distinct strings in the pool
+   */
+  int size() {
+    return this.strings.size();
+  }
+}
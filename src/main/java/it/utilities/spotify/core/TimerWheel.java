@@ -0,0 +1,202 @@
+package it.utilities.spotify.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Instances of the TimerWheel class run many delayed tasks with a single thread.<br>
+ * The time is divided in ticks and every task is put in the slot of the wheel of the tick when it
+ * expires, with the number of turns of the wheel still to wait. At every tick the thread visits
+ * only one slot, so scheduling and cancelling a task take a constant time however many tasks are
+ * waiting. The tasks run late by at most one tick, which is fine for timeouts like the expiration
+ * of the tokens, that are long and imprecise.<br>
+ * The tasks run on the thread of the wheel, so they should only hand the work to an executor. The
+ * thread is started by the first task, so a program that never schedules anything never pays for
+ * it.
+ */
+final class TimerWheel implements AutoCloseable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(TimerWheel.class);
+
+  private final long tickNanos;
+  private final long start = System.nanoTime();
+  private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+  private final Thread thread;
+  private final AtomicBoolean started = new AtomicBoolean();
+
+  /** The timeouts waiting in every slot, used only by the thread of the wheel. */
+  private final List<ArrayDeque<Timeout>> wheel;
+
+  private volatile boolean closed;
+
+  /**
+   * @param tick the duration of a tick
+   * @param unit the unit of the tick
+   * @param slots the number of slots of the wheel, rounded up to a power of two
+   * @param name the name of the thread of the wheel
+   */
+  TimerWheel(long tick, TimeUnit unit, int slots, String name) {
+    if (tick <= 0 || slots < 1) {
+      throw new IllegalArgumentException("The tick and the slots must be positive");
+    }
+
+    this.tickNanos = unit.toNanos(tick);
+    final int size = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+    this.wheel = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      this.wheel.add(new ArrayDeque<>());
+    }
+
+    this.thread = new Thread(this::run, name);
+    this.thread.setDaemon(true);
+  }
+
+  /**
+   * Run a task after a delay.
+   *
+   * @param task the task, that should not block the thread of the wheel
+   * @param delay the minimum time to wait
+   * @param unit the unit of the delay
+   * @return the handle that cancels the task
+   * @throws IllegalStateException if the wheel is closed
+   */
+  Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+    if (this.closed) {
+      throw new IllegalStateException("The timer is closed");
+    }
+
+    final Timeout timeout =
+        new Timeout(task, System.nanoTime() - this.start + Math.max(0, unit.toNanos(delay)));
+    this.added.add(timeout);
+
+    if (!this.started.get() && this.started.compareAndSet(false, true)) {
+      this.thread.start();
+    }
+
+    return timeout;
+  }
+
+  /** Stop the thread of the wheel. The tasks that are waiting never run. */
+  @Override
+  public void close() {
+    this.closed = true;
+    LockSupport.unpark(this.thread);
+  }
+
+  private void run() {
+    final int mask = this.wheel.size() - 1;
+    // The wheel turns from the tick when the first task was scheduled
+    long tick = (System.nanoTime() - this.start) / this.tickNanos;
+
+    while (!this.closed) {
+      final long wait = this.start + (tick + 1) * this.tickNanos - System.nanoTime();
+      if (wait > 0) {
+        LockSupport.parkNanos(this, wait);
+        continue;
+      }
+
+      transferAdded(tick, mask);
+      expire(this.wheel.get((int) (tick & mask)));
+      tick++;
+    }
+  }
+
+  /** Put the timeouts added since the previous tick in their slots. */
+  private void transferAdded(long tick, int mask) {
+    for (Timeout timeout = this.added.poll(); timeout != null; timeout = this.added.poll()) {
+      if (timeout.cancelled) {
+        continue;
+      }
+
+      // A timeout that already expired runs at this tick
+      final long expiresAt = Math.max(tick, timeout.deadline / this.tickNanos);
+      timeout.rounds = (expiresAt - tick) / this.wheel.size();
+      this.wheel.get((int) (expiresAt & mask)).add(timeout);
+    }
+  }
+
+  private void expire(ArrayDeque<Timeout> slot) {
+    final Iterator<Timeout> iterator = slot.iterator();
+
+    while (iterator.hasNext()) {
+      final Timeout timeout = iterator.next();
+
+      if (timeout.cancelled) {
+        iterator.remove();
+      } else if (timeout.rounds > 0) {
+        timeout.rounds--;
+      } else {
+        iterator.remove();
+        if (timeout.expire()) {
+          try {
+            timeout.task.run();
+          } catch (RuntimeException e) {
+            LOGGER.warn("A timed task failed", e);
+          }
+        }
+      }
+    }
+  }
+
+  /** Handle of a task scheduled on the wheel. */
+  static final class Timeout {
+
+    private final Runnable task;
+
+    /** The nanoseconds from the start of the wheel when the task expires. */
+    private final long deadline;
+
+    /** The turns of the wheel still to wait, used only by the thread of the wheel. */
+    private long rounds;
+
+    /** Whether the task ran or was cancelled, guarded by this. */
+    private boolean done;
+
+    private volatile boolean cancelled;
+
+    private Timeout(Runnable task, long deadline) {
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    /**
+     * Prevent the task from running. The slot of the task is freed when the wheel visits it.
+     *
+     * @return false if the task already ran or was cancelled
+     */
+    synchronized boolean cancel() {
+      if (this.done) {
+        return false;
+      }
+
+      this.done = true;
+      this.cancelled = true;
+      return true;
+    }
+
+    /**
+     * @return true if the task ran or was cancelled
+     */
+    synchronized boolean isDone() {
+      return this.done;
+    }
+
+    private synchronized boolean expire() {
+      if (this.done) {
+        return false;
+      }
+
+      this.done = true;
+      return true;
+    }
+  }
+}
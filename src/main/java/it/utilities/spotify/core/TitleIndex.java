@@ -0,0 +1,624 @@
+package it.utilities.spotify.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Word-level trie built over a list of song titles.<br>
+ * Every title is normalized only once into a {@link TitleKey}, so two titles match when the words
+ * of one key are a prefix of the words of the other. This is the same relation checked by comparing
+ * the titles word by word while ignoring the case sensitivity, but it is answered by walking the
+ * trie instead of comparing every pair of titles.<br>
+ * The titles can also be removed, and the nodes changed by the additions and the removals are
+ * remembered so that only the groups of matching titles around them need to be checked again.
+ */
+final class TitleIndex {
+
+  private final Node root = new Node(null, null, 0);
+
+  /** For each title, the trie node where its word sequence ends, or null if it was removed. */
+  private final List<Node> terminals = new ArrayList<>();
+
+  /** Positions of the removed titles, reused by the next additions. */
+  private final Deque<Integer> free = new ArrayDeque<>();
+
+  /** Nodes where a title was added or removed since the last call to {@link #clearChanges()}. */
+  private final List<Node> changed = new ArrayList<>();
+
+  /** Title indexes sorted so that the titles of every subtree are stored contiguously. */
+  private int[] subtreeOrder;
+
+  /** Create an empty index, the titles are added with {@link #add(String)}. */
+  TitleIndex() {}
+
+  /**
+   * Build the index of the given titles.
+   *
+   * @param titles the titles to index, the position in the array identifies the title
+   * @throws NullPointerException if one of the titles is null
+   */
+  TitleIndex(String[] titles) {
+    for (String title : titles) {
+      add(title);
+    }
+  }
+
+  /**
+   * Add a title to the index.
+   *
+   * @param title the title to add
+   * @return the position that identifies the title in the index, the positions of the removed
+   *     titles are reused
+   * @throws NullPointerException if the title is null
+   */
+  int add(String title) {
+    return add(TitleKey.of(title));
+  }
+
+  /**
+   * Add a title already normalized to the index. The words are looked up in the trie by scanning
+   * the key, without allocating.
+   *
+   * @param key the key of the title to add
+   * @return the position that identifies the title in the index, the positions of the removed
+   *     titles are reused
+   */
+  int add(TitleKey key) {
+    Node node = this.root;
+
+    for (int word = 0; word < key.size(); word++) {
+      node = node.child(key, word);
+    }
+
+    final Integer reused = this.free.poll();
+    final int index = reused != null ? reused : this.terminals.size();
+
+    if (reused != null) {
+      this.terminals.set(index, node);
+    } else {
+      this.terminals.add(node);
+    }
+
+    node.titles.add(index);
+    for (Node ancestor = node; ancestor != null; ancestor = ancestor.parent) {
+      ancestor.subtreeTitles++;
+    }
+
+    markChanged(node);
+    this.subtreeOrder = null;
+
+    return index;
+  }
+
+  /**
+   * Remove a title from the index. The nodes left without titles are removed too.
+   *
+   * @param index the position of the title to remove
+   * @throws IllegalArgumentException if there is no title in the given position
+   */
+  void remove(int index) {
+    final Node terminal = index < this.terminals.size() ? this.terminals.get(index) : null;
+
+    if (terminal == null) {
+      throw new IllegalArgumentException("No title in position " + index);
+    }
+
+    terminal.titles.remove(Integer.valueOf(index));
+    this.terminals.set(index, null);
+    this.free.push(index);
+
+    for (Node ancestor = terminal; ancestor != null; ancestor = ancestor.parent) {
+      ancestor.subtreeTitles--;
+    }
+
+    Node node = terminal;
+    while (node.parent != null && node.subtreeTitles == 0) {
+      node.parent.removeChild(node);
+      node = node.parent;
+    }
+
+    if (terminal.subtreeTitles > 0) {
+      markChanged(terminal);
+    } else {
+      // Nothing is left below the removed title, only the group of an ancestor can change
+      final Node first = firstTitled(node);
+      if (first != null) {
+        markChanged(first);
+      }
+    }
+
+    this.subtreeOrder = null;
+  }
+
+  /**
+   * Move all the titles of another index into this one, as if they were added after the titles of
+   * this index. The nodes of the other index are reused, so the time needed is proportional to the
+   * size of the other index and the other index must not be used anymore.<br>
+   * The cost follows the argument, not the smaller of the two indexes: the titles of the other
+   * index always get new positions, so they are visited even when this index is the smaller one.
+   * The callers that accumulate many indexes pass the small ones as the argument.
+   *
+   * @param other the index to merge into this one
+   * @return the value added to the positions of the titles of the other index
+   */
+  int merge(TitleIndex other) {
+    final int offset = this.terminals.size();
+
+    for (int i = 0; i < other.terminals.size(); i++) {
+      this.terminals.add(null);
+    }
+    for (int position : other.free) {
+      this.free.add(position + offset);
+    }
+
+    final Deque<Node[]> pairs = new ArrayDeque<>();
+    pairs.push(new Node[] {this.root, other.root});
+
+    while (!pairs.isEmpty()) {
+      final Node[] pair = pairs.pop();
+      final Node target = pair[0];
+      final Node source = pair[1];
+
+      target.subtreeTitles += source.subtreeTitles;
+      moveTitles(source, target, offset);
+
+      if (source.children == null) {
+        continue;
+      }
+
+      for (Node child : source.children) {
+        if (child == null) {
+          continue;
+        }
+
+        final Node existing = target.find(child.key, child.word);
+
+        if (existing != null) {
+          pairs.push(new Node[] {existing, child});
+        } else {
+          // The whole subtree is missing from this index, it is moved as it is
+          child.parent = target;
+          target.put(child);
+          renumberSubtree(child, offset);
+        }
+      }
+    }
+
+    this.subtreeOrder = null;
+
+    return offset;
+  }
+
+  /**
+   * @return the number of indexed titles
+   */
+  int size() {
+    return this.root.subtreeTitles;
+  }
+
+  /**
+   * Retrieve all the titles that come after the given one and that are the same or start with the
+   * same words.
+   *
+   * @param index the position of the title to check
+   * @return the positions of the matching titles, in ascending order
+   */
+  int[] getMatchesAfter(int index) {
+    if (this.subtreeOrder == null) {
+      numberSubtrees();
+    }
+
+    final Node terminal = this.terminals.get(index);
+
+    int[] matches = new int[terminal.last - terminal.first];
+    int size = 0;
+
+    // Every title in the subtree extends the current one (or is equal to it)
+    for (int i = terminal.first; i < terminal.last; i++) {
+      if (this.subtreeOrder[i] > index) {
+        matches[size++] = this.subtreeOrder[i];
+      }
+    }
+
+    // Every title ending in an ancestor is a prefix of the current one
+    for (Node node = terminal.parent; node != null; node = node.parent) {
+      for (int title : node.titles) {
+        if (title > index) {
+          if (size == matches.length) {
+            matches = Arrays.copyOf(matches, Math.max(4, size * 2));
+          }
+          matches[size++] = title;
+        }
+      }
+    }
+
+    matches = Arrays.copyOf(matches, size);
+    Arrays.sort(matches);
+
+    return matches;
+  }
+
+  /**
+   * Retrieve the groups of matching titles. Two titles are in the same group if they match or if
+   * they are linked by a chain of matching titles, so every group contains all the titles that
+   * extend the shortest one.
+   *
+   * @param minSize the minimum number of titles of the returned groups
+   * @return the positions of the titles of every group, in ascending order
+   */
+  List<int[]> groups(int minSize) {
+    final List<int[]> groups = new ArrayList<>();
+    collectGroups(this.root, minSize, new HashSet<>(), groups);
+    return groups;
+  }
+
+  /**
+   * Walk the groups of matching titles lazily, in the order of their first title in the given
+   * order. Every group is found from its first title, so no group is collected before it is
+   * returned. The index must not change during the walk.
+   *
+   * @param order the titles in the order of the walk, all the titles of the index
+   * @param minSize the minimum number of titles of the returned groups
+   * @return the positions of the titles of every group, in ascending order
+   */
+  Iterator<int[]> groups(int[] order, int minSize) {
+    return new Iterator<int[]>() {
+      private final Set<Node> visited = new HashSet<>();
+      private int next;
+      private int[] group;
+
+      @Override
+      public boolean hasNext() {
+        while (this.group == null && this.next < order.length) {
+          final Node first = firstTitled(TitleIndex.this.terminals.get(order[this.next++]));
+
+          if (first.subtreeTitles >= minSize && this.visited.add(first)) {
+            this.group = subtreeTitles(first);
+          }
+        }
+
+        return this.group != null;
+      }
+
+      @Override
+      public int[] next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+
+        final int[] group = this.group;
+        this.group = null;
+        return group;
+      }
+    };
+  }
+
+  /**
+   * Retrieve the groups that contain a title added since the last call to {@link #clearChanges()},
+   * or that contained a title removed since then. The time needed is proportional to the number of
+   * changes and to the size of the returned groups.
+   *
+   * @param minSize the minimum number of titles of the returned groups
+   * @return the positions of the titles of every group, in ascending order
+   */
+  List<int[]> changedGroups(int minSize) {
+    final List<int[]> groups = new ArrayList<>();
+    final Set<Node> visited = new HashSet<>();
+
+    for (Node node : this.changed) {
+      collectGroups(node, minSize, visited, groups);
+    }
+
+    return groups;
+  }
+
+  /** Forget the changes made so far. */
+  void clearChanges() {
+    for (Node node : this.changed) {
+      node.changed = false;
+    }
+    this.changed.clear();
+  }
+
+  /** Assign to every node the range of {@link #subtreeOrder} that contains its subtree. */
+  private void numberSubtrees() {
+    this.subtreeOrder = new int[this.root.subtreeTitles];
+
+    final Deque<Node> stack = new ArrayDeque<>();
+    final Deque<Boolean> visited = new ArrayDeque<>();
+    int position = 0;
+
+    stack.push(this.root);
+    visited.push(false);
+
+    while (!stack.isEmpty()) {
+      final Node node = stack.pop();
+
+      if (visited.pop()) {
+        node.last = position;
+        continue;
+      }
+
+      node.first = position;
+      for (int title : node.titles) {
+        this.subtreeOrder[position++] = title;
+      }
+
+      stack.push(node);
+      visited.push(true);
+
+      if (node.children != null) {
+        for (Node child : node.children) {
+          if (child != null) {
+            stack.push(child);
+            visited.push(false);
+          }
+        }
+      }
+    }
+  }
+
+  private void markChanged(Node node) {
+    if (!node.changed) {
+      node.changed = true;
+      this.changed.add(node);
+    }
+  }
+
+  /** Move the titles of the source node into the target node, shifting their positions. */
+  private void moveTitles(Node source, Node target, int offset) {
+    for (int title : source.titles) {
+      target.titles.add(title + offset);
+      this.terminals.set(title + offset, target);
+    }
+
+    if (source.changed) {
+      markChanged(target);
+    }
+  }
+
+  /** Shift the positions of all the titles of a subtree moved from another index. */
+  private void renumberSubtree(Node node, int offset) {
+    final Deque<Node> stack = new ArrayDeque<>();
+    stack.push(node);
+
+    while (!stack.isEmpty()) {
+      final Node current = stack.pop();
+
+      for (int i = 0; i < current.titles.size(); i++) {
+        final int title = current.titles.get(i) + offset;
+        current.titles.set(i, title);
+        this.terminals.set(title, current);
+      }
+
+      if (current.changed) {
+        current.changed = false;
+        markChanged(current);
+      }
+
+      current.pushChildren(stack);
+    }
+  }
+
+  /**
+   * Add to the list the groups that contain the titles of the node, or of its subtree if neither
+   * the node nor its ancestors have a title.
+   *
+   * @param node the node to start from
+   * @param minSize the minimum number of titles of the groups
+   * @param visited the first node of the groups already added, updated with the new groups
+   * @param groups the list to update
+   */
+  private static void collectGroups(Node node, int minSize, Set<Node> visited, List<int[]> groups) {
+    final Node first = firstTitled(node);
+
+    if (first != null) {
+      if (first.subtreeTitles >= minSize && visited.add(first)) {
+        groups.add(subtreeTitles(first));
+      }
+      return;
+    }
+
+    final Deque<Node> stack = new ArrayDeque<>();
+    stack.push(node);
+
+    while (!stack.isEmpty()) {
+      final Node current = stack.pop();
+
+      if (current.subtreeTitles < minSize) {
+        continue;
+      }
+
+      if (current.titles.isEmpty()) {
+        current.pushChildren(stack);
+      } else if (visited.add(current)) {
+        groups.add(subtreeTitles(current));
+      }
+    }
+  }
+
+  /**
+   * @param node the node to start from
+   * @return the highest node with a title among the node and its ancestors, it contains the
+   *     shortest title of the group, or null if there is no title
+   */
+  private static Node firstTitled(Node node) {
+    Node first = null;
+
+    for (Node ancestor = node; ancestor != null; ancestor = ancestor.parent) {
+      if (!ancestor.titles.isEmpty()) {
+        first = ancestor;
+      }
+    }
+
+    return first;
+  }
+
+  /**
+   * @param node the node to start from
+   * @return the positions of all the titles in the subtree of the node, in ascending order
+   */
+  private static int[] subtreeTitles(Node node) {
+    final int[] titles = new int[node.subtreeTitles];
+    int size = 0;
+
+    final Deque<Node> stack = new ArrayDeque<>();
+    stack.push(node);
+
+    while (!stack.isEmpty()) {
+      final Node current = stack.pop();
+
+      for (int title : current.titles) {
+        titles[size++] = title;
+      }
+      current.pushChildren(stack);
+    }
+
+    Arrays.sort(titles);
+
+    return titles;
+  }
+
+  private static final class Node {
+
+    private Node parent;
+
+    /** The key of the first title that reached the node, the word of the node is one of its. */
+    private final TitleKey key;
+
+    private final int word;
+    private final int hash;
+
+    /** The children, in an open addressing table with linear probing, or null if there is none. */
+    private Node[] children;
+
+    private int childCount;
+    private final List<Integer> titles = new ArrayList<>(1);
+
+    /** Number of titles in the subtree of the node, including the node itself. */
+    private int subtreeTitles;
+
+    private boolean changed;
+    private int first;
+    private int last;
+
+    private Node(Node parent, TitleKey key, int word) {
+      this.parent = parent;
+      this.key = key;
+      this.word = word;
+      this.hash = key != null ? key.wordHash(word) : 0;
+    }
+
+    /**
+     * @return the child with the given word, added if it is missing
+     */
+    private Node child(TitleKey key, int word) {
+      Node child = find(key, word);
+
+      if (child == null) {
+        child = new Node(this, key, word);
+        put(child);
+      }
+
+      return child;
+    }
+
+    /**
+     * @return the child with the given word, or null if it is missing
+     */
+    private Node find(TitleKey key, int word) {
+      if (this.children == null) {
+        return null;
+      }
+
+      final int hash = key.wordHash(word);
+      final int mask = this.children.length - 1;
+
+      for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+        final Node child = this.children[slot];
+
+        if (child == null) {
+          return null;
+        }
+        if (child.hash == hash && child.key.wordEquals(child.word, key, word)) {
+          return child;
+        }
+      }
+    }
+
+    /** Add a child whose word is not among the ones of the other children. */
+    private void put(Node child) {
+      if (this.children == null) {
+        this.children = new Node[2];
+      } else if ((this.childCount + 1) * 2 > this.children.length) {
+        final Node[] children = this.children;
+        this.children = new Node[children.length * 2];
+
+        for (Node moved : children) {
+          if (moved != null) {
+            insert(moved);
+          }
+        }
+      }
+
+      insert(child);
+      this.childCount++;
+    }
+
+    private void removeChild(Node child) {
+      final int mask = this.children.length - 1;
+      int slot = spread(child.hash) & mask;
+
+      while (this.children[slot] != child) {
+        slot = (slot + 1) & mask;
+      }
+
+      this.children[slot] = null;
+      this.childCount--;
+
+      // Move back the following children that would not be found anymore across the empty slot
+      for (int next = (slot + 1) & mask; this.children[next] != null; next = (next + 1) & mask) {
+        final Node moved = this.children[next];
+        final int home = spread(moved.hash) & mask;
+
+        if (((next - home) & mask) >= ((next - slot) & mask)) {
+          this.children[slot] = moved;
+          this.children[next] = null;
+          slot = next;
+        }
+      }
+    }
+
+    private void insert(Node child) {
+      final int mask = this.children.length - 1;
+      int slot = spread(child.hash) & mask;
+
+      while (this.children[slot] != null) {
+        slot = (slot + 1) & mask;
+      }
+
+      this.children[slot] = child;
+    }
+
+    private void pushChildren(Deque<Node> stack) {
+      if (this.children != null) {
+        for (Node child : this.children) {
+          if (child != null) {
+            stack.push(child);
+          }
+        }
+      }
+    }
+
+    private static int spread(int hash) {
+      return hash ^ (hash >>> 16);
+    }
+  }
+}
@@ -0,0 +1,241 @@
+package it.utilities.spotify.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Normalized form of a song title, computed once and then compared without allocating.<br>
+ * The title is split into words exactly as <code>title.split("\\s+")</code> does and every
+ * character is folded in the same way as {@link String#equalsIgnoreCase(String)}. The folded
+ * characters of all the words are stored one after the other in a single array, with the offset
+ * where every word ends and the hash of every word, so checking if two words are the same only
+ * scans the two arrays.
+ */
+final class TitleKey {
+
+  private static final char[] NO_CHARS = new char[0];
+
+  /** The title the key was built from. */
+  private final String title;
+
+  /** The folded characters of all the words, without the separators. */
+  private final char[] chars;
+
+  /** For every word, the offset in {@link #chars} where it ends. */
+  private final int[] ends;
+
+  private final int[] wordHashes;
+  private final int hash;
+
+  private TitleKey(String title, char[] chars, int[] ends, int[] wordHashes) {
+    this.title = title;
+    this.chars = chars;
+    this.ends = ends;
+    this.wordHashes = wordHashes;
+
+    int hash = 1;
+    for (int wordHash : wordHashes) {
+      hash = 31 * hash + wordHash;
+    }
+    this.hash = hash;
+  }
+
+  /**
+   * Normalize a title.
+   *
+   * @param title the title to normalize
+   * @return the key of the title
+   * @throws NullPointerException if the title is null
+   */
+  static TitleKey of(String title) {
+    if (title.isEmpty()) {
+      // Like String.split, an empty title is a single empty word
+      return new TitleKey(title, NO_CHARS, new int[1], new int[1]);
+    }
+
+    // Like String.split, the trailing empty words are discarded
+    int length = title.length();
+    while (length > 0 && isWhitespace(title.charAt(length - 1))) {
+      length--;
+    }
+
+    int words = length > 0 ? 1 : 0;
+    int size = 0;
+    for (int i = 0; i < length; i++) {
+      if (!isWhitespace(title.charAt(i))) {
+        size++;
+      } else if (i == 0 || !isWhitespace(title.charAt(i - 1))) {
+        words++;
+      }
+    }
+
+    final char[] chars = size > 0 ? new char[size] : NO_CHARS;
+    final int[] ends = new int[words];
+    final int[] wordHashes = new int[words];
+    int word = 0;
+    int wordHash = 0;
+    size = 0;
+
+    for (int i = 0; i < length; i++) {
+      final char c = title.charAt(i);
+
+      if (!isWhitespace(c)) {
+        final char folded = fold(c);
+        chars[size++] = folded;
+        wordHash = 31 * wordHash + folded;
+      } else if (i == 0 || !isWhitespace(title.charAt(i - 1))) {
+        ends[word] = size;
+        wordHashes[word++] = wordHash;
+        wordHash = 0;
+      }
+    }
+
+    if (word < words) {
+      ends[word] = size;
+      wordHashes[word] = wordHash;
+    }
+
+    return new TitleKey(title, chars, ends, wordHashes);
+  }
+
+  /**
+   * @return the title the key was built from
+   */
+  String title() {
+    return this.title;
+  }
+
+  /**
+   * @return the number of words
+   */
+  int size() {
+    return this.ends.length;
+  }
+
+  /**
+   * @param word the index of the word
+   * @return the hash of the word, the same as the {@link String#hashCode()} of the folded word
+   */
+  int wordHash(int word) {
+    return this.wordHashes[word];
+  }
+
+  /**
+   * @param word the index of a word of this key
+   * @param other the key of the other word
+   * @param otherWord the index of the word of the other key
+   * @return <code>true</code> if the two words are the same ignoring the case sensitivity
+   */
+  boolean wordEquals(int word, TitleKey other, int otherWord) {
+    if (this.wordHashes[word] != other.wordHashes[otherWord]) {
+      return false;
+    }
+
+    final int start = start(word);
+    final int length = this.ends[word] - start;
+    final int otherStart = other.start(otherWord);
+
+    if (other.ends[otherWord] - otherStart != length) {
+      return false;
+    }
+
+    for (int i = 0; i < length; i++) {
+      if (this.chars[start + i] != other.chars[otherStart + i]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * @param prefix the key to check
+   * @return <code>true</code> if the words of this key start with the words of the given one,
+   *     ignoring the case sensitivity
+   */
+  boolean startsWith(TitleKey prefix) {
+    if (prefix.size() > size()) {
+      return false;
+    }
+
+    for (int word = 0; word < prefix.size(); word++) {
+      if (!wordEquals(word, prefix, word)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * @param other the key to check
+   * @return <code>true</code> if one of the two titles starts with the words of the other, which is
+   *     how two titles of the same song are recognized
+   */
+  boolean matches(TitleKey other) {
+    return size() <= other.size() ? other.startsWith(this) : startsWith(other);
+  }
+
+  /**
+   * @return the case-folded words, allocated on every call
+   */
+  List<String> words() {
+    final List<String> words = new ArrayList<>(size());
+
+    for (int word = 0; word < size(); word++) {
+      words.add(new String(this.chars, start(word), this.ends[word] - start(word)));
+    }
+
+    return words;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+
+    if (!(obj instanceof TitleKey)) {
+      return false;
+    }
+
+    final TitleKey other = (TitleKey) obj;
+
+    return this.hash == other.hash && size() == other.size() && startsWith(other);
+  }
+
+  @Override
+  public int hashCode() {
+    return this.hash;
+  }
+
+  @Override
+  public String toString() {
+    return String.join(" ", words());
+  }
+
+  private int start(int word) {
+    return word > 0 ? this.ends[word - 1] : 0;
+  }
+
+  /**
+   * @param c the character to fold
+   * @return the character as compared by {@link String#equalsIgnoreCase(String)}
+   */
+  private static char fold(char c) {
+    if (c < 0x80) {
+      return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    return Character.toLowerCase(Character.toUpperCase(c));
+  }
+
+  /**
+   * @param c the character to check
+   * @return <code>true</code> if the character is matched by the <code>\s</code> regex class,
+   *     <code>false</code> otherwise
+   */
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+}
@@ -0,0 +1,82 @@
+package it.utilities.spotify.core;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of the {@link TitleKey} of the tracks by track ID, so a title is normalized only once
+ * however many playlists contain the track and however many times they are scanned.<br>
+ * A cached key is used only if its title is still the one of the track, and the local tracks, that
+ * have no ID, are normalized every time. When the cache is full it is emptied, the keys are cheap
+ * to build again and the tracks of the next scans fill it back.
+ */
+final class TitleKeyCache {
+
+  /** The default maximum number of cached keys. */
+  static final int DEFAULT_CAPACITY = 1 << 18;
+
+  private static final TitleKeyCache GLOBAL = new TitleKeyCache(DEFAULT_CAPACITY);
+
+  private final int capacity;
+  private final Map<String, TitleKey> keys = new ConcurrentHashMap<>();
+
+  /**
+   * @param capacity the maximum number of cached keys
+   */
+  TitleKeyCache(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("The capacity must be positive");
+    }
+
+    this.capacity = capacity;
+  }
+
+  /**
+   * @return the cache shared by all the scans of the process
+   */
+  static TitleKeyCache global() {
+    return GLOBAL;
+  }
+
+  /**
+   * @param trackId the ID of the track, or null if it has no ID
+   * @param title the title of the track
+   * @return the key of the title
+   * @throws NullPointerException if the title is null
+   */
+  TitleKey get(String trackId, String title) {
+    if (trackId == null) {
+      return TitleKey.of(title);
+    }
+
+    final TitleKey cached = this.keys.get(trackId);
+    if (cached != null && (cached.title() == title || cached.title().equals(title))) {
+      return cached;
+    }
+
+    final TitleKey key = TitleKey.of(title);
+    if (this.keys.size() >= this.capacity) {
+      this.keys.clear();
+    }
+    this.keys.put(trackId, key);
+
+    return key;
+  }
+
+  /**
+   * @param tracks the table of the track
+   * @param row the row of the track
+   * @return the key of the title of the track
+   * @throws NullPointerException if the item has no title
+   */
+  TitleKey get(TrackTable tracks, int row) {
+    return get(tracks.id(row), tracks.name(row));
+  }
+
+  /**
+   * @return the number of cached keys
+   */
+  int size() {
+    return this.keys.size();
+  }
+}
@@ -0,0 +1,45 @@
+package it.utilities.spotify.core;
+
+import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import java.util.List;
+
+/**
+ * Stage that matches two tracks when the words of one title, ignoring the case sensitivity, start
+ * with the words of the other title.<br>
+ * This is the relation used by {@link PlaylistUtility#getDuplicateGroupsByName(String)}: it is fast
+ * and catches the different versions of the same song, but it also matches every title that starts
+ * with a short title.
+ */
+public class TitlePrefixStage implements SimilarityStage {
+
+  /** Name of the stage, reported by the groups it matched. */
+  public static final String NAME = "title-prefix";
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public void findMatches(List<PlaylistTrack> tracks, MatchConsumer matches) {
+    final TitleIndex titleIndex = new TitleIndex();
+    final TitleKeyCache keys = TitleKeyCache.global();
+    final int[] positions = new int[tracks.size()];
+
+    for (int position = 0; position < tracks.size(); position++) {
+      final PlaylistTrack track = tracks.get(position);
+
+      if (track != null && track.getTrack() != null && track.getTrack().getName() != null) {
+        final String id = track.getTrack().getId();
+        positions[titleIndex.add(keys.get(id, track.getTrack().getName()))] = position;
+      }
+    }
+
+    // Linking every title to the first one of its group is enough to rebuild the group
+    for (int[] group : titleIndex.groups(2)) {
+      for (int i = 1; i < group.length; i++) {
+        matches.accept(positions[group[0]], positions[group[i]]);
+      }
+    }
+  }
+}
@@ -0,0 +1,568 @@
+package it.utilities.spotify.core;
+
+import com.wrapper.spotify.model_objects.IPlaylistItem;
+import com.wrapper.spotify.model_objects.specification.ArtistSimplified;
+import com.wrapper.spotify.model_objects.specification.Episode;
+import com.wrapper.spotify.model_objects.specification.ExternalId;
+import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import com.wrapper.spotify.model_objects.specification.Track;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact store of the items of one or more playlists, that keeps only the fields used by the
+ * utilities.<br>
+ * Every field is a column: the numbers are stored in primitive arrays and the strings are pooled,
+ * so the titles, IDs and names that repeat are stored only once. The items are converted while they
+ * are received and the objects returned by the Spotify API, with their albums, images and markets,
+ * can be discarded right away. {@link #get(int)} rebuilds a {@link PlaylistTrack} with the stored
+ * fields only when it is needed.<br>
+ * The table is not thread-safe, while the pool can be shared by tables filled by different threads.
+ */
+final class TrackTable {
+
+  private static final byte ITEM_NONE = 0;
+  private static final byte ITEM_TRACK = 1;
+  private static final byte ITEM_EPISODE = 2;
+
+  private static final String TRACK_URI = "spotify:track:";
+  private static final String EPISODE_URI = "spotify:episode:";
+
+  /** Marker of a missing URI of an item that has an ID, compared by identity. */
+  @SuppressWarnings("StringOperationCanBeSimplified")
+  private static final String NO_URI = new String();
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final StringPool strings;
+
+  private int size;
+  private byte[] kinds = new byte[INITIAL_CAPACITY];
+  private byte[] local = new byte[INITIAL_CAPACITY];
+  private long[] addedAt = new long[INITIAL_CAPACITY];
+  private int[] durations = new int[INITIAL_CAPACITY];
+  private int[] positions = new int[INITIAL_CAPACITY];
+  private String[] ids = new String[INITIAL_CAPACITY];
+  private String[] names = new String[INITIAL_CAPACITY];
+  private String[] isrcs = new String[INITIAL_CAPACITY];
+
+  /** The URIs that cannot be rebuilt from the ID, like the ones of the local tracks. */
+  private String[] uris = new String[INITIAL_CAPACITY];
+
+  /**
+   * The artists of the item <code>i</code> are in <code>[artistStart[i], artistStart[i + 1])</code>
+   * .
+   */
+  private int[] artistStart = new int[INITIAL_CAPACITY + 1];
+
+  private int artistCount;
+  private String[] artistIds = new String[INITIAL_CAPACITY];
+  private String[] artistNames = new String[INITIAL_CAPACITY];
+
+  TrackTable() {
+    this(new StringPool());
+  }
+
+  /**
+   * @param strings the pool of the strings, it can be shared with other tables
+   */
+  TrackTable(StringPool strings) {
+    this.strings = strings;
+  }
+
+  /**
+   * @param tracks the items of a playlist, in playlist order
+   * @return a new table with the items, the position of every item is its index in the list
+   */
+  static TrackTable of(List<PlaylistTrack> tracks) {
+    final TrackTable table = new TrackTable();
+
+    for (PlaylistTrack track : tracks) {
+      table.append(track, table.size);
+    }
+
+    return table;
+  }
+
+  /**
+   * Append an item, with the position it has in its playlist.
+   *
+   * @param playlistTrack the item to store, can be null
+   * @param position the position of the item in its playlist
+   * @return the row of the item
+   */
+  int append(PlaylistTrack playlistTrack, int position) {
+    ensureCapacity(this.size + 1);
+
+    final int row = this.size;
+    final IPlaylistItem item = playlistTrack != null ? playlistTrack.getTrack() : null;
+
+    this.positions[row] = position;
+    this.artistStart[row + 1] = this.artistCount;
+
+    if (playlistTrack == null) {
+      this.kinds[row] = ITEM_NONE;
+      this.local[row] = -1;
+      this.addedAt[row] = Long.MIN_VALUE;
+      this.durations[row] = -1;
+      this.ids[row] = null;
+      this.names[row] = null;
+      this.isrcs[row] = null;
+      this.uris[row] = null;
+      this.size++;
+      return row;
+    }
+
+    final Date added = playlistTrack.getAddedAt();
+    final Boolean isLocal = playlistTrack.getIsLocal();
+
+    this.local[row] = (byte) (isLocal == null ? -1 : isLocal ? 1 : 0);
+    this.addedAt[row] = added != null ? added.getTime() : Long.MIN_VALUE;
+
+    if (item == null) {
+      this.kinds[row] = ITEM_NONE;
+      this.durations[row] = -1;
+      this.ids[row] = null;
+      this.names[row] = null;
+      this.isrcs[row] = null;
+      this.uris[row] = null;
+    } else {
+      this.kinds[row] = item instanceof Track ? ITEM_TRACK : ITEM_EPISODE;
+      this.durations[row] = item.getDurationMs() != null ? item.getDurationMs() : -1;
+      this.ids[row] = this.strings.intern(item.getId());
+      this.names[row] = this.strings.intern(item.getName());
+
+      // Most of the URIs are the prefix of the type followed by the ID
+      final String uri = item.getUri();
+      if (uri == null) {
+        this.uris[row] = this.ids[row] != null ? NO_URI : null;
+      } else {
+        this.uris[row] = isDerivedUri(uri, this.kinds[row], this.ids[row]) ? null : uri;
+      }
+
+      if (item instanceof Track) {
+        final Track track = (Track) item;
+        this.isrcs[row] = this.strings.intern(isrc(track));
+        appendArtists(row, track.getArtists());
+      } else {
+        this.isrcs[row] = null;
+      }
+    }
+
+    this.size++;
+    return row;
+  }
+
+  /**
+   * Append an item from its stored fields, as returned by the getters of a table. The strings are
+   * stored as they are, without pooling them.
+   *
+   * @param kind the kind of the item, as returned by {@link #kind(int)}
+   * @param local the local flag of the item, as returned by {@link #local(int)}
+   * @param addedAt the time when the item was added, as returned by {@link #addedAt(int)}
+   * @param durationMs the duration of the item, as returned by {@link #durationMs(int)}
+   * @param position the position of the item in its playlist
+   * @param id the ID of the item
+   * @param storedUri the URI of the item, as returned by {@link #storedUri(int)}
+   * @param name the title of the item
+   * @param isrc the ISRC of the track
+   * @return the row of the item, its artists are added by {@link #appendArtist(String, String)}
+   */
+  int append(
+      byte kind,
+      byte local,
+      long addedAt,
+      int durationMs,
+      int position,
+      String id,
+      String storedUri,
+      String name,
+      String isrc) {
+    ensureCapacity(this.size + 1);
+
+    final int row = this.size;
+
+    this.kinds[row] = kind;
+    this.local[row] = local;
+    this.addedAt[row] = addedAt;
+    this.durations[row] = durationMs;
+    this.positions[row] = position;
+    this.ids[row] = id;
+    this.names[row] = name;
+    this.isrcs[row] = isrc;
+    this.uris[row] = storedUri != null && storedUri.isEmpty() ? NO_URI : storedUri;
+    this.artistStart[row + 1] = this.artistCount;
+
+    this.size++;
+    return row;
+  }
+
+  /**
+   * Add an artist to the last item of the table.
+   *
+   * @param id the ID of the artist
+   * @param name the name of the artist
+   */
+  void appendArtist(String id, String name) {
+    ensureArtistCapacity(this.artistCount + 1);
+
+    this.artistIds[this.artistCount] = id;
+    this.artistNames[this.artistCount] = name;
+    this.artistCount++;
+    this.artistStart[this.size] = this.artistCount;
+  }
+
+  /**
+   * Append all the items of another table, after the ones of this table.
+   *
+   * @param other the table to append
+   * @return the row of the first item of the other table
+   */
+  int append(TrackTable other) {
+    final int offset = this.size;
+    ensureCapacity(this.size + other.size);
+    ensureArtistCapacity(this.artistCount + other.artistCount);
+
+    System.arraycopy(other.kinds, 0, this.kinds, offset, other.size);
+    System.arraycopy(other.local, 0, this.local, offset, other.size);
+    System.arraycopy(other.addedAt, 0, this.addedAt, offset, other.size);
+    System.arraycopy(other.durations, 0, this.durations, offset, other.size);
+    System.arraycopy(other.positions, 0, this.positions, offset, other.size);
+    System.arraycopy(other.ids, 0, this.ids, offset, other.size);
+    System.arraycopy(other.names, 0, this.names, offset, other.size);
+    System.arraycopy(other.isrcs, 0, this.isrcs, offset, other.size);
+    System.arraycopy(other.uris, 0, this.uris, offset, other.size);
+    System.arraycopy(other.artistIds, 0, this.artistIds, this.artistCount, other.artistCount);
+    System.arraycopy(other.artistNames, 0, this.artistNames, this.artistCount, other.artistCount);
+
+    for (int row = 0; row < other.size; row++) {
+      this.artistStart[offset + row + 1] = this.artistCount + other.artistStart[row + 1];
+    }
+
+    this.size += other.size;
+    this.artistCount += other.artistCount;
+
+    return offset;
+  }
+
+  /**
+   * @return the number of items
+   */
+  int size() {
+    return this.size;
+  }
+
+  /**
+   * @param row the row of the item
+   * @return the title of the item, or null if the item has no track or no title
+   */
+  String name(int row) {
+    checkRow(row);
+    return this.names[row];
+  }
+
+  /**
+   * @param row the row of the item
+   * @return the URI of the item, or null if the item has no track or no URI
+   */
+  String uri(int row) {
+    checkRow(row);
+    final String uri = this.uris[row];
+
+    if (uri == NO_URI) {
+      return null;
+    }
+
+    return uri != null ? uri : uri(this.kinds[row], this.ids[row]);
+  }
+
+  /**
+   * @param row the row of the item
+   * @return the time when the item was added to the playlist, in milliseconds, or {@link
+   *     Long#MIN_VALUE} if it is not known
+   */
+  long addedAt(int row) {
+    checkRow(row);
+    return this.addedAt[row];
+  }
+
+  /**
+   * @param row the row of the item
+   * @return true if the item has a track or an episode
+   */
+  boolean hasItem(int row) {
+    checkRow(row);
+    return this.kinds[row] != ITEM_NONE;
+  }
+
+  /**
+   * @param row the row of the item
+   * @return the position of the item in its playlist
+   */
+  int position(int row) {
+    checkRow(row);
+    return this.positions[row];
+  }
+
+  /**
+   * @param row the row of the item
+   * @return the kind of the item, to copy it with {@link #append(byte, byte, long, int, int,
+   *     String, String, String, String)}
+   */
+  byte kind(int row) {
+    checkRow(row);
+    return this.kinds[row];
+  }
+
+  /**
+   * @param row the row of the item
+   * @return 1 if the item is a local file, 0 if it is not, -1 if it is not known
+   */
+  byte local(int row) {
+    checkRow(row);
+    return this.local[row];
+  }
+
+  /**
+   * @param row the row of the item
+   * @return the duration of the item in milliseconds, or -1 if it is not known
+   */
+  int durationMs(int row) {
+    checkRow(row);
+    return this.durations[row];
+  }
+
+  /**
+   * @param row the row of the item
+   * @return the ID of the item, or null if the item has no track or no ID
+   */
+  String id(int row) {
+    checkRow(row);
+    return this.ids[row];
+  }
+
+  /**
+   * @param row the row of the item
+   * @return the ISRC of the track, or null if it is not known
+   */
+  String isrc(int row) {
+    checkRow(row);
+    return this.isrcs[row];
+  }
+
+  /**
+   * @param row the row of the item
+   * @return the URI of the item if it cannot be rebuilt from the ID, an empty string if the item
+   *     has an ID but no URI, otherwise null
+   */
+  String storedUri(int row) {
+    checkRow(row);
+    return this.uris[row] == NO_URI ? "" : this.uris[row];
+  }
+
+  /**
+   * @param row the row of the item
+   * @return the number of artists of the item
+   */
+  int artists(int row) {
+    checkRow(row);
+    return this.artistStart[row + 1] - this.artistStart[row];
+  }
+
+  /**
+   * @param row the row of the item
+   * @param artist the index of the artist, in the order of the item
+   * @return the ID of the artist
+   */
+  String artistId(int row, int artist) {
+    checkRow(row);
+    return this.artistIds[this.artistStart[row] + artist];
+  }
+
+  /**
+   * @param row the row of the item
+   * @param artist the index of the artist, in the order of the item
+   * @return the name of the artist
+   */
+  String artistName(int row, int artist) {
+    checkRow(row);
+    return this.artistNames[this.artistStart[row] + artist];
+  }
+
+  /**
+   * Rebuild the item with the stored fields.
+   *
+   * @param row the row of the item
+   * @return a new instance of the item
+   */
+  PlaylistTrack get(int row) {
+    checkRow(row);
+
+    final PlaylistTrack.Builder builder =
+        new PlaylistTrack.Builder()
+            .setAddedAt(this.addedAt[row] != Long.MIN_VALUE ? new Date(this.addedAt[row]) : null)
+            .setIsLocal(this.local[row] == -1 ? null : this.local[row] == 1);
+
+    if (this.kinds[row] == ITEM_NONE) {
+      return builder.build();
+    }
+
+    final Integer durationMs = this.durations[row] != -1 ? this.durations[row] : null;
+
+    if (this.kinds[row] == ITEM_EPISODE) {
+      return builder
+          .setTrack(
+              new Episode.Builder()
+                  .setId(this.ids[row])
+                  .setUri(uri(row))
+                  .setName(this.names[row])
+                  .setDurationMs(durationMs)
+                  .build())
+          .build();
+    }
+
+    final ArtistSimplified[] artists =
+        new ArtistSimplified[this.artistStart[row + 1] - this.artistStart[row]];
+    for (int i = 0; i < artists.length; i++) {
+      artists[i] =
+          new ArtistSimplified.Builder()
+              .setId(this.artistIds[this.artistStart[row] + i])
+              .setName(this.artistNames[this.artistStart[row] + i])
+              .build();
+    }
+
+    final String isrc = this.isrcs[row];
+
+    return builder
+        .setTrack(
+            new Track.Builder()
+                .setId(this.ids[row])
+                .setUri(uri(row))
+                .setName(this.names[row])
+                .setDurationMs(durationMs)
+                .setArtists(artists)
+                .setExternalIds(
+                    new ExternalId.Builder()
+                        .setExternalIds(
+                            isrc != null ? Map.of("isrc", isrc) : Collections.emptyMap())
+                        .build())
+                .build())
+        .build();
+  }
+
+  /**
+   * Rebuild all the items with the stored fields.
+   *
+   * @return new instances of the items, in the order of the rows
+   */
+  List<PlaylistTrack> toList() {
+    final List<PlaylistTrack> tracks = new ArrayList<>(this.size);
+
+    for (int row = 0; row < this.size; row++) {
+      tracks.add(get(row));
+    }
+
+    return tracks;
+  }
+
+  /** Release the capacity that is not used, for the tables that are kept for a long time. */
+  void trimToSize() {
+    this.kinds = Arrays.copyOf(this.kinds, this.size);
+    this.local = Arrays.copyOf(this.local, this.size);
+    this.addedAt = Arrays.copyOf(this.addedAt, this.size);
+    this.durations = Arrays.copyOf(this.durations, this.size);
+    this.positions = Arrays.copyOf(this.positions, this.size);
+    this.ids = Arrays.copyOf(this.ids, this.size);
+    this.names = Arrays.copyOf(this.names, this.size);
+    this.isrcs = Arrays.copyOf(this.isrcs, this.size);
+    this.uris = Arrays.copyOf(this.uris, this.size);
+    this.artistStart = Arrays.copyOf(this.artistStart, this.size + 1);
+    this.artistIds = Arrays.copyOf(this.artistIds, this.artistCount);
+    this.artistNames = Arrays.copyOf(this.artistNames, this.artistCount);
+  }
+
+  private void appendArtists(int row, ArtistSimplified[] artists) {
+    if (artists != null) {
+      ensureArtistCapacity(this.artistCount + artists.length);
+
+      for (ArtistSimplified artist : artists) {
+        if (artist != null) {
+          this.artistIds[this.artistCount] = this.strings.intern(artist.getId());
+          this.artistNames[this.artistCount] = this.strings.intern(artist.getName());
+          this.artistCount++;
+        }
+      }
+    }
+
+    this.artistStart[row + 1] = this.artistCount;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity <= this.kinds.length) {
+      return;
+    }
+
+    final int length = Math.max(capacity, this.kinds.length * 2);
+
+    this.kinds = Arrays.copyOf(this.kinds, length);
+    this.local = Arrays.copyOf(this.local, length);
+    this.addedAt = Arrays.copyOf(this.addedAt, length);
+    this.durations = Arrays.copyOf(this.durations, length);
+    this.positions = Arrays.copyOf(this.positions, length);
+    this.ids = Arrays.copyOf(this.ids, length);
+    this.names = Arrays.copyOf(this.names, length);
+    this.isrcs = Arrays.copyOf(this.isrcs, length);
+    this.uris = Arrays.copyOf(this.uris, length);
+    this.artistStart = Arrays.copyOf(this.artistStart, length + 1);
+  }
+
+  private void ensureArtistCapacity(int capacity) {
+    if (capacity <= this.artistIds.length) {
+      return;
+    }
+
+    final int length = Math.max(capacity, this.artistIds.length * 2);
+
+    this.artistIds = Arrays.copyOf(this.artistIds, length);
+    this.artistNames = Arrays.copyOf(this.artistNames, length);
+  }
+
+  private void checkRow(int row) {
+    if (row < 0 || row >= this.size) {
+      throw new IndexOutOfBoundsException("Row " + row + " out of " + this.size);
+    }
+  }
+
+  private static String uri(byte kind, String id) {
+    if (id == null || kind == ITEM_NONE) {
+      return null;
+    }
+
+    return (kind == ITEM_TRACK ? TRACK_URI : EPISODE_URI) + id;
+  }
+
+  private static boolean isDerivedUri(String uri, byte kind, String id) {
+    final String prefix = kind == ITEM_TRACK ? TRACK_URI : EPISODE_URI;
+
+    return id != null
+        && uri.length() == prefix.length() + id.length()
+        && uri.startsWith(prefix)
+        && uri.endsWith(id);
+  }
+
+  /**
+   * @param track the track
+   * @return the ISRC of the track, or null if it has none
+   */
+  static String isrc(Track track) {
+    final ExternalId externalIds = track.getExternalIds();
+
+    return externalIds != null && externalIds.getExternalIds() != null
+        ? externalIds.getExternalIds().get("isrc")
+        : null;
+  }
+}
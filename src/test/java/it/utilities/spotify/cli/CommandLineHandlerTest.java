@@ -0,0 +1,179 @@
+package it.utilities.spotify.cli;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.wrapper.spotify.exceptions.detailed.TooManyRequestsException;
+import com.wrapper.spotify.model_objects.specification.PlaylistSimplified;
+import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import com.wrapper.spotify.model_objects.specification.Track;
+import it.utilities.spotify.core.SpotifyApiWrapper;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class CommandLineHandlerTest {
+
+  @Test
+  void testBatchWritesJsonLines() throws Exception {
+    SpotifyApiWrapper spotifyApiWrapper = mock(SpotifyApiWrapper.class);
+    when(spotifyApiWrapper.getAllPlaylistsItems("playlist"))
+        .thenAnswer(
+            invocation ->
+                Stream.of(track("Give me"), track("Another way"), track("Give me - Radio edit")));
+    when(spotifyApiWrapper.getAllCurrentUsersPlaylists())
+        .thenThrow(new TooManyRequestsException("Too many requests"));
+
+    StringWriter out = new StringWriter();
+    CommandLineHandler handler =
+        new CommandLineHandler(new JsonLinesOutput(out), false, spotifyApiWrapper);
+
+    int exitCode =
+        handler.runCommands(
+            List.of(
+                    "# The comments and the empty lines are skipped",
+                    "",
+                    "playlist-duplicate-elements playlist",
+                    "get-user-playlists",
+                    "stats")
+                .iterator(),
+            false);
+
+    List<JsonObject> lines = lines(out);
+
+    Assertions.assertEquals(CommandLineHandler.EXIT_RATE_LIMITED, exitCode);
+    Assertions.assertEquals(4, lines.size());
+
+    Assertions.assertEquals("group", lines.get(0).get("type").getAsString());
+    Assertions.assertEquals(2, lines.get(0).getAsJsonArray("tracks").size());
+    Assertions.assertEquals(
+        2,
+        lines.get(0).getAsJsonArray("tracks").get(1).getAsJsonObject().get("position").getAsInt());
+    Assertions.assertEquals("done", lines.get(1).get("type").getAsString());
+    Assertions.assertEquals(0, lines.get(1).get("status").getAsInt());
+
+    Assertions.assertEquals("error", lines.get(2).get("type").getAsString());
+    Assertions.assertEquals(
+        TooManyRequestsException.class.getName(), lines.get(2).get("exception").getAsString());
+    // The execution stops at the first failure, so the stats are not printed
+    Assertions.assertEquals("get-user-playlists", lines.get(3).get("command").getAsString());
+    Assertions.assertEquals(4, lines.get(3).get("status").getAsInt());
+  }
+
+  @Test
+  void testBatchKeepGoing() {
+    StringWriter out = new StringWriter();
+    CommandLineHandler handler =
+        new CommandLineHandler(new JsonLinesOutput(out), false, mock(SpotifyApiWrapper.class));
+
+    int exitCode =
+        handler.runCommands(
+            List.of("unknown-command", "playlist-remove-duplicates", "exit", "stats").iterator(),
+            true);
+
+    List<JsonObject> lines = lines(out);
+
+    // The first failure gives the exit code, "exit" stops the batch
+    Assertions.assertEquals(CommandLineHandler.EXIT_USAGE, exitCode);
+    Assertions.assertEquals(
+        List.of("error", "done", "error", "done", "done"),
+        lines.stream().map(line -> line.get("type").getAsString()).collect(Collectors.toList()));
+    Assertions.assertEquals("exit", lines.get(4).get("command").getAsString());
+  }
+
+  @Test
+  void testSnapshotCacheIsOpenedByTheFirstAccountCommand() throws Exception {
+    SpotifyApiWrapper spotifyApiWrapper = mock(SpotifyApiWrapper.class);
+    when(spotifyApiWrapper.getAllCurrentUsersPlaylists()).thenAnswer(invocation -> Stream.empty());
+    AtomicInteger opened = new AtomicInteger();
+
+    StringWriter out = new StringWriter();
+    CommandLineHandler handler =
+        new CommandLineHandler(
+            new JsonLinesOutput(out),
+            false,
+            spotifyApiWrapper,
+            () -> {
+              opened.incrementAndGet();
+              return null;
+            },
+            0);
+
+    Assertions.assertEquals(0, handler.runCommands(List.of("help").iterator(), false));
+    Assertions.assertEquals(0, opened.get());
+
+    Assertions.assertEquals(
+        0,
+        handler.runCommands(List.of("get-user-playlists", "get-user-playlists").iterator(), false));
+    Assertions.assertEquals(1, opened.get());
+  }
+
+  @Test
+  void testBatchWatchWritesEveryCheck() throws Exception {
+    SpotifyApiWrapper spotifyApiWrapper = mock(SpotifyApiWrapper.class);
+    when(spotifyApiWrapper.getAllCurrentUsersPlaylists())
+        .thenAnswer(invocation -> Stream.of(playlist("a", "1")))
+        .thenAnswer(invocation -> Stream.of(playlist("a", "2")));
+    when(spotifyApiWrapper.getAllPlaylistsItems("a"))
+        .thenAnswer(invocation -> Stream.of(track("Give me")))
+        .thenAnswer(invocation -> Stream.of(track("Give me"), track("Give me - Radio edit")));
+
+    StringWriter out = new StringWriter();
+    CommandLineHandler handler =
+        new CommandLineHandler(new JsonLinesOutput(out), false, spotifyApiWrapper);
+    AtomicInteger exitCode = new AtomicInteger(-1);
+    Thread batch =
+        new Thread(() -> exitCode.set(handler.runCommands(List.of("watch 1").iterator(), false)));
+    batch.start();
+
+    // The group of a check is written while the command keeps running
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!out.toString().contains("\"group\"") && System.nanoTime() < deadline) {
+      Thread.sleep(50);
+    }
+    Assertions.assertTrue(batch.isAlive());
+
+    batch.interrupt();
+    batch.join(TimeUnit.SECONDS.toMillis(10));
+
+    List<JsonObject> lines = lines(out);
+    Assertions.assertEquals(0, exitCode.get());
+    Assertions.assertEquals("watch", lines.get(0).get("type").getAsString());
+    Assertions.assertEquals("group", lines.get(1).get("type").getAsString());
+    Assertions.assertEquals("done", lines.get(lines.size() - 1).get("type").getAsString());
+  }
+
+  @Test
+  void testExitCodes() {
+    Assertions.assertEquals(
+        CommandLineHandler.EXIT_RATE_LIMITED,
+        CommandLineHandler.exitCode(
+            new RuntimeException(new TooManyRequestsException("Too many requests"))));
+    Assertions.assertEquals(
+        CommandLineHandler.EXIT_FAILURE, CommandLineHandler.exitCode(new IllegalStateException()));
+    Assertions.assertEquals(
+        CommandLineHandler.EXIT_USAGE, CommandLineHandler.runBatch(new String[] {"--unknown"}));
+  }
+
+  private static List<JsonObject> lines(StringWriter out) {
+    return out.toString()
+        .lines()
+        .map(line -> JsonParser.parseString(line).getAsJsonObject())
+        .collect(Collectors.toList());
+  }
+
+  private static PlaylistSimplified playlist(String id, String snapshotId) {
+    return new PlaylistSimplified.Builder().setId(id).setSnapshotId(snapshotId).build();
+  }
+
+  private static PlaylistTrack track(String name) {
+    return new PlaylistTrack.Builder().setTrack(new Track.Builder().setName(name).build()).build();
+  }
+}
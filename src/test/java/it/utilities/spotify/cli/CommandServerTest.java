@@ -0,0 +1,249 @@
+package it.utilities.spotify.cli;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.wrapper.spotify.exceptions.detailed.TooManyRequestsException;
+import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import com.wrapper.spotify.model_objects.specification.Track;
+import it.utilities.spotify.core.SessionRegistry;
+import it.utilities.spotify.core.SpotifyApiWrapper;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CommandServerTest {
+
+  private final HttpClient client = HttpClient.newHttpClient();
+  private final SessionRegistry sessions = SessionRegistry.builder().build();
+  private SpotifyApiWrapper spotifyApiWrapper;
+  private CommandServer server;
+
+  @TempDir Path directory;
+
+  @BeforeEach
+  void start() throws Exception {
+    this.spotifyApiWrapper = mock(SpotifyApiWrapper.class);
+    this.sessions.register(SessionRegistry.DEFAULT_SESSION, this.spotifyApiWrapper);
+    this.server =
+        new CommandServer(
+            this.sessions,
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+            2,
+            this.directory.resolve("exports"));
+    this.server.start();
+  }
+
+  @AfterEach
+  void stop() {
+    this.server.stop();
+    this.sessions.close();
+  }
+
+  @Test
+  void testJobResults() throws Exception {
+    when(this.spotifyApiWrapper.getAllPlaylistsItems("playlist"))
+        .thenAnswer(
+            invocation ->
+                Stream.of(track("Give me"), track("Another way"), track("Give me - Radio edit")));
+
+    HttpResponse<String> submitted = send("POST", "/playlists/playlist/duplicates");
+    Assertions.assertEquals(202, submitted.statusCode());
+    String location = submitted.headers().firstValue("Location").orElseThrow();
+
+    // The response ends when the job ends
+    List<JsonObject> results = lines(send("GET", location + "/results?follow=true"));
+    Assertions.assertEquals(2, results.size());
+    Assertions.assertEquals("group", results.get(0).get("type").getAsString());
+    Assertions.assertEquals(2, results.get(0).getAsJsonArray("tracks").size());
+    Assertions.assertEquals("done", results.get(1).get("type").getAsString());
+
+    JsonObject job = lines(send("GET", location)).get(0);
+    Assertions.assertEquals("succeeded", job.get("state").getAsString());
+    Assertions.assertEquals(0, job.get("status").getAsInt());
+    Assertions.assertEquals(2, job.get("lines").getAsInt());
+
+    // The results can be read again from any line
+    Assertions.assertEquals(1, lines(send("GET", location + "/results?from=1")).size());
+  }
+
+  @Test
+  void testCancelJob() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    when(this.spotifyApiWrapper.getAllPlaylistsItems("playlist"))
+        .thenAnswer(
+            invocation -> {
+              started.countDown();
+              Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+              return Stream.of();
+            });
+
+    String location =
+        send("POST", "/playlists/playlist/remove-duplicates?dryRun=true")
+            .headers()
+            .firstValue("Location")
+            .orElseThrow();
+    Assertions.assertTrue(started.await(10, TimeUnit.SECONDS));
+    Assertions.assertEquals(
+        "running", lines(send("GET", location)).get(0).get("state").getAsString());
+
+    JsonObject cancelled = lines(send("DELETE", location)).get(0);
+    Assertions.assertEquals("cancelled", cancelled.get("state").getAsString());
+    Assertions.assertTrue(cancelled.get("status").isJsonNull());
+
+    // The stream of a cancelled job ends right away
+    send("GET", location + "/results?follow=true");
+  }
+
+  @Test
+  void testAccounts() throws Exception {
+    final SpotifyApiWrapper curator = mock(SpotifyApiWrapper.class);
+    this.sessions.register("curator", curator);
+    when(curator.getAllPlaylistsItems("playlist"))
+        .thenAnswer(invocation -> Stream.of(track("Give me"), track("Give me")));
+
+    String location =
+        send("POST", "/playlists/playlist/duplicates?account=curator")
+            .headers()
+            .firstValue("Location")
+            .orElseThrow();
+
+    // Only the wrapper of the account is used
+    List<JsonObject> results = lines(send("GET", location + "/results?follow=true"));
+    Assertions.assertEquals("group", results.get(0).get("type").getAsString());
+    JsonObject job = lines(send("GET", location)).get(0);
+    Assertions.assertEquals("curator", job.get("account").getAsString());
+    Assertions.assertEquals("succeeded", job.get("state").getAsString());
+    verifyNoInteractions(this.spotifyApiWrapper);
+
+    Assertions.assertEquals(
+        404, send("POST", "/playlists/playlist/duplicates?account=unknown").statusCode());
+  }
+
+  @Test
+  void testErrors() throws Exception {
+    when(this.spotifyApiWrapper.getAllCurrentUsersPlaylists())
+        .thenThrow(new TooManyRequestsException("Too many requests"));
+
+    Assertions.assertEquals(429, send("GET", "/playlists").statusCode());
+    Assertions.assertEquals(404, send("GET", "/jobs/42").statusCode());
+    Assertions.assertEquals(404, send("GET", "/unknown").statusCode());
+    Assertions.assertEquals(
+        400, send("POST", "/playlists/playlist/similar?threshold=2").statusCode());
+    Assertions.assertEquals(400, send("POST", "/library/export").statusCode());
+  }
+
+  @Test
+  void testUnexpectedErrorsAreNotSent() throws Exception {
+    // The error comes after the status of the response, that cannot change anymore, and its
+    // details are only logged
+    when(this.spotifyApiWrapper.getMetrics()).thenThrow(new IllegalStateException("detail"));
+    HttpResponse<String> stats = send("GET", "/stats");
+    Assertions.assertEquals(200, stats.statusCode());
+    Assertions.assertFalse(stats.body().contains("detail"));
+    Assertions.assertEquals(200, send("GET", "/jobs").statusCode());
+  }
+
+  @Test
+  void testRequestsNeedTheToken() throws Exception {
+    Assertions.assertEquals(401, send("GET", "/jobs", request -> {}).statusCode());
+    Assertions.assertEquals(
+        401,
+        send("GET", "/jobs", request -> request.header("Authorization", "Bearer wrong"))
+            .statusCode());
+    Assertions.assertEquals(200, send("GET", "/jobs").statusCode());
+
+    // A page opened in the browser of the user cannot use the token
+    Assertions.assertEquals(
+        403,
+        send(
+                "POST",
+                "/shutdown",
+                request ->
+                    request
+                        .header("Authorization", "Bearer " + this.server.getToken())
+                        .header("Origin", "http://example.com"))
+            .statusCode());
+    verifyNoInteractions(this.spotifyApiWrapper);
+  }
+
+  @Test
+  void testIsLoopback() {
+    Assertions.assertTrue(CommandServer.isLoopback("localhost:8765"));
+    Assertions.assertTrue(CommandServer.isLoopback("127.0.0.1:8765"));
+    Assertions.assertTrue(CommandServer.isLoopback("[::1]:8765"));
+    Assertions.assertTrue(CommandServer.isLoopback("127.0.0.1"));
+
+    Assertions.assertFalse(CommandServer.isLoopback(null));
+    Assertions.assertFalse(CommandServer.isLoopback("example.com:8765"));
+    Assertions.assertFalse(CommandServer.isLoopback("localhost.example.com"));
+    Assertions.assertFalse(CommandServer.isLoopback("127.0.0.1.example.com"));
+    Assertions.assertFalse(CommandServer.isLoopback("192.168.1.1:8765"));
+  }
+
+  @Test
+  void testFilesOnlyInTheExportDirectory() throws Exception {
+    Assertions.assertEquals(400, send("POST", "/library/export?file=../library.bin").statusCode());
+    Assertions.assertEquals(
+        400,
+        send("POST", "/library/export?file=" + this.directory.resolve("library.bin").toUri())
+            .statusCode());
+    Assertions.assertEquals(400, send("POST", "/library/duplicates?file=/etc/passwd").statusCode());
+    Assertions.assertEquals(
+        400, send("POST", "/library/duplicates?file=missing/library.bin").statusCode());
+    verifyNoInteractions(this.spotifyApiWrapper);
+
+    Assertions.assertEquals(202, send("POST", "/library/export?file=library.bin").statusCode());
+  }
+
+  private HttpResponse<String> send(String method, String path) throws Exception {
+    return send(
+        method,
+        path,
+        request -> request.header("Authorization", "Bearer " + this.server.getToken()));
+  }
+
+  private HttpResponse<String> send(
+      String method, String path, Consumer<HttpRequest.Builder> headers) throws Exception {
+    InetSocketAddress address = this.server.getAddress();
+    HttpRequest.Builder request =
+        HttpRequest.newBuilder(
+                URI.create("http://" + address.getHostString() + ":" + address.getPort() + path))
+            .method(method, HttpRequest.BodyPublishers.noBody())
+            .timeout(Duration.ofSeconds(10));
+    headers.accept(request);
+
+    return this.client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+  }
+
+  private static List<JsonObject> lines(HttpResponse<String> response) {
+    return response
+        .body()
+        .lines()
+        .map(line -> JsonParser.parseString(line).getAsJsonObject())
+        .collect(Collectors.toList());
+  }
+
+  private static PlaylistTrack track(String name) {
+    return new PlaylistTrack.Builder().setTrack(new Track.Builder().setName(name).build()).build();
+  }
+}
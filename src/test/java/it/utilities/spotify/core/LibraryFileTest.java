@@ -0,0 +1,176 @@
+package it.utilities.spotify.core;
+
+import com.wrapper.spotify.model_objects.specification.ArtistSimplified;
+import com.wrapper.spotify.model_objects.specification.Episode;
+import com.wrapper.spotify.model_objects.specification.ExternalId;
+import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import com.wrapper.spotify.model_objects.specification.Track;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class LibraryFileTest {
+
+  @TempDir Path directory;
+
+  @Test
+  void testRoundTrip() throws IOException {
+    PlaylistTrack track =
+        new PlaylistTrack.Builder()
+            .setAddedAt(new Date(1600000000000L))
+            .setIsLocal(false)
+            .setTrack(
+                new Track.Builder()
+                    .setId("track")
+                    .setUri("spotify:track:track")
+                    .setName("Song èé")
+                    .setDurationMs(180000)
+                    .setArtists(
+                        new ArtistSimplified.Builder().setId("first").setName("First").build(),
+                        new ArtistSimplified.Builder().setId("second").setName("Second").build())
+                    .setExternalIds(
+                        new ExternalId.Builder().setExternalIds(Map.of("isrc", "ISRC")).build())
+                    .build())
+            .build();
+    PlaylistTrack local =
+        new PlaylistTrack.Builder()
+            .setIsLocal(true)
+            .setTrack(
+                new Track.Builder()
+                    .setUri("spotify:local:Artist::Song:180")
+                    .setName("Song")
+                    .build())
+            .build();
+    PlaylistTrack episode =
+        new PlaylistTrack.Builder()
+            .setTrack(new Episode.Builder().setId("episode").setName("Episode").build())
+            .build();
+    PlaylistTrack empty = new PlaylistTrack.Builder().build();
+
+    TrackTable first = new TrackTable();
+    first.append(track, 0);
+    first.append(local, 1);
+    TrackTable second = new TrackTable();
+    second.append(episode, 0);
+    second.append(empty, 1);
+    second.append(track, 2);
+
+    Path path = this.directory.resolve("library.bin");
+    LibraryFile.Writer writer = LibraryFile.writer(path);
+    writer.append("first", "First playlist", "a", first);
+    writer.append("second", null, "b", second);
+    writer.append("empty", "Empty", "c", new TrackTable());
+    writer.commit();
+
+    LibraryFile library = LibraryFile.open(path);
+
+    Assertions.assertEquals(3, library.getPlaylistCount());
+    Assertions.assertEquals(5, library.getTrackCount());
+    Assertions.assertIterableEquals(
+        Arrays.asList("first", "second", "empty"), library.getPlaylistIds());
+    Assertions.assertEquals("First playlist", library.getPlaylistName(0));
+    Assertions.assertNull(library.getPlaylistName(1));
+    Assertions.assertEquals("b", library.getSnapshotId(1));
+    Assertions.assertTrue(library.getTracks(2).isEmpty());
+
+    List<PlaylistTrack> tracks = library.getTracks(0);
+    Assertions.assertEquals(2, tracks.size());
+
+    Track readTrack = (Track) tracks.get(0).getTrack();
+    Assertions.assertEquals(track.getAddedAt(), tracks.get(0).getAddedAt());
+    Assertions.assertFalse(tracks.get(0).getIsLocal());
+    Assertions.assertEquals("track", readTrack.getId());
+    Assertions.assertEquals("spotify:track:track", readTrack.getUri());
+    Assertions.assertEquals("Song èé", readTrack.getName());
+    Assertions.assertEquals(180000, readTrack.getDurationMs());
+    Assertions.assertEquals("First", readTrack.getArtists()[0].getName());
+    Assertions.assertEquals("second", readTrack.getArtists()[1].getId());
+    Assertions.assertEquals("ISRC", readTrack.getExternalIds().getExternalIds().get("isrc"));
+
+    Assertions.assertTrue(tracks.get(1).getIsLocal());
+    Assertions.assertEquals("spotify:local:Artist::Song:180", tracks.get(1).getTrack().getUri());
+    Assertions.assertNull(tracks.get(1).getTrack().getId());
+
+    tracks = library.getTracks(1);
+    Assertions.assertTrue(tracks.get(0).getTrack() instanceof Episode);
+    Assertions.assertNull(tracks.get(0).getTrack().getUri());
+    Assertions.assertNull(tracks.get(0).getTrack().getDurationMs());
+    Assertions.assertNull(tracks.get(1).getTrack());
+    Assertions.assertNull(tracks.get(1).getIsLocal());
+    Assertions.assertEquals("Song èé", tracks.get(2).getTrack().getName());
+
+    Assertions.assertFalse(library.hasTitle(3));
+    Assertions.assertTrue(library.hasTitle(4));
+  }
+
+  @Test
+  void testStringsAreStoredOnce() throws IOException {
+    TrackTable tracks = new TrackTable();
+    for (int i = 0; i < 1000; i++) {
+      tracks.append(
+          new PlaylistTrack.Builder()
+              .setTrack(
+                  new Track.Builder()
+                      .setId("id" + i % 10)
+                      .setUri("spotify:track:id" + i % 10)
+                      .setName("A rather long title that repeats " + i % 10)
+                      .build())
+              .build(),
+          i);
+    }
+
+    Path path = this.directory.resolve("library.bin");
+    LibraryFile.Writer writer = LibraryFile.writer(path);
+    writer.append("playlist", "Playlist", "snapshot", tracks);
+    writer.commit();
+
+    // The fixed-width columns take about 42 bytes for every item, the strings are in the dictionary
+    Assertions.assertTrue(Files.size(path) < 1000 * 44, () -> "Size " + path.toFile().length());
+    Assertions.assertEquals(
+        "A rather long title that repeats 7",
+        LibraryFile.open(path).getTracks(0).get(997).getTrack().getName());
+  }
+
+  @Test
+  void testAbandonedExportLeavesNoFiles() throws IOException {
+    Path path = this.directory.resolve("library.bin");
+    TrackTable tracks = new TrackTable();
+    tracks.append(new PlaylistTrack.Builder().build(), 0);
+
+    try (LibraryFile.Writer writer = LibraryFile.writer(path)) {
+      writer.append("playlist", "Playlist", "snapshot", tracks);
+    }
+
+    try (Stream<Path> files = Files.list(this.directory)) {
+      Assertions.assertEquals(0, files.count());
+    }
+  }
+
+  @Test
+  void testInvalidFiles() throws IOException {
+    Path path = this.directory.resolve("library.bin");
+    LibraryFile.Writer writer = LibraryFile.writer(path);
+    writer.append("playlist", "Playlist", "snapshot", new TrackTable());
+    writer.commit();
+    byte[] valid = Files.readAllBytes(path);
+
+    Files.write(path, Arrays.copyOf(valid, valid.length - 1));
+    Assertions.assertThrows(IOException.class, () -> LibraryFile.open(path));
+
+    Files.write(path, ByteBuffer.wrap(valid.clone()).putShort(4, (short) 2).array());
+    IOException e = Assertions.assertThrows(IOException.class, () -> LibraryFile.open(path));
+    Assertions.assertTrue(e.getMessage().contains("version 2"));
+
+    Files.write(path, "not a library export, just some text".getBytes());
+    Assertions.assertThrows(IOException.class, () -> LibraryFile.open(path));
+  }
+}
@@ -0,0 +1,381 @@
+package it.utilities.spotify.core;
+
+import com.wrapper.spotify.exceptions.SpotifyWebApiException;
+import com.wrapper.spotify.model_objects.specification.PlaylistSimplified;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.hc.core5.http.ParseException;
+
+/**
+ * Load test of the scans of the playlists, run offline against a {@link SpotifyApiSimulator}.<br>
+ * Every simulated account has its own {@link SpotifyApiWrapper}, built from a {@link
+ * com.wrapper.spotify.SpotifyApi.Builder} pointed at the simulator, with its own {@link
+ * RequestScheduler}. The accounts get their access token from the simulator through a {@link
+ * SessionRegistry}, which also refreshes it while the test runs, then they all scan all the
+ * playlists of the user at the same time, like the server mode does. The throughput and the
+ * percentiles of the duration of the scans of a single playlist measure the whole path: the
+ * scheduler, the HTTP client, the paging and the duplicate detection.<br>
+ * Run it with <code>mvn -P load verify -Dload.args="--accounts=8 --latency=20"</code>, the options
+ * are listed by <code>--help</code>.
+ */
+public final class LoadDriver {
+
+  private final Options options;
+
+  private LoadDriver(Options options) {
+    this.options = options;
+  }
+
+  public static void main(String[] args) throws Exception {
+    final Options options = new Options();
+
+    for (String arg : args) {
+      if (arg.equals("--help")) {
+        Options.usage(System.out);
+        return;
+      }
+      options.set(arg);
+    }
+
+    new LoadDriver(options).run().print(System.out);
+  }
+
+  /**
+   * @param options the options of the test
+   * @return the driver of the test
+   */
+  static LoadDriver of(Options options) {
+    return new LoadDriver(options);
+  }
+
+  /**
+   * Start a simulator, run the scans of all the accounts and stop the simulator.
+   *
+   * @return the measures of the test
+   * @throws IOException if the simulator cannot be started
+   * @throws InterruptedException if the thread is interrupted while the scans run
+   */
+  Report run() throws IOException, InterruptedException {
+    final Options options = this.options;
+    final Metrics metrics = new Metrics("load");
+    final LatencyHistogram scans = new LatencyHistogram();
+    final AtomicLong failures = new AtomicLong();
+
+    try (SpotifyApiSimulator simulator =
+            SpotifyApiSimulator.builder()
+                .setPlaylists(options.playlists, options.tracks)
+                .setLatency(
+                    options.minLatencyMillis, options.maxLatencyMillis, TimeUnit.MILLISECONDS)
+                .setTooManyRequestsRate(options.tooManyRequestsRate)
+                .setRateLimit(options.serverRate)
+                .setRetryAfter(options.retryAfterSeconds)
+                .setTokenLifetime(options.tokenLifetimeSeconds)
+                .setThreads(options.serverThreads)
+                .build();
+        SessionRegistry sessions =
+            SessionRegistry.builder().setTick(100, TimeUnit.MILLISECONDS).build()) {
+      final List<SessionRegistry.Session> accounts = new ArrayList<>();
+
+      for (int account = 0; account < options.accounts; account++) {
+        final RequestScheduler scheduler =
+            RequestScheduler.builder()
+                .setInitialRate(options.clientRate)
+                .setRateBounds(1, options.clientRate)
+                .setBurst(options.clientRate)
+                .setBackoff(10, 1000, TimeUnit.MILLISECONDS)
+                .setMetrics(metrics)
+                .build();
+        final SpotifyApiWrapper wrapper =
+            new SpotifyApiWrapper(simulator.apiBuilder(), options.pageConcurrency, scheduler);
+        final SessionRegistry.Session session = sessions.register("account-" + account, wrapper);
+
+        try {
+          sessions.refresh(session);
+        } catch (SpotifyWebApiException | ParseException e) {
+          throw new IOException("The simulator refused the token of " + session.getName(), e);
+        }
+        session.getPlaylistUtility().setMetrics(metrics);
+        accounts.add(session);
+      }
+
+      final ExecutorService executor = Executors.newFixedThreadPool(options.accounts);
+      final long start = System.nanoTime();
+
+      try {
+        final List<Future<?>> futures = new ArrayList<>();
+        for (SessionRegistry.Session account : accounts) {
+          futures.add(executor.submit(() -> scan(account, scans, failures)));
+        }
+
+        for (Future<?> future : futures) {
+          try {
+            future.get();
+          } catch (ExecutionException e) {
+            throw new IllegalStateException("A scan did not end", e.getCause());
+          }
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+
+      return new Report(
+          System.nanoTime() - start,
+          metrics.getTracksProcessed(),
+          scans,
+          failures.get(),
+          simulator.getRequestCount(),
+          simulator.getTooManyRequestsCount(),
+          simulator.getUnauthorizedCount(),
+          simulator.getTokenCount());
+    }
+  }
+
+  /** Scan all the playlists of the account again and again, recording every playlist. */
+  private void scan(SessionRegistry.Session account, LatencyHistogram scans, AtomicLong failures) {
+    for (int round = 0; round < this.options.scans; round++) {
+      final List<String> playListIds;
+
+      try (Stream<PlaylistSimplified> playlists =
+          account.getSpotifyApiWrapper().getAllCurrentUsersPlaylists()) {
+        playListIds = playlists.map(PlaylistSimplified::getId).collect(Collectors.toList());
+      } catch (IOException | SpotifyWebApiException | ParseException | RuntimeException e) {
+        failures.incrementAndGet();
+        continue;
+      }
+
+      for (String playListId : playListIds) {
+        final long start = System.nanoTime();
+
+        try (Stream<DuplicateGroup> groups =
+            account.getPlaylistUtility().getDuplicateGroupsByName(playListId)) {
+          groups.forEach(group -> {});
+          scans.record(System.nanoTime() - start);
+        } catch (IOException | SpotifyWebApiException | ParseException | RuntimeException e) {
+          failures.incrementAndGet();
+        }
+      }
+    }
+  }
+
+  /** The options of the test, set with <code>--name=value</code> arguments. */
+  static final class Options {
+
+    int accounts = 4;
+    int playlists = 20;
+    int tracks = 1000;
+    int scans = 3;
+    int pageConcurrency = SpotifyApiWrapper.DEFAULT_PAGE_CONCURRENCY;
+    double clientRate = 50;
+    long minLatencyMillis = 20;
+    long maxLatencyMillis = 60;
+    double tooManyRequestsRate = 0.01;
+    double serverRate;
+    int retryAfterSeconds = 1;
+    int tokenLifetimeSeconds = 3600;
+    int serverThreads = 64;
+
+    /**
+     * @param arg an argument like <code>--accounts=8</code>
+     * @throws IllegalArgumentException if the option does not exist or its value is not valid
+     */
+    void set(String arg) {
+      final int equals = arg.indexOf('=');
+
+      if (!arg.startsWith("--") || equals < 0) {
+        throw new IllegalArgumentException("Options are like --name=value, not " + arg);
+      }
+
+      final String value = arg.substring(equals + 1);
+
+      switch (arg.substring(2, equals)) {
+        case "accounts":
+          this.accounts = Integer.parseInt(value);
+          break;
+        case "playlists":
+          this.playlists = Integer.parseInt(value);
+          break;
+        case "tracks":
+          this.tracks = Integer.parseInt(value);
+          break;
+        case "scans":
+          this.scans = Integer.parseInt(value);
+          break;
+        case "page-concurrency":
+          this.pageConcurrency = Integer.parseInt(value);
+          break;
+        case "rate":
+          this.clientRate = Double.parseDouble(value);
+          break;
+        case "latency":
+          this.minLatencyMillis = Long.parseLong(value);
+          this.maxLatencyMillis = this.minLatencyMillis;
+          break;
+        case "max-latency":
+          this.maxLatencyMillis = Long.parseLong(value);
+          break;
+        case "429-rate":
+          this.tooManyRequestsRate = Double.parseDouble(value);
+          break;
+        case "server-rate":
+          this.serverRate = Double.parseDouble(value);
+          break;
+        case "retry-after":
+          this.retryAfterSeconds = Integer.parseInt(value);
+          break;
+        case "token-lifetime":
+          this.tokenLifetimeSeconds = Integer.parseInt(value);
+          break;
+        case "server-threads":
+          this.serverThreads = Integer.parseInt(value);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown option " + arg);
+      }
+    }
+
+    static void usage(PrintStream out) {
+      out.println("--accounts=N          accounts that scan at the same time (4)");
+      out.println("--playlists=N         playlists of the user (20)");
+      out.println("--tracks=N            items of every playlist (1000)");
+      out.println("--scans=N             scans of all the playlists by every account (3)");
+      out.println("--page-concurrency=N  pages requested at the same time for a playlist (4)");
+      out.println("--rate=N              maximum requests per second of every account (50)");
+      out.println("--latency=MS          minimum latency of the simulator (20)");
+      out.println("--max-latency=MS      maximum latency of the simulator (60)");
+      out.println("--429-rate=F          fraction of the requests refused at random (0.01)");
+      out.println("--server-rate=N       requests per second accepted by the simulator (no limit)");
+      out.println("--retry-after=S       Retry-After of the refused requests (1)");
+      out.println("--token-lifetime=S    lifetime of the access tokens (3600)");
+      out.println("--server-threads=N    requests answered at the same time (64)");
+    }
+  }
+
+  /** The measures of a test. */
+  static final class Report {
+
+    private final long elapsedNanos;
+    private final long tracks;
+    private final LatencyHistogram scans;
+    private final long failures;
+    private final long requests;
+    private final long tooManyRequests;
+    private final long unauthorized;
+    private final int tokens;
+
+    private Report(
+        long elapsedNanos,
+        long tracks,
+        LatencyHistogram scans,
+        long failures,
+        long requests,
+        long tooManyRequests,
+        long unauthorized,
+        int tokens) {
+      this.elapsedNanos = elapsedNanos;
+      this.tracks = tracks;
+      this.scans = scans;
+      this.failures = failures;
+      this.requests = requests;
+      this.tooManyRequests = tooManyRequests;
+      this.unauthorized = unauthorized;
+      this.tokens = tokens;
+    }
+
+    /**
+     * @return the number of tracks read by the scans
+     */
+    long getTracks() {
+      return this.tracks;
+    }
+
+    /**
+     * @return the durations of the scans of a single playlist that succeeded
+     */
+    LatencyHistogram getScans() {
+      return this.scans;
+    }
+
+    /**
+     * @return the number of scans that failed
+     */
+    long getFailures() {
+      return this.failures;
+    }
+
+    /**
+     * @return the number of requests received by the simulator, including the refused ones
+     */
+    long getRequests() {
+      return this.requests;
+    }
+
+    /**
+     * @return the number of requests refused with a <code>429</code>, and then retried
+     */
+    long getTooManyRequests() {
+      return this.tooManyRequests;
+    }
+
+    /**
+     * @return the number of requests refused because of an expired access token
+     */
+    long getUnauthorized() {
+      return this.unauthorized;
+    }
+
+    /**
+     * @return the number of access tokens issued, including the refreshed ones
+     */
+    int getTokens() {
+      return this.tokens;
+    }
+
+    /**
+     * @return the tracks read per second
+     */
+    double getTracksPerSecond() {
+      return this.tracks * 1e9 / Math.max(1, this.elapsedNanos);
+    }
+
+    void print(PrintStream out) {
+      final double seconds = this.elapsedNanos / 1e9;
+
+      out.printf(Locale.ROOT, "elapsed            %.2f s%n", seconds);
+      out.printf(
+          Locale.ROOT,
+          "playlist scans     %d (%.1f/s), %d failed%n",
+          this.scans.getCount(),
+          this.scans.getCount() / seconds,
+          this.failures);
+      out.printf(
+          Locale.ROOT, "tracks             %d (%.0f/s)%n", this.tracks, getTracksPerSecond());
+      out.printf(
+          Locale.ROOT,
+          "scan latency       p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, p99.9 %.1f ms, max %.1f ms%n",
+          this.scans.getPercentileMillis(50),
+          this.scans.getPercentileMillis(90),
+          this.scans.getPercentileMillis(99),
+          this.scans.getPercentileMillis(99.9),
+          this.scans.getMaxMillis());
+      out.printf(
+          Locale.ROOT,
+          "requests           %d (%.1f/s), %d refused with 429, %d unauthorized%n",
+          this.requests,
+          this.requests / seconds,
+          this.tooManyRequests,
+          this.unauthorized);
+      out.printf(Locale.ROOT, "access tokens      %d%n", this.tokens);
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package it.utilities.spotify.core;
+
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class MetricsTest {
+
+  @Test
+  void testBuckets() {
+    long previous = -1;
+
+    for (int bucket = 0; bucket < 2000; bucket++) {
+      final long highest = LatencyHistogram.highestValue(bucket);
+
+      Assertions.assertTrue(highest > previous);
+      Assertions.assertEquals(bucket, LatencyHistogram.bucket(previous + 1));
+      Assertions.assertEquals(bucket, LatencyHistogram.bucket(highest));
+      // The width of a bucket is at most 1/64 of its values
+      Assertions.assertTrue(highest - previous <= Math.max(1, (previous + 1) / 64));
+
+      previous = highest;
+    }
+  }
+
+  @Test
+  void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+
+    Assertions.assertEquals(0, histogram.getPercentileMillis(99));
+
+    for (int millis = 1; millis <= 1000; millis++) {
+      histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    Assertions.assertEquals(1000, histogram.getCount());
+    Assertions.assertEquals(500.5, histogram.getMeanMillis(), 0.001);
+    Assertions.assertEquals(1000, histogram.getMaxMillis(), 0.001);
+    Assertions.assertEquals(500, histogram.getPercentileMillis(50), 500 * 0.02);
+    Assertions.assertEquals(990, histogram.getPercentileMillis(99), 990 * 0.02);
+    Assertions.assertEquals(1000, histogram.getPercentileMillis(100), 0.001);
+    Assertions.assertEquals(1, histogram.getPercentileMillis(0), 1 * 0.02);
+  }
+
+  @Test
+  void testJmxExport() throws Exception {
+    MBeanServer server = MBeanServerFactory.newMBeanServer();
+    Metrics metrics = new Metrics("test");
+
+    metrics.endpoint("before").recordSuccess(TimeUnit.MILLISECONDS.toNanos(20));
+    metrics.register(server);
+    metrics.endpoint("after").recordTooManyRequests(TimeUnit.MILLISECONDS.toNanos(5));
+    metrics.phase("scan").record(TimeUnit.SECONDS.toNanos(2));
+    metrics.addTracks(42);
+
+    Assertions.assertEquals(
+        1L,
+        server.getAttribute(
+            new ObjectName(Metrics.JMX_DOMAIN + ":type=Endpoint,metrics=\"test\",name=\"before\""),
+            "Requests"));
+    Assertions.assertEquals(
+        1L,
+        server.getAttribute(
+            new ObjectName(Metrics.JMX_DOMAIN + ":type=Endpoint,metrics=\"test\",name=\"after\""),
+            "TooManyRequests"));
+    Assertions.assertEquals(
+        2000,
+        (double)
+            server.getAttribute(
+                new ObjectName(Metrics.JMX_DOMAIN + ":type=Phase,metrics=\"test\",name=\"scan\""),
+                "MaxMillis"),
+        0.001);
+    Assertions.assertEquals(
+        42L,
+        server.getAttribute(
+            new ObjectName(Metrics.JMX_DOMAIN + ":type=Library,metrics=\"test\",name=\"library\""),
+            "TracksProcessed"));
+    Assertions.assertThrows(IllegalStateException.class, () -> metrics.register(server));
+  }
+}
@@ -0,0 +1,130 @@
+package it.utilities.spotify.core;
+
+import com.wrapper.spotify.model_objects.specification.ArtistSimplified;
+import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import com.wrapper.spotify.model_objects.specification.Track;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class MinHashSimilarityStageTest {
+
+  @Test
+  void testNormalizeTitle() {
+    Assertions.assertEquals(
+        "song", MinHashSimilarityStage.normalizeTitle("Song (Remastered 2011)"));
+    Assertions.assertEquals("song", MinHashSimilarityStage.normalizeTitle("Song - 2011 Remaster"));
+    Assertions.assertEquals("song", MinHashSimilarityStage.normalizeTitle("SONG [Live]"));
+    Assertions.assertEquals("song", MinHashSimilarityStage.normalizeTitle("Song feat. Someone"));
+    Assertions.assertEquals(
+        "cafe del mar", MinHashSimilarityStage.normalizeTitle("Café del Mar - Radio Edit"));
+    Assertions.assertEquals(
+        "song part 2", MinHashSimilarityStage.normalizeTitle("Song - Part 2 (Live Version)"));
+    Assertions.assertEquals("live", MinHashSimilarityStage.normalizeTitle("Live"));
+  }
+
+  @Test
+  void testVersionsOfTheSameSongMatch() {
+    List<PlaylistTrack> tracks =
+        Arrays.asList(
+            track("Song (Remastered 2011)", 200000, "artist"),
+            track("Love Story", 230000, "artist"),
+            track("Song - 2011 Remaster", 201000, "artist"),
+            track("Love Me Do", 140000, "artist"));
+
+    Assertions.assertEquals(
+        Arrays.asList(Arrays.asList(0, 2)), matches(new MinHashSimilarityStage(), tracks));
+  }
+
+  @Test
+  void testDifferentArtistsLowerTheScore() {
+    List<PlaylistTrack> tracks =
+        Arrays.asList(
+            track("Song", 200000, "artist"),
+            track("Song", 200000, "other"),
+            track("Song", 320000, "artist"),
+            track("Song", null, null));
+
+    Assertions.assertEquals(
+        Arrays.asList(
+            Arrays.asList(0, 2), Arrays.asList(0, 3), Arrays.asList(1, 3), Arrays.asList(2, 3)),
+        matches(new MinHashSimilarityStage(), tracks));
+    Assertions.assertEquals(6, matches(new MinHashSimilarityStage(0.5), tracks).size());
+  }
+
+  @Test
+  void testAllDuplicatesAreFound() {
+    final Random random = new Random(3);
+    final String letters = "abcdefghijklmnopqrstuvwxyz";
+    final List<PlaylistTrack> tracks = new ArrayList<>();
+    final List<List<Integer>> expected = new ArrayList<>();
+
+    for (int i = 0; i < 2000; i++) {
+      final StringBuilder title = new StringBuilder();
+      for (int w = 0; w < 3; w++) {
+        for (int c = 0; c < 6; c++) {
+          title.append(letters.charAt(random.nextInt(letters.length())));
+        }
+        title.append(' ');
+      }
+
+      tracks.add(track(title.toString().trim(), 180000, "artist"));
+
+      if (i % 40 == 0) {
+        expected.add(Arrays.asList(tracks.size() - 1, tracks.size()));
+        tracks.add(track(title.toString().trim() + " - Remastered", 181000, "artist"));
+      }
+    }
+
+    Assertions.assertEquals(expected, matches(new MinHashSimilarityStage(), tracks));
+  }
+
+  @Test
+  void testInvalidThreshold() {
+    Assertions.assertThrows(IllegalArgumentException.class, () -> new MinHashSimilarityStage(-1));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> new MinHashSimilarityStage(2));
+    Assertions.assertThrows(
+        IllegalArgumentException.class, () -> new MinHashSimilarityStage(Double.NaN));
+  }
+
+  @Test
+  void testTracksWithoutTitleAreIgnored() {
+    List<PlaylistTrack> tracks =
+        Arrays.asList(
+            new PlaylistTrack.Builder().build(),
+            track(null, 200000, "artist"),
+            track("Song", 200000, "artist"),
+            track("Song", 200000, "artist"));
+
+    Assertions.assertEquals(
+        Arrays.asList(Arrays.asList(2, 3)), matches(new MinHashSimilarityStage(), tracks));
+  }
+
+  /** The couples found by the stage, sorted. */
+  private static List<List<Integer>> matches(SimilarityStage stage, List<PlaylistTrack> tracks) {
+    final List<List<Integer>> matches = new ArrayList<>();
+    stage.findMatches(
+        tracks,
+        (first, second) ->
+            matches.add(Arrays.asList(Math.min(first, second), Math.max(first, second))));
+    matches.sort(
+        (first, second) ->
+            first.get(0).equals(second.get(0))
+                ? first.get(1) - second.get(1)
+                : first.get(0) - second.get(0));
+    return matches;
+  }
+
+  private static PlaylistTrack track(String name, Integer durationMs, String artistId) {
+    final Track.Builder track = new Track.Builder().setName(name).setDurationMs(durationMs);
+
+    if (artistId != null) {
+      track.setArtists(new ArtistSimplified.Builder().setId(artistId).build());
+    }
+
+    return new PlaylistTrack.Builder().setTrack(track.build()).build();
+  }
+}
@@ -0,0 +1,126 @@
+package it.utilities.spotify.core;
+
+import com.wrapper.spotify.exceptions.SpotifyWebApiException;
+import com.wrapper.spotify.exceptions.detailed.NotFoundException;
+import com.wrapper.spotify.model_objects.specification.Paging;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.apache.hc.core5.http.ParseException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class PagedIteratorTest {
+
+  private ExecutorService executor;
+
+  @BeforeEach
+  void setup() {
+    this.executor = Executors.newFixedThreadPool(4);
+  }
+
+  @AfterEach
+  void tearDown() {
+    this.executor.shutdownNow();
+  }
+
+  @Test
+  void testAllPagesInOrder() throws ParseException, SpotifyWebApiException, IOException {
+    final int total = 1234;
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicInteger maxInFlight = new AtomicInteger();
+
+    PagedIterator<Integer> iterator =
+        new PagedIterator<>(
+            (offset, limit) -> {
+              maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+              try {
+                // Later pages are faster, so they are received out of order
+                Thread.sleep(Math.max(0, 20 - offset / 100));
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              inFlight.decrementAndGet();
+              return page(offset, limit, total);
+            },
+            100,
+            3,
+            this.executor);
+
+    List<Integer> items = iterator.stream().collect(Collectors.toList());
+
+    Assertions.assertEquals(IntStream.range(0, total).boxed().collect(Collectors.toList()), items);
+    Assertions.assertTrue(maxInFlight.get() <= 3);
+  }
+
+  @Test
+  void testSinglePage() throws ParseException, SpotifyWebApiException, IOException {
+    final AtomicInteger requests = new AtomicInteger();
+
+    PagedIterator<Integer> iterator =
+        new PagedIterator<>(
+            (offset, limit) -> {
+              requests.incrementAndGet();
+              return page(offset, limit, 42);
+            },
+            100,
+            3,
+            this.executor);
+
+    Assertions.assertEquals(42, iterator.stream().count());
+    Assertions.assertEquals(1, requests.get());
+  }
+
+  @Test
+  void testNullFirstPage() {
+    Assertions.assertThrows(
+        NullPointerException.class,
+        () -> new PagedIterator<Integer>((offset, limit) -> null, 100, 3, this.executor));
+  }
+
+  @Test
+  void testNullItems() {
+    Assertions.assertThrows(
+        NullPointerException.class,
+        () ->
+            new PagedIterator<Integer>(
+                (offset, limit) -> new Paging.Builder<Integer>().setItems(null).build(),
+                100,
+                3,
+                this.executor));
+  }
+
+  @Test
+  void testErrorOnFollowingPage() throws ParseException, SpotifyWebApiException, IOException {
+    PagedIterator<Integer> iterator =
+        new PagedIterator<>(
+            (offset, limit) -> {
+              if (offset == 200) {
+                throw new NotFoundException("Not found");
+              }
+              return page(offset, limit, 500);
+            },
+            100,
+            2,
+            this.executor);
+
+    CompletionException exception =
+        Assertions.assertThrows(
+            CompletionException.class, () -> iterator.stream().forEach(item -> {}));
+    Assertions.assertTrue(exception.getCause() instanceof NotFoundException);
+  }
+
+  private static Paging<Integer> page(int offset, int limit, int total) {
+    Integer[] items =
+        IntStream.range(offset, Math.min(offset + limit, total)).boxed().toArray(Integer[]::new);
+
+    return new Paging.Builder<Integer>().setItems(items).setOffset(offset).setTotal(total).build();
+  }
+}
@@ -0,0 +1,70 @@
+package it.utilities.spotify.core;
+
+import com.wrapper.spotify.model_objects.specification.Episode;
+import com.wrapper.spotify.model_objects.specification.Paging;
+import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import com.wrapper.spotify.model_objects.specification.Track;
+import java.util.Date;
+import org.apache.hc.core5.http.ParseException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class PlaylistItemsParserTest {
+
+  @Test
+  void testParse() throws ParseException {
+    String json =
+        "{\"href\":\"https://api.spotify.com/v1/playlists/playlist/tracks\",\"total\":4,"
+            + "\"items\":["
+            + "{\"added_at\":\"2020-09-13T12:26:40Z\",\"is_local\":false,\"added_by\":{\"id\":\"user\"},"
+            + "\"track\":{\"type\":\"track\",\"id\":\"track\",\"uri\":\"spotify:track:track\","
+            + "\"name\":\"Song\",\"duration_ms\":180000,\"popularity\":50,"
+            + "\"album\":{\"name\":\"Album\",\"images\":[{\"url\":\"https://i.scdn.co/image\"}]},"
+            + "\"available_markets\":[\"IT\",\"US\"],"
+            + "\"artists\":[{\"id\":\"artist\",\"name\":\"Artist\",\"type\":\"artist\"}],"
+            + "\"external_ids\":{\"isrc\":\"ISRC\",\"ean\":\"EAN\"}}},"
+            + "{\"added_at\":\"2020-09-13T12:26:40Z\",\"is_local\":false,"
+            + "\"track\":{\"type\":\"episode\",\"id\":\"episode\",\"name\":\"Episode\"}},"
+            + "{\"added_at\":null,\"is_local\":true,\"track\":null},"
+            + "{\"added_at\":\"1970-01-01T00:00:00Z\",\"track\":{\"name\":\"Old\",\"artists\":null,"
+            + "\"external_ids\":null}}"
+            + "],\"limit\":100,\"next\":null,\"offset\":0,\"previous\":null}";
+
+    Paging<PlaylistTrack> page = PlaylistItemsParser.parse(json);
+
+    Assertions.assertEquals(4, page.getTotal());
+    Assertions.assertEquals(4, page.getItems().length);
+
+    PlaylistTrack item = page.getItems()[0];
+    Track track = (Track) item.getTrack();
+    Assertions.assertEquals(new Date(1600000000000L), item.getAddedAt());
+    Assertions.assertFalse(item.getIsLocal());
+    Assertions.assertEquals("track", track.getId());
+    Assertions.assertEquals("spotify:track:track", track.getUri());
+    Assertions.assertEquals("Song", track.getName());
+    Assertions.assertEquals(180000, track.getDurationMs());
+    Assertions.assertEquals("Artist", track.getArtists()[0].getName());
+    Assertions.assertEquals("ISRC", track.getExternalIds().getExternalIds().get("isrc"));
+    Assertions.assertNull(track.getAlbum());
+    Assertions.assertNull(track.getAvailableMarkets());
+
+    Assertions.assertTrue(page.getItems()[1].getTrack() instanceof Episode);
+    Assertions.assertEquals("Episode", page.getItems()[1].getTrack().getName());
+
+    Assertions.assertNull(page.getItems()[2].getTrack());
+    Assertions.assertNull(page.getItems()[2].getAddedAt());
+    Assertions.assertTrue(page.getItems()[2].getIsLocal());
+
+    Assertions.assertEquals(new Date(0), page.getItems()[3].getAddedAt());
+    Assertions.assertEquals(0, ((Track) page.getItems()[3].getTrack()).getArtists().length);
+  }
+
+  @Test
+  void testInvalidPage() {
+    Assertions.assertThrows(ParseException.class, () -> PlaylistItemsParser.parse("[]"));
+    Assertions.assertThrows(
+        ParseException.class, () -> PlaylistItemsParser.parse("{\"items\":[{\"track\":"));
+    Assertions.assertThrows(
+        ParseException.class, () -> PlaylistItemsParser.parse("{\"total\":\"many\"}"));
+  }
+}
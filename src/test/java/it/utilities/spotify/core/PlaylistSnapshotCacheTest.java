@@ -0,0 +1,173 @@
+package it.utilities.spotify.core;
+
+import com.wrapper.spotify.model_objects.specification.ArtistSimplified;
+import com.wrapper.spotify.model_objects.specification.Episode;
+import com.wrapper.spotify.model_objects.specification.ExternalId;
+import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import com.wrapper.spotify.model_objects.specification.Track;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PlaylistSnapshotCacheTest {
+
+  @TempDir Path directory;
+
+  @Test
+  void testRoundTrip() throws IOException {
+    PlaylistSnapshotCache cache = new PlaylistSnapshotCache(this.directory, Long.MAX_VALUE);
+
+    PlaylistTrack track =
+        new PlaylistTrack.Builder()
+            .setAddedAt(new Date(1600000000000L))
+            .setIsLocal(false)
+            .setTrack(
+                new Track.Builder()
+                    .setId("track")
+                    .setUri("spotify:track:track")
+                    .setName("Song èé")
+                    .setDurationMs(180000)
+                    .setArtists(
+                        new ArtistSimplified.Builder().setId("artist").setName("Artist").build())
+                    .setExternalIds(
+                        new ExternalId.Builder().setExternalIds(Map.of("isrc", "ISRC")).build())
+                    .build())
+            .build();
+    PlaylistTrack episode =
+        new PlaylistTrack.Builder()
+            .setTrack(new Episode.Builder().setId("episode").setName("Episode").build())
+            .build();
+    PlaylistTrack empty = new PlaylistTrack.Builder().build();
+
+    try (PlaylistSnapshotCache.Writer writer = cache.writer("playlist", "snapshot")) {
+      writer.append(track);
+      writer.append(episode);
+      writer.append(empty);
+      writer.commit();
+    }
+
+    List<PlaylistTrack> tracks = cache.read("playlist", "snapshot").orElseThrow();
+    Assertions.assertEquals(3, tracks.size());
+
+    Track readTrack = (Track) tracks.get(0).getTrack();
+    Assertions.assertEquals(track.getAddedAt(), tracks.get(0).getAddedAt());
+    Assertions.assertFalse(tracks.get(0).getIsLocal());
+    Assertions.assertEquals("track", readTrack.getId());
+    Assertions.assertEquals("spotify:track:track", readTrack.getUri());
+    Assertions.assertEquals("Song èé", readTrack.getName());
+    Assertions.assertEquals(180000, readTrack.getDurationMs());
+    Assertions.assertEquals("Artist", readTrack.getArtists()[0].getName());
+    Assertions.assertEquals("ISRC", readTrack.getExternalIds().getExternalIds().get("isrc"));
+
+    Assertions.assertTrue(tracks.get(1).getTrack() instanceof Episode);
+    Assertions.assertEquals("Episode", tracks.get(1).getTrack().getName());
+    Assertions.assertNull(tracks.get(1).getTrack().getDurationMs());
+    Assertions.assertNull(tracks.get(1).getAddedAt());
+
+    Assertions.assertNull(tracks.get(2).getTrack());
+    Assertions.assertNull(tracks.get(2).getIsLocal());
+  }
+
+  @Test
+  void testOtherSnapshotIsNotRead() throws IOException {
+    PlaylistSnapshotCache cache = new PlaylistSnapshotCache(this.directory, Long.MAX_VALUE);
+    write(cache, "playlist", "old", 10);
+
+    Assertions.assertEquals(Optional.empty(), cache.read("playlist", "new"));
+    Assertions.assertEquals(Optional.empty(), cache.read("missing", "old"));
+    Assertions.assertEquals(10, cache.read("playlist", "old").orElseThrow().size());
+  }
+
+  @Test
+  void testUncommittedItemsAreDiscarded() throws IOException {
+    PlaylistSnapshotCache cache = new PlaylistSnapshotCache(this.directory, Long.MAX_VALUE);
+    write(cache, "playlist", "old", 10);
+
+    try (PlaylistSnapshotCache.Writer writer = cache.writer("playlist", "new")) {
+      writer.append(new PlaylistTrack.Builder().build());
+    }
+
+    Assertions.assertEquals(Optional.empty(), cache.read("playlist", "new"));
+    Assertions.assertTrue(cache.read("playlist", "old").isPresent());
+    try (Stream<Path> files = Files.list(this.directory)) {
+      Assertions.assertEquals(1, files.count());
+    }
+  }
+
+  @Test
+  void testCorruptedFileIsIgnored() throws IOException {
+    PlaylistSnapshotCache cache = new PlaylistSnapshotCache(this.directory, Long.MAX_VALUE);
+    Files.write(this.directory.resolve("playlist.snapshot"), new byte[] {1, 2, 3});
+
+    Assertions.assertEquals(Optional.empty(), cache.read("playlist", "snapshot"));
+  }
+
+  @Test
+  void testLeastRecentlyUsedAreEvicted() throws IOException {
+    PlaylistSnapshotCache cache = new PlaylistSnapshotCache(this.directory, Long.MAX_VALUE);
+    write(cache, "first", "snapshot", 100);
+    write(cache, "second", "snapshot", 100);
+
+    final long size = Files.size(this.directory.resolve("first.snapshot"));
+    Files.setLastModifiedTime(this.directory.resolve("first.snapshot"), FileTime.fromMillis(1000));
+    Files.setLastModifiedTime(this.directory.resolve("second.snapshot"), FileTime.fromMillis(2000));
+
+    // Reading the first playlist makes it the most recently used
+    cache.read("first", "snapshot");
+
+    PlaylistSnapshotCache limited = new PlaylistSnapshotCache(this.directory, size * 2);
+    write(limited, "third", "snapshot", 100);
+
+    Assertions.assertTrue(limited.read("first", "snapshot").isPresent());
+    Assertions.assertFalse(limited.read("second", "snapshot").isPresent());
+    Assertions.assertTrue(limited.read("third", "snapshot").isPresent());
+  }
+
+  @Test
+  void testOrderOfUseIsKeptInMemory() throws IOException {
+    write(new PlaylistSnapshotCache(this.directory, Long.MAX_VALUE), "first", "snapshot", 100);
+    final long size = Files.size(this.directory.resolve("first.snapshot"));
+
+    PlaylistSnapshotCache cache = new PlaylistSnapshotCache(this.directory, size * 2);
+    write(cache, "second", "snapshot", 100);
+    cache.read("first", "snapshot");
+
+    // With the same modification time, the order of use of this instance decides
+    Files.setLastModifiedTime(this.directory.resolve("first.snapshot"), FileTime.fromMillis(1000));
+    Files.setLastModifiedTime(this.directory.resolve("second.snapshot"), FileTime.fromMillis(1000));
+    write(cache, "third", "snapshot", 100);
+
+    Assertions.assertTrue(Files.exists(this.directory.resolve("first.snapshot")));
+    Assertions.assertFalse(Files.exists(this.directory.resolve("second.snapshot")));
+    Assertions.assertTrue(Files.exists(this.directory.resolve("third.snapshot")));
+
+    // The files removed by another process are not counted anymore
+    Files.delete(this.directory.resolve("first.snapshot"));
+    cache.evict();
+    write(cache, "fourth", "snapshot", 100);
+    Assertions.assertTrue(Files.exists(this.directory.resolve("third.snapshot")));
+  }
+
+  private static void write(
+      PlaylistSnapshotCache cache, String playListId, String snapshotId, int count)
+      throws IOException {
+    try (PlaylistSnapshotCache.Writer writer = cache.writer(playListId, snapshotId)) {
+      for (int i = 0; i < count; i++) {
+        writer.append(
+            new PlaylistTrack.Builder()
+                .setTrack(new Track.Builder().setId("id" + i).setName("Song " + i).build())
+                .build());
+      }
+      writer.commit();
+    }
+  }
+}
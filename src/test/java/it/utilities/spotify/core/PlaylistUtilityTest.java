@@ -1,20 +1,46 @@
 package it.utilities.spotify.core;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 import com.wrapper.spotify.exceptions.SpotifyWebApiException;
+import com.wrapper.spotify.exceptions.detailed.InternalServerErrorException;
+import com.wrapper.spotify.exceptions.detailed.NotFoundException;
 import com.wrapper.spotify.model_objects.specification.Paging;
+import com.wrapper.spotify.model_objects.specification.PlaylistSimplified;
 import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
 import com.wrapper.spotify.model_objects.specification.Track;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 import org.apache.hc.core5.http.ParseException;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -27,6 +53,8 @@ public class PlaylistUtilityTest {
 
   @Mock private SpotifyApiWrapper spotifyApiWrapper;
 
+  @TempDir Path directory;
+
   @BeforeAll
   static void setup() {
     MockitoAnnotations.openMocks(PlaylistUtilityTest.class);
@@ -35,7 +63,7 @@ public class PlaylistUtilityTest {
   @Test
   void testGetDuplicatesTracksByNameNullResponse()
       throws ParseException, SpotifyWebApiException, IOException {
-    when(spotifyApiWrapper.getPlaylistsItems(anyString())).thenReturn(null);
+    when(spotifyApiWrapper.getAllPlaylistsItems(anyString())).thenReturn(null);
 
     Assertions.assertThrows(
         NullPointerException.class, () -> playlistUtility.getDuplicatesTracksByName(""));
@@ -46,7 +74,10 @@ public class PlaylistUtilityTest {
       throws ParseException, SpotifyWebApiException, IOException {
     Paging<PlaylistTrack> tracks = new Paging.Builder<PlaylistTrack>().setItems(null).build();
 
-    when(spotifyApiWrapper.getPlaylistsItems(anyString())).thenReturn(tracks);
+    // The pages are requested by the wrapper, so the null items reach its paging
+    when(spotifyApiWrapper.getAllPlaylistsItems(anyString())).thenCallRealMethod();
+    when(spotifyApiWrapper.getProjectedPlaylistsItems(anyString(), isNull(), anyInt(), anyInt()))
+        .thenReturn(tracks);
 
     Assertions.assertThrows(
         NullPointerException.class, () -> playlistUtility.getDuplicatesTracksByName(""));
@@ -59,9 +90,7 @@ public class PlaylistUtilityTest {
     songs[0] = new PlaylistTrack.Builder().setTrack(null).build();
     songs[1] = new PlaylistTrack.Builder().setTrack(null).build();
 
-    Paging<PlaylistTrack> tracks = new Paging.Builder<PlaylistTrack>().setItems(songs).build();
-
-    when(spotifyApiWrapper.getPlaylistsItems(anyString())).thenReturn(tracks);
+    when(spotifyApiWrapper.getAllPlaylistsItems(anyString())).thenReturn(Arrays.stream(songs));
 
     Assertions.assertThrows(
         NullPointerException.class, () -> playlistUtility.getDuplicatesTracksByName(""));
@@ -77,9 +106,7 @@ public class PlaylistUtilityTest {
     songs[0] = new PlaylistTrack.Builder().setTrack(track1).build();
     songs[1] = new PlaylistTrack.Builder().setTrack(track2).build();
 
-    Paging<PlaylistTrack> tracks = new Paging.Builder<PlaylistTrack>().setItems(songs).build();
-
-    when(spotifyApiWrapper.getPlaylistsItems(anyString())).thenReturn(tracks);
+    when(spotifyApiWrapper.getAllPlaylistsItems(anyString())).thenReturn(Arrays.stream(songs));
 
     Assertions.assertThrows(
         NullPointerException.class, () -> playlistUtility.getDuplicatesTracksByName(""));
@@ -97,9 +124,7 @@ public class PlaylistUtilityTest {
     songs[1] = new PlaylistTrack.Builder().setTrack(track2).build();
     songs[2] = new PlaylistTrack.Builder().setTrack(track3).build();
 
-    Paging<PlaylistTrack> tracks = new Paging.Builder<PlaylistTrack>().setItems(songs).build();
-
-    when(spotifyApiWrapper.getPlaylistsItems(anyString())).thenReturn(tracks);
+    when(spotifyApiWrapper.getAllPlaylistsItems(anyString())).thenReturn(Arrays.stream(songs));
 
     Assertions.assertTrue(playlistUtility.getDuplicatesTracksByName("").isEmpty());
   }
@@ -120,13 +145,13 @@ public class PlaylistUtilityTest {
     songs[1] = track2;
     songs[2] = track3;
 
-    Paging<PlaylistTrack> tracks = new Paging.Builder<PlaylistTrack>().setItems(songs).build();
-
-    when(spotifyApiWrapper.getPlaylistsItems(anyString())).thenReturn(tracks);
+    when(spotifyApiWrapper.getAllPlaylistsItems(anyString())).thenReturn(Arrays.stream(songs));
 
     List<PlaylistTrack> expected = Arrays.asList(track1, track3);
 
-    Assertions.assertIterableEquals(expected, playlistUtility.getDuplicatesTracksByName(""));
+    // The tracks are rebuilt from the table of the playlist
+    Assertions.assertIterableEquals(
+        names(expected), names(playlistUtility.getDuplicatesTracksByName("")));
   }
 
   @Test
@@ -145,10 +170,507 @@ public class PlaylistUtilityTest {
     songs[1] = track2;
     songs[2] = track3;
 
-    Paging<PlaylistTrack> tracks = new Paging.Builder<PlaylistTrack>().setItems(songs).build();
-
-    when(spotifyApiWrapper.getPlaylistsItems(anyString())).thenReturn(tracks);
+    when(spotifyApiWrapper.getAllPlaylistsItems(anyString())).thenReturn(Arrays.stream(songs));
 
     Assertions.assertTrue(playlistUtility.getDuplicatesTracksByName("").isEmpty());
   }
+
+  @Test
+  void testGetDuplicateGroupsByNameNoDuplicates()
+      throws ParseException, SpotifyWebApiException, IOException {
+    Track track1 = new Track.Builder().setName("Give me").build();
+    Track track2 = new Track.Builder().setName("Another way").build();
+    Track track3 = new Track.Builder().setName("A Give me").build();
+
+    PlaylistTrack[] songs = new PlaylistTrack[3];
+    songs[0] = new PlaylistTrack.Builder().setTrack(track1).build();
+    songs[1] = new PlaylistTrack.Builder().setTrack(track2).build();
+    songs[2] = new PlaylistTrack.Builder().setTrack(track3).build();
+
+    when(spotifyApiWrapper.getAllPlaylistsItems(anyString())).thenReturn(Arrays.stream(songs));
+
+    Assertions.assertEquals(0, playlistUtility.getDuplicateGroupsByName("").count());
+  }
+
+  @Test
+  void testGetDuplicateGroupsByNameEveryTrackOnce()
+      throws ParseException, SpotifyWebApiException, IOException {
+    final Track song1 = new Track.Builder().setName("Give Me").build();
+    final Track song2 = new Track.Builder().setName("Another way").build();
+    final Track song3 = new Track.Builder().setName("GIVE ME - Extended").build();
+    final Track song4 = new Track.Builder().setName("give me").build();
+    final Track song5 = new Track.Builder().setName("Another").build();
+    final Track song6 = new Track.Builder().setName("Give me - Radio edit").build();
+
+    PlaylistTrack[] songs = new PlaylistTrack[6];
+    songs[0] = new PlaylistTrack.Builder().setTrack(song1).build();
+    songs[1] = new PlaylistTrack.Builder().setTrack(song2).build();
+    songs[2] = new PlaylistTrack.Builder().setTrack(song3).build();
+    songs[3] = new PlaylistTrack.Builder().setTrack(song4).build();
+    songs[4] = new PlaylistTrack.Builder().setTrack(song5).build();
+    songs[5] = new PlaylistTrack.Builder().setTrack(song6).build();
+
+    when(spotifyApiWrapper.getAllPlaylistsItems(anyString())).thenReturn(Arrays.stream(songs));
+
+    List<DuplicateGroup> groups =
+        playlistUtility.getDuplicateGroupsByName("").collect(Collectors.toList());
+
+    Assertions.assertEquals(2, groups.size());
+    Assertions.assertIterableEquals(Arrays.asList(0, 2, 3, 5), groups.get(0).getPositions());
+    Assertions.assertIterableEquals(
+        names(Arrays.asList(songs[0], songs[2], songs[3], songs[5])),
+        names(groups.get(0).getTracks()));
+    Assertions.assertIterableEquals(Arrays.asList(1, 4), groups.get(1).getPositions());
+  }
+
+  @Test
+  void testDuplicateGroupsByNameAreWalkedLazily()
+      throws ParseException, SpotifyWebApiException, IOException {
+    final PlaylistTrack giveMe = playlistTrack("spotify:track:1", 1, "Give me");
+    final PlaylistTrack anotherWay = playlistTrack("spotify:track:2", 2, "Another way");
+    final PlaylistTrack another = playlistTrack("spotify:track:3", 3, "Another");
+    final PlaylistTrack giveMeEdit = playlistTrack("spotify:track:4", 4, "Give me - Radio edit");
+
+    when(spotifyApiWrapper.getAllPlaylistsItems(anyString()))
+        .thenAnswer(invocation -> Stream.of(giveMe, anotherWay, another, giveMeEdit));
+
+    Iterator<DuplicateGroup> groups = playlistUtility.getDuplicateGroupsByName("").iterator();
+    Assertions.assertIterableEquals(Arrays.asList(0, 3), groups.next().getPositions());
+
+    // The rest of the walk would read an index that changed in the meantime
+    playlistUtility.getUpdatedDuplicateGroupsByName("");
+    Assertions.assertThrows(ConcurrentModificationException.class, groups::next);
+  }
+
+  @Test
+  void testGetDuplicateGroupsByNameNullTitle()
+      throws ParseException, SpotifyWebApiException, IOException {
+    Track track1 = new Track.Builder().setName(null).build();
+    Track track2 = new Track.Builder().setName(null).build();
+
+    PlaylistTrack[] songs = new PlaylistTrack[2];
+    songs[0] = new PlaylistTrack.Builder().setTrack(track1).build();
+    songs[1] = new PlaylistTrack.Builder().setTrack(track2).build();
+
+    when(spotifyApiWrapper.getAllPlaylistsItems(anyString())).thenReturn(Arrays.stream(songs));
+
+    Assertions.assertThrows(
+        NullPointerException.class, () -> playlistUtility.getDuplicateGroupsByName(""));
+  }
+
+  @Test
+  void testGetUpdatedDuplicateGroupsByNameOnlyChangedGroups()
+      throws ParseException, SpotifyWebApiException, IOException {
+    final PlaylistTrack giveMe = playlistTrack("spotify:track:1", 1, "Give me");
+    final PlaylistTrack anotherWay = playlistTrack("spotify:track:2", 2, "Another way");
+    final PlaylistTrack another = playlistTrack("spotify:track:3", 3, "Another");
+    final PlaylistTrack giveMeEdit = playlistTrack("spotify:track:4", 4, "Give me - Radio edit");
+    final PlaylistTrack giveMeExtended = playlistTrack("spotify:track:5", 5, "Give me - Extended");
+
+    when(spotifyApiWrapper.getAllPlaylistsItems(anyString()))
+        .thenReturn(Stream.of(giveMe, anotherWay, another, giveMeEdit))
+        .thenReturn(Stream.of(giveMeExtended, giveMe, anotherWay, another, giveMeEdit))
+        .thenReturn(Stream.of(giveMeExtended, giveMe, anotherWay, giveMeEdit));
+
+    // The first check returns every group
+    Assertions.assertEquals(2, playlistUtility.getUpdatedDuplicateGroupsByName("").count());
+
+    // A track added at the top changes only its group, the positions follow the new order
+    List<DuplicateGroup> groups =
+        playlistUtility.getUpdatedDuplicateGroupsByName("").collect(Collectors.toList());
+    Assertions.assertEquals(1, groups.size());
+    Assertions.assertIterableEquals(Arrays.asList(0, 1, 4), groups.get(0).getPositions());
+    Assertions.assertIterableEquals(
+        uris(Arrays.asList(giveMeExtended, giveMe, giveMeEdit)), uris(groups.get(0).getTracks()));
+
+    // Once a track is removed, its group is no longer a duplicate and every other group is kept
+    Assertions.assertEquals(0, playlistUtility.getUpdatedDuplicateGroupsByName("").count());
+    when(spotifyApiWrapper.getAllPlaylistsItems(anyString()))
+        .thenReturn(Stream.of(giveMeExtended, giveMe, anotherWay, giveMeEdit));
+    groups = playlistUtility.getDuplicateGroupsByName("").collect(Collectors.toList());
+    Assertions.assertEquals(1, groups.size());
+    Assertions.assertIterableEquals(Arrays.asList(0, 1, 3), groups.get(0).getPositions());
+  }
+
+  @Test
+  void testOnlyTheLastIndexesAreKept() throws ParseException, SpotifyWebApiException, IOException {
+    final PlaylistTrack giveMe = playlistTrack("spotify:track:1", 1, "Give me");
+    final PlaylistTrack giveMeEdit = playlistTrack("spotify:track:2", 2, "Give me - Radio edit");
+
+    when(spotifyApiWrapper.getAllPlaylistsItems(anyString()))
+        .thenAnswer(invocation -> Stream.of(giveMe, giveMeEdit));
+    playlistUtility.setIndexCapacity(1);
+
+    Assertions.assertEquals(1, playlistUtility.getUpdatedDuplicateGroupsByName("first").count());
+    Assertions.assertEquals(0, playlistUtility.getUpdatedDuplicateGroupsByName("first").count());
+
+    // The index of the second playlist replaces the one of the first, that is indexed again
+    Assertions.assertEquals(1, playlistUtility.getUpdatedDuplicateGroupsByName("second").count());
+    Assertions.assertEquals(1, playlistUtility.getUpdatedDuplicateGroupsByName("first").count());
+    Assertions.assertThrows(
+        IllegalArgumentException.class, () -> playlistUtility.setIndexCapacity(0));
+  }
+
+  @Test
+  void testChangesAreTrackedAcrossProcesses()
+      throws ParseException, SpotifyWebApiException, IOException {
+    final PlaylistTrack giveMe = playlistTrack("spotify:track:1", 1, "Give me");
+    final PlaylistTrack anotherWay = playlistTrack("spotify:track:2", 2, "Another way");
+    final PlaylistTrack another = playlistTrack("spotify:track:3", 3, "Another");
+    final PlaylistTrack giveMeEdit = playlistTrack("spotify:track:4", 4, "Give me - Radio edit");
+
+    when(spotifyApiWrapper.getSnapshotCache())
+        .thenReturn(new PlaylistSnapshotCache(this.directory, Long.MAX_VALUE));
+    when(spotifyApiWrapper.getAllPlaylistsItems("playlist"))
+        .thenReturn(Stream.of(giveMe, anotherWay, another))
+        .thenReturn(Stream.of(giveMe, anotherWay, another))
+        .thenReturn(Stream.of(giveMe, anotherWay, another, giveMeEdit));
+
+    Assertions.assertEquals(1, playlistUtility.getUpdatedDuplicateGroupsByName("playlist").count());
+
+    // A new process starts from the last check of the previous one
+    Assertions.assertEquals(
+        0,
+        new PlaylistUtility(spotifyApiWrapper).getUpdatedDuplicateGroupsByName("playlist").count());
+
+    List<DuplicateGroup> groups =
+        new PlaylistUtility(spotifyApiWrapper)
+            .getNewDuplicateGroupsByName("playlist")
+            .collect(Collectors.toList());
+    Assertions.assertEquals(1, groups.size());
+    Assertions.assertIterableEquals(Arrays.asList(0, 3), groups.get(0).getPositions());
+  }
+
+  @Test
+  void testGetLibraryDuplicateGroupsByName()
+      throws ParseException, SpotifyWebApiException, IOException {
+    final PlaylistTrack giveMe = playlistTrack("spotify:track:1", 1, "Give me");
+    final PlaylistTrack anotherWay = playlistTrack("spotify:track:2", 2, "Another way");
+    final PlaylistTrack giveMeEdit = playlistTrack("spotify:track:3", 3, "Give me - Radio edit");
+    final PlaylistTrack unavailable = new PlaylistTrack.Builder().build();
+    final PlaylistTrack another = playlistTrack("spotify:track:4", 4, "another");
+
+    when(spotifyApiWrapper.getAllCurrentUsersPlaylists())
+        .thenReturn(
+            Stream.of(
+                new PlaylistSimplified.Builder().setId("first").build(),
+                new PlaylistSimplified.Builder().setId("second").build(),
+                new PlaylistSimplified.Builder().setId("third").build()));
+    when(spotifyApiWrapper.getAllPlaylistsItems("first"))
+        .thenAnswer(invocation -> Stream.of(giveMe, anotherWay));
+    when(spotifyApiWrapper.getAllPlaylistsItems("second"))
+        .thenAnswer(invocation -> Stream.of(unavailable, giveMeEdit, giveMe));
+    when(spotifyApiWrapper.getAllPlaylistsItems("third"))
+        .thenAnswer(invocation -> Stream.of(another));
+
+    List<DuplicateGroup> groups =
+        playlistUtility.getLibraryDuplicateGroupsByName().collect(Collectors.toList());
+
+    Assertions.assertEquals(2, groups.size());
+    Assertions.assertIterableEquals(
+        Arrays.asList("first", "second", "second"), groups.get(0).getPlaylistIds());
+    Assertions.assertIterableEquals(Arrays.asList(0, 1, 2), groups.get(0).getPositions());
+    Assertions.assertIterableEquals(
+        uris(Arrays.asList(giveMe, giveMeEdit, giveMe)), uris(groups.get(0).getTracks()));
+    Assertions.assertIterableEquals(
+        Arrays.asList("first", "third"), groups.get(1).getDistinctPlaylistIds());
+  }
+
+  @Test
+  void testExportLibraryAndCheckOffline()
+      throws ParseException, SpotifyWebApiException, IOException {
+    final PlaylistTrack giveMe = playlistTrack("spotify:track:1", 1, "Give me");
+    final PlaylistTrack anotherWay = playlistTrack("spotify:track:2", 2, "Another way");
+    final PlaylistTrack giveMeEdit = playlistTrack("spotify:track:3", 3, "Give me - Radio edit");
+    final PlaylistTrack unavailable = new PlaylistTrack.Builder().build();
+
+    when(spotifyApiWrapper.getAllCurrentUsersPlaylists())
+        .thenReturn(
+            Stream.of(
+                new PlaylistSimplified.Builder()
+                    .setId("first")
+                    .setName("First")
+                    .setSnapshotId("a")
+                    .build(),
+                new PlaylistSimplified.Builder()
+                    .setId("second")
+                    .setName("Second")
+                    .setSnapshotId("b")
+                    .build()));
+    when(spotifyApiWrapper.getAllPlaylistsItems("first"))
+        .thenAnswer(invocation -> Stream.of(giveMe, anotherWay));
+    when(spotifyApiWrapper.getAllPlaylistsItems("second"))
+        .thenAnswer(invocation -> Stream.of(unavailable, giveMeEdit, giveMe));
+    when(spotifyApiWrapper.getPlaylistSnapshotId("first")).thenReturn("a");
+    when(spotifyApiWrapper.getPlaylistSnapshotId("second")).thenReturn("b");
+
+    LibraryFile library = playlistUtility.exportLibrary(this.directory.resolve("library.bin"));
+
+    Assertions.assertEquals(2, library.getPlaylistCount());
+    Assertions.assertEquals(5, library.getTrackCount());
+    Assertions.assertEquals("Second", library.getPlaylistName(1));
+    Assertions.assertEquals("b", library.getSnapshotId(1));
+
+    // The export is checked without any other request
+    verify(spotifyApiWrapper).getAllCurrentUsersPlaylists();
+    verify(spotifyApiWrapper).getAllPlaylistsItems("first");
+    verify(spotifyApiWrapper).getAllPlaylistsItems("second");
+    // The listed snapshot is the one before the items, only the responses of the playlist are
+    // discarded
+    verify(spotifyApiWrapper).getPlaylistSnapshotId("first");
+    verify(spotifyApiWrapper).getPlaylistSnapshotId("second");
+    verify(spotifyApiWrapper, times(2)).discardCachedResponses("first");
+    verify(spotifyApiWrapper, times(2)).discardCachedResponses("second");
+
+    List<DuplicateGroup> groups =
+        playlistUtility
+            .getLibraryDuplicateGroupsByName(LibraryFile.open(library.getPath()))
+            .collect(Collectors.toList());
+    verifyNoMoreInteractions(spotifyApiWrapper);
+
+    Assertions.assertEquals(1, groups.size());
+    Assertions.assertIterableEquals(
+        Arrays.asList("first", "second", "second"), groups.get(0).getPlaylistIds());
+    Assertions.assertIterableEquals(Arrays.asList(0, 1, 2), groups.get(0).getPositions());
+    Assertions.assertIterableEquals(
+        names(Arrays.asList(giveMe, giveMeEdit, giveMe)), names(groups.get(0).getTracks()));
+    Assertions.assertEquals(
+        "spotify:track:3", groups.get(0).getTracks().get(1).getTrack().getUri());
+  }
+
+  @Test
+  void testExportLibraryReadsAgainTheChangedPlaylists()
+      throws ParseException, SpotifyWebApiException, IOException {
+    final PlaylistTrack giveMe = playlistTrack("spotify:track:1", 1, "Give me");
+    final PlaylistTrack anotherWay = playlistTrack("spotify:track:2", 2, "Another way");
+
+    when(spotifyApiWrapper.getAllCurrentUsersPlaylists())
+        .thenReturn(
+            Stream.of(new PlaylistSimplified.Builder().setId("first").setSnapshotId("a").build()));
+    when(spotifyApiWrapper.getAllPlaylistsItems("first"))
+        .thenReturn(Stream.of(giveMe), Stream.of(giveMe, anotherWay));
+    // The playlist changed after it was listed
+    when(spotifyApiWrapper.getPlaylistSnapshotId("first")).thenReturn("b");
+
+    LibraryFile library = playlistUtility.exportLibrary(this.directory.resolve("library.bin"));
+
+    // The items and the snapshot are the ones of the second read, not the ones of the listing
+    Assertions.assertEquals("b", library.getSnapshotId(0));
+    Assertions.assertEquals(2, library.getTrackCount());
+    verify(spotifyApiWrapper, times(2)).getAllPlaylistsItems("first");
+    verify(spotifyApiWrapper, times(3)).getPlaylistSnapshotId("first");
+  }
+
+  @Test
+  void testGetLibraryDuplicateGroupsByNameRequestError()
+      throws ParseException, SpotifyWebApiException, IOException {
+    when(spotifyApiWrapper.getAllCurrentUsersPlaylists())
+        .thenReturn(
+            Stream.of(
+                new PlaylistSimplified.Builder().setId("first").build(),
+                new PlaylistSimplified.Builder().setId("second").build()));
+    // The scan can stop before requesting the first playlist
+    lenient()
+        .when(spotifyApiWrapper.getAllPlaylistsItems("first"))
+        .thenAnswer(invocation -> Stream.of());
+    when(spotifyApiWrapper.getAllPlaylistsItems("second"))
+        .thenThrow(new NotFoundException("Not found"));
+
+    Assertions.assertThrows(
+        NotFoundException.class, () -> playlistUtility.getLibraryDuplicateGroupsByName());
+  }
+
+  @Test
+  void testGetLibraryDuplicateGroupsByNameAsync() throws Exception {
+    final PlaylistTrack giveMe = playlistTrack("spotify:track:1", 1, "Give me");
+    final PlaylistTrack anotherWay = playlistTrack("spotify:track:2", 2, "Another way");
+    final PlaylistTrack giveMeEdit = playlistTrack("spotify:track:3", 3, "Give me - Radio edit");
+    final CompletableFuture<List<PlaylistTrack>> second = new CompletableFuture<>();
+
+    when(spotifyApiWrapper.getAllCurrentUsersPlaylistsAsync())
+        .thenReturn(
+            CompletableFuture.completedFuture(
+                Arrays.asList(
+                    new PlaylistSimplified.Builder().setId("first").build(),
+                    new PlaylistSimplified.Builder().setId("second").build())));
+    when(spotifyApiWrapper.getAllPlaylistsItemsAsync("first"))
+        .thenReturn(CompletableFuture.completedFuture(Arrays.asList(giveMe, anotherWay)));
+    when(spotifyApiWrapper.getAllPlaylistsItemsAsync("second")).thenReturn(second);
+
+    CompletableFuture<List<DuplicateGroup>> result =
+        playlistUtility.getLibraryDuplicateGroupsByNameAsync();
+    Assertions.assertFalse(result.isDone());
+
+    second.complete(Arrays.asList(giveMeEdit));
+    List<DuplicateGroup> groups = result.get(10, TimeUnit.SECONDS);
+
+    Assertions.assertEquals(1, groups.size());
+    Assertions.assertIterableEquals(
+        Arrays.asList("first", "second"), groups.get(0).getPlaylistIds());
+    Assertions.assertIterableEquals(Arrays.asList(0, 0), groups.get(0).getPositions());
+  }
+
+  @Test
+  void testGetLibraryDuplicateGroupsByNameAsyncCancel() {
+    final CompletableFuture<List<PlaylistTrack>> first = new CompletableFuture<>();
+
+    when(spotifyApiWrapper.getAllCurrentUsersPlaylistsAsync())
+        .thenReturn(
+            CompletableFuture.completedFuture(
+                Arrays.asList(new PlaylistSimplified.Builder().setId("first").build())));
+    when(spotifyApiWrapper.getAllPlaylistsItemsAsync("first")).thenReturn(first);
+
+    playlistUtility.getLibraryDuplicateGroupsByNameAsync().cancel(true);
+
+    Assertions.assertTrue(first.isCancelled());
+  }
+
+  @Test
+  void testGetDuplicateGroupsWithStages()
+      throws ParseException, SpotifyWebApiException, IOException {
+    final PlaylistTrack[] songs = {
+      playlistTrack("spotify:track:1", 1, "Love Story"),
+      playlistTrack("spotify:track:2", 2, "Song (Remastered 2011)"),
+      playlistTrack("spotify:track:3", 3, "Love"),
+      playlistTrack("spotify:track:4", 4, "Song - 2011 Remaster"),
+      playlistTrack("spotify:track:5", 5, "Love Me Do")
+    };
+
+    when(spotifyApiWrapper.getAllPlaylistsItems(anyString()))
+        .thenAnswer(invocation -> Arrays.stream(songs));
+
+    List<DuplicateGroup> prefixGroups =
+        playlistUtility
+            .getDuplicateGroups("playlist", new TitlePrefixStage())
+            .collect(Collectors.toList());
+    Assertions.assertEquals(1, prefixGroups.size());
+    Assertions.assertIterableEquals(Arrays.asList(0, 2, 4), prefixGroups.get(0).getPositions());
+    Assertions.assertIterableEquals(
+        Arrays.asList("playlist", "playlist", "playlist"), prefixGroups.get(0).getPlaylistIds());
+
+    List<DuplicateGroup> fuzzyGroups =
+        playlistUtility
+            .getDuplicateGroups("playlist", new MinHashSimilarityStage())
+            .collect(Collectors.toList());
+    Assertions.assertEquals(1, fuzzyGroups.size());
+    Assertions.assertIterableEquals(Arrays.asList(1, 3), fuzzyGroups.get(0).getPositions());
+  }
+
+  @Test
+  void testRemoveDuplicateTracksByName() throws Exception {
+    when(spotifyApiWrapper.getPlaylistSnapshotId("playlist")).thenReturn("s0");
+    when(spotifyApiWrapper.getAllPlaylistsItems("playlist"))
+        .thenAnswer(invocation -> duplicatedPlaylist().stream());
+    when(spotifyApiWrapper.removePlaylistsItems(eq("playlist"), anyList(), anyList(), eq("s0")))
+        .thenReturn("s1");
+    when(spotifyApiWrapper.removePlaylistsItems(eq("playlist"), anyList(), anyList(), eq("s1")))
+        .thenReturn("s2");
+    when(spotifyApiWrapper.removePlaylistsItems(eq("playlist"), anyList(), anyList(), eq("s2")))
+        .thenReturn("s3");
+
+    DuplicateRemoval removal = playlistUtility.removeDuplicateTracksByName("playlist", false);
+
+    Assertions.assertEquals(250, removal.size());
+    Assertions.assertEquals(3, removal.getRequests());
+    Assertions.assertEquals("s3", removal.getSnapshotId());
+    Assertions.assertEquals(50, removal.getPositions().get(0));
+    Assertions.assertEquals("Title 0", removal.getTracks().get(0).getTrack().getName());
+
+    // The last tracks are removed first, so the positions of the others do not change
+    ArgumentCaptor<List<Integer>> positions = ArgumentCaptor.forClass(List.class);
+    InOrder inOrder = inOrder(spotifyApiWrapper);
+    inOrder
+        .verify(spotifyApiWrapper)
+        .removePlaylistsItems(any(), any(), positions.capture(), eq("s0"));
+    inOrder
+        .verify(spotifyApiWrapper)
+        .removePlaylistsItems(any(), any(), positions.capture(), eq("s1"));
+    inOrder
+        .verify(spotifyApiWrapper)
+        .removePlaylistsItems(any(), any(), positions.capture(), eq("s2"));
+
+    Assertions.assertEquals(200, positions.getAllValues().get(0).get(0));
+    Assertions.assertEquals(100, positions.getAllValues().get(0).size());
+    Assertions.assertEquals(100, positions.getAllValues().get(1).get(0));
+    Assertions.assertEquals(50, positions.getAllValues().get(2).get(0));
+    Assertions.assertEquals(50, positions.getAllValues().get(2).size());
+  }
+
+  @Test
+  void testRemoveDuplicateTracksByNameAfterServerError() throws Exception {
+    when(spotifyApiWrapper.getPlaylistSnapshotId("playlist")).thenReturn("s0", "s0", "s2");
+    // The failed request did not remove its tracks
+    when(spotifyApiWrapper.getAllPlaylistsItems("playlist"))
+        .thenAnswer(invocation -> duplicatedPlaylist().stream())
+        .thenAnswer(invocation -> duplicatedPlaylist().subList(0, 200).stream());
+    when(spotifyApiWrapper.removePlaylistsItems(eq("playlist"), anyList(), anyList(), eq("s0")))
+        .thenReturn("s1");
+    when(spotifyApiWrapper.removePlaylistsItems(eq("playlist"), anyList(), anyList(), eq("s1")))
+        .thenThrow(new InternalServerErrorException("Internal Server Error"));
+    when(spotifyApiWrapper.removePlaylistsItems(eq("playlist"), anyList(), anyList(), eq("s2")))
+        .thenReturn("s3");
+    when(spotifyApiWrapper.removePlaylistsItems(eq("playlist"), anyList(), anyList(), eq("s3")))
+        .thenReturn("s4");
+
+    DuplicateRemoval removal = playlistUtility.removeDuplicateTracksByName("playlist", false);
+
+    Assertions.assertEquals(250, removal.size());
+    Assertions.assertEquals(4, removal.getRequests());
+    Assertions.assertEquals("s4", removal.getSnapshotId());
+    Assertions.assertEquals(50, removal.getPositions().get(0));
+    Assertions.assertEquals(200, removal.getPositions().get(150));
+
+    // The positions are computed again from the new snapshot, the failed batch is not replayed
+    ArgumentCaptor<List<Integer>> positions = ArgumentCaptor.forClass(List.class);
+    verify(spotifyApiWrapper, times(1))
+        .removePlaylistsItems(any(), any(), positions.capture(), eq("s1"));
+    verify(spotifyApiWrapper, times(1))
+        .removePlaylistsItems(any(), any(), positions.capture(), eq("s2"));
+    Assertions.assertEquals(100, positions.getAllValues().get(0).get(0));
+    Assertions.assertEquals(100, positions.getAllValues().get(1).get(0));
+    verify(spotifyApiWrapper, times(4)).removePlaylistsItems(any(), any(), any(), any());
+  }
+
+  @Test
+  void testRemoveDuplicateTracksByNameDryRun() throws Exception {
+    // The playlist changes while it is read the first time
+    when(spotifyApiWrapper.getPlaylistSnapshotId("playlist")).thenReturn("a", "b", "c", "c");
+    when(spotifyApiWrapper.getAllPlaylistsItems("playlist"))
+        .thenAnswer(invocation -> duplicatedPlaylist().stream());
+
+    DuplicateRemoval removal = playlistUtility.removeDuplicateTracksByName("playlist", true);
+
+    Assertions.assertTrue(removal.isDryRun());
+    Assertions.assertEquals(250, removal.size());
+    Assertions.assertEquals(0, removal.getRequests());
+    Assertions.assertEquals("c", removal.getSnapshotId());
+    verify(spotifyApiWrapper, never()).removePlaylistsItems(any(), any(), any(), any());
+  }
+
+  /**
+   * @return 50 different tracks followed by 250 duplicates of them
+   */
+  private static List<PlaylistTrack> duplicatedPlaylist() {
+    return IntStream.range(0, 300)
+        .mapToObj(
+            position ->
+                playlistTrack("spotify:track:" + position, position, "Title " + position % 50))
+        .collect(Collectors.toList());
+  }
+
+  /** The tracks read from an export are rebuilt from its columns, so they are compared by title. */
+  private static List<String> names(List<PlaylistTrack> tracks) {
+    return tracks.stream().map(track -> track.getTrack().getName()).collect(Collectors.toList());
+  }
+
+  private static List<String> uris(List<PlaylistTrack> tracks) {
+    return tracks.stream().map(track -> track.getTrack().getUri()).collect(Collectors.toList());
+  }
+
+  private static PlaylistTrack playlistTrack(String uri, long addedAt, String name) {
+    return new PlaylistTrack.Builder()
+        .setAddedAt(new Date(addedAt))
+        .setTrack(new Track.Builder().setUri(uri).setName(name).build())
+        .build();
+  }
 }
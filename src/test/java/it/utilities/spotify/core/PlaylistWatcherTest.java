@@ -0,0 +1,126 @@
+package it.utilities.spotify.core;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.wrapper.spotify.model_objects.specification.PlaylistSimplified;
+import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import com.wrapper.spotify.model_objects.specification.Track;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class PlaylistWatcherTest {
+
+  private final SpotifyApiWrapper spotifyApiWrapper = mock(SpotifyApiWrapper.class);
+  private final PlaylistWatcher watcher =
+      new PlaylistWatcher(
+          this.spotifyApiWrapper, new PlaylistUtility(this.spotifyApiWrapper), Set.of());
+
+  @Test
+  void testOnlyAddedDuplicatesAreReported() throws Exception {
+    final PlaylistTrack giveMe = playlistTrack("spotify:track:1", 1, "Give me");
+    final PlaylistTrack anotherWay = playlistTrack("spotify:track:2", 2, "Another way");
+    final PlaylistTrack giveMeEdit = playlistTrack("spotify:track:3", 3, "Give me - Radio edit");
+    final PlaylistTrack another = playlistTrack("spotify:track:4", 4, "Another");
+
+    when(this.spotifyApiWrapper.getAllCurrentUsersPlaylists())
+        .thenAnswer(invocation -> Stream.of(playlist("a", "1"), playlist("b", "1")))
+        .thenAnswer(invocation -> Stream.of(playlist("a", "2"), playlist("b", "1")))
+        .thenAnswer(invocation -> Stream.of(playlist("a", "3"), playlist("b", "1")))
+        .thenAnswer(invocation -> Stream.of(playlist("a", "3")));
+    when(this.spotifyApiWrapper.getAllPlaylistsItems("a"))
+        .thenReturn(Stream.of(giveMe, anotherWay, giveMeEdit))
+        .thenReturn(Stream.of(giveMe, anotherWay, giveMeEdit, another))
+        .thenReturn(Stream.of(giveMe, anotherWay, another));
+    when(this.spotifyApiWrapper.getAllPlaylistsItems("b"))
+        .thenReturn(Stream.of(giveMe, giveMeEdit));
+
+    // The first check only records the duplicates already there
+    Assertions.assertTrue(this.watcher.check().isEmpty());
+    Assertions.assertEquals(2, this.watcher.getWatchedCount());
+
+    // Only the changed playlist is read again, and only its new group is reported
+    List<DuplicateGroup> groups = this.watcher.check();
+    Assertions.assertEquals(1, groups.size());
+    Assertions.assertEquals("a", groups.get(0).getPlaylistIds().get(0));
+    Assertions.assertIterableEquals(Arrays.asList(1, 3), groups.get(0).getPositions());
+    verify(this.spotifyApiWrapper, times(1)).getAllPlaylistsItems("b");
+
+    // Removing a duplicate is not an alert
+    Assertions.assertTrue(this.watcher.check().isEmpty());
+
+    // The playlists that are no longer in the list are forgotten
+    Assertions.assertTrue(this.watcher.check().isEmpty());
+    Assertions.assertEquals(1, this.watcher.getWatchedCount());
+    verify(this.spotifyApiWrapper, times(3)).getAllPlaylistsItems("a");
+  }
+
+  @Test
+  void testWatchedPlaylistsOutsideTheList() throws Exception {
+    final PlaylistWatcher watched =
+        new PlaylistWatcher(
+            this.spotifyApiWrapper, new PlaylistUtility(this.spotifyApiWrapper), Set.of("b", "c"));
+
+    when(this.spotifyApiWrapper.getAllCurrentUsersPlaylists())
+        .thenAnswer(invocation -> Stream.of(playlist("a", "1"), playlist("b", "1")));
+    when(this.spotifyApiWrapper.getPlaylistSnapshotId("c")).thenReturn("1");
+    when(this.spotifyApiWrapper.getAllPlaylistsItems("b"))
+        .thenReturn(Stream.of(playlistTrack("spotify:track:1", 1, "Give me")));
+    when(this.spotifyApiWrapper.getAllPlaylistsItems("c"))
+        .thenReturn(Stream.of(playlistTrack("spotify:track:2", 2, "Another way")));
+
+    Assertions.assertTrue(watched.check().isEmpty());
+    Assertions.assertTrue(watched.check().isEmpty());
+
+    // The unchanged playlists are not read again
+    Assertions.assertEquals(2, watched.getWatchedCount());
+    verify(this.spotifyApiWrapper, times(1)).getAllPlaylistsItems("b");
+    verify(this.spotifyApiWrapper, times(1)).getAllPlaylistsItems("c");
+    verify(this.spotifyApiWrapper, times(2)).getPlaylistSnapshotId("c");
+  }
+
+  @Test
+  void testOtherChecksDoNotHideTheAddedDuplicates() throws Exception {
+    final PlaylistUtility playlistUtility = new PlaylistUtility(this.spotifyApiWrapper);
+    final PlaylistWatcher watcher =
+        new PlaylistWatcher(this.spotifyApiWrapper, playlistUtility, Set.of());
+    final PlaylistTrack giveMe = playlistTrack("spotify:track:1", 1, "Give me");
+    final PlaylistTrack giveMeEdit = playlistTrack("spotify:track:2", 2, "Give me - Radio edit");
+
+    when(this.spotifyApiWrapper.getAllCurrentUsersPlaylists())
+        .thenAnswer(invocation -> Stream.of(playlist("a", "1")))
+        .thenAnswer(invocation -> Stream.of(playlist("a", "2")));
+    when(this.spotifyApiWrapper.getAllPlaylistsItems("a"))
+        .thenReturn(Stream.of(giveMe))
+        .thenAnswer(invocation -> Stream.of(giveMe, giveMeEdit));
+
+    Assertions.assertTrue(watcher.check().isEmpty());
+
+    // Another check of the playlist sees the duplicate first
+    try (Stream<DuplicateGroup> groups = playlistUtility.getNewDuplicateGroupsByName("a")) {
+      Assertions.assertEquals(1, groups.count());
+    }
+
+    final List<DuplicateGroup> groups = watcher.check();
+    Assertions.assertEquals(1, groups.size());
+    Assertions.assertIterableEquals(Arrays.asList(0, 1), groups.get(0).getPositions());
+  }
+
+  private static PlaylistSimplified playlist(String id, String snapshotId) {
+    return new PlaylistSimplified.Builder().setId(id).setSnapshotId(snapshotId).build();
+  }
+
+  private static PlaylistTrack playlistTrack(String uri, long addedAt, String name) {
+    return new PlaylistTrack.Builder()
+        .setAddedAt(new Date(addedAt))
+        .setTrack(new Track.Builder().setUri(uri).setName(name).build())
+        .build();
+  }
+}
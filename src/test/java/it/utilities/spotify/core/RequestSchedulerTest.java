@@ -0,0 +1,364 @@
+package it.utilities.spotify.core;
+
+import com.wrapper.spotify.exceptions.SpotifyWebApiException;
+import com.wrapper.spotify.exceptions.detailed.BadRequestException;
+import com.wrapper.spotify.exceptions.detailed.ServiceUnavailableException;
+import com.wrapper.spotify.exceptions.detailed.TooManyRequestsException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.hc.core5.http.ParseException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class RequestSchedulerTest {
+
+  @Test
+  void testRetryAfterTooManyRequests() throws ParseException, SpotifyWebApiException, IOException {
+    RequestScheduler scheduler =
+        RequestScheduler.builder()
+            .setInitialRate(40)
+            .setBackoff(1, 5, TimeUnit.MILLISECONDS)
+            .build();
+    AtomicInteger calls = new AtomicInteger();
+
+    String result =
+        scheduler.execute(
+            "test",
+            () -> {
+              if (calls.incrementAndGet() <= 2) {
+                throw new TooManyRequestsException("Too many requests", 0);
+              }
+              return "done";
+            });
+
+    Assertions.assertEquals("done", result);
+    Assertions.assertEquals(3, calls.get());
+    Assertions.assertTrue(scheduler.getRate() < 40);
+  }
+
+  @Test
+  void testMetricsAreRecorded() throws Exception {
+    Metrics metrics = new Metrics("test");
+    RequestScheduler scheduler =
+        RequestScheduler.builder()
+            .setBackoff(1, 5, TimeUnit.MILLISECONDS)
+            .setMetrics(metrics)
+            .build();
+    AtomicInteger calls = new AtomicInteger();
+
+    scheduler.execute(
+        "sync",
+        () -> {
+          if (calls.incrementAndGet() == 1) {
+            throw new TooManyRequestsException("Too many requests", 0);
+          }
+          return "done";
+        });
+    Assertions.assertThrows(
+        BadRequestException.class,
+        () ->
+            scheduler.execute(
+                "sync",
+                () -> {
+                  throw new BadRequestException("Bad request");
+                }));
+    scheduler
+        .executeAsync(
+            "async",
+            () ->
+                calls.incrementAndGet() == 3
+                    ? CompletableFuture.failedFuture(new ServiceUnavailableException("Unavailable"))
+                    : CompletableFuture.completedFuture("done"))
+        .get(10, TimeUnit.SECONDS);
+
+    Metrics.Endpoint sync = metrics.endpoint("sync");
+    Assertions.assertEquals(3, sync.getRequests());
+    Assertions.assertEquals(1, sync.getTooManyRequests());
+    Assertions.assertEquals(1, sync.getErrors());
+    Assertions.assertEquals(3, sync.getLatency().getCount());
+    Assertions.assertTrue(sync.getResponsesPerSecond() > 0);
+
+    Metrics.Endpoint async = metrics.endpoint("async");
+    Assertions.assertEquals(2, async.getRequests());
+    Assertions.assertEquals(1, async.getErrors());
+    Assertions.assertEquals(0, async.getTooManyRequests());
+  }
+
+  @Test
+  void testRetryAfterIsHonored() throws ParseException, SpotifyWebApiException, IOException {
+    RequestScheduler scheduler =
+        RequestScheduler.builder().setBackoff(1, 5, TimeUnit.MILLISECONDS).build();
+    AtomicInteger calls = new AtomicInteger();
+
+    long start = System.nanoTime();
+    scheduler.execute(
+        "test",
+        () -> {
+          if (calls.incrementAndGet() == 1) {
+            throw new TooManyRequestsException("Too many requests", 1);
+          }
+          return null;
+        });
+
+    Assertions.assertTrue(System.nanoTime() - start >= TimeUnit.SECONDS.toNanos(1));
+  }
+
+  @Test
+  void testGiveUpAfterMaxRetries() {
+    RequestScheduler scheduler =
+        RequestScheduler.builder().setMaxRetries(2).setBackoff(1, 5, TimeUnit.MILLISECONDS).build();
+    AtomicInteger calls = new AtomicInteger();
+
+    Assertions.assertThrows(
+        ServiceUnavailableException.class,
+        () ->
+            scheduler.execute(
+                "test",
+                () -> {
+                  calls.incrementAndGet();
+                  throw new ServiceUnavailableException("Service unavailable");
+                }));
+    Assertions.assertEquals(3, calls.get());
+  }
+
+  @Test
+  void testExecuteOnceNeverRetries() {
+    RequestScheduler scheduler =
+        RequestScheduler.builder().setBackoff(1, 5, TimeUnit.MILLISECONDS).build();
+    AtomicInteger calls = new AtomicInteger();
+
+    Assertions.assertThrows(
+        ServiceUnavailableException.class,
+        () ->
+            scheduler.executeOnce(
+                "test",
+                () -> {
+                  calls.incrementAndGet();
+                  throw new ServiceUnavailableException("Service unavailable");
+                }));
+    Assertions.assertThrows(
+        TooManyRequestsException.class,
+        () ->
+            scheduler.executeOnce(
+                "test",
+                () -> {
+                  calls.incrementAndGet();
+                  throw new TooManyRequestsException("Too many requests", 0);
+                }));
+    Assertions.assertEquals(2, calls.get());
+  }
+
+  @Test
+  void testNoRetryOnClientError() {
+    RequestScheduler scheduler = RequestScheduler.builder().build();
+    AtomicInteger calls = new AtomicInteger();
+
+    Assertions.assertThrows(
+        BadRequestException.class,
+        () ->
+            scheduler.execute(
+                "test",
+                () -> {
+                  calls.incrementAndGet();
+                  throw new BadRequestException("Bad request");
+                }));
+    Assertions.assertEquals(1, calls.get());
+  }
+
+  @Test
+  void testRateIsEnforced() throws ParseException, SpotifyWebApiException, IOException {
+    RequestScheduler scheduler =
+        RequestScheduler.builder()
+            .setInitialRate(20)
+            .setRateBounds(1, 20)
+            .setBurst(1)
+            .setRateIncrease(0)
+            .build();
+
+    long start = System.nanoTime();
+    for (int i = 0; i < 11; i++) {
+      scheduler.execute("test", () -> null);
+    }
+
+    // The first request uses the initial token, the other 10 are sent at 20 requests per second
+    Assertions.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(450));
+  }
+
+  @Test
+  void testEndpointConcurrency() throws Exception {
+    RequestScheduler scheduler =
+        RequestScheduler.builder()
+            .setRateBounds(1, 1000)
+            .setInitialRate(1000)
+            .setBurst(1000)
+            .setEndpointConcurrency("limited", 2)
+            .build();
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<Object>> futures = new ArrayList<>();
+
+    for (int i = 0; i < 16; i++) {
+      futures.add(
+          executor.submit(
+              () ->
+                  scheduler.execute(
+                      "limited",
+                      () -> {
+                        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                        try {
+                          Thread.sleep(10);
+                        } catch (InterruptedException e) {
+                          Thread.currentThread().interrupt();
+                        }
+                        inFlight.decrementAndGet();
+                        return null;
+                      })));
+    }
+
+    for (Future<Object> future : futures) {
+      future.get(10, TimeUnit.SECONDS);
+    }
+    executor.shutdown();
+
+    Assertions.assertEquals(2, maxInFlight.get());
+  }
+
+  @Test
+  void testAsyncRetryAfterTooManyRequests() throws Exception {
+    RequestScheduler scheduler =
+        RequestScheduler.builder()
+            .setInitialRate(40)
+            .setBackoff(1, 5, TimeUnit.MILLISECONDS)
+            .build();
+    AtomicInteger calls = new AtomicInteger();
+
+    CompletableFuture<String> result =
+        scheduler.executeAsync(
+            "test",
+            () ->
+                calls.incrementAndGet() <= 2
+                    ? CompletableFuture.failedFuture(
+                        new TooManyRequestsException("Too many requests", 0))
+                    : CompletableFuture.completedFuture("done"));
+
+    Assertions.assertEquals("done", result.get(10, TimeUnit.SECONDS));
+    Assertions.assertEquals(3, calls.get());
+    Assertions.assertTrue(scheduler.getRate() < 40);
+  }
+
+  @Test
+  void testAsyncNoRetryOnClientError() {
+    RequestScheduler scheduler = RequestScheduler.builder().build();
+    AtomicInteger calls = new AtomicInteger();
+
+    CompletableFuture<Object> result =
+        scheduler.executeAsync(
+            "test",
+            () -> {
+              calls.incrementAndGet();
+              return CompletableFuture.failedFuture(new BadRequestException("Bad request"));
+            });
+
+    ExecutionException e =
+        Assertions.assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+    Assertions.assertTrue(e.getCause() instanceof BadRequestException);
+    Assertions.assertEquals(1, calls.get());
+  }
+
+  @Test
+  void testAsyncCancellationFreesTheEndpoint() throws Exception {
+    RequestScheduler scheduler =
+        RequestScheduler.builder()
+            .setRateBounds(1, 1000)
+            .setInitialRate(1000)
+            .setBurst(1000)
+            .setEndpointConcurrency("limited", 2)
+            .build();
+    List<CompletableFuture<Object>> sent = new CopyOnWriteArrayList<>();
+    List<CompletableFuture<Object>> results = new ArrayList<>();
+
+    for (int i = 0; i < 3; i++) {
+      results.add(
+          scheduler.executeAsync(
+              "limited",
+              () -> {
+                CompletableFuture<Object> response = new CompletableFuture<>();
+                sent.add(response);
+                return response;
+              }));
+    }
+
+    Assertions.assertEquals(2, sent.size());
+
+    results.get(0).cancel(true);
+    Assertions.assertTrue(sent.get(0).isCancelled());
+    Assertions.assertEquals(3, sent.size());
+
+    sent.get(1).complete("second");
+    sent.get(2).complete("third");
+    Assertions.assertEquals("second", results.get(1).get(10, TimeUnit.SECONDS));
+    Assertions.assertEquals("third", results.get(2).get(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void testAsyncTimeoutCancelsTheRequest() throws Exception {
+    RequestScheduler scheduler = RequestScheduler.builder().build();
+    CompletableFuture<Object> response = new CompletableFuture<>();
+
+    CompletableFuture<Object> result =
+        scheduler.executeAsync("test", () -> response).orTimeout(50, TimeUnit.MILLISECONDS);
+
+    ExecutionException e =
+        Assertions.assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+    Assertions.assertTrue(e.getCause() instanceof TimeoutException);
+    // The request is cancelled by the timer thread, right after the result is completed
+    Assertions.assertThrows(CancellationException.class, () -> response.get(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void testManyAsyncRequestsOnFewThreads() throws Exception {
+    RequestScheduler scheduler =
+        RequestScheduler.builder()
+            .setRateBounds(1, 100000)
+            .setInitialRate(100000)
+            .setBurst(100000)
+            .setEndpointConcurrency(500)
+            .build();
+    List<CompletableFuture<Integer>> responses = new CopyOnWriteArrayList<>();
+    List<CompletableFuture<Integer>> results = new ArrayList<>();
+
+    for (int i = 0; i < 300; i++) {
+      results.add(
+          scheduler.executeAsync(
+              "test",
+              () -> {
+                CompletableFuture<Integer> response = new CompletableFuture<>();
+                responses.add(response);
+                return response;
+              }));
+    }
+
+    // All the requests are in flight at the same time, without any thread waiting for them
+    Assertions.assertEquals(300, responses.size());
+
+    for (int i = 0; i < responses.size(); i++) {
+      responses.get(i).complete(i);
+    }
+    for (int i = 0; i < results.size(); i++) {
+      Assertions.assertEquals(i, results.get(i).get(10, TimeUnit.SECONDS));
+    }
+  }
+}
@@ -0,0 +1,222 @@
+package it.utilities.spotify.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ResponseCacheTest {
+
+  @Test
+  void testConcurrentRequestsAreMerged() throws Exception {
+    ResponseCache cache = ResponseCache.builder().build();
+    CompletableFuture<String> response = new CompletableFuture<>();
+    AtomicInteger calls = new AtomicInteger();
+
+    CompletableFuture<String> first =
+        cache.getAsync(
+            "key",
+            value -> 1,
+            () -> {
+              calls.incrementAndGet();
+              return response;
+            });
+    CompletableFuture<String> second =
+        cache.getAsync(
+            "key",
+            value -> 1,
+            () -> {
+              calls.incrementAndGet();
+              return new CompletableFuture<>();
+            });
+
+    response.complete("value");
+
+    Assertions.assertEquals("value", first.get(10, TimeUnit.SECONDS));
+    Assertions.assertEquals("value", second.get(10, TimeUnit.SECONDS));
+    Assertions.assertEquals(1, calls.get());
+    Assertions.assertEquals(1, cache.getMissCount());
+    Assertions.assertEquals(1, cache.getCoalescedCount());
+
+    // Without a time to live the response is not kept
+    cache.getAsync("key", value -> 1, () -> CompletableFuture.completedFuture("again"));
+    Assertions.assertEquals(2, cache.getMissCount());
+    Assertions.assertEquals(0, cache.getHitCount());
+  }
+
+  @Test
+  void testBlockingRequestsAreMerged() throws Exception {
+    ResponseCache cache = ResponseCache.builder().build();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger calls = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    try {
+      List<Future<String>> results = new ArrayList<>();
+      results.add(
+          executor.submit(
+              () ->
+                  cache.get(
+                      "key",
+                      value -> 1,
+                      () -> {
+                        calls.incrementAndGet();
+                        started.countDown();
+                        try {
+                          release.await();
+                        } catch (InterruptedException e) {
+                          throw new IOException(e);
+                        }
+                        return "value";
+                      })));
+      started.await(10, TimeUnit.SECONDS);
+
+      for (int i = 0; i < 3; i++) {
+        results.add(
+            executor.submit(
+                () ->
+                    cache.get(
+                        "key",
+                        value -> 1,
+                        () -> {
+                          calls.incrementAndGet();
+                          return "other";
+                        })));
+      }
+
+      while (cache.getCoalescedCount() < 3) {
+        Thread.sleep(1);
+      }
+      release.countDown();
+
+      for (Future<String> result : results) {
+        Assertions.assertEquals("value", result.get(10, TimeUnit.SECONDS));
+      }
+      Assertions.assertEquals(1, calls.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void testResponsesExpire() throws Exception {
+    ResponseCache cache = ResponseCache.builder().setTtl(200, TimeUnit.MILLISECONDS).build();
+
+    Assertions.assertEquals("first", cache.get("key", value -> 1, () -> "first"));
+    Assertions.assertEquals("first", cache.get("key", value -> 1, () -> "second"));
+    Assertions.assertEquals(1, cache.getHitCount());
+
+    Thread.sleep(300);
+
+    Assertions.assertEquals("third", cache.get("key", value -> 1, () -> "third"));
+    Assertions.assertEquals(2, cache.getMissCount());
+
+    cache.invalidateAll();
+    Assertions.assertEquals("fourth", cache.get("key", value -> 1, () -> "fourth"));
+    Assertions.assertEquals(1, cache.getHitCount());
+  }
+
+  @Test
+  void testOnlyTheMatchingResponsesAreInvalidated() throws Exception {
+    ResponseCache cache = ResponseCache.builder().setTtl(1, TimeUnit.HOURS).build();
+
+    cache.get("first/1", value -> 2, () -> "first");
+    cache.get("second/1", value -> 3, () -> "second");
+
+    cache.invalidate(key -> key.startsWith("first/"));
+    Assertions.assertEquals(3, cache.getWeight());
+    Assertions.assertEquals("new", cache.get("first/1", value -> 2, () -> "new"));
+    Assertions.assertEquals("second", cache.get("second/1", value -> 3, () -> "new"));
+    Assertions.assertEquals(1, cache.getHitCount());
+  }
+
+  @Test
+  void testEveryCallerReceivesItsOwnCopy() throws Exception {
+    ResponseCache cache = ResponseCache.builder().setTtl(1, TimeUnit.HOURS).build();
+
+    String[] first = cache.get("key", value -> 1, String[]::clone, () -> new String[] {"value"});
+    first[0] = "changed";
+
+    String[] second = cache.get("key", value -> 1, String[]::clone, () -> new String[] {"new"});
+    Assertions.assertEquals(1, cache.getHitCount());
+    Assertions.assertNotSame(first, second);
+    Assertions.assertEquals("value", second[0]);
+  }
+
+  @Test
+  void testLeastRecentlyUsedAreEvicted() throws Exception {
+    ResponseCache cache =
+        ResponseCache.builder().setTtl(1, TimeUnit.HOURS).setMaxWeight(10).build();
+
+    cache.get("first", value -> 4, () -> "first");
+    cache.get("second", value -> 4, () -> "second");
+    cache.get("first", value -> 4, () -> "unused");
+    cache.get("third", value -> 4, () -> "third");
+
+    Assertions.assertEquals(1, cache.getEvictionCount());
+    Assertions.assertEquals(8, cache.getWeight());
+    Assertions.assertEquals("first", cache.get("first", value -> 4, () -> "new"));
+    Assertions.assertEquals("new", cache.get("second", value -> 4, () -> "new"));
+  }
+
+  @Test
+  void testErrorsAreNotKept() throws Exception {
+    ResponseCache cache = ResponseCache.builder().setTtl(1, TimeUnit.HOURS).build();
+
+    Assertions.assertThrows(
+        IOException.class,
+        () ->
+            cache.get(
+                "key",
+                value -> 1,
+                () -> {
+                  throw new IOException("error");
+                }));
+
+    ExecutionException e =
+        Assertions.assertThrows(
+            ExecutionException.class,
+            () ->
+                cache
+                    .getAsync(
+                        "async",
+                        value -> 1,
+                        () -> CompletableFuture.failedFuture(new IOException("error")))
+                    .get(10, TimeUnit.SECONDS));
+    Assertions.assertTrue(e.getCause() instanceof IOException);
+
+    Assertions.assertEquals("value", cache.get("key", value -> 1, () -> "value"));
+    Assertions.assertEquals(0, cache.getHitCount());
+    Assertions.assertEquals(3, cache.getMissCount());
+  }
+
+  @Test
+  void testCancelledOnlyWithoutWaiters() throws Exception {
+    ResponseCache cache = ResponseCache.builder().build();
+    CompletableFuture<String> response = new CompletableFuture<>();
+
+    CompletableFuture<String> first = cache.getAsync("key", value -> 1, () -> response);
+    CompletableFuture<String> second = cache.getAsync("key", value -> 1, () -> response);
+
+    first.cancel(true);
+    Assertions.assertFalse(response.isCancelled());
+
+    second.cancel(true);
+    Assertions.assertTrue(response.isCancelled());
+
+    // The cancelled call is not joined by the following requests
+    CompletableFuture<String> third =
+        cache.getAsync("key", value -> 1, () -> CompletableFuture.completedFuture("value"));
+    Assertions.assertEquals("value", third.get(10, TimeUnit.SECONDS));
+  }
+}
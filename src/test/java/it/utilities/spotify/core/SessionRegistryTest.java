@@ -0,0 +1,111 @@
+package it.utilities.spotify.core;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.wrapper.spotify.exceptions.detailed.BadRequestException;
+import com.wrapper.spotify.model_objects.credentials.AuthorizationCodeCredentials;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class SessionRegistryTest {
+
+  private final SessionRegistry sessions =
+      SessionRegistry.builder()
+          .setTick(10, TimeUnit.MILLISECONDS)
+          .setRefresh(0, 20, TimeUnit.MILLISECONDS)
+          .build();
+
+  @AfterEach
+  void close() {
+    this.sessions.close();
+  }
+
+  @Test
+  void testSessions() {
+    final SessionRegistry.Session curator =
+        this.sessions.open(
+            "curator",
+            SpotifyCredentials.empty()
+                .withClientId("client")
+                .withClientSecret("secret")
+                .withRefreshToken("refresh"));
+    final SessionRegistry.Session user =
+        this.sessions.register(SessionRegistry.DEFAULT_SESSION, mock(SpotifyApiWrapper.class));
+
+    Assertions.assertEquals(
+        "refresh", curator.getSpotifyApiWrapper().getCredentials().getRefreshToken());
+    Assertions.assertEquals(
+        List.of("curator", "default"),
+        this.sessions.getSessions().stream()
+            .map(SessionRegistry.Session::getName)
+            .collect(Collectors.toList()));
+    Assertions.assertSame(user, this.sessions.get(SessionRegistry.DEFAULT_SESSION).orElseThrow());
+    Assertions.assertThrows(
+        IllegalArgumentException.class,
+        () -> this.sessions.register("curator", mock(SpotifyApiWrapper.class)));
+
+    Assertions.assertTrue(this.sessions.remove("curator"));
+    Assertions.assertFalse(this.sessions.remove("curator"));
+    Assertions.assertTrue(this.sessions.get("curator").isEmpty());
+  }
+
+  @Test
+  void testRefreshBeforeExpiration() throws Exception {
+    final SpotifyApiWrapper spotifyApiWrapper = mock(SpotifyApiWrapper.class);
+    when(spotifyApiWrapper.authorizationCode())
+        .thenReturn(credentials("first", 1))
+        .thenReturn(credentials("second", 3600));
+    final SessionRegistry.Session session = this.sessions.register("curator", spotifyApiWrapper);
+
+    this.sessions.refresh(session);
+    Assertions.assertTrue(session.isRefreshScheduled());
+    Assertions.assertTrue(session.getExpiresAt() > System.currentTimeMillis());
+
+    // The token of the first refresh expires after a second
+    verify(spotifyApiWrapper, timeout(5000).times(2)).authorizationCode();
+    verify(spotifyApiWrapper, timeout(5000).times(2)).updateCredentials(any());
+    Assertions.assertNull(session.getRefreshError());
+    Assertions.assertTrue(
+        session.getExpiresAt() > System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(30));
+  }
+
+  @Test
+  void testRefreshErrors() throws Exception {
+    final SpotifyApiWrapper spotifyApiWrapper = mock(SpotifyApiWrapper.class);
+    when(spotifyApiWrapper.authorizationCode())
+        .thenThrow(new IOException("Network error"))
+        .thenReturn(credentials("token", 3600))
+        .thenThrow(new BadRequestException("invalid_grant"));
+    final SessionRegistry.Session session = this.sessions.register("curator", spotifyApiWrapper);
+
+    // The temporary errors are retried
+    this.sessions.scheduleRefresh(session, 0, TimeUnit.SECONDS);
+    verify(spotifyApiWrapper, timeout(5000).times(2)).authorizationCode();
+    verify(spotifyApiWrapper, timeout(5000)).updateCredentials(any());
+
+    // The refresh tokens that are not valid are not
+    this.sessions.scheduleRefresh(session, 0, TimeUnit.SECONDS);
+    verify(spotifyApiWrapper, timeout(5000).times(3)).authorizationCode();
+    TimeUnit.MILLISECONDS.sleep(100);
+    verify(spotifyApiWrapper, times(3)).authorizationCode();
+    Assertions.assertFalse(session.isRefreshScheduled());
+    Assertions.assertNotNull(session.getRefreshError());
+  }
+
+  private static AuthorizationCodeCredentials credentials(String accessToken, int expiresIn) {
+    return new AuthorizationCodeCredentials.Builder()
+        .setAccessToken(accessToken)
+        .setExpiresIn(expiresIn)
+        .build();
+  }
+}
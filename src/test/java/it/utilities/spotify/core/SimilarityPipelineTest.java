@@ -0,0 +1,128 @@
+package it.utilities.spotify.core;
+
+import com.wrapper.spotify.model_objects.specification.ArtistSimplified;
+import com.wrapper.spotify.model_objects.specification.ExternalId;
+import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import com.wrapper.spotify.model_objects.specification.Track;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class SimilarityPipelineTest {
+
+  @Test
+  void testExactIdStage() {
+    List<PlaylistTrack> tracks =
+        Arrays.asList(
+            track("a", "ISRC1", "Song"),
+            track("b", "ISRC1", "Canzone"),
+            track("a", "ISRC1", "Song"),
+            track("d", null, "Love Story"),
+            track(null, null, "Love Story"),
+            track("d", null, "Love Story"),
+            new PlaylistTrack.Builder().build());
+
+    final List<List<Integer>> matches = new ArrayList<>();
+    new ExactIdStage().findMatches(tracks, (first, second) -> matches.add(List.of(first, second)));
+
+    // The track with the same ID and ISRC of the first one is reported once
+    Assertions.assertEquals(List.of(List.of(0, 1), List.of(0, 2), List.of(3, 5)), matches);
+  }
+
+  @Test
+  void testKeyIndex() {
+    final ExactIdStage.KeyIndex index = new ExactIdStage.KeyIndex(100);
+
+    for (int i = 0; i < 100; i++) {
+      Assertions.assertEquals(-1, index.putIfAbsent("key" + i, i));
+    }
+    for (int i = 0; i < 100; i++) {
+      Assertions.assertEquals(i, index.putIfAbsent("key" + i, 100 + i));
+    }
+    // "Aa" and "BB" have the same hash
+    Assertions.assertEquals(-1, index.putIfAbsent("Aa", 0));
+    Assertions.assertEquals(-1, index.putIfAbsent("BB", 1));
+    Assertions.assertEquals(1, index.putIfAbsent("BB", 2));
+    Assertions.assertEquals(-1, index.putIfAbsent(null, 3));
+  }
+
+  @Test
+  void testLaterStagesOnlySeeOneTrackOfEveryGroup() {
+    List<PlaylistTrack> tracks =
+        Arrays.asList(
+            track("a", "ISRC1", "Song"),
+            track("b", "ISRC1", "Canzone"),
+            track("c", "ISRC2", "Song (Remastered 2011)"),
+            track("e", "ISRC3", "Love Story"),
+            track("a", "ISRC1", "Song"),
+            track("f", "ISRC4", "Love Me Do"),
+            track("f", "ISRC4", "Love Me Do"));
+
+    final List<Integer> compared = new ArrayList<>();
+    final MinHashSimilarityStage minHash = new MinHashSimilarityStage();
+    final SimilarityStage counted =
+        new SimilarityStage() {
+          @Override
+          public String getName() {
+            return minHash.getName();
+          }
+
+          @Override
+          public void findMatches(List<PlaylistTrack> subset, MatchConsumer matches) {
+            compared.add(subset.size());
+            minHash.findMatches(subset, matches);
+          }
+        };
+
+    final List<DuplicateGroup> groups =
+        SimilarityPipeline.withExactIds(counted)
+            .groups("playlist", tracks)
+            .collect(Collectors.toList());
+
+    Assertions.assertEquals(List.of(4), compared);
+    Assertions.assertEquals(2, groups.size());
+    Assertions.assertIterableEquals(List.of(0, 1, 2, 4), groups.get(0).getPositions());
+    Assertions.assertEquals(MinHashSimilarityStage.NAME, groups.get(0).getStage());
+    Assertions.assertIterableEquals(List.of(5, 6), groups.get(1).getPositions());
+    Assertions.assertEquals(ExactIdStage.NAME, groups.get(1).getStage());
+  }
+
+  @Test
+  void testSingleStage() {
+    List<PlaylistTrack> tracks =
+        Arrays.asList(
+            track("a", null, "Song"), track("b", null, "Song Live"), track("c", null, "Other"));
+
+    final List<DuplicateGroup> groups =
+        new SimilarityPipeline(new TitlePrefixStage())
+            .groups("playlist", tracks)
+            .collect(Collectors.toList());
+
+    Assertions.assertEquals(1, groups.size());
+    Assertions.assertIterableEquals(List.of(0, 1), groups.get(0).getPositions());
+    Assertions.assertEquals(TitlePrefixStage.NAME, groups.get(0).getStage());
+    Assertions.assertThrows(IllegalArgumentException.class, SimilarityPipeline::new);
+  }
+
+  private static PlaylistTrack track(String id, String isrc, String name) {
+    return new PlaylistTrack.Builder()
+        .setTrack(
+            new Track.Builder()
+                .setId(id)
+                .setName(name)
+                .setDurationMs(200000)
+                .setArtists(new ArtistSimplified.Builder().setId("artist").build())
+                .setExternalIds(
+                    new ExternalId.Builder()
+                        .setExternalIds(
+                            isrc != null ? Map.of("isrc", isrc) : Collections.emptyMap())
+                        .build())
+                .build())
+        .build();
+  }
+}
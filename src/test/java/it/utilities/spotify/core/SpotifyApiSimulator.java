@@ -0,0 +1,747 @@
+package it.utilities.spotify.core;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.wrapper.spotify.SpotifyApi;
+import com.wrapper.spotify.exceptions.SpotifyWebApiException;
+import com.wrapper.spotify.model_objects.specification.ArtistSimplified;
+import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import com.wrapper.spotify.model_objects.specification.Track;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.ParseException;
+
+/**
+ * Local stand-in of the Spotify Web API, used to exercise the HTTP, paging and token paths of the
+ * {@link SpotifyApiWrapper} without a network.<br>
+ * It serves the endpoints used by the utilities: the playlists of the current user, a single
+ * playlist, the pages of its items, the removal of items and the token endpoint of the accounts
+ * service. The playlists are generated by {@link SyntheticPlaylists} and every access token expires
+ * after the configured lifetime. Every request can wait a random latency and every request of the
+ * Web API can be refused with a <code>429 Too Many Requests</code>, at random or when the
+ * configured rate is exceeded.<br>
+ * The token requests are sent by the Spotify library to <code>accounts.spotify.com</code> whatever
+ * host is set on the {@link SpotifyApi.Builder}, so the {@link #httpManager()} of the simulator
+ * sends them to the simulator as well.
+ */
+final class SpotifyApiSimulator implements AutoCloseable {
+
+  static final String CLIENT_ID = "simulator-client";
+  static final String CLIENT_SECRET = "simulator-secret";
+  static final String REFRESH_TOKEN = "simulator-refresh";
+
+  private static final Pattern PLAYLIST = Pattern.compile("/v1/playlists/([^/]+)(/tracks)?");
+
+  private final Builder builder;
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final Map<String, Playlist> playlists = new ConcurrentHashMap<>();
+  private final List<String> playlistIds = new ArrayList<>();
+
+  /** The access tokens issued, with the nanos when they expire. */
+  private final Map<String, Long> accessTokens = new ConcurrentHashMap<>();
+
+  private final AtomicInteger tokenIds = new AtomicInteger();
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong tooManyRequests = new AtomicLong();
+  private final AtomicLong unauthorized = new AtomicLong();
+
+  // Token bucket of the rate limit, guarded by this
+  private double permits;
+  private long lastRefill = System.nanoTime();
+
+  private SpotifyApiSimulator(Builder builder) throws IOException {
+    this.builder = builder;
+    this.permits = builder.rateLimit;
+
+    for (int i = 0; i < builder.playlists; i++) {
+      final String id = "playlist" + i;
+      this.playlistIds.add(id);
+      this.playlists.put(id, new Playlist(id, i));
+    }
+
+    this.executor =
+        Executors.newFixedThreadPool(
+            builder.threads,
+            runnable -> {
+              final Thread thread = new Thread(runnable, "spotify-simulator");
+              thread.setDaemon(true);
+              return thread;
+            });
+    this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    this.server.createContext("/", this::handle);
+    this.server.setExecutor(this.executor);
+    this.server.start();
+  }
+
+  static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @return the base URI of the simulator, like <code>http://127.0.0.1:port</code>
+   */
+  URI getUri() {
+    final InetSocketAddress address = this.server.getAddress();
+    return URI.create("http://" + host() + ":" + address.getPort());
+  }
+
+  /**
+   * @return an HTTP manager that sends the requests of the accounts service to the simulator
+   */
+  JdkHttpManager httpManager() {
+    return new RedirectingHttpManager();
+  }
+
+  /**
+   * @return a builder pointed at the simulator, with the client credentials and the refresh token
+   *     it accepts but without an access token
+   */
+  SpotifyApi.Builder apiBuilder() {
+    return SpotifyApi.builder()
+        .setScheme("http")
+        .setHost(host())
+        .setPort(this.server.getAddress().getPort())
+        .setHttpManager(httpManager())
+        .setClientId(CLIENT_ID)
+        .setClientSecret(CLIENT_SECRET)
+        .setRefreshToken(REFRESH_TOKEN);
+  }
+
+  /**
+   * @param playListId the ID of a simulated playlist
+   * @return the current items of the playlist
+   * @throws IllegalArgumentException if there is no such playlist
+   */
+  List<PlaylistTrack> getTracks(String playListId) {
+    return playlist(playListId).tracks();
+  }
+
+  /**
+   * @return the number of requests received, including the refused ones
+   */
+  long getRequestCount() {
+    return this.requests.get();
+  }
+
+  /**
+   * @return the number of requests refused with a <code>429 Too Many Requests</code>
+   */
+  long getTooManyRequestsCount() {
+    return this.tooManyRequests.get();
+  }
+
+  /**
+   * @return the number of requests refused because their access token was missing or expired
+   */
+  long getUnauthorizedCount() {
+    return this.unauthorized.get();
+  }
+
+  /**
+   * @return the number of access tokens issued
+   */
+  int getTokenCount() {
+    return this.tokenIds.get();
+  }
+
+  @Override
+  public void close() {
+    this.server.stop(0);
+    this.executor.shutdownNow();
+  }
+
+  private String host() {
+    return this.server.getAddress().getAddress().getHostAddress();
+  }
+
+  private Playlist playlist(String playListId) {
+    final Playlist playlist = this.playlists.get(playListId);
+
+    if (playlist == null) {
+      throw new IllegalArgumentException("No simulated playlist " + playListId);
+    }
+
+    return playlist;
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      this.requests.incrementAndGet();
+      delay();
+
+      final String path = exchange.getRequestURI().getPath();
+      final String method = exchange.getRequestMethod();
+
+      // The accounts service is not subject to the rate limit of the Web API
+      if (path.equals("/api/token") && method.equals("POST")) {
+        token(exchange);
+        return;
+      }
+
+      if (isRateLimited()) {
+        this.tooManyRequests.incrementAndGet();
+        exchange
+            .getResponseHeaders()
+            .set("Retry-After", Integer.toString(this.builder.retryAfterSeconds));
+        respond(exchange, 429, apiError(429, "API rate limit exceeded"));
+        return;
+      }
+
+      if (!isAuthorized(exchange)) {
+        this.unauthorized.incrementAndGet();
+        respond(exchange, 401, apiError(401, "The access token expired"));
+        return;
+      }
+
+      final Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+      final Matcher playlist = PLAYLIST.matcher(path);
+
+      if (path.equals("/v1/me/playlists") && method.equals("GET")) {
+        respond(exchange, 200, playlistsPage(offset(query), limit(query, 50)));
+      } else if (playlist.matches() && this.playlists.containsKey(playlist.group(1))) {
+        final Playlist target = this.playlists.get(playlist.group(1));
+
+        if (playlist.group(2) == null && method.equals("GET")) {
+          respond(exchange, 200, target.json());
+        } else if (playlist.group(2) != null && method.equals("GET")) {
+          final int limit = limit(query, SpotifyApiWrapper.PLAYLIST_ITEMS_LIMIT);
+          respond(exchange, 200, target.itemsPage(offset(query), limit));
+        } else if (playlist.group(2) != null && method.equals("DELETE")) {
+          respond(exchange, 200, target.remove(JsonParser.parseString(body(exchange))));
+        } else {
+          respond(exchange, 405, apiError(405, "Method not allowed"));
+        }
+      } else if (playlist.matches()) {
+        respond(exchange, 404, apiError(404, "Not found."));
+      } else {
+        respond(exchange, 404, apiError(404, "Service not found"));
+      }
+    } catch (IllegalArgumentException | IllegalStateException e) {
+      respond(exchange, 400, apiError(400, e.getMessage()));
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /** Answer a request of the token endpoint of the accounts service. */
+  private void token(HttpExchange exchange) throws IOException {
+    final String basic =
+        "Basic "
+            + Base64.getEncoder()
+                .encodeToString((CLIENT_ID + ":" + CLIENT_SECRET).getBytes(StandardCharsets.UTF_8));
+    final Map<String, String> form = query(body(exchange));
+    final String grantType = form.get("grant_type");
+
+    if (!basic.equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+      respond(exchange, 400, tokenError("invalid_client", "Invalid client"));
+    } else if ("refresh_token".equals(grantType)
+        && !REFRESH_TOKEN.equals(form.get("refresh_token"))) {
+      respond(exchange, 400, tokenError("invalid_grant", "Invalid refresh token"));
+    } else if (!"refresh_token".equals(grantType) && !"authorization_code".equals(grantType)) {
+      respond(exchange, 400, tokenError("unsupported_grant_type", "Unsupported grant type"));
+    } else {
+      final String accessToken = "simulator-access-" + this.tokenIds.incrementAndGet();
+      this.accessTokens.put(
+          accessToken,
+          System.nanoTime() + TimeUnit.SECONDS.toNanos(this.builder.tokenLifetimeSeconds));
+
+      final StringWriter json = new StringWriter();
+      final JsonWriter writer = new JsonWriter(json);
+      writer.setSerializeNulls(false);
+      writer
+          .beginObject()
+          .name("access_token")
+          .value(accessToken)
+          .name("token_type")
+          .value("Bearer")
+          .name("scope")
+          .value("playlist-read-private playlist-modify-private")
+          .name("expires_in")
+          .value(this.builder.tokenLifetimeSeconds)
+          .name("refresh_token")
+          .value("authorization_code".equals(grantType) ? REFRESH_TOKEN : null)
+          .endObject();
+      respond(exchange, 200, json.toString());
+    }
+  }
+
+  private boolean isAuthorized(HttpExchange exchange) {
+    final String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+
+    if (authorization == null || !authorization.startsWith("Bearer ")) {
+      return false;
+    }
+
+    final Long expiresAt = this.accessTokens.get(authorization.substring("Bearer ".length()));
+    return expiresAt != null && expiresAt - System.nanoTime() > 0;
+  }
+
+  private void delay() {
+    final long min = this.builder.minLatencyNanos;
+    final long max = this.builder.maxLatencyNanos;
+    final long latency = max > min ? ThreadLocalRandom.current().nextLong(min, max + 1) : min;
+
+    if (latency > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(latency);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * @return true if the request is refused at random or because the rate limit is exceeded
+   */
+  private boolean isRateLimited() {
+    if (ThreadLocalRandom.current().nextDouble() < this.builder.tooManyRequestsRate) {
+      return true;
+    }
+
+    if (this.builder.rateLimit <= 0) {
+      return false;
+    }
+
+    synchronized (this) {
+      final long now = System.nanoTime();
+      this.permits =
+          Math.min(
+              this.builder.rateLimit,
+              this.permits + (now - this.lastRefill) * this.builder.rateLimit / 1e9);
+      this.lastRefill = now;
+
+      if (this.permits < 1) {
+        return true;
+      }
+
+      this.permits--;
+      return false;
+    }
+  }
+
+  private String playlistsPage(int offset, int limit) throws IOException {
+    final StringWriter json = new StringWriter();
+    final JsonWriter writer = new JsonWriter(json);
+    final int end = Math.min(this.playlistIds.size(), offset + limit);
+
+    writer.beginObject().name("href").value(getUri() + "/v1/me/playlists");
+    writer.name("items").beginArray();
+    for (int i = offset; i < end; i++) {
+      this.playlists.get(this.playlistIds.get(i)).write(writer);
+    }
+    writer.endArray();
+    writePaging(writer, offset, limit, this.playlistIds.size());
+
+    return json.toString();
+  }
+
+  private void writePaging(JsonWriter writer, int offset, int limit, int total) throws IOException {
+    writer
+        .name("limit")
+        .value(limit)
+        .name("next")
+        .nullValue()
+        .name("offset")
+        .value(offset)
+        .name("previous")
+        .nullValue()
+        .name("total")
+        .value(total)
+        .endObject();
+  }
+
+  private static int offset(Map<String, String> query) {
+    final int offset = Integer.parseInt(query.getOrDefault("offset", "0"));
+
+    if (offset < 0) {
+      throw new IllegalArgumentException("Invalid offset");
+    }
+
+    return offset;
+  }
+
+  private static int limit(Map<String, String> query, int max) {
+    final int limit = Integer.parseInt(query.getOrDefault("limit", "20"));
+
+    if (limit < 1 || limit > max) {
+      throw new IllegalArgumentException("Invalid limit");
+    }
+
+    return limit;
+  }
+
+  private static Map<String, String> query(String query) {
+    final Map<String, String> parameters = new HashMap<>();
+
+    if (query != null && !query.isEmpty()) {
+      for (String parameter : query.split("&")) {
+        final int equals = parameter.indexOf('=');
+        final String name = equals >= 0 ? parameter.substring(0, equals) : parameter;
+        final String value = equals >= 0 ? parameter.substring(equals + 1) : "";
+        parameters.put(
+            URLDecoder.decode(name, StandardCharsets.UTF_8),
+            URLDecoder.decode(value, StandardCharsets.UTF_8));
+      }
+    }
+
+    return parameters;
+  }
+
+  private static String body(HttpExchange exchange) throws IOException {
+    try (InputStream body = exchange.getRequestBody()) {
+      return new String(body.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  private static String apiError(int status, String message) {
+    final JsonObject error = new JsonObject();
+    error.addProperty("status", status);
+    error.addProperty("message", message);
+
+    final JsonObject json = new JsonObject();
+    json.add("error", error);
+    return json.toString();
+  }
+
+  private static String tokenError(String error, String description) {
+    final JsonObject json = new JsonObject();
+    json.addProperty("error", error);
+    json.addProperty("error_description", description);
+    return json.toString();
+  }
+
+  private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+    final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    exchange.getResponseBody().write(bytes);
+  }
+
+  /** A simulated playlist, whose items are generated when they are first requested. */
+  private final class Playlist {
+
+    private final String id;
+    private final int seed;
+
+    /** The items and the version of the snapshot, guarded by this. */
+    private List<PlaylistTrack> tracks;
+
+    private int version = 1;
+
+    private Playlist(String id, int seed) {
+      this.id = id;
+      this.seed = seed;
+    }
+
+    private synchronized List<PlaylistTrack> tracks() {
+      if (this.tracks == null) {
+        this.tracks = new ArrayList<>();
+
+        // The IDs are made unique across the playlists, as they are on Spotify
+        for (PlaylistTrack item : SyntheticPlaylists.tracks(builder.tracks, this.seed)) {
+          final Track track = (Track) item.getTrack();
+          final String trackId = this.id + track.getId();
+          this.tracks.add(
+              new PlaylistTrack.Builder()
+                  .setAddedAt(item.getAddedAt())
+                  .setIsLocal(false)
+                  .setTrack(
+                      new Track.Builder()
+                          .setId(trackId)
+                          .setUri("spotify:track:" + trackId)
+                          .setName(track.getName())
+                          .setArtists(track.getArtists())
+                          .setDurationMs(track.getDurationMs())
+                          .build())
+                  .build());
+        }
+      }
+
+      return List.copyOf(this.tracks);
+    }
+
+    private synchronized String snapshotId() {
+      return this.id + "-" + this.version;
+    }
+
+    private String json() throws IOException {
+      final StringWriter json = new StringWriter();
+      write(new JsonWriter(json));
+      return json.toString();
+    }
+
+    private void write(JsonWriter writer) throws IOException {
+      writer
+          .beginObject()
+          .name("collaborative")
+          .value(false)
+          .name("id")
+          .value(this.id)
+          .name("name")
+          .value("Playlist " + this.seed)
+          .name("public")
+          .value(false)
+          .name("snapshot_id")
+          .value(snapshotId())
+          .name("type")
+          .value("playlist")
+          .name("uri")
+          .value("spotify:playlist:" + this.id)
+          .endObject();
+    }
+
+    /**
+     * @return a page of items with the fields read by {@link PlaylistItemsParser}, whatever
+     *     projection is requested
+     */
+    private String itemsPage(int offset, int limit) throws IOException {
+      final List<PlaylistTrack> tracks = tracks();
+      final int end = Math.min(tracks.size(), offset + limit);
+      final StringWriter json = new StringWriter();
+      final JsonWriter writer = new JsonWriter(json);
+
+      writer.beginObject().name("href").value(getUri() + "/v1/playlists/" + this.id + "/tracks");
+      writer.name("items").beginArray();
+
+      for (PlaylistTrack item : tracks.subList(Math.min(offset, end), end)) {
+        final Track track = (Track) item.getTrack();
+
+        writer
+            .beginObject()
+            .name("added_at")
+            .value(Instant.ofEpochMilli(item.getAddedAt().getTime()).toString())
+            .name("is_local")
+            .value(false)
+            .name("track")
+            .beginObject()
+            .name("type")
+            .value("track")
+            .name("id")
+            .value(track.getId())
+            .name("uri")
+            .value(track.getUri())
+            .name("name")
+            .value(track.getName())
+            .name("duration_ms")
+            .value(track.getDurationMs());
+        writer.name("artists").beginArray();
+        for (ArtistSimplified artist : track.getArtists()) {
+          writer
+              .beginObject()
+              .name("id")
+              .value(artist.getId())
+              .name("name")
+              .value(artist.getName())
+              .endObject();
+        }
+        writer.endArray();
+        writer.endObject().endObject();
+      }
+
+      writer.endArray();
+      writePaging(writer, offset, limit, tracks.size());
+
+      return json.toString();
+    }
+
+    /** Remove the items at the given positions, as the removal endpoint of Spotify does. */
+    private synchronized String remove(JsonElement body) {
+      final JsonObject request = body.getAsJsonObject();
+
+      if (request.has("snapshot_id")
+          && !snapshotId().equals(request.get("snapshot_id").getAsString())) {
+        throw new IllegalStateException("The snapshot of the playlist changed");
+      }
+
+      final List<PlaylistTrack> tracks = new ArrayList<>(tracks());
+      final TreeSet<Integer> positions = new TreeSet<>();
+
+      for (JsonElement element : request.getAsJsonArray("tracks")) {
+        final JsonObject track = element.getAsJsonObject();
+        final String uri = track.get("uri").getAsString();
+
+        for (JsonElement position : track.getAsJsonArray("positions")) {
+          final int index = position.getAsInt();
+          if (index < 0
+              || index >= tracks.size()
+              || !uri.equals(tracks.get(index).getTrack().getUri())) {
+            throw new IllegalArgumentException("Could not remove tracks, please check parameters.");
+          }
+          positions.add(index);
+        }
+      }
+
+      for (int position : positions.descendingSet()) {
+        tracks.remove(position);
+      }
+      this.tracks = tracks;
+      this.version++;
+
+      final JsonObject json = new JsonObject();
+      json.addProperty("snapshot_id", snapshotId());
+      return json.toString();
+    }
+  }
+
+  /** HTTP manager that sends the requests for the accounts service to the simulator. */
+  private final class RedirectingHttpManager extends JdkHttpManager {
+
+    @Override
+    public String get(URI uri, Header[] headers)
+        throws IOException, SpotifyWebApiException, ParseException {
+      return super.get(redirect(uri), headers);
+    }
+
+    @Override
+    public CompletableFuture<String> getAsync(URI uri, Header[] headers) {
+      return super.getAsync(redirect(uri), headers);
+    }
+
+    @Override
+    public String post(URI uri, Header[] headers, HttpEntity body)
+        throws IOException, SpotifyWebApiException, ParseException {
+      return super.post(redirect(uri), headers, body);
+    }
+
+    @Override
+    public String put(URI uri, Header[] headers, HttpEntity body)
+        throws IOException, SpotifyWebApiException, ParseException {
+      return super.put(redirect(uri), headers, body);
+    }
+
+    @Override
+    public String delete(URI uri, Header[] headers, HttpEntity body)
+        throws IOException, SpotifyWebApiException, ParseException {
+      return super.delete(redirect(uri), headers, body);
+    }
+
+    private URI redirect(URI uri) {
+      if (!SpotifyApi.DEFAULT_AUTHENTICATION_HOST.equals(uri.getHost())) {
+        return uri;
+      }
+
+      return URI.create(
+          getUri() + uri.getRawPath() + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : ""));
+    }
+  }
+
+  static final class Builder {
+
+    private int playlists = 10;
+    private int tracks = 500;
+    private long minLatencyNanos;
+    private long maxLatencyNanos;
+    private double tooManyRequestsRate;
+    private double rateLimit;
+    private int retryAfterSeconds = 1;
+    private int tokenLifetimeSeconds = 3600;
+    private int threads = 32;
+
+    private Builder() {}
+
+    /**
+     * @param playlists the number of playlists of the user
+     * @param tracks the number of items of every playlist
+     */
+    Builder setPlaylists(int playlists, int tracks) {
+      this.playlists = playlists;
+      this.tracks = tracks;
+      return this;
+    }
+
+    /**
+     * @param min the minimum time waited before answering a request
+     * @param max the maximum time waited before answering a request
+     * @param unit the unit of the latencies
+     */
+    Builder setLatency(long min, long max, TimeUnit unit) {
+      this.minLatencyNanos = unit.toNanos(min);
+      this.maxLatencyNanos = Math.max(this.minLatencyNanos, unit.toNanos(max));
+      return this;
+    }
+
+    /**
+     * @param tooManyRequestsRate the fraction of the requests refused at random with a <code>429
+     *     </code>
+     */
+    Builder setTooManyRequestsRate(double tooManyRequestsRate) {
+      this.tooManyRequestsRate = tooManyRequestsRate;
+      return this;
+    }
+
+    /**
+     * @param rateLimit the requests per second accepted, the following ones are refused with a
+     *     <code>429</code>, or 0 for no limit
+     */
+    Builder setRateLimit(double rateLimit) {
+      this.rateLimit = rateLimit;
+      return this;
+    }
+
+    /**
+     * @param retryAfterSeconds the value of the <code>Retry-After</code> header of the refused
+     *     requests
+     */
+    Builder setRetryAfter(int retryAfterSeconds) {
+      this.retryAfterSeconds = retryAfterSeconds;
+      return this;
+    }
+
+    /**
+     * @param tokenLifetimeSeconds the seconds after which the access tokens expire
+     */
+    Builder setTokenLifetime(int tokenLifetimeSeconds) {
+      this.tokenLifetimeSeconds = tokenLifetimeSeconds;
+      return this;
+    }
+
+    /**
+     * @param threads the number of requests answered at the same time
+     */
+    Builder setThreads(int threads) {
+      this.threads = threads;
+      return this;
+    }
+
+    /**
+     * Start the simulator on a free port of the loopback address.
+     *
+     * @return the running simulator
+     * @throws IOException if the server cannot be started
+     */
+    SpotifyApiSimulator build() throws IOException {
+      return new SpotifyApiSimulator(this);
+    }
+  }
+}
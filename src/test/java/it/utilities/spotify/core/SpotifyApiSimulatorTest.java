@@ -0,0 +1,145 @@
+package it.utilities.spotify.core;
+
+import com.wrapper.spotify.exceptions.detailed.BadRequestException;
+import com.wrapper.spotify.exceptions.detailed.UnauthorizedException;
+import com.wrapper.spotify.model_objects.specification.PlaylistSimplified;
+import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class SpotifyApiSimulatorTest {
+
+  @Test
+  void testPagesThroughTheWrapper() throws Exception {
+    try (SpotifyApiSimulator simulator =
+            SpotifyApiSimulator.builder().setPlaylists(60, 250).build();
+        SessionRegistry sessions = SessionRegistry.builder().build()) {
+      final SpotifyApiWrapper wrapper = wrapper(simulator);
+
+      // A token that the simulator did not issue is refused
+      wrapper.updateCredentials(credentials -> credentials.withAccessToken("unknown"));
+      Assertions.assertThrows(
+          UnauthorizedException.class, () -> wrapper.getPlaylistSnapshotId("playlist0"));
+
+      sessions.refresh(sessions.register("simulated", wrapper));
+
+      final List<PlaylistSimplified> playlists =
+          wrapper.getAllCurrentUsersPlaylists().collect(Collectors.toList());
+      Assertions.assertEquals(60, playlists.size());
+      Assertions.assertEquals("playlist59", playlists.get(59).getId());
+
+      final List<PlaylistTrack> expected = simulator.getTracks("playlist7");
+      final List<PlaylistTrack> items =
+          wrapper.getAllPlaylistsItems("playlist7").collect(Collectors.toList());
+      Assertions.assertEquals(250, items.size());
+      for (int i = 0; i < items.size(); i++) {
+        Assertions.assertEquals(
+            expected.get(i).getTrack().getUri(), items.get(i).getTrack().getUri());
+        Assertions.assertEquals(
+            expected.get(i).getTrack().getName(), items.get(i).getTrack().getName());
+        Assertions.assertEquals(expected.get(i).getAddedAt(), items.get(i).getAddedAt());
+      }
+
+      // The removal changes the snapshot
+      final String snapshotId = wrapper.getPlaylistSnapshotId("playlist7");
+      final String removed =
+          wrapper.removePlaylistsItems(
+              "playlist7", List.of(items.get(3).getTrack().getUri()), List.of(3), snapshotId);
+      Assertions.assertNotEquals(snapshotId, removed);
+      Assertions.assertEquals(249, simulator.getTracks("playlist7").size());
+      Assertions.assertEquals(removed, wrapper.getPlaylistSnapshotId("playlist7"));
+    }
+  }
+
+  @Test
+  void testTooManyRequestsAreRetried() throws Exception {
+    try (SpotifyApiSimulator simulator =
+            SpotifyApiSimulator.builder()
+                .setPlaylists(3, 450)
+                .setTooManyRequestsRate(0.3)
+                .setRetryAfter(0)
+                .build();
+        SessionRegistry sessions = SessionRegistry.builder().build()) {
+      final Metrics metrics = new Metrics("simulator");
+      final SpotifyApiWrapper wrapper = wrapper(simulator, metrics);
+      sessions.refresh(sessions.register("simulated", wrapper));
+
+      for (int i = 0; i < 3; i++) {
+        Assertions.assertEquals(450, wrapper.getAllPlaylistsItems("playlist" + i).count());
+      }
+
+      Assertions.assertTrue(simulator.getTooManyRequestsCount() > 0);
+      Assertions.assertTrue(
+          metrics.getEndpoints().stream().mapToLong(Metrics.Endpoint::getTooManyRequests).sum()
+              > 0);
+    }
+  }
+
+  @Test
+  void testTokens() throws Exception {
+    try (SpotifyApiSimulator simulator =
+            SpotifyApiSimulator.builder().setPlaylists(1, 10).setTokenLifetime(1).build();
+        SessionRegistry sessions =
+            SessionRegistry.builder().setTick(50, TimeUnit.MILLISECONDS).build()) {
+      final SpotifyApiWrapper wrapper = wrapper(simulator);
+      final SessionRegistry.Session session = sessions.register("simulated", wrapper);
+      sessions.refresh(session);
+
+      // The token is refreshed before it expires, so the requests keep working
+      for (int i = 0; i < 4; i++) {
+        Assertions.assertEquals(10, wrapper.getAllPlaylistsItems("playlist0").count());
+        TimeUnit.MILLISECONDS.sleep(400);
+      }
+      Assertions.assertTrue(simulator.getTokenCount() >= 3);
+      Assertions.assertEquals(0, simulator.getUnauthorizedCount());
+
+      // A refresh token that is not valid is refused
+      wrapper.updateCredentials(credentials -> credentials.withRefreshToken("revoked"));
+      Assertions.assertThrows(BadRequestException.class, () -> sessions.refresh(session));
+    }
+  }
+
+  @Test
+  void testLoadDriver() throws Exception {
+    final LoadDriver.Options options = new LoadDriver.Options();
+    options.set("--accounts=3");
+    options.set("--playlists=4");
+    options.set("--tracks=150");
+    options.set("--scans=2");
+    options.set("--rate=1000");
+    options.set("--latency=0");
+    options.set("--max-latency=2");
+    options.set("--429-rate=0.05");
+    options.set("--retry-after=0");
+
+    final LoadDriver.Report report = LoadDriver.of(options).run();
+
+    Assertions.assertEquals(0, report.getFailures());
+    Assertions.assertEquals(3 * 2 * 4, report.getScans().getCount());
+    Assertions.assertEquals(3 * 2 * 4 * 150, report.getTracks());
+    Assertions.assertEquals(3, report.getTokens());
+    Assertions.assertTrue(report.getTracksPerSecond() > 0);
+    Assertions.assertThrows(IllegalArgumentException.class, () -> options.set("--unknown=1"));
+  }
+
+  private static SpotifyApiWrapper wrapper(SpotifyApiSimulator simulator) {
+    return wrapper(simulator, new Metrics("simulator"));
+  }
+
+  private static SpotifyApiWrapper wrapper(SpotifyApiSimulator simulator, Metrics metrics) {
+    return new SpotifyApiWrapper(
+        simulator.apiBuilder(),
+        SpotifyApiWrapper.DEFAULT_PAGE_CONCURRENCY,
+        RequestScheduler.builder()
+            .setInitialRate(1000)
+            .setRateBounds(1, 1000)
+            .setBurst(1000)
+            .setMaxRetries(20)
+            .setBackoff(1, 5, TimeUnit.MILLISECONDS)
+            .setMetrics(metrics)
+            .build());
+  }
+}
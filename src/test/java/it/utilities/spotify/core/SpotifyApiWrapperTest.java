@@ -0,0 +1,548 @@
+package it.utilities.spotify.core;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.endsWith;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpServer;
+import com.wrapper.spotify.IHttpManager;
+import com.wrapper.spotify.SpotifyApi;
+import com.wrapper.spotify.exceptions.SpotifyWebApiException;
+import com.wrapper.spotify.exceptions.detailed.InternalServerErrorException;
+import com.wrapper.spotify.exceptions.detailed.TooManyRequestsException;
+import com.wrapper.spotify.model_objects.specification.Paging;
+import com.wrapper.spotify.model_objects.specification.PlaylistSimplified;
+import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import it.utilities.spotify.core.RequestScheduler.SpotifyCall;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.hc.core5.http.ParseException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SpotifyApiWrapperTest {
+
+  @Test
+  void testCredentialsReadFromBuilderOnce() {
+    SpotifyApi.Builder builder =
+        SpotifyApi.builder().setClientId("client").setAccessToken("access");
+
+    SpotifyApiWrapper spotifyApiWrapper = new SpotifyApiWrapper(builder);
+    builder.setAccessToken("changed");
+
+    Assertions.assertEquals("client", spotifyApiWrapper.getCredentials().getClientId());
+    Assertions.assertEquals("access", spotifyApiWrapper.getCredentials().getAccessToken());
+  }
+
+  @Test
+  void testUpdateCredentials() {
+    SpotifyApiWrapper spotifyApiWrapper = new SpotifyApiWrapper();
+
+    SpotifyCredentials updated =
+        spotifyApiWrapper.updateCredentials(
+            credentials -> credentials.withAccessToken("access").withRefreshToken("refresh"));
+
+    Assertions.assertSame(updated, spotifyApiWrapper.getCredentials());
+    Assertions.assertEquals("access", updated.getAccessToken());
+    Assertions.assertEquals("refresh", updated.getRefreshToken());
+    Assertions.assertNull(updated.getClientId());
+  }
+
+  @Test
+  void testConcurrentUpdatesAreNotLost() throws InterruptedException {
+    final SpotifyApiWrapper spotifyApiWrapper = new SpotifyApiWrapper();
+    spotifyApiWrapper.updateCredentials(credentials -> credentials.withAccessToken(""));
+
+    final int updates = 200;
+    final ExecutorService executor = Executors.newFixedThreadPool(8);
+    final CountDownLatch done = new CountDownLatch(updates);
+
+    for (int i = 0; i < updates; i++) {
+      executor.execute(
+          () -> {
+            spotifyApiWrapper.updateCredentials(
+                credentials -> credentials.withAccessToken(credentials.getAccessToken() + "x"));
+            done.countDown();
+          });
+    }
+
+    Assertions.assertTrue(done.await(10, TimeUnit.SECONDS));
+    executor.shutdown();
+
+    Assertions.assertEquals(updates, spotifyApiWrapper.getCredentials().getAccessToken().length());
+  }
+
+  @Test
+  void testTooManyRequestsFromServerAreRetried()
+      throws IOException, ParseException, SpotifyWebApiException {
+    final AtomicInteger requests = new AtomicInteger();
+    final HttpServer server = startServer(requests, 2);
+
+    try {
+      SpotifyApiWrapper spotifyApiWrapper =
+          new SpotifyApiWrapper(
+              localBuilder(server),
+              1,
+              RequestScheduler.builder().setBackoff(1, 10, TimeUnit.MILLISECONDS).build());
+
+      Paging<PlaylistSimplified> playlists = spotifyApiWrapper.getListOfCurrentUsersPlaylists();
+
+      Assertions.assertEquals(0, playlists.getTotal());
+      Assertions.assertEquals(3, requests.get());
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  void testTooManyRequestsFromServerAfterRetries() throws IOException {
+    final AtomicInteger requests = new AtomicInteger();
+    final HttpServer server = startServer(requests, Integer.MAX_VALUE);
+
+    try {
+      SpotifyApiWrapper spotifyApiWrapper =
+          new SpotifyApiWrapper(
+              localBuilder(server),
+              1,
+              RequestScheduler.builder()
+                  .setMaxRetries(3)
+                  .setBackoff(1, 10, TimeUnit.MILLISECONDS)
+                  .build());
+
+      Assertions.assertThrows(
+          TooManyRequestsException.class, spotifyApiWrapper::getListOfCurrentUsersPlaylists);
+      Assertions.assertEquals(4, requests.get());
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  void testRequestsGoThroughTheProxy() throws IOException, ParseException, SpotifyWebApiException {
+    final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    final HttpServer proxy =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    final String credentials =
+        "Basic " + Base64.getEncoder().encodeToString("1234:5678".getBytes(StandardCharsets.UTF_8));
+
+    proxy.createContext(
+        "/",
+        exchange -> {
+          final byte[] body;
+
+          if (!credentials.equals(exchange.getRequestHeaders().getFirst("Proxy-Authorization"))) {
+            body = new byte[0];
+            exchange.getResponseHeaders().add("Proxy-Authenticate", "Basic realm=\"proxy\"");
+            exchange.sendResponseHeaders(407, -1);
+          } else {
+            requests.add(exchange.getRequestURI().toString());
+            body =
+                "{\"href\":\"\",\"items\":[],\"limit\":20,\"offset\":0,\"total\":0}"
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+          }
+
+          try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+          }
+        });
+    proxy.start();
+
+    try {
+      // The library keeps the credentials of the proxy as numbers
+      SpotifyApiWrapper spotifyApiWrapper =
+          new SpotifyApiWrapper(
+              SpotifyApi.builder()
+                  .setScheme("http")
+                  .setHost("api.spotify.invalid")
+                  .setPort(80)
+                  .setProxyUrl(proxy.getAddress().getHostString())
+                  .setProxyPort(proxy.getAddress().getPort())
+                  .setProxyUsername(1234)
+                  .setProxyPassword(5678)
+                  .setAccessToken("access"));
+
+      Assertions.assertEquals(0, spotifyApiWrapper.getListOfCurrentUsersPlaylists().getTotal());
+      Assertions.assertEquals(
+          List.of("http://api.spotify.invalid/v1/me/playlists"),
+          requests.stream().map(uri -> uri.replaceAll(":80/", "/")).collect(Collectors.toList()));
+    } finally {
+      proxy.stop(0);
+    }
+  }
+
+  @Test
+  void testProxyCredentialsNeedTheTunnelingProperty() {
+    Assumptions.assumeTrue(System.getProperty("jdk.http.auth.tunneling.disabledSchemes") == null);
+
+    final JdkHttpManager httpManager =
+        new JdkHttpManager(
+            JdkHttpManager.DEFAULT_CONNECT_TIMEOUT,
+            JdkHttpManager.DEFAULT_REQUEST_TIMEOUT,
+            "http://proxy.invalid:3128",
+            null,
+            "user",
+            "password");
+
+    // The JDK would not answer the challenge of the proxy, so nothing is sent
+    final IllegalStateException e =
+        Assertions.assertThrows(
+            IllegalStateException.class,
+            () -> httpManager.get(URI.create("https://api.spotify.invalid/v1/me"), null));
+    Assertions.assertTrue(e.getMessage().contains("jdk.http.auth.tunneling.disabledSchemes"));
+    Assertions.assertNull(System.getProperty("jdk.http.auth.tunneling.disabledSchemes"));
+  }
+
+  @Test
+  void testAuthorizationCodeIsNotRetried() throws Exception {
+    final IHttpManager httpManager = mock(IHttpManager.class);
+
+    // The token endpoint fails after consuming the code
+    when(httpManager.post(any(), any(), any()))
+        .thenThrow(new InternalServerErrorException("Server error"));
+
+    SpotifyApiWrapper spotifyApiWrapper =
+        new SpotifyApiWrapper(
+            SpotifyApi.builder()
+                .setHttpManager(httpManager)
+                .setClientId("client")
+                .setClientSecret("secret")
+                .setRedirectUri(URI.create("http://localhost/callback")),
+            1,
+            RequestScheduler.builder().setBackoff(1, 10, TimeUnit.MILLISECONDS).build());
+
+    Assertions.assertThrows(
+        InternalServerErrorException.class, () -> spotifyApiWrapper.authorizationCode("code"));
+    verify(httpManager, times(1)).post(any(), any(), any());
+  }
+
+  @Test
+  void testPlaylistItemsAreProjected() throws IOException, ParseException, SpotifyWebApiException {
+    final List<String> queries = Collections.synchronizedList(new ArrayList<>());
+    final HttpServer server =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+
+    server.createContext(
+        "/v1/playlists/playlist/tracks",
+        exchange -> {
+          queries.add(exchange.getRequestURI().getQuery());
+          final int offset =
+              exchange.getRequestURI().getQuery().contains("offset=0")
+                  ? 0
+                  : SpotifyApiWrapper.PLAYLIST_ITEMS_LIMIT;
+          final byte[] body =
+              ("{\"total\":101,\"items\":[{\"added_at\":\"2020-09-13T12:26:40Z\","
+                      + "\"track\":{\"id\":\"id"
+                      + offset
+                      + "\",\"name\":\"Song "
+                      + offset
+                      + "\"}}]}")
+                  .getBytes(StandardCharsets.UTF_8);
+          exchange.sendResponseHeaders(200, body.length);
+
+          try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+          }
+        });
+    server.start();
+
+    try {
+      SpotifyApiWrapper spotifyApiWrapper = new SpotifyApiWrapper(localBuilder(server), 1);
+
+      List<PlaylistTrack> items;
+      try (Stream<PlaylistTrack> stream = spotifyApiWrapper.getAllPlaylistsItems("playlist")) {
+        items = stream.collect(Collectors.toList());
+      }
+
+      Assertions.assertEquals(2, items.size());
+      Assertions.assertEquals("Song 0", items.get(0).getTrack().getName());
+      Assertions.assertEquals("Song 100", items.get(1).getTrack().getName());
+      Assertions.assertEquals(2, queries.size());
+
+      for (String query : queries) {
+        Assertions.assertTrue(query.contains("fields=" + PlaylistItemsParser.FIELDS), query);
+        Assertions.assertTrue(query.contains("limit=100"), query);
+      }
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  void testAllPlaylistItemsAsync() throws Exception {
+    final AtomicInteger requests = new AtomicInteger();
+    final HttpServer server =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+
+    server.createContext(
+        "/v1/playlists/playlist/tracks",
+        exchange -> {
+          requests.incrementAndGet();
+          final String query = exchange.getRequestURI().getQuery();
+          final int offset = Integer.parseInt(query.replaceAll(".*offset=(\\d+).*", "$1"));
+          final StringBuilder items = new StringBuilder();
+          for (int i = offset; i < Math.min(offset + 100, 450); i++) {
+            items
+                .append(items.length() > 0 ? "," : "")
+                .append("{\"track\":{\"name\":\"Song ")
+                .append(i)
+                .append("\"}}");
+          }
+          final byte[] body =
+              ("{\"total\":450,\"items\":[" + items + "]}").getBytes(StandardCharsets.UTF_8);
+          exchange.sendResponseHeaders(200, body.length);
+
+          try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+          }
+        });
+    server.setExecutor(Executors.newFixedThreadPool(4));
+    server.start();
+
+    try {
+      SpotifyApiWrapper spotifyApiWrapper = new SpotifyApiWrapper(localBuilder(server), 1);
+
+      List<PlaylistTrack> items =
+          spotifyApiWrapper.getAllPlaylistsItemsAsync("playlist").get(10, TimeUnit.SECONDS);
+
+      Assertions.assertEquals(450, items.size());
+      for (int i = 0; i < items.size(); i++) {
+        Assertions.assertEquals("Song " + i, items.get(i).getTrack().getName());
+      }
+      Assertions.assertEquals(5, requests.get());
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  void testCachedPagesAreNotReadForANewSnapshot(@TempDir Path directory) throws Exception {
+    final AtomicInteger version = new AtomicInteger(1);
+    final HttpServer server =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+
+    server.createContext(
+        "/v1/playlists/playlist",
+        exchange -> {
+          final byte[] body =
+              ("{\"snapshot_id\":\"snapshot" + version.get() + "\"}")
+                  .getBytes(StandardCharsets.UTF_8);
+          exchange.sendResponseHeaders(200, body.length);
+
+          try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+          }
+        });
+    server.createContext(
+        "/v1/playlists/playlist/tracks",
+        exchange -> {
+          final byte[] body =
+              ("{\"total\":1,\"items\":[{\"track\":{\"name\":\"Song " + version.get() + "\"}}]}")
+                  .getBytes(StandardCharsets.UTF_8);
+          exchange.sendResponseHeaders(200, body.length);
+
+          try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+          }
+        });
+    server.start();
+
+    try {
+      SpotifyApiWrapper spotifyApiWrapper = new SpotifyApiWrapper(localBuilder(server), 1);
+      // The stored snapshot IDs expire before the pages
+      ResponseCache responseCache = spy(ResponseCache.builder().setTtl(1, TimeUnit.HOURS).build());
+      doAnswer(invocation -> invocation.<SpotifyCall<?>>getArgument(2).execute())
+          .when(responseCache)
+          .get(endsWith("/snapshot_id"), any(), any(SpotifyCall.class));
+      spotifyApiWrapper.setResponseCache(responseCache);
+      spotifyApiWrapper.setSnapshotCache(new PlaylistSnapshotCache(directory, Long.MAX_VALUE));
+
+      try (Stream<PlaylistTrack> stream = spotifyApiWrapper.getAllPlaylistsItems("playlist")) {
+        Assertions.assertEquals("Song 1", stream.findFirst().get().getTrack().getName());
+      }
+
+      version.set(2);
+
+      try (Stream<PlaylistTrack> stream = spotifyApiWrapper.getAllPlaylistsItems("playlist")) {
+        Assertions.assertEquals("Song 2", stream.findFirst().get().getTrack().getName());
+      }
+      Assertions.assertEquals(
+          "Song 2",
+          spotifyApiWrapper
+              .getAllPlaylistsItemsAsync("playlist")
+              .get(10, TimeUnit.SECONDS)
+              .get(0)
+              .getTrack()
+              .getName());
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  void testAsyncRequestTimeout() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final HttpServer server =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+
+    server.createContext(
+        "/v1/me/playlists",
+        exchange -> {
+          try {
+            release.await(10, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          exchange.sendResponseHeaders(500, -1);
+          exchange.close();
+        });
+    server.start();
+
+    try {
+      SpotifyApiWrapper spotifyApiWrapper = new SpotifyApiWrapper(localBuilder(server), 1);
+
+      CompletableFuture<List<PlaylistSimplified>> playlists =
+          spotifyApiWrapper
+              .getAllCurrentUsersPlaylistsAsync()
+              .orTimeout(100, TimeUnit.MILLISECONDS);
+
+      ExecutionException e =
+          Assertions.assertThrows(
+              ExecutionException.class, () -> playlists.get(10, TimeUnit.SECONDS));
+      Assertions.assertTrue(e.getCause() instanceof TimeoutException);
+    } finally {
+      release.countDown();
+      server.stop(0);
+    }
+  }
+
+  @Test
+  void testRemovePlaylistItems() throws Exception {
+    final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    final HttpServer server =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+
+    server.createContext(
+        "/v1/playlists/playlist/tracks",
+        exchange -> {
+          requests.add(
+              exchange.getRequestMethod()
+                  + " "
+                  + new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+          final byte[] body = "{\"snapshot_id\":\"after\"}".getBytes(StandardCharsets.UTF_8);
+          exchange.sendResponseHeaders(200, body.length);
+
+          try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+          }
+        });
+    server.start();
+
+    try {
+      SpotifyApiWrapper spotifyApiWrapper = new SpotifyApiWrapper(localBuilder(server), 1);
+
+      String snapshotId =
+          spotifyApiWrapper.removePlaylistsItems(
+              "playlist",
+              Arrays.asList("spotify:track:a", "spotify:track:b", "spotify:track:a"),
+              Arrays.asList(7, 5, 2),
+              "before");
+
+      Assertions.assertEquals("after", snapshotId);
+      Assertions.assertEquals(1, requests.size());
+
+      final JsonObject body =
+          JsonParser.parseString(requests.get(0).substring("DELETE ".length())).getAsJsonObject();
+      Assertions.assertTrue(requests.get(0).startsWith("DELETE "));
+      Assertions.assertEquals("before", body.get("snapshot_id").getAsString());
+      Assertions.assertEquals(
+          JsonParser.parseString(
+              "[{\"uri\":\"spotify:track:a\",\"positions\":[7,2]},"
+                  + "{\"uri\":\"spotify:track:b\",\"positions\":[5]}]"),
+          body.get("tracks"));
+
+      Assertions.assertThrows(
+          IllegalArgumentException.class,
+          () ->
+              spotifyApiWrapper.removePlaylistsItems(
+                  "playlist",
+                  Collections.nCopies(101, "spotify:track:a"),
+                  Collections.nCopies(101, 0),
+                  "before"));
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  /**
+   * Start a server that answers to the playlists of the current user with <code>429</code> for the
+   * first <code>failures</code> requests and with an empty page after that.
+   */
+  private static HttpServer startServer(AtomicInteger requests, int failures) throws IOException {
+    HttpServer server =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+
+    server.createContext(
+        "/v1/me/playlists",
+        exchange -> {
+          final byte[] body;
+
+          if (requests.incrementAndGet() <= failures) {
+            body =
+                "{\"error\":{\"status\":429,\"message\":\"API rate limit exceeded\"}}"
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Retry-After", "0");
+            exchange.sendResponseHeaders(429, body.length);
+          } else {
+            body =
+                "{\"href\":\"\",\"items\":[],\"limit\":20,\"offset\":0,\"total\":0}"
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+          }
+
+          try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+          }
+        });
+    server.start();
+
+    return server;
+  }
+
+  private static SpotifyApi.Builder localBuilder(HttpServer server) {
+    return SpotifyApi.builder()
+        .setScheme("http")
+        .setHost(server.getAddress().getHostString())
+        .setPort(server.getAddress().getPort())
+        .setAccessToken("access");
+  }
+}
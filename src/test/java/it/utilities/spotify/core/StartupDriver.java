@@ -0,0 +1,284 @@
+package it.utilities.spotify.core;
+
+import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Benchmark of the time to first result of a one-shot command, like the ones of the cron jobs.<br>
+ * Every run starts a new JVM with the program in batch mode, which checks the duplicates of a
+ * synthetic library export, so no network is involved, and measures the time from the start of the
+ * process to the first group written and to the exit. The JVMs run headless, as in a container.
+ * <br>
+ * With <code>--archive</code> the driver also builds an application class-data-sharing archive: a
+ * training run records the classes loaded by the command, the archive is dumped from them, and the
+ * runs with the default JDK archive alternate with the runs with the application archive.<br>
+ * Run it with <code>mvn -P startup verify</code>, which starts the program from its jar, as
+ * required by the archive, and writes the archive to <code>target/app-cds.jsa</code>. The options
+ * are listed by <code>--help</code>.
+ */
+public final class StartupDriver {
+
+  private static final String MAIN_CLASS = "it.utilities.spotify.cli.CommandLineHandler";
+
+  private final Options options;
+
+  private StartupDriver(Options options) {
+    this.options = options;
+  }
+
+  public static void main(String[] args) throws Exception {
+    final Options options = new Options();
+
+    for (String arg : args) {
+      if (arg.equals("--help")) {
+        Options.usage(System.out);
+        return;
+      }
+      options.set(arg);
+    }
+
+    new StartupDriver(options).run(System.out);
+  }
+
+  /**
+   * Write the library, build the archive if requested and measure the runs.
+   *
+   * @param out the destination of the results
+   * @throws IOException if a process cannot be started or it fails
+   * @throws InterruptedException if the thread is interrupted while a process runs
+   */
+  void run(PrintStream out) throws IOException, InterruptedException {
+    final Path directory = Files.createTempDirectory("startup-driver");
+    final Path library = writeLibrary(directory.resolve("library.bin"));
+    final List<Variant> variants = new ArrayList<>();
+
+    variants.add(new Variant("default", List.of()));
+    if (!this.options.archive.isEmpty()) {
+      dumpArchive(directory, library);
+      variants.add(
+          new Variant("app-cds", List.of("-XX:SharedArchiveFile=" + this.options.archive)));
+    }
+
+    // A run of every variant warms up the file system cache
+    for (Variant variant : variants) {
+      launch(variant.jvmArgs, directory, library, new LatencyHistogram(), new LatencyHistogram());
+    }
+
+    // The variants alternate, so a slower machine slows all of them down in the same way
+    for (int run = 0; run < this.options.runs; run++) {
+      for (Variant variant : variants) {
+        launch(variant.jvmArgs, directory, library, variant.firstResult, variant.exit);
+      }
+    }
+
+    out.printf(
+        Locale.ROOT,
+        "%d runs of library-duplicate-elements on %d playlists of %d tracks%n",
+        this.options.runs,
+        this.options.playlists,
+        this.options.tracks);
+    for (Variant variant : variants) {
+      out.printf(
+          Locale.ROOT,
+          "%-10s first result p50 %.1f ms, p90 %.1f ms, max %.1f ms; exit p50 %.1f ms, p90 %.1f ms%n",
+          variant.name,
+          variant.firstResult.getPercentileMillis(50),
+          variant.firstResult.getPercentileMillis(90),
+          variant.firstResult.getMaxMillis(),
+          variant.exit.getPercentileMillis(50),
+          variant.exit.getPercentileMillis(90));
+    }
+  }
+
+  private Path writeLibrary(Path path) throws IOException {
+    final LibraryFile.Writer writer = LibraryFile.writer(path);
+
+    for (int playlist = 0; playlist < this.options.playlists; playlist++) {
+      final TrackTable tracks = new TrackTable();
+      int position = 0;
+
+      for (PlaylistTrack track : SyntheticPlaylists.tracks(this.options.tracks, playlist)) {
+        tracks.append(track, position++);
+      }
+      writer.append("playlist" + playlist, "Playlist " + playlist, "snapshot", tracks);
+    }
+    writer.commit();
+
+    return path;
+  }
+
+  /** Record the classes loaded by a run of the command and dump the archive of them. */
+  private void dumpArchive(Path directory, Path library) throws IOException, InterruptedException {
+    final Path classList = directory.resolve("classes.lst");
+
+    launch(
+        List.of("-XX:DumpLoadedClassList=" + classList),
+        directory,
+        library,
+        new LatencyHistogram(),
+        new LatencyHistogram());
+
+    final Process dump =
+        new ProcessBuilder(
+                java(),
+                "-Xshare:dump",
+                "-XX:SharedClassListFile=" + classList,
+                "-XX:SharedArchiveFile=" + this.options.archive,
+                "-cp",
+                this.options.classpath)
+            .redirectErrorStream(true)
+            .redirectOutput(directory.resolve("dump.log").toFile())
+            .start();
+
+    if (dump.waitFor() != 0) {
+      throw new IOException(
+          "Unable to dump the archive, the classpath must only contain jars: "
+              + String.join("\n", Files.readAllLines(directory.resolve("dump.log"))));
+    }
+  }
+
+  /**
+   * Run the command in a new JVM.
+   *
+   * @param jvmArgs the options of the JVM
+   * @param directory the home directory of the program
+   * @param library the library export to check
+   * @param firstResult the histogram of the time to the first group
+   * @param exit the histogram of the time to the exit
+   * @throws IOException if the process cannot be started or it fails
+   * @throws InterruptedException if the thread is interrupted while the process runs
+   */
+  private void launch(
+      List<String> jvmArgs,
+      Path directory,
+      Path library,
+      LatencyHistogram firstResult,
+      LatencyHistogram exit)
+      throws IOException, InterruptedException {
+    final List<String> command = new ArrayList<>();
+    command.add(java());
+    command.addAll(jvmArgs);
+    command.addAll(this.options.jvmArgs);
+    // The playlist cache of the program must not touch the home of the user
+    command.add("-Duser.home=" + directory);
+    command.add("-Djava.awt.headless=true");
+    command.add("-cp");
+    command.add(this.options.classpath);
+    command.add(MAIN_CLASS);
+    command.add("-c");
+    command.add("library-duplicate-elements " + library);
+
+    final long start = System.nanoTime();
+    final Process process =
+        new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    long firstResultNanos = -1;
+
+    try (BufferedReader reader =
+        new BufferedReader(
+            new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        if (firstResultNanos < 0 && line.startsWith("{\"type\":\"group\"")) {
+          firstResultNanos = System.nanoTime() - start;
+        }
+      }
+    }
+
+    final int exitCode = process.waitFor();
+    final long exitNanos = System.nanoTime() - start;
+
+    if (exitCode != 0 || firstResultNanos < 0) {
+      throw new IOException(
+          "The command ended with the exit code " + exitCode + " and without duplicates");
+    }
+
+    firstResult.record(firstResultNanos);
+    exit.record(exitNanos);
+  }
+
+  private static String java() {
+    return Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+  }
+
+  /** The JVM options and the measures of a way of starting the program. */
+  private static final class Variant {
+
+    private final String name;
+    private final List<String> jvmArgs;
+    private final LatencyHistogram firstResult = new LatencyHistogram();
+    private final LatencyHistogram exit = new LatencyHistogram();
+
+    private Variant(String name, List<String> jvmArgs) {
+      this.name = name;
+      this.jvmArgs = jvmArgs;
+    }
+  }
+
+  /** The options of the benchmark, set with <code>--name=value</code> arguments. */
+  static final class Options {
+
+    int runs = 10;
+    int playlists = 20;
+    int tracks = 1000;
+    String classpath = System.getProperty("java.class.path");
+    String archive = "";
+    List<String> jvmArgs = List.of();
+
+    /**
+     * @param arg an argument like <code>--runs=20</code>
+     * @throws IllegalArgumentException if the option does not exist or its value is not valid
+     */
+    void set(String arg) {
+      final int equals = arg.indexOf('=');
+
+      if (!arg.startsWith("--") || equals < 0) {
+        throw new IllegalArgumentException("Options are like --name=value, not " + arg);
+      }
+
+      final String value = arg.substring(equals + 1);
+
+      switch (arg.substring(2, equals)) {
+        case "runs":
+          this.runs = Integer.parseInt(value);
+          break;
+        case "playlists":
+          this.playlists = Integer.parseInt(value);
+          break;
+        case "tracks":
+          this.tracks = Integer.parseInt(value);
+          break;
+        case "classpath":
+          this.classpath = value;
+          break;
+        case "archive":
+          this.archive = value.isEmpty() ? "" : new File(value).getAbsolutePath();
+          break;
+        case "jvm-args":
+          this.jvmArgs = value.isBlank() ? List.of() : Arrays.asList(value.trim().split("\\s+"));
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown option " + arg);
+      }
+    }
+
+    static void usage(PrintStream out) {
+      out.println("--runs=N          measured runs of every variant (10)");
+      out.println("--playlists=N     playlists of the library export (20)");
+      out.println("--tracks=N        items of every playlist (1000)");
+      out.println("--classpath=CP    classpath of the program, only jars to build the archive");
+      out.println("--archive=FILE    build the application class-data-sharing archive and use it");
+      out.println("--jvm-args=ARGS   other options of the JVMs, separated by spaces");
+    }
+  }
+}
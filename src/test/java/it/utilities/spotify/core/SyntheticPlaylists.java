@@ -0,0 +1,235 @@
+package it.utilities.spotify.core;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.wrapper.spotify.model_objects.specification.ArtistSimplified;
+import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import com.wrapper.spotify.model_objects.specification.Track;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generator of playlists with a realistic distribution of the titles, used by the benchmarks and by
+ * the {@link SpotifyApiSimulator}.<br>
+ * The first word of the titles follows a Zipf distribution, so a few words like "love" start many
+ * titles, while the other words are drawn from a larger vocabulary. About 3% of the tracks are
+ * other versions of an earlier track: the same title with a different case, or with a suffix like
+ * <code>- Remastered 2011</code> or <code>(Live)</code>.
+ */
+final class SyntheticPlaylists {
+
+  private static final int VOCABULARY_SIZE = 20000;
+  private static final int FIRST_WORDS = 2000;
+  private static final int ARTISTS = 5000;
+  private static final double DUPLICATE_RATIO = 0.03;
+
+  private static final String[] SYLLABLES = {
+    "la", "ve", "mo", "ri", "ta", "ne", "so", "ka", "lu", "de", "mi", "ro", "sa", "ti", "no", "be"
+  };
+  private static final String[] VERSIONS = {
+    "", " - Remastered 2011", " (Live)", " - Radio Edit", " (feat. Someone)", " - Acoustic"
+  };
+
+  private SyntheticPlaylists() {}
+
+  /**
+   * @param size the number of tracks
+   * @param seed the seed of the random generator, the same seed generates the same tracks
+   * @return the tracks of the playlist
+   */
+  static List<PlaylistTrack> tracks(int size, long seed) {
+    final Random random = new Random(seed);
+    final String[] vocabulary = vocabulary(random);
+    final double[] zipf = zipf(FIRST_WORDS);
+    final List<PlaylistTrack> tracks = new ArrayList<>(size);
+
+    for (int i = 0; i < size; i++) {
+      final Track track;
+
+      if (i > 0 && random.nextDouble() < DUPLICATE_RATIO) {
+        final Track original = (Track) tracks.get(random.nextInt(i)).getTrack();
+        final String name = original.getName() + VERSIONS[random.nextInt(VERSIONS.length)];
+
+        track =
+            new Track.Builder()
+                .setId("duplicate" + i)
+                .setUri("spotify:track:duplicate" + i)
+                .setName(random.nextBoolean() ? name : name.toUpperCase(Locale.ROOT))
+                .setArtists(original.getArtists())
+                .setDurationMs(original.getDurationMs() + random.nextInt(4000) - 2000)
+                .build();
+      } else {
+        track =
+            new Track.Builder()
+                .setId("track" + i)
+                .setUri("spotify:track:track" + i)
+                .setName(title(random, vocabulary, zipf))
+                .setArtists(
+                    new ArtistSimplified.Builder()
+                        .setId("artist" + random.nextInt(ARTISTS))
+                        .setName("Artist")
+                        .build())
+                .setDurationMs(120000 + random.nextInt(240000))
+                .build();
+      }
+
+      tracks.add(
+          new PlaylistTrack.Builder()
+              .setAddedAt(new Date(1600000000000L + i * 60000L))
+              .setIsLocal(false)
+              .setTrack(track)
+              .build());
+    }
+
+    return tracks;
+  }
+
+  /**
+   * @param size the number of tracks
+   * @param seed the seed of the random generator
+   * @return the titles of the tracks of a playlist generated by {@link #tracks(int, long)}
+   */
+  static String[] titles(int size, long seed) {
+    return tracks(size, seed).stream()
+        .map(track -> track.getTrack().getName())
+        .toArray(String[]::new);
+  }
+
+  /**
+   * Build a page of playlist items in the JSON format returned by Spotify.
+   *
+   * @param tracks the items of the page
+   * @param offset the position of the first item
+   * @param total the number of items of the playlist
+   * @return the JSON of the page
+   */
+  static String pageJson(List<PlaylistTrack> tracks, int offset, int total) {
+    final JsonArray items = new JsonArray();
+
+    for (PlaylistTrack playlistTrack : tracks) {
+      final Track track = (Track) playlistTrack.getTrack();
+
+      final JsonObject artist = new JsonObject();
+      artist.addProperty("id", track.getArtists()[0].getId());
+      artist.addProperty("name", track.getArtists()[0].getName());
+      artist.addProperty("type", "artist");
+      artist.addProperty("uri", "spotify:artist:" + track.getArtists()[0].getId());
+      final JsonArray artists = new JsonArray();
+      artists.add(artist);
+
+      final JsonObject album = new JsonObject();
+      album.addProperty("album_type", "album");
+      album.addProperty("id", "album" + track.getId());
+      album.addProperty("name", "Album of " + track.getName());
+      album.addProperty("release_date", "2011-01-01");
+      album.addProperty("release_date_precision", "day");
+      album.addProperty("type", "album");
+      album.addProperty("uri", "spotify:album:album" + track.getId());
+      album.add("artists", artists);
+      album.add("images", new JsonArray());
+
+      final JsonObject externalIds = new JsonObject();
+      externalIds.addProperty("isrc", "ISRC" + track.getId());
+
+      final JsonObject trackJson = new JsonObject();
+      trackJson.add("album", album);
+      trackJson.add("artists", artists);
+      trackJson.add("available_markets", new JsonArray());
+      trackJson.addProperty("disc_number", 1);
+      trackJson.addProperty("duration_ms", track.getDurationMs());
+      trackJson.addProperty("explicit", false);
+      trackJson.add("external_ids", externalIds);
+      trackJson.addProperty("href", "https://api.spotify.com/v1/tracks/" + track.getId());
+      trackJson.addProperty("id", track.getId());
+      trackJson.addProperty("is_local", false);
+      trackJson.addProperty("name", track.getName());
+      trackJson.addProperty("popularity", 50);
+      trackJson.addProperty("preview_url", (String) null);
+      trackJson.addProperty("track_number", 1);
+      trackJson.addProperty("type", "track");
+      trackJson.addProperty("uri", track.getUri());
+
+      final JsonObject item = new JsonObject();
+      item.addProperty("added_at", "2020-09-13T12:26:40Z");
+      item.addProperty("is_local", false);
+      item.add("track", trackJson);
+      items.add(item);
+    }
+
+    final JsonObject page = new JsonObject();
+    page.addProperty("href", "https://api.spotify.com/v1/playlists/playlist/tracks");
+    page.add("items", items);
+    page.addProperty("limit", SpotifyApiWrapper.PLAYLIST_ITEMS_LIMIT);
+    page.addProperty("next", (String) null);
+    page.addProperty("offset", offset);
+    page.addProperty("previous", (String) null);
+    page.addProperty("total", total);
+
+    return page.toString();
+  }
+
+  /**
+   * @return a wrapper that returns the given tracks for every playlist, without any request
+   */
+  static SpotifyApiWrapper wrapper(List<PlaylistTrack> tracks) {
+    return new SpotifyApiWrapper() {
+      @Override
+      public java.util.stream.Stream<PlaylistTrack> getAllPlaylistsItems(String playListId) {
+        return tracks.stream();
+      }
+    };
+  }
+
+  private static String title(Random random, String[] vocabulary, double[] zipf) {
+    int index = Arrays.binarySearch(zipf, random.nextDouble());
+    index = index >= 0 ? index : -index - 1;
+
+    final StringBuilder title = new StringBuilder(capitalize(vocabulary[index]));
+    // Between 2 and 6 words, the shorter titles are the most common
+    final int words = 2 + (int) Math.min(4, -Math.log(1 - random.nextDouble()) * 1.2);
+
+    for (int w = 1; w < words; w++) {
+      title.append(' ').append(vocabulary[random.nextInt(vocabulary.length)]);
+    }
+
+    return title.toString();
+  }
+
+  private static String[] vocabulary(Random random) {
+    final String[] vocabulary = new String[VOCABULARY_SIZE];
+
+    for (int i = 0; i < vocabulary.length; i++) {
+      final StringBuilder word = new StringBuilder();
+      for (int s = 1 + random.nextInt(3); s >= 0; s--) {
+        word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+      }
+      vocabulary[i] = word.toString();
+    }
+
+    return vocabulary;
+  }
+
+  /** The cumulative distribution of a Zipf distribution with exponent 1. */
+  private static double[] zipf(int size) {
+    final double[] cumulative = new double[size];
+    double sum = 0;
+
+    for (int i = 0; i < size; i++) {
+      sum += 1.0 / (i + 1);
+      cumulative[i] = sum;
+    }
+    for (int i = 0; i < size; i++) {
+      cumulative[i] /= sum;
+    }
+
+    return cumulative;
+  }
+
+  private static String capitalize(String word) {
+    return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+  }
+}
@@ -0,0 +1,93 @@
+package it.utilities.spotify.core;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class TimerWheelTest {
+
+  @Test
+  void testTasksRunInDeadlineOrder() throws Exception {
+    final List<Integer> order = new CopyOnWriteArrayList<>();
+    final CountDownLatch done = new CountDownLatch(3);
+    final long start = System.nanoTime();
+    final long[] ranAfter = new long[3];
+
+    // The wheel turns every 40 milliseconds, the last task waits for more than two turns
+    try (TimerWheel timer = new TimerWheel(10, TimeUnit.MILLISECONDS, 4, "test-timer")) {
+      final int[] delays = {100, 0, 30};
+      for (int i = 0; i < delays.length; i++) {
+        final int task = i;
+        timer.schedule(
+            () -> {
+              ranAfter[task] = System.nanoTime() - start;
+              order.add(task);
+              done.countDown();
+            },
+            delays[i],
+            TimeUnit.MILLISECONDS);
+      }
+
+      Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+      Assertions.assertEquals(List.of(1, 2, 0), order);
+      Assertions.assertTrue(ranAfter[0] >= TimeUnit.MILLISECONDS.toNanos(100));
+      Assertions.assertTrue(ranAfter[2] >= TimeUnit.MILLISECONDS.toNanos(30));
+    }
+  }
+
+  @Test
+  void testCancel() throws Exception {
+    final CountDownLatch cancelledRan = new CountDownLatch(1);
+    final CountDownLatch ran = new CountDownLatch(1);
+
+    try (TimerWheel timer = new TimerWheel(5, TimeUnit.MILLISECONDS, 8, "test-timer")) {
+      final TimerWheel.Timeout cancelled =
+          timer.schedule(cancelledRan::countDown, 20, TimeUnit.MILLISECONDS);
+      final TimerWheel.Timeout timeout = timer.schedule(ran::countDown, 40, TimeUnit.MILLISECONDS);
+
+      Assertions.assertTrue(cancelled.cancel());
+      Assertions.assertFalse(cancelled.cancel());
+
+      Assertions.assertTrue(ran.await(5, TimeUnit.SECONDS));
+      Assertions.assertFalse(cancelledRan.await(0, TimeUnit.MILLISECONDS));
+      // A task that already ran cannot be cancelled
+      Assertions.assertTrue(timeout.isDone());
+      Assertions.assertFalse(timeout.cancel());
+    }
+  }
+
+  @Test
+  void testThreadStartsWithTheFirstTask() throws Exception {
+    final CountDownLatch ran = new CountDownLatch(1);
+
+    try (TimerWheel timer = new TimerWheel(5, TimeUnit.MILLISECONDS, 8, "lazy-test-timer")) {
+      Assertions.assertFalse(isRunning("lazy-test-timer"));
+
+      // A task scheduled long after the creation of the wheel still waits for its delay
+      TimeUnit.MILLISECONDS.sleep(50);
+      final long start = System.nanoTime();
+      timer.schedule(ran::countDown, 30, TimeUnit.MILLISECONDS);
+
+      Assertions.assertTrue(isRunning("lazy-test-timer"));
+      Assertions.assertTrue(ran.await(5, TimeUnit.SECONDS));
+      Assertions.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30));
+    }
+  }
+
+  @Test
+  void testClose() {
+    final TimerWheel timer = new TimerWheel(1, TimeUnit.SECONDS, 8, "test-timer");
+    timer.close();
+
+    Assertions.assertThrows(
+        IllegalStateException.class, () -> timer.schedule(() -> {}, 1, TimeUnit.SECONDS));
+  }
+
+  private static boolean isRunning(String name) {
+    return Thread.getAllStackTraces().keySet().stream()
+        .anyMatch(thread -> thread.getName().equals(name));
+  }
+}
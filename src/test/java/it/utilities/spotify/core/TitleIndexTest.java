@@ -0,0 +1,228 @@
+package it.utilities.spotify.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class TitleIndexTest {
+
+  @Test
+  void testGetMatchesAfterSameAsPairwiseComparison() {
+    final String[] words = {"give", "GIVE", "me", "Me", "-", "another", "way", "ı", "I", ""};
+    final Random random = new Random(42);
+
+    for (int round = 0; round < 50; round++) {
+      final String[] titles = new String[random.nextInt(40) + 1];
+
+      for (int i = 0; i < titles.length; i++) {
+        final StringBuilder title = new StringBuilder();
+        final int length = random.nextInt(4);
+
+        for (int w = 0; w < length; w++) {
+          title.append(words[random.nextInt(words.length)]);
+          title.append(random.nextInt(5) == 0 ? "  " : " ");
+        }
+
+        titles[i] = random.nextBoolean() ? title.toString().trim() : title.toString();
+      }
+
+      final TitleIndex index = new TitleIndex(titles);
+
+      for (int i = 0; i < titles.length; i++) {
+        final List<Integer> expected = new ArrayList<>();
+        for (int j = i + 1; j < titles.length; j++) {
+          if (compareSongTitle(titles[i], titles[j])) {
+            expected.add(j);
+          }
+        }
+
+        Assertions.assertArrayEquals(
+            expected.stream().mapToInt(Integer::intValue).toArray(),
+            index.getMatchesAfter(i),
+            "Titles: " + Arrays.toString(titles) + ", index: " + i);
+      }
+    }
+  }
+
+  @Test
+  void testGroupsAfterAdditionsAndRemovals() {
+    final String[] words = {"give", "GIVE", "me", "Me", "-", "another", "way", ""};
+    final Random random = new Random(7);
+    final TitleIndex index = new TitleIndex();
+    final Map<Integer, String> titles = new HashMap<>();
+
+    for (int round = 0; round < 500; round++) {
+      final Map<Integer, String> before = new HashMap<>(titles);
+      final Set<Integer> changed = new HashSet<>();
+      index.clearChanges();
+
+      if (!titles.isEmpty() && random.nextInt(5) < 2) {
+        final List<Integer> positions = new ArrayList<>(titles.keySet());
+        final int removed = positions.get(random.nextInt(positions.size()));
+        index.remove(removed);
+        titles.remove(removed);
+        changed.addAll(expectedGroups(before).get(removed));
+      } else {
+        final StringBuilder title = new StringBuilder();
+        for (int w = random.nextInt(3); w >= 0; w--) {
+          title.append(words[random.nextInt(words.length)]).append(' ');
+        }
+        final int added = index.add(title.toString().trim());
+        titles.put(added, title.toString().trim());
+        changed.add(added);
+      }
+
+      Assertions.assertEquals(titles.size(), index.size());
+
+      final Map<Integer, List<Integer>> groups = expectedGroups(titles);
+      final Set<List<Integer>> expected = new HashSet<>();
+      final Set<List<Integer>> expectedChanged = new HashSet<>();
+      for (int position : titles.keySet()) {
+        final List<Integer> group = groups.get(position);
+        if (group.size() >= 2) {
+          expected.add(group);
+          if (changed.contains(position)) {
+            expectedChanged.add(group);
+          }
+        }
+      }
+
+      Assertions.assertEquals(expected, toSet(index.groups(2)));
+
+      // The lazy walk finds every group once, from its first title
+      final List<int[]> walked = new ArrayList<>();
+      index
+          .groups(titles.keySet().stream().sorted().mapToInt(Integer::intValue).toArray(), 2)
+          .forEachRemaining(walked::add);
+      Assertions.assertEquals(expected, toSet(walked));
+      for (int i = 1; i < walked.size(); i++) {
+        Assertions.assertTrue(walked.get(i - 1)[0] < walked.get(i)[0]);
+      }
+
+      // Only the groups with the added title, or with the titles grouped with the removed one
+      Assertions.assertEquals(expectedChanged, toSet(index.changedGroups(2)));
+    }
+  }
+
+  @Test
+  void testMergeSameAsSingleIndex() {
+    final String[] words = {"give", "GIVE", "me", "Me", "-", "another", "way", ""};
+    final Random random = new Random(11);
+
+    for (int round = 0; round < 50; round++) {
+      final String[] titles = new String[random.nextInt(30)];
+      for (int i = 0; i < titles.length; i++) {
+        final StringBuilder title = new StringBuilder();
+        for (int w = random.nextInt(3); w >= 0; w--) {
+          title.append(words[random.nextInt(words.length)]).append(' ');
+        }
+        titles[i] = title.toString().trim();
+      }
+
+      final int split = titles.length > 0 ? random.nextInt(titles.length + 1) : 0;
+      final TitleIndex merged = new TitleIndex(Arrays.copyOfRange(titles, 0, split));
+      final TitleIndex other = new TitleIndex(Arrays.copyOfRange(titles, split, titles.length));
+
+      Assertions.assertEquals(split, merged.merge(other));
+      Assertions.assertEquals(titles.length, merged.size());
+      Assertions.assertEquals(
+          toSet(new TitleIndex(titles).groups(2)),
+          toSet(merged.groups(2)),
+          "Titles: " + Arrays.toString(titles) + ", split: " + split);
+
+      // The merged index can still be updated
+      if (titles.length > 0) {
+        merged.remove(titles.length - 1);
+        Assertions.assertEquals(titles.length - 1, merged.add("Give me"));
+      }
+    }
+  }
+
+  @Test
+  void testRemoveMissingTitle() {
+    final TitleIndex index = new TitleIndex(new String[] {"Give me"});
+    index.remove(0);
+
+    Assertions.assertThrows(IllegalArgumentException.class, () -> index.remove(0));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> index.remove(5));
+  }
+
+  @Test
+  void testNullTitle() {
+    Assertions.assertThrows(
+        NullPointerException.class, () -> new TitleIndex(new String[] {"Give me", null}));
+  }
+
+  /** For every title, the titles linked to it by a chain of matching titles, in ascending order. */
+  private static Map<Integer, List<Integer>> expectedGroups(Map<Integer, String> titles) {
+    final Map<Integer, List<Integer>> groups = new HashMap<>();
+
+    for (int position : titles.keySet()) {
+      if (groups.containsKey(position)) {
+        continue;
+      }
+
+      final List<Integer> group = new ArrayList<>();
+      final Deque<Integer> pending = new ArrayDeque<>();
+      pending.push(position);
+      groups.put(position, group);
+
+      while (!pending.isEmpty()) {
+        final int current = pending.pop();
+        group.add(current);
+
+        for (Map.Entry<Integer, String> other : titles.entrySet()) {
+          if (!groups.containsKey(other.getKey())
+              && compareSongTitle(titles.get(current), other.getValue())) {
+            groups.put(other.getKey(), group);
+            pending.push(other.getKey());
+          }
+        }
+      }
+
+      Collections.sort(group);
+    }
+
+    return groups;
+  }
+
+  private static Set<List<Integer>> toSet(List<int[]> groups) {
+    final Set<List<Integer>> set = new HashSet<>();
+    for (int[] group : groups) {
+      final List<Integer> list = new ArrayList<>();
+      for (int position : group) {
+        list.add(position);
+      }
+      set.add(list);
+    }
+    return set;
+  }
+
+  /** The pairwise comparison used before the index was introduced. */
+  static boolean compareSongTitle(String firstName, String secondName) {
+    if (firstName.equalsIgnoreCase(secondName)) {
+      return true;
+    }
+
+    String[] firstWords = firstName.split("\\s+");
+    String[] secondWords = secondName.split("\\s+");
+
+    for (int i = 0; i < Math.min(firstWords.length, secondWords.length); i++) {
+      if (!firstWords[i].equalsIgnoreCase(secondWords[i])) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+}
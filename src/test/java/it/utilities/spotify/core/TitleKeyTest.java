@@ -0,0 +1,93 @@
+package it.utilities.spotify.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class TitleKeyTest {
+
+  @Test
+  void testNormalizeSplitsLikeRegex() {
+    final String[] titles = {"", " ", "  ", "a", " a", "a ", " a  b ", "\tGive\nME", "ß Straße"};
+
+    for (String title : titles) {
+      final List<String> expected = new ArrayList<>();
+      for (String word : title.split("\\s+")) {
+        expected.add(fold(word));
+      }
+
+      final TitleKey key = TitleKey.of(title);
+      Assertions.assertEquals(expected, key.words(), "Title: \"" + title + "\"");
+      for (int word = 0; word < key.size(); word++) {
+        Assertions.assertEquals(expected.get(word).hashCode(), key.wordHash(word));
+      }
+    }
+  }
+
+  @Test
+  void testMatchesSameAsPairwiseComparison() {
+    final String[] words = {"give", "GIVE", "me", "Me", "-", "another", "way", "ı", "I", "İ", ""};
+    final Random random = new Random(3);
+
+    for (int round = 0; round < 2000; round++) {
+      final String first = title(words, random);
+      final String second = title(words, random);
+      final TitleKey firstKey = TitleKey.of(first);
+      final TitleKey secondKey = TitleKey.of(second);
+      final String message = "Titles: \"" + first + "\", \"" + second + "\"";
+
+      Assertions.assertEquals(
+          TitleIndexTest.compareSongTitle(first, second), firstKey.matches(secondKey), message);
+      Assertions.assertEquals(
+          firstKey.words().equals(secondKey.words()), firstKey.equals(secondKey), message);
+      if (firstKey.equals(secondKey)) {
+        Assertions.assertEquals(firstKey.hashCode(), secondKey.hashCode(), message);
+      }
+    }
+  }
+
+  @Test
+  void testCacheByTrackId() {
+    final TitleKeyCache keys = new TitleKeyCache(2);
+    final TitleKey key = keys.get("1", "Give me");
+
+    Assertions.assertSame(key, keys.get("1", "Give me"));
+    Assertions.assertSame(key, keys.get("1", new String("Give me")));
+
+    // A track whose title changed gets a new key
+    final TitleKey renamed = keys.get("1", "Give me - Radio edit");
+    Assertions.assertNotSame(key, renamed);
+    Assertions.assertTrue(renamed.startsWith(key));
+
+    // The tracks without an ID are not cached
+    Assertions.assertNotSame(keys.get(null, "Give me"), keys.get(null, "Give me"));
+    Assertions.assertEquals(1, keys.size());
+
+    // A full cache is emptied
+    keys.get("2", "Another way");
+    keys.get("3", "Another");
+    Assertions.assertEquals(1, keys.size());
+    Assertions.assertThrows(NullPointerException.class, () -> keys.get("4", null));
+  }
+
+  private static String title(String[] words, Random random) {
+    final StringBuilder title = new StringBuilder();
+
+    for (int w = random.nextInt(4); w > 0; w--) {
+      title.append(random.nextInt(5) == 0 ? "\t " : " ");
+      title.append(words[random.nextInt(words.length)]);
+    }
+
+    return random.nextBoolean() ? title.toString().trim() : title.toString();
+  }
+
+  private static String fold(String word) {
+    final StringBuilder folded = new StringBuilder();
+    for (char c : word.toCharArray()) {
+      folded.append(Character.toLowerCase(Character.toUpperCase(c)));
+    }
+    return folded.toString();
+  }
+}
@@ -0,0 +1,149 @@
+package it.utilities.spotify.core;
+
+import com.wrapper.spotify.model_objects.specification.ArtistSimplified;
+import com.wrapper.spotify.model_objects.specification.Episode;
+import com.wrapper.spotify.model_objects.specification.ExternalId;
+import com.wrapper.spotify.model_objects.specification.PlaylistTrack;
+import com.wrapper.spotify.model_objects.specification.Track;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class TrackTableTest {
+
+  @Test
+  void testRoundTrip() {
+    TrackTable table = new TrackTable();
+
+    PlaylistTrack track =
+        new PlaylistTrack.Builder()
+            .setAddedAt(new Date(1600000000000L))
+            .setIsLocal(false)
+            .setTrack(
+                new Track.Builder()
+                    .setId("track")
+                    .setUri("spotify:track:track")
+                    .setName("Song")
+                    .setDurationMs(180000)
+                    .setArtists(
+                        new ArtistSimplified.Builder().setId("first").setName("First").build(),
+                        new ArtistSimplified.Builder().setId("second").setName("Second").build())
+                    .setExternalIds(
+                        new ExternalId.Builder().setExternalIds(Map.of("isrc", "ISRC")).build())
+                    .build())
+            .build();
+    PlaylistTrack local =
+        new PlaylistTrack.Builder()
+            .setIsLocal(true)
+            .setTrack(
+                new Track.Builder().setUri("spotify:local:::Local:200").setName("Local").build())
+            .build();
+    PlaylistTrack episode =
+        new PlaylistTrack.Builder()
+            .setTrack(
+                new Episode.Builder()
+                    .setId("episode")
+                    .setUri("spotify:episode:episode")
+                    .setName("Episode")
+                    .build())
+            .build();
+    PlaylistTrack withoutUri =
+        new PlaylistTrack.Builder().setTrack(new Track.Builder().setId("id").build()).build();
+
+    table.append(track, 0);
+    table.append(local, 1);
+    table.append(episode, 2);
+    table.append(new PlaylistTrack.Builder().build(), 3);
+    table.append(null, 4);
+    table.append(withoutUri, 5);
+
+    Assertions.assertEquals(6, table.size());
+
+    Track readTrack = (Track) table.get(0).getTrack();
+    Assertions.assertEquals(track.getAddedAt(), table.get(0).getAddedAt());
+    Assertions.assertFalse(table.get(0).getIsLocal());
+    Assertions.assertEquals("track", readTrack.getId());
+    Assertions.assertEquals("spotify:track:track", readTrack.getUri());
+    Assertions.assertEquals("Song", readTrack.getName());
+    Assertions.assertEquals(180000, readTrack.getDurationMs());
+    Assertions.assertEquals(2, readTrack.getArtists().length);
+    Assertions.assertEquals("second", readTrack.getArtists()[1].getId());
+    Assertions.assertEquals("Second", readTrack.getArtists()[1].getName());
+    Assertions.assertEquals("ISRC", readTrack.getExternalIds().getExternalIds().get("isrc"));
+
+    Assertions.assertTrue(table.get(1).getIsLocal());
+    Assertions.assertNull(table.get(1).getTrack().getId());
+    Assertions.assertEquals("spotify:local:::Local:200", table.uri(1));
+    Assertions.assertEquals(0, ((Track) table.get(1).getTrack()).getArtists().length);
+
+    Assertions.assertTrue(table.get(2).getTrack() instanceof Episode);
+    Assertions.assertEquals("spotify:episode:episode", table.get(2).getTrack().getUri());
+    Assertions.assertNull(table.get(2).getTrack().getDurationMs());
+    Assertions.assertEquals(Long.MIN_VALUE, table.addedAt(2));
+
+    Assertions.assertFalse(table.hasItem(3));
+    Assertions.assertNull(table.get(3).getTrack());
+    Assertions.assertFalse(table.hasItem(4));
+    Assertions.assertNull(table.get(4).getIsLocal());
+
+    Assertions.assertNull(table.uri(5));
+    Assertions.assertNull(table.name(5));
+
+    Assertions.assertThrows(IndexOutOfBoundsException.class, () -> table.get(6));
+  }
+
+  @Test
+  void testSharedPool() {
+    StringPool strings = new StringPool();
+    TrackTable first = new TrackTable(strings);
+    TrackTable second = new TrackTable(strings);
+
+    first.append(track("id", "Song", "artist"), 0);
+    second.append(track(new String("id"), new String("Song"), new String("artist")), 0);
+
+    Assertions.assertSame(first.name(0), second.name(0));
+    Assertions.assertSame(
+        ((Track) first.get(0).getTrack()).getArtists()[0].getId(),
+        ((Track) second.get(0).getTrack()).getArtists()[0].getId());
+    Assertions.assertEquals(3, strings.size());
+  }
+
+  @Test
+  void testAppendTable() {
+    TrackTable first = new TrackTable();
+    TrackTable second = new TrackTable();
+
+    for (int i = 0; i < 20; i++) {
+      first.append(track("first" + i, "First " + i, "artist" + i), i);
+      second.append(track("second" + i, "Second " + i, "other" + i), i * 2);
+    }
+
+    Assertions.assertEquals(20, first.append(second));
+    Assertions.assertEquals(40, first.size());
+
+    List<PlaylistTrack> tracks = first.toList();
+    Assertions.assertEquals(40, tracks.size());
+    Assertions.assertEquals("First 19", tracks.get(19).getTrack().getName());
+    Assertions.assertEquals("Second 5", tracks.get(25).getTrack().getName());
+    Assertions.assertEquals(10, first.position(25));
+    Assertions.assertEquals("other5", ((Track) tracks.get(25).getTrack()).getArtists()[0].getId());
+    Assertions.assertEquals("spotify:track:second5", first.uri(25));
+
+    first.trimToSize();
+    Assertions.assertEquals("Second 19", first.name(39));
+  }
+
+  private static PlaylistTrack track(String id, String name, String artistId) {
+    return new PlaylistTrack.Builder()
+        .setTrack(
+            new Track.Builder()
+                .setId(id)
+                .setUri("spotify:track:" + id)
+                .setName(name)
+                .setArtists(new ArtistSimplified.Builder().setId(artistId).build())
+                .build())
+        .build();
+  }
+}